@@ -21,25 +21,74 @@
 
 package com.emc.xcelerator.activities;
 
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
 import com.documentum.fc.client.DfSingleDocbaseModule;
 import com.documentum.fc.client.IDfModule;
 import com.documentum.fc.client.IDfSession;
 import com.documentum.fc.common.DfException;
 import com.documentum.fc.common.DfLogger;
-import com.emc.xcelerator.activities.generatenumbers.GeneratedNumberFormat;
-import com.emc.xcelerator.activities.generatenumbers.OutOfTransactionDecoratorSequenceGenerator;
-import com.emc.xcelerator.activities.generatenumbers.RetrySequenceGenerator;
-import com.emc.xcelerator.activities.generatenumbers.SequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.BulkIdFormatter;
+import com.emc.xcelerator.activities.generatenumbers.FormattedIds;
+import com.emc.xcelerator.activities.generatenumbers.GaplessReservation;
+import com.emc.xcelerator.activities.generatenumbers.GaplessSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.GeneratedIdSupplier;
+import com.emc.xcelerator.activities.generatenumbers.GeneratedIdTemplate;
+import com.emc.xcelerator.activities.generatenumbers.GenerationAttempts;
+import com.emc.xcelerator.activities.generatenumbers.GenerationPriority;
+import com.emc.xcelerator.activities.generatenumbers.MultiSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.NumberRange;
+import com.emc.xcelerator.activities.generatenumbers.NumberSequenceAdministration;
+import com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorConfiguration;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorFactory;
 import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorFailedException;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorPipeline;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorWarmup;
 import com.emc.xcelerator.activities.generatenumbers.SequenceObjectNotFoundException;
+import com.emc.xcelerator.activities.generatenumbers.SequenceRequest;
+import com.emc.xcelerator.activities.generatenumbers.workload.WorkloadRecorder;
 
 /**
  * The implementation part of the GenerateNumber module.
  * 
+ * The sequence generator pipeline is assembled once, when the module is
+ * loaded, and shared by all instances of the module. BOF creates a new module
+ * instance per lookup, whereas the module class loader lives as long as the
+ * deployed module, so caches, leases and statistics are kept there.
+ * 
  * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
  */
 public class GenerateNumberImpl extends DfSingleDocbaseModule implements IDfModule {
 
+	private static final int	DEFAULT_ADMIN_BATCH_SIZE	= 100;
+	private static final String	ERR_INT_OVERFLOW			= "The number {1} generated in the sequence ''{0}'' does not fit into an int, use generateRawNumber or generateRawNumbers.";
+
+	/**
+	 * Lazily assembles the pipeline the first time the module is created.
+	 */
+	private static class PipelineHolder {
+		static final SequenceGeneratorPipeline	PIPELINE	= new SequenceGeneratorPipeline(new SequenceGeneratorFactory(),
+																	SequenceGeneratorConfiguration.load());
+		static final SequenceGeneratorWarmup	WARMUP		= new SequenceGeneratorWarmup(PIPELINE);
+		static final WorkloadRecorder			RECORDER	= WorkloadRecorder.open(PIPELINE.getConfiguration());
+	}
+
+	/**
+	 * Creates a new GenerateNumberImpl, the first instance warms up the format
+	 * patterns of the sequences listed in the configuration and schedules the
+	 * warm-up of the sequences themselves for when it has received its session
+	 * manager.
+	 */
+	public GenerateNumberImpl() {
+		getWarmup().warmUpFormats();
+		getWarmup().scheduleSequenceWarmup(this);
+	}
+
 	/**
 	 * @see com.emc.xcelerator.activities.GenerateNumber#generateNumber(java.lang.String,
 	 *      java.lang.String, java.lang.String[], java.lang.String[])
@@ -50,19 +99,229 @@ public class GenerateNumberImpl extends DfSingleDocbaseModule implements IDfModu
 					new Object[] { GenerateNumberImpl.class.getPackage().getImplementationVersion() }, null);			
 		}
 		
+		final WorkloadRecorder recorder = getRecorder();
+		long start = 0;
+		if (recorder != null) {
+			start = recorder.start();
+			GenerationAttempts.reset();
+		}
+		Throwable error = null;
+		try {
+			final NumberRange range = reserveNumbers(numberSequenceName, 1);
+			return GeneratedIdTemplate.compile(range.getPrefix(), format, prefix, suffix).apply(range.getFirst());
+		} catch (final DfException e) {
+			error = e;
+			throw new RuntimeException(e);
+		} catch (final RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			if (recorder != null) {
+				recorder.record(start, numberSequenceName, format, 1, error, GenerationAttempts.last());
+			}
+		}
+	}
+
+	/**
+	 * Generates count consecutive numbers in a number sequence at once. The
+	 * numbers are reserved with a single update of the number sequence, at
+	 * bulk priority, and formatted in parallel.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence.
+	 * @param count
+	 *            The number of ids to generate.
+	 * @param format
+	 *            The format pattern, may be null.
+	 * @param prefix
+	 *            The strings preceding each number, may be null.
+	 * @param suffix
+	 *            The strings following each number, may be null.
+	 * @return The ids, in sequence order.
+	 * @throws IllegalArgumentException
+	 *             if count is less than 1.
+	 */
+	public String[] generateNumbers(final String numberSequenceName, final int count, final String format,
+			final String[] prefix, final String[] suffix) {
+		checkCount(count);
+		final GenerationPriority previous = GenerationPriority.set(GenerationPriority.BULK);
+		try {
+			final NumberRange range = reserveNumbers(numberSequenceName, count);
+			final FormattedIds ids = new BulkIdFormatter().format(range, format, prefix, suffix);
+			final String[] result = new String[ids.size()];
+			for (int i = 0; i < result.length; ++i) {
+				result[i] = ids.get(i);
+			}
+			return result;
+		} catch (final DfException e) {
+			throw new RuntimeException(e);
+		} finally {
+			GenerationPriority.set(previous);
+		}
+	}
+
+	/**
+	 * Rejects a count which would move the number sequence backwards, before
+	 * anything is reserved.
+	 * 
+	 * @param count
+	 *            The number of ids requested.
+	 */
+	private static void checkCount(final int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("count must be positive: " + count);
+		}
+	}
+
+	/**
+	 * Generates ids in several number sequences at once, e.g. the case, folder
+	 * and barcode ids of a new case. The counts of requests for the same
+	 * sequence are added up into a single reservation. When the pipeline
+	 * supports it, all sequences are read with a single query and each is
+	 * updated once; otherwise they are reserved one after the other. Either
+	 * way the sequences are processed in the order of their names.
+	 * 
+	 * @param requests
+	 *            The requests.
+	 * @return The ids of each request, in the order of the requests.
+	 */
+	public String[][] generateNumbers(final SequenceRequest[] requests) {
+		final SortedMap<String, Integer> sizes = new TreeMap<String, Integer>();
+		for (final SequenceRequest request : requests) {
+			final Integer size = sizes.get(request.getNumberSequenceName());
+			sizes.put(request.getNumberSequenceName(), Integer.valueOf(request.getCount()
+					+ (size == null ? 0 : size.intValue())));
+		}
+		if (sizes.isEmpty()) {
+			return new String[0][];
+		}
+		final Map<String, NumberRange> ranges;
+		try {
+			ranges = reserveNumbers(sizes);
+		} catch (final DfException e) {
+			throw new RuntimeException(e);
+		}
+		final Map<String, Integer> offsets = new HashMap<String, Integer>();
+		final String[][] result = new String[requests.length][];
+		for (int r = 0; r < requests.length; ++r) {
+			final SequenceRequest request = requests[r];
+			final NumberRange range = ranges.get(request.getNumberSequenceName());
+			final Integer offset = offsets.get(request.getNumberSequenceName());
+			final int first = offset == null ? 0 : offset.intValue();
+			offsets.put(request.getNumberSequenceName(), Integer.valueOf(first + request.getCount()));
+			final GeneratedIdTemplate template = GeneratedIdTemplate.compile(range.getPrefix(), request.getFormat(),
+					request.getPrefix(), request.getSuffix());
+			result[r] = new String[request.getCount()];
+			for (int i = 0; i < result[r].length; ++i) {
+				result[r][i] = template.apply(range.valueAt(first + i));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Generates a number for callers that only need the raw value; no
+	 * formatting or string conversion takes place.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence.
+	 * @return The generated number.
+	 */
+	public long generateRawNumber(final String numberSequenceName) {
+		try {
+			return nextRawNumber(numberSequenceName);
+		} catch (final DfException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Generates several numbers at once for callers that only need the raw
+	 * values.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence.
+	 * @param count
+	 *            The number of values to generate.
+	 * @return The generated numbers, in sequence order.
+	 * @throws IllegalArgumentException
+	 *             if count is less than 1.
+	 */
+	public long[] generateRawNumbers(final String numberSequenceName, final int count) {
+		checkCount(count);
+		final GenerationPriority previous = GenerationPriority.set(GenerationPriority.BULK);
+		try {
+			final NumberRange range = reserveNumbers(numberSequenceName, count);
+			final long[] result = new long[range.getSize()];
+			for (int i = 0; i < result.length; ++i) {
+				result[i] = range.valueAt(i);
+			}
+			return result;
+		} catch (final DfException e) {
+			throw new RuntimeException(e);
+		} finally {
+			GenerationPriority.set(previous);
+		}
+	}
+
+	/**
+	 * Opens a supplier of ids which reserves blocks of numbers only as the
+	 * consumer needs them, for imports whose size isn't known up front.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence.
+	 * @param blockSize
+	 *            The number of values reserved at once.
+	 * @param format
+	 *            The format pattern, may be null.
+	 * @param prefix
+	 *            The strings preceding each number, may be null.
+	 * @param suffix
+	 *            The strings following each number, may be null.
+	 * @return The supplier, unbounded.
+	 */
+	public GeneratedIdSupplier openIdSupplier(final String numberSequenceName, final int blockSize,
+			final String format, final String[] prefix, final String[] suffix) {
+		getWarmup().startSequenceWarmup(getSessionManager(), getDocbaseName());
+		return new GeneratedIdSupplier(getSequenceGenerator(), getSessionManager(), getDocbaseName(),
+				numberSequenceName, blockSize, Long.MAX_VALUE, format, prefix, suffix);
+	}
+
+	/**
+	 * Reserves a number of a gapless sequence. The number sequence is only
+	 * locked while the number is reserved; the caller confirms the reservation
+	 * right before committing the transaction using the number, or releases it
+	 * if the number won't be used.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the gapless number sequence.
+	 * @return The reservation.
+	 * @throws IllegalArgumentException
+	 *             if the number sequence isn't configured as gapless.
+	 */
+	public GaplessReservation reserveGaplessNumber(final String numberSequenceName) {
 		try {
-			final int number = getNextNumber(numberSequenceName);
-			final String formattedNumber = formatNumber(number, format);
-			final StringBuilder buffer = new StringBuilder();
-			addStringsToBuffer(prefix, buffer);
-			buffer.append(formattedNumber);
-			addStringsToBuffer(suffix, buffer);
-			return buffer.toString();
+			return reserveGapless(numberSequenceName);
 		} catch (final DfException e) {
 			throw new RuntimeException(e);
 		}
 	}
 
+	/**
+	 * Retrieves the administration of the number sequences of the repository.
+	 * Administration operations run in sessions of their own, in batches of
+	 * the configured size, and invalidate the caches and leases of the shared
+	 * pipeline.
+	 * 
+	 * @return The administration.
+	 */
+	public NumberSequenceAdministration getAdministration() {
+		final SequenceGeneratorPipeline pipeline = getPipeline();
+		return new NumberSequenceAdministration(pipeline, getSessionManager(), getDocbaseName(), pipeline
+				.getConfiguration().getInt(SequenceGeneratorConfiguration.ADMIN_BATCH_SIZE,
+						DEFAULT_ADMIN_BATCH_SIZE));
+	}
+
 	/**
 	 * Formats a number according to the format specification.
 	 * 
@@ -73,12 +332,7 @@ public class GenerateNumberImpl extends DfSingleDocbaseModule implements IDfModu
 	 * @return The formatted number.
 	 */
 	protected String formatNumber(final int number, final String format) {
-		if (format == null || format.length() == 0) {
-			return String.valueOf(number);
-		} else {
-			final GeneratedNumberFormat fmt = new GeneratedNumberFormat(format);
-			return fmt.apply(number);
-		}
+		return GeneratedIdTemplate.compile(null, format, null, null).apply(number);
 	}
 
 	/**
@@ -92,15 +346,40 @@ public class GenerateNumberImpl extends DfSingleDocbaseModule implements IDfModu
 	 * @throws SequenceObjectNotFoundException
 	 *             if the specified number sequence couldn't be found.
 	 * @throws SequenceGeneratorFailedException
-	 *             if the number generation failed.
+	 *             if the number generation failed or the number doesn't fit
+	 *             into an int.
 	 */
 	protected int getNextNumber(final String sequenceName) throws DfException, SequenceObjectNotFoundException,
 			SequenceGeneratorFailedException {
+		final long number = nextRawNumber(sequenceName);
+		try {
+			return Math.toIntExact(number);
+		} catch (final ArithmeticException e) {
+			throw new SequenceGeneratorFailedException(MessageFormat.format(ERR_INT_OVERFLOW, new Object[] {
+					sequenceName, String.valueOf(number) }), e);
+		}
+	}
+
+	/**
+	 * Generates the next number in a specified number sequence without
+	 * formatting it.
+	 * 
+	 * @param sequenceName
+	 *            The name of the number sequence.
+	 * @return The next value in the number sequence.
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 * @throws SequenceObjectNotFoundException
+	 *             if the specified number sequence couldn't be found.
+	 * @throws SequenceGeneratorFailedException
+	 *             if the number generation failed.
+	 */
+	protected long nextRawNumber(final String sequenceName) throws DfException, SequenceObjectNotFoundException,
+			SequenceGeneratorFailedException {
 		final IDfSession session = getSession();
 		try {
-			final SequenceGenerator seqGen = getSequenceGenerator();
-			final String value = seqGen.getNextGeneratedNumber(session, sequenceName);
-			return Integer.parseInt(value);
+			getWarmup().startSequenceWarmup(getSessionManager(), getDocbaseName());
+			return getSequenceGenerator().getNextNumber(session, sequenceName);
 		} finally {
 			if(session != null) {
 				releaseSession(session);
@@ -108,29 +387,155 @@ public class GenerateNumberImpl extends DfSingleDocbaseModule implements IDfModu
 		}
 	}
 
+	/**
+	 * Reserves a number of a gapless sequence.
+	 * 
+	 * @param sequenceName
+	 *            The name of the gapless number sequence.
+	 * @return The reservation.
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 * @throws SequenceObjectNotFoundException
+	 *             if the specified number sequence couldn't be found.
+	 * @throws SequenceGeneratorFailedException
+	 *             if the number generation failed.
+	 * @throws IllegalArgumentException
+	 *             if the number sequence isn't configured as gapless.
+	 */
+	protected GaplessReservation reserveGapless(final String sequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final GaplessSequenceGenerator gapless = getPipeline().findLayer(GaplessSequenceGenerator.class);
+		if (gapless == null) {
+			throw new IllegalArgumentException("The number sequence '" + sequenceName + "' isn't gapless.");
+		}
+		final IDfSession session = getSession();
+		try {
+			getWarmup().startSequenceWarmup(getSessionManager(), getDocbaseName());
+			return gapless.reserve(session, sequenceName);
+		} finally {
+			if(session != null) {
+				releaseSession(session);
+			}
+		}
+	}
 
-	private OutOfTransactionDecoratorSequenceGenerator getSequenceGenerator() {
-		return new OutOfTransactionDecoratorSequenceGenerator(new RetrySequenceGenerator());
+	/**
+	 * Reserves consecutive numbers in a specified number sequence. The range
+	 * carries the prefix of period-scoped sequences.
+	 * 
+	 * @param sequenceName
+	 *            The name of the number sequence.
+	 * @param count
+	 *            The number of values to reserve.
+	 * @return The reserved numbers.
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 * @throws SequenceObjectNotFoundException
+	 *             if the specified number sequence couldn't be found.
+	 * @throws SequenceGeneratorFailedException
+	 *             if the number generation failed.
+	 */
+	protected NumberRange reserveNumbers(final String sequenceName, final int count) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final IDfSession session = getSession();
+		try {
+			getWarmup().startSequenceWarmup(getSessionManager(), getDocbaseName());
+			final RangeSequenceGenerator seqGen = getSequenceGenerator();
+			return seqGen.reserveRange(session, sequenceName, count);
+		} finally {
+			if(session != null) {
+				releaseSession(session);
+			}
+		}
 	}
 
 	/**
-	 * Adds an array of strings (potentially null) to a StringBuilder instance.
+	 * Reserves consecutive numbers in several number sequences, in the order of
+	 * their names.
 	 * 
-	 * @param strings
-	 *            The strings to add, if any.
-	 * @param buffer
-	 *            The buffer to add the strings to.
+	 * @param sizes
+	 *            The number of values to reserve by number sequence name.
+	 * @return The reserved numbers by number sequence name.
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 * @throws SequenceObjectNotFoundException
+	 *             if a number sequence couldn't be found.
+	 * @throws SequenceGeneratorFailedException
+	 *             if the number generation failed.
 	 */
-	protected void addStringsToBuffer(final String[] strings, final StringBuilder buffer) {
-		if (strings == null || strings.length == 0) {
-			return;
-		} else {
-			for (final String string : strings) {
-				buffer.append(string);
+	protected Map<String, NumberRange> reserveNumbers(final SortedMap<String, Integer> sizes) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final IDfSession session = getSession();
+		try {
+			getWarmup().startSequenceWarmup(getSessionManager(), getDocbaseName());
+			final RangeSequenceGenerator seqGen = getSequenceGenerator();
+			if (seqGen instanceof MultiSequenceGenerator) {
+				return ((MultiSequenceGenerator) seqGen).reserveRanges(session, sizes);
+			}
+			final Map<String, NumberRange> ranges = new HashMap<String, NumberRange>();
+			for (final Map.Entry<String, Integer> entry : sizes.entrySet()) {
+				ranges.put(entry.getKey(), seqGen.reserveRange(session, entry.getKey(), entry.getValue().intValue()));
+			}
+			return ranges;
+		} finally {
+			if(session != null) {
+				releaseSession(session);
 			}
 		}
 	}
-	
+
+	/**
+	 * Retrieves the current sequence generator pipeline.
+	 * 
+	 * @return the outermost generator of the pipeline.
+	 */
+	protected RangeSequenceGenerator getSequenceGenerator() {
+		return getPipeline().getSequenceGenerator();
+	}
+
+	/**
+	 * Retrieves the recorder requests are traced into.
+	 * 
+	 * @return the recorder, null unless recording is configured.
+	 */
+	protected WorkloadRecorder getRecorder() {
+		return PipelineHolder.RECORDER;
+	}
+
+	/**
+	 * Retrieves the sequence generator pipeline shared by all module instances.
+	 * 
+	 * @return the pipeline.
+	 */
+	protected SequenceGeneratorPipeline getPipeline() {
+		return PipelineHolder.PIPELINE;
+	}
+
+	/**
+	 * Replaces the sequence generator pipeline with one assembled from the
+	 * specified configuration. Requests in progress complete using the previous
+	 * pipeline.
+	 * 
+	 * @param config
+	 *            the new configuration
+	 * @throws IllegalArgumentException
+	 *             if the configuration is invalid, the current pipeline is kept.
+	 */
+	public void reconfigure(final SequenceGeneratorConfiguration config) {
+		getPipeline().reconfigure(config);
+		getWarmup().reset();
+		getWarmup().warmUpFormats();
+	}
+
+	/**
+	 * Retrieves the warm-up of the sequence generator pipeline.
+	 * 
+	 * @return the warm-up.
+	 */
+	protected SequenceGeneratorWarmup getWarmup() {
+		return PipelineHolder.WARMUP;
+	}
+
 
 	/**
 	 * @see com.emc.xcelerator.activities.GenerateNumber#generateNumber(java.lang.String)
@@ -0,0 +1,318 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Formats large ranges of numbers in parallel. The range is cut into chunks
+ * which are formatted by a fork/join pool; the ids are either written into one
+ * contiguous buffer or handed to an IdSink chunk by chunk. Either way the
+ * output is in range order, whatever the degree of parallelism.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class BulkIdFormatter {
+
+	private static final int		DEFAULT_CHUNK_SIZE	= 8192;
+	private static final int		WINDOW_PER_THREAD	= 4;
+
+	private final ForkJoinPool		pool;
+	private final int				chunkSize;
+
+	/**
+	 * Creates a new BulkIdFormatter using the common fork/join pool.
+	 */
+	public BulkIdFormatter() {
+		this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Creates a new BulkIdFormatter.
+	 * 
+	 * @param pool
+	 *            the pool formatting the chunks
+	 * @param chunkSize
+	 *            the number of ids per chunk
+	 */
+	public BulkIdFormatter(final ForkJoinPool pool, final int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+		}
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Formats all numbers of a reserved range, including its prefix.
+	 * 
+	 * @param range
+	 *            the range
+	 * @param formatPattern
+	 *            the format pattern, null or empty for plain numbers
+	 * @param prefix
+	 *            the strings preceding each number, may be null
+	 * @param suffix
+	 *            the strings following each number, may be null
+	 * @return the formatted ids
+	 */
+	public FormattedIds format(final NumberRange range, final String formatPattern, final String[] prefix,
+			final String[] suffix) {
+		return format(GeneratedIdTemplate.compile(range.getPrefix(), formatPattern, prefix, suffix), range
+				.getFirst(), range.getIncrement(), range.getSize());
+	}
+
+	/**
+	 * Formats count numbers, starting at start, into one contiguous buffer.
+	 * 
+	 * @param template
+	 *            the template producing the ids
+	 * @param start
+	 *            the first number
+	 * @param increment
+	 *            the difference between two consecutive numbers
+	 * @param count
+	 *            the number of ids
+	 * @return the formatted ids
+	 * @throws GeneratedNumberFormatOverflowException
+	 *             if the template cannot cope with one of the numbers
+	 * @throws IllegalArgumentException
+	 *             if the ids don't fit in a single buffer
+	 */
+	public FormattedIds format(final GeneratedIdTemplate template, final long start, final int increment,
+			final int count) {
+		final int chunks = chunkCount(count);
+		if (chunks == 0) {
+			return new FormattedIds(new char[0], new int[1], 0);
+		}
+		final int[] chunkLengths = new int[chunks];
+		pool.invoke(new MeasureTask(template, start, increment, count, chunkLengths, 0, chunks));
+
+		final int[] chunkOffsets = new int[chunks];
+		long total = 0;
+		for (int i = 0; i < chunks; ++i) {
+			chunkOffsets[i] = (int) total;
+			total += chunkLengths[i];
+			if (total > Integer.MAX_VALUE - 8) {
+				throw new IllegalArgumentException(count + " ids don't fit in a single buffer.");
+			}
+		}
+
+		final char[] chars = new char[(int) total];
+		final int[] offsets = new int[count + 1];
+		offsets[count] = (int) total;
+		pool.invoke(new WriteTask(template, start, increment, count, chars, offsets, chunkOffsets, 0, chunks));
+		return new FormattedIds(chars, offsets, count);
+	}
+
+	/**
+	 * Formats count numbers, starting at start, handing them to the sink one
+	 * chunk at a time and in order. Only a bounded window of chunks is held in
+	 * memory.
+	 * 
+	 * @param template
+	 *            the template producing the ids
+	 * @param start
+	 *            the first number
+	 * @param increment
+	 *            the difference between two consecutive numbers
+	 * @param count
+	 *            the number of ids
+	 * @param sink
+	 *            the receiver of the ids
+	 * @throws GeneratedNumberFormatOverflowException
+	 *             if the template cannot cope with one of the numbers
+	 */
+	public void format(final GeneratedIdTemplate template, final long start, final int increment, final int count,
+			final IdSink sink) {
+		final int chunks = chunkCount(count);
+		final int window = Math.max(1, pool.getParallelism() * WINDOW_PER_THREAD);
+		for (int first = 0; first < chunks; first += window) {
+			final int last = Math.min(chunks, first + window);
+			final List<ChunkTask> tasks = new ArrayList<ChunkTask>(last - first);
+			for (int chunk = first; chunk < last; ++chunk) {
+				final int from = chunk * chunkSize;
+				tasks.add(new ChunkTask(template, start + (long) from * increment, increment, Math.min(chunkSize,
+						count - from)));
+			}
+			pool.invoke(new RecursiveAction() {
+				private static final long	serialVersionUID	= 1L;
+
+				protected void compute() {
+					ForkJoinTask.invokeAll(tasks);
+				}
+			});
+			for (final ChunkTask task : tasks) {
+				sink.accept(task.result);
+			}
+		}
+	}
+
+	private int chunkCount(final int count) {
+		if (count < 0) {
+			throw new IllegalArgumentException("count must not be negative: " + count);
+		}
+		return (int) (((long) count + chunkSize - 1) / chunkSize);
+	}
+
+	/**
+	 * Receives formatted ids chunk by chunk.
+	 */
+	public interface IdSink {
+
+		/**
+		 * Receives the next chunk of ids. The chunk may be retained.
+		 * 
+		 * @param ids
+		 *            the ids
+		 */
+		void accept(FormattedIds ids);
+	}
+
+	/**
+	 * Calculates the total length of each chunk in [fromChunk, toChunk).
+	 */
+	private class MeasureTask extends RecursiveAction {
+		private static final long			serialVersionUID	= 1L;
+		private final GeneratedIdTemplate	template;
+		private final long					start;
+		private final int					increment;
+		private final int					count;
+		private final int[]					chunkLengths;
+		private final int					fromChunk;
+		private final int					toChunk;
+
+		MeasureTask(final GeneratedIdTemplate template, final long start, final int increment, final int count,
+				final int[] chunkLengths, final int fromChunk, final int toChunk) {
+			this.template = template;
+			this.start = start;
+			this.increment = increment;
+			this.count = count;
+			this.chunkLengths = chunkLengths;
+			this.fromChunk = fromChunk;
+			this.toChunk = toChunk;
+		}
+
+		protected void compute() {
+			if (toChunk - fromChunk > 1) {
+				final int middle = (fromChunk + toChunk) >>> 1;
+				invokeAll(new MeasureTask(template, start, increment, count, chunkLengths, fromChunk, middle),
+						new MeasureTask(template, start, increment, count, chunkLengths, middle, toChunk));
+				return;
+			}
+			final int from = fromChunk * chunkSize;
+			final int to = Math.min(count, from + chunkSize);
+			long length = 0;
+			for (int i = from; i < to; ++i) {
+				length += template.length(start + (long) i * increment);
+			}
+			chunkLengths[fromChunk] = (int) Math.min(length, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Writes the ids of the chunks in [fromChunk, toChunk) into the shared
+	 * buffer, at the offsets computed by the MeasureTask.
+	 */
+	private class WriteTask extends RecursiveAction {
+		private static final long			serialVersionUID	= 1L;
+		private final GeneratedIdTemplate	template;
+		private final long					start;
+		private final int					increment;
+		private final int					count;
+		private final char[]				chars;
+		private final int[]					offsets;
+		private final int[]					chunkOffsets;
+		private final int					fromChunk;
+		private final int					toChunk;
+
+		WriteTask(final GeneratedIdTemplate template, final long start, final int increment, final int count,
+				final char[] chars, final int[] offsets, final int[] chunkOffsets, final int fromChunk,
+				final int toChunk) {
+			this.template = template;
+			this.start = start;
+			this.increment = increment;
+			this.count = count;
+			this.chars = chars;
+			this.offsets = offsets;
+			this.chunkOffsets = chunkOffsets;
+			this.fromChunk = fromChunk;
+			this.toChunk = toChunk;
+		}
+
+		protected void compute() {
+			if (toChunk - fromChunk > 1) {
+				final int middle = (fromChunk + toChunk) >>> 1;
+				invokeAll(new WriteTask(template, start, increment, count, chars, offsets, chunkOffsets, fromChunk,
+						middle), new WriteTask(template, start, increment, count, chars, offsets, chunkOffsets,
+						middle, toChunk));
+				return;
+			}
+			final int from = fromChunk * chunkSize;
+			final int to = Math.min(count, from + chunkSize);
+			int position = chunkOffsets[fromChunk];
+			for (int i = from; i < to; ++i) {
+				offsets[i] = position;
+				position = template.formatTo(start + (long) i * increment, chars, position);
+			}
+		}
+	}
+
+	/**
+	 * Formats a single chunk into a buffer of its own.
+	 */
+	private static class ChunkTask extends RecursiveAction {
+		private static final long			serialVersionUID	= 1L;
+		private final GeneratedIdTemplate	template;
+		private final long					start;
+		private final int					increment;
+		private final int					count;
+		FormattedIds						result;
+
+		ChunkTask(final GeneratedIdTemplate template, final long start, final int increment, final int count) {
+			this.template = template;
+			this.start = start;
+			this.increment = increment;
+			this.count = count;
+		}
+
+		protected void compute() {
+			int length = 0;
+			for (int i = 0; i < count; ++i) {
+				length += template.length(start + (long) i * increment);
+			}
+			final char[] chars = new char[length];
+			final int[] offsets = new int[count + 1];
+			int position = 0;
+			for (int i = 0; i < count; ++i) {
+				offsets[i] = position;
+				position = template.formatTo(start + (long) i * increment, chars, position);
+			}
+			offsets[count] = position;
+			result = new FormattedIds(chars, offsets, count);
+		}
+	}
+}
@@ -0,0 +1,307 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+
+/**
+ * The BulkheadSequenceGenerator decorator bounds the resources a single number
+ * sequence can hold when the repository slows down. Per number sequence at
+ * most maxConcurrent requests are passed on to the decorated generator, at
+ * most queueSize further requests wait for their turn, for no longer than
+ * queueTimeout milliseconds. Any other request is rejected at once with a
+ * SequenceGeneratorRejectedException.
+ * <p>
+ * Each number sequence also has a circuit breaker. After failureThreshold
+ * consecutive requests failed, the circuit opens and every request is rejected
+ * for openInterval milliseconds. A request failed if the decorated generator
+ * threw a DfException, e.g. a SequenceGeneratorFailedException after
+ * exhausting the retries or a repository error, except for a
+ * SequenceObjectNotFoundException, which is the caller's mistake, and a
+ * SequenceGeneratorRejectedException, which reports overload rather than a
+ * broken repository. A single trial request is then let through: only the
+ * trial closes the circuit if it succeeds, it opens again if it fails. A
+ * request admitted before the circuit opened doesn't close it.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class BulkheadSequenceGenerator implements RangeSequenceGenerator, SequenceGeneratorDecorator {
+
+	private final RangeSequenceGenerator				sequenceGenerator;
+	private final int									maxConcurrent;
+	private final int									queueSize;
+	private final long									queueTimeout;
+	private final int									failureThreshold;
+	private final long									openInterval;
+	private final ConcurrentMap<String, Compartment>	compartments	= new ConcurrentHashMap<String, Compartment>();
+
+	/**
+	 * Creates a new BulkheadSequenceGenerator.
+	 * 
+	 * @param sequenceGenerator
+	 *            the generator to protect
+	 * @param maxConcurrent
+	 *            the maximum number of concurrent requests per sequence
+	 * @param queueSize
+	 *            the maximum number of waiting requests per sequence
+	 * @param queueTimeout
+	 *            the maximum time a request waits, in milliseconds
+	 * @param failureThreshold
+	 *            the number of consecutive failures opening the circuit, 0
+	 *            disables the circuit breaker
+	 * @param openInterval
+	 *            the time the circuit stays open, in milliseconds
+	 */
+	public BulkheadSequenceGenerator(final RangeSequenceGenerator sequenceGenerator, final int maxConcurrent,
+			final int queueSize, final long queueTimeout, final int failureThreshold, final long openInterval) {
+		if (maxConcurrent < 1) {
+			throw new IllegalArgumentException("maxConcurrent must be positive: " + maxConcurrent);
+		}
+		this.sequenceGenerator = sequenceGenerator;
+		this.maxConcurrent = maxConcurrent;
+		this.queueSize = Math.max(0, queueSize);
+		this.queueTimeout = Math.max(0, queueTimeout);
+		this.failureThreshold = Math.max(0, failureThreshold);
+		this.openInterval = Math.max(0, openInterval);
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public String getNextGeneratedNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return String.valueOf(getNextNumber(session, numberSequenceName));
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public long getNextNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return reserveRange(session, numberSequenceName, 1).getFirst();
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String, int)
+	 * @throws SequenceGeneratorRejectedException
+	 *             if the request was turned away
+	 */
+	public NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final Compartment compartment = getCompartment(numberSequenceName);
+		final boolean trial = compartment.admit(numberSequenceName);
+		boolean failed = false;
+		try {
+			final NumberRange range = sequenceGenerator.reserveRange(session, numberSequenceName, size);
+			compartment.succeeded(trial);
+			return range;
+		} catch (final SequenceObjectNotFoundException e) {
+			throw e;
+		} catch (final SequenceGeneratorRejectedException e) {
+			throw e;
+		} catch (final DfException e) {
+			failed = true;
+			compartment.failed(trial);
+			throw e;
+		} finally {
+			compartment.permits.release();
+			if (trial && !failed) {
+				compartment.trial.set(false);
+			}
+		}
+	}
+
+	/**
+	 * Tells whether the circuit of the specified number sequence is open.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @return true if requests are currently rejected
+	 */
+	public boolean isCircuitOpen(final String numberSequenceName) {
+		final Compartment compartment = compartments.get(numberSequenceName);
+		return compartment != null && compartment.open;
+	}
+
+	/**
+	 * Retrieves the number of requests waiting for the specified number
+	 * sequence.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @return the number of waiting requests
+	 */
+	public int getWaiting(final String numberSequenceName) {
+		final Compartment compartment = compartments.get(numberSequenceName);
+		return compartment == null ? 0 : compartment.waiting.get();
+	}
+
+	/**
+	 * Retrieves the decorated generator.
+	 * 
+	 * @return the decorated generator
+	 */
+	public RangeSequenceGenerator getSequenceGenerator() {
+		return sequenceGenerator;
+	}
+
+	/**
+	 * Retrieves the compartment of the specified number sequence, creating it
+	 * if necessary.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @return the compartment
+	 */
+	private Compartment getCompartment(final String numberSequenceName) {
+		Compartment compartment = compartments.get(numberSequenceName);
+		if (compartment == null) {
+			final Compartment newCompartment = new Compartment();
+			compartment = compartments.putIfAbsent(numberSequenceName, newCompartment);
+			if (compartment == null) {
+				compartment = newCompartment;
+			}
+		}
+		return compartment;
+	}
+
+	/**
+	 * The concurrency limit, queue and circuit breaker of one number sequence.
+	 */
+	private class Compartment {
+		final Semaphore			permits		= new Semaphore(maxConcurrent, true);
+		final AtomicInteger		waiting		= new AtomicInteger();
+		final AtomicInteger		failures	= new AtomicInteger();
+		final AtomicBoolean		trial		= new AtomicBoolean();
+		volatile boolean		open;
+		volatile long			openUntil;
+
+		/**
+		 * Admits a request or rejects it. On return the caller holds a permit.
+		 * 
+		 * @param name
+		 *            the name of the number sequence
+		 * @return true if the request is the trial of a half-open circuit
+		 * @throws SequenceGeneratorRejectedException
+		 *             if the request is rejected
+		 */
+		boolean admit(final String name) throws SequenceGeneratorRejectedException {
+			boolean isTrial = false;
+			if (open) {
+				if (System.nanoTime() - openUntil < 0 || !trial.compareAndSet(false, true)) {
+					throw new SequenceGeneratorRejectedException("The circuit of number sequence '" + name
+							+ "' is open.");
+				}
+				isTrial = true;
+			}
+			boolean admitted = false;
+			try {
+				acquire(name);
+				admitted = true;
+			} finally {
+				if (isTrial && !admitted) {
+					trial.set(false);
+				}
+			}
+			return isTrial;
+		}
+
+		/**
+		 * Acquires a permit, waiting in the queue if necessary.
+		 * 
+		 * @param name
+		 *            the name of the number sequence
+		 * @throws SequenceGeneratorRejectedException
+		 *             if the queue is full or the wait timed out
+		 */
+		private void acquire(final String name) throws SequenceGeneratorRejectedException {
+			if (permits.tryAcquire()) {
+				return;
+			}
+			if (waiting.incrementAndGet() > queueSize) {
+				waiting.decrementAndGet();
+				throw new SequenceGeneratorRejectedException("Too many requests waiting for number sequence '" + name
+						+ "'.");
+			}
+			try {
+				if (!permits.tryAcquire(queueTimeout, TimeUnit.MILLISECONDS)) {
+					throw new SequenceGeneratorRejectedException("Timed out waiting for number sequence '" + name
+							+ "'.");
+				}
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SequenceGeneratorRejectedException("Interrupted while waiting for number sequence '"
+						+ name + "'.");
+			} finally {
+				waiting.decrementAndGet();
+			}
+		}
+
+		/**
+		 * Records a successful request. The trial of a half-open circuit closes
+		 * it, any other request only resets the failure count of a closed
+		 * circuit.
+		 * 
+		 * @param isTrial
+		 *            whether the request was the trial of a half-open circuit
+		 */
+		void succeeded(final boolean isTrial) {
+			if (isTrial) {
+				failures.set(0);
+				open = false;
+			} else if (!open) {
+				failures.set(0);
+			}
+		}
+
+		/**
+		 * Records a failed request, opening the circuit when the threshold
+		 * is reached or when the trial request failed.
+		 * 
+		 * @param isTrial
+		 *            whether the request was the trial of a half-open circuit
+		 */
+		void failed(final boolean isTrial) {
+			if (failureThreshold == 0) {
+				return;
+			}
+			if (failures.incrementAndGet() >= failureThreshold || isTrial) {
+				openUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(openInterval);
+				open = true;
+			}
+			if (isTrial) {
+				trial.set(false);
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+/**
+ * The check digit algorithms available in GeneratedNumberFormat patterns. The
+ * check digits are computed over the decimal digits of the number, ignoring
+ * its sign; padding and constant text don't take part, leading zeros wouldn't
+ * change the result of either algorithm anyway.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+enum CheckDigitAlgorithm {
+
+	/** The Luhn (mod 10) algorithm, one check digit. */
+	LUHN("{luhn}", 1) {
+		int compute(final long number) {
+			// Pairs of digits are looked up at once, the units of each pair
+			// being the digit doubled once the check digit is appended.
+			long rest = number;
+			int sum = 0;
+			while (rest != 0) {
+				sum += LUHN_PAIRS[Math.abs((int) (rest % 100))];
+				rest /= 100;
+			}
+			return (10 - sum % 10) % 10;
+		}
+	},
+
+	/** ISO 7064 MOD 97-10, two check digits as in IBAN. */
+	MOD97("{mod97}", 2) {
+		int compute(final long number) {
+			final int remainder = Math.abs((int) (number % 97));
+			return 98 - MOD97_TIMES_100[remainder];
+		}
+	};
+
+	/** The Luhn sum of every two digit number, the units doubled. */
+	private static final int[]	LUHN_PAIRS		= new int[100];
+	/** The remainder of every remainder times 100, modulo 97. */
+	private static final int[]	MOD97_TIMES_100	= new int[97];
+
+	static {
+		for (int pair = 0; pair < LUHN_PAIRS.length; ++pair) {
+			final int doubled = pair % 10 * 2;
+			LUHN_PAIRS[pair] = pair / 10 + doubled / 10 + doubled % 10;
+		}
+		for (int remainder = 0; remainder < MOD97_TIMES_100.length; ++remainder) {
+			MOD97_TIMES_100[remainder] = remainder * 100 % 97;
+		}
+	}
+
+	private final String		token;
+	private final int			width;
+
+	private CheckDigitAlgorithm(final String token, final int width) {
+		this.token = token;
+		this.width = width;
+	}
+
+	/**
+	 * Computes the check value of a number.
+	 * 
+	 * @param number
+	 *            the number
+	 * @return the check value, it has at most width digits
+	 */
+	abstract int compute(long number);
+
+	/**
+	 * Writes the check digits of a number.
+	 * 
+	 * @param number
+	 *            the number
+	 * @param buffer
+	 *            the buffer to write to
+	 * @param offset
+	 *            the position of the first check digit
+	 */
+	void write(final long number, final char[] buffer, final int offset) {
+		int check = compute(number);
+		for (int i = offset + width - 1; i >= offset; --i) {
+			buffer[i] = (char) ('0' + check % 10);
+			check /= 10;
+		}
+	}
+
+	/**
+	 * Checks the check digits of a number.
+	 * 
+	 * @param number
+	 *            the number
+	 * @param text
+	 *            the text containing the check digits
+	 * @param offset
+	 *            the position of the first check digit
+	 * @return true if the text holds the check digits of the number
+	 */
+	boolean matches(final long number, final CharSequence text, final int offset) {
+		int check = compute(number);
+		for (int i = offset + width - 1; i >= offset; --i) {
+			if (text.charAt(i) != '0' + check % 10) {
+				return false;
+			}
+			check /= 10;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the pattern token standing for the check digits
+	 */
+	String getToken() {
+		return token;
+	}
+
+	/**
+	 * @return the number of check digits
+	 */
+	int getWidth() {
+		return width;
+	}
+
+	/**
+	 * Finds the algorithm whose token starts at a position of a pattern.
+	 * 
+	 * @param pattern
+	 *            the format pattern
+	 * @param index
+	 *            the position
+	 * @return the algorithm or null if no token starts there
+	 */
+	static CheckDigitAlgorithm tokenAt(final String pattern, final int index) {
+		for (final CheckDigitAlgorithm algorithm : values()) {
+			if (pattern.startsWith(algorithm.token, index)) {
+				return algorithm;
+			}
+		}
+		return null;
+	}
+}
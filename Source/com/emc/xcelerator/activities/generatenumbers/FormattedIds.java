@@ -0,0 +1,109 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/**
+ * A block of formatted ids stored back to back in a single character array.
+ * The id at index i occupies the characters [offsets[i], offsets[i + 1]).
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class FormattedIds {
+
+	private final char[]	chars;
+	private final int[]		offsets;
+	private final int		size;
+
+	/**
+	 * Creates a new FormattedIds around the specified arrays, which are not
+	 * copied.
+	 * 
+	 * @param chars
+	 *            the characters of the ids
+	 * @param offsets
+	 *            the offsets of the ids, size + 1 elements
+	 * @param size
+	 *            the number of ids
+	 */
+	public FormattedIds(final char[] chars, final int[] offsets, final int size) {
+		this.chars = chars;
+		this.offsets = offsets;
+		this.size = size;
+	}
+
+	/**
+	 * @return the number of ids
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Retrieves the id at the specified index as a String.
+	 * 
+	 * @param index
+	 *            the index of the id
+	 * @return the id
+	 */
+	public String get(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return new String(chars, offsets[index], offsets[index + 1] - offsets[index]);
+	}
+
+	/**
+	 * Appends all ids to an Appendable, each followed by the separator, without
+	 * creating a String per id.
+	 * 
+	 * @param out
+	 *            the Appendable
+	 * @param separator
+	 *            the text following each id
+	 * @throws IOException
+	 *             if the Appendable fails
+	 */
+	public void appendTo(final Appendable out, final CharSequence separator) throws IOException {
+		final CharBuffer buffer = CharBuffer.wrap(chars);
+		for (int i = 0; i < size; ++i) {
+			out.append(buffer, offsets[i], offsets[i + 1]);
+			out.append(separator);
+		}
+	}
+
+	/**
+	 * @return the characters of all ids, not copied
+	 */
+	public char[] getChars() {
+		return chars;
+	}
+
+	/**
+	 * @return the offsets of the ids, not copied
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+}
@@ -0,0 +1,371 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+import com.documentum.fc.client.DfQuery;
+import com.documentum.fc.client.IDfCollection;
+import com.documentum.fc.client.IDfPersistentObject;
+import com.documentum.fc.client.IDfQuery;
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.client.IDfSessionManager;
+import com.documentum.fc.common.DfException;
+
+/**
+ * Keeps the pending and released numbers of the gapless sequences in the
+ * repository, as numgen_gapless_number objects next to the number sequences.
+ * Each object holds one number of one sequence (object_name):
+ * <ul>
+ * <li>reserved_number: the number</li>
+ * <li>reservation_state: 0 while a reservation is pending, 1 once released</li>
+ * <li>expires_at: the deadline of the pending reservation, in milliseconds
+ * since the epoch padded to 19 digits so that it compares as a string</li>
+ * <li>reservation_token: identifies the reservation holding the number</li>
+ * </ul>
+ * A reservation is made in a transaction of a session of its own, which
+ * either takes over a released or expired number or advances the number
+ * sequence, and records the pending number. A JVM stopping at any point
+ * therefore leaves either no trace or a pending number which any node hands
+ * out again once it expired. Confirming deletes the object, releasing marks
+ * it released; both only apply while the object still carries the token of
+ * the reservation, i.e. wasn't taken over after it expired.
+ * <p>
+ * The store is only used when generatenumbers.gapless.store is true, once the
+ * type was created with the following DQL; the module doesn't deploy it.
+ * Otherwise the pending and released numbers are kept within the JVM.
+ * 
+ * <pre>
+ * CREATE TYPE numgen_gapless_number (reserved_number integer, reservation_state integer,
+ *     expires_at string(19), reservation_token string(36)) WITH SUPERTYPE dm_sysobject PUBLISH
+ * </pre>
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class GaplessNumberStore {
+
+	static final String						GAPLESS_NUMBER_TYPE	= "numgen_gapless_number";
+	private static final int				PENDING				= 0;
+	private static final int				RELEASED			= 1;
+	private static final String				OBJECT_NAME			= "object_name";
+	private static final String				RESERVED_NUMBER		= "reserved_number";
+	private static final String				RESERVATION_STATE	= "reservation_state";
+	private static final String				EXPIRES_AT			= "expires_at";
+	private static final String				RESERVATION_TOKEN	= "reservation_token";
+	private static final String				OBJECTS_UPDATED		= "objects_updated";
+	private static final String				OBJECTS_DELETED		= "objects_deleted";
+	private static final String				ERR_INT_OVERFLOW	= "The gapless number {1} of the sequence ''{0}'' does not fit into the integer attribute reserved_number.";
+
+	private final RangeSequenceGenerator	sequenceGenerator;
+
+	/**
+	 * Creates a new GaplessNumberStore.
+	 * 
+	 * @param sequenceGenerator
+	 *            the repository generator advancing the number sequences, it
+	 *            must work in the transaction of the session it is given, i.e.
+	 *            not be decorated with the out-of-transaction decorator
+	 */
+	public GaplessNumberStore(final RangeSequenceGenerator sequenceGenerator) {
+		this.sequenceGenerator = sequenceGenerator;
+	}
+
+	/**
+	 * Reserves a number of a gapless sequence: the lowest released or expired
+	 * number if there is one, otherwise the next number of the sequence.
+	 * 
+	 * @param session
+	 *            the session of the caller, only used to open a session of
+	 *            the same repository
+	 * @param numberSequenceName
+	 *            the name of the gapless number sequence
+	 * @param timeoutMillis
+	 *            the time the reservation stays valid, in milliseconds
+	 * @return the stored number
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 * @throws SequenceObjectNotFoundException
+	 *             if the number sequence couldn't be found.
+	 * @throws SequenceGeneratorFailedException
+	 *             if the number couldn't be reserved.
+	 */
+	public Entry reserve(final IDfSession session, final String numberSequenceName, final long timeoutMillis)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final IDfSessionManager sessionManager = session.getSessionManager();
+		final String docbaseName = session.getDocbaseName();
+		final String token = UUID.randomUUID().toString();
+		final String expiresAt = pad(System.currentTimeMillis() + timeoutMillis);
+		IDfSession storeSession = null;
+		try {
+			storeSession = sessionManager.newSession(docbaseName);
+			storeSession.beginTrans();
+			try {
+				Entry entry = claim(storeSession, numberSequenceName, expiresAt, token, sessionManager, docbaseName);
+				if (entry == null) {
+					final long number = sequenceGenerator.getNextNumber(storeSession, numberSequenceName);
+					if (number > Integer.MAX_VALUE || number < Integer.MIN_VALUE) {
+						// aborting the transaction below leaves the sequence where it was
+						throw new SequenceGeneratorFailedException(MessageFormat.format(ERR_INT_OVERFLOW,
+								new Object[] { numberSequenceName, String.valueOf(number) }));
+					}
+					final IDfPersistentObject object = storeSession.newObject(getGaplessNumberType());
+					object.setString(OBJECT_NAME, numberSequenceName);
+					object.setInt(RESERVED_NUMBER, (int) number);
+					object.setInt(RESERVATION_STATE, PENDING);
+					object.setString(EXPIRES_AT, expiresAt);
+					object.setString(RESERVATION_TOKEN, token);
+					object.save();
+					entry = new Entry(sessionManager, docbaseName, object.getObjectId().getId(), token, number, false);
+				}
+				storeSession.commitTrans();
+				return entry;
+			} finally {
+				if (storeSession.isTransactionActive()) {
+					storeSession.abortTrans();
+				}
+			}
+		} finally {
+			if (storeSession != null) {
+				sessionManager.release(storeSession);
+			}
+		}
+	}
+
+	/**
+	 * Takes the lowest released or expired number of a gapless sequence for
+	 * immediate use, deleting it in the caller's session. If the caller's
+	 * transaction rolls back the number is available again.
+	 * 
+	 * @param session
+	 *            the repository session
+	 * @param numberSequenceName
+	 *            the name of the gapless number sequence
+	 * @return the number or null if there is none
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 */
+	public Long take(final IDfSession session, final String numberSequenceName) throws DfException {
+		for (final String[] candidate : readRecyclable(session, numberSequenceName)) {
+			final StringBuilder dql = new StringBuilder(128);
+			dql.append("DELETE ").append(getGaplessNumberType()).append(" OBJECTS WHERE r_object_id = '");
+			dql.append(candidate[0]).append("' AND i_vstamp = ").append(candidate[2]);
+			if (execute(session, dql.toString(), OBJECTS_DELETED)) {
+				return Long.valueOf(candidate[1]);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Confirms a reservation by deleting its object.
+	 * 
+	 * @param entry
+	 *            the stored number of the reservation
+	 * @return false if the reservation was taken over after it expired
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 */
+	public boolean confirm(final Entry entry) throws DfException {
+		final StringBuilder dql = new StringBuilder(160);
+		dql.append("DELETE ").append(getGaplessNumberType()).append(" OBJECTS WHERE r_object_id = '");
+		dql.append(entry.objectId).append("' AND ").append(RESERVATION_TOKEN).append(" = '").append(entry.token);
+		dql.append('\'');
+		return execute(entry, dql.toString(), OBJECTS_DELETED);
+	}
+
+	/**
+	 * Releases a reservation so that its number is handed out again.
+	 * 
+	 * @param entry
+	 *            the stored number of the reservation
+	 * @return false if the reservation was taken over after it expired
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 */
+	public boolean release(final Entry entry) throws DfException {
+		final StringBuilder dql = new StringBuilder(192);
+		dql.append("UPDATE ").append(getGaplessNumberType()).append(" OBJECTS SET ").append(RESERVATION_STATE);
+		dql.append(" = ").append(RELEASED).append(" WHERE r_object_id = '").append(entry.objectId);
+		dql.append("' AND ").append(RESERVATION_TOKEN).append(" = '").append(entry.token).append('\'');
+		return execute(entry, dql.toString(), OBJECTS_UPDATED);
+	}
+
+	/**
+	 * Discards the pending and released numbers of the specified sequences,
+	 * e.g. within the transaction resetting them.
+	 * 
+	 * @param session
+	 *            the repository session
+	 * @param numberSequenceNames
+	 *            the names of the gapless number sequences
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 */
+	public void discard(final IDfSession session, final Collection<String> numberSequenceNames) throws DfException {
+		if (numberSequenceNames.isEmpty()) {
+			return;
+		}
+		final StringBuilder dql = new StringBuilder(128);
+		dql.append("DELETE ").append(getGaplessNumberType()).append(" OBJECTS WHERE object_name IN (");
+		boolean first = true;
+		for (final String name : numberSequenceNames) {
+			if (!first) {
+				dql.append(", ");
+			}
+			dql.append('\'').append(name.replace("'", "''")).append('\'');
+			first = false;
+		}
+		dql.append(')');
+		execute(session, dql.toString(), OBJECTS_DELETED);
+	}
+
+	/**
+	 * Retrieves the name of the gapless number type.
+	 * 
+	 * @return the type name
+	 */
+	protected String getGaplessNumberType() {
+		return GAPLESS_NUMBER_TYPE;
+	}
+
+	/**
+	 * Takes over the lowest released or expired number within the transaction
+	 * of the session.
+	 */
+	private Entry claim(final IDfSession session, final String numberSequenceName, final String expiresAt,
+			final String token, final IDfSessionManager sessionManager, final String docbaseName) throws DfException {
+		for (final String[] candidate : readRecyclable(session, numberSequenceName)) {
+			final StringBuilder dql = new StringBuilder(256);
+			dql.append("UPDATE ").append(getGaplessNumberType()).append(" OBJECTS SET ").append(RESERVATION_STATE);
+			dql.append(" = ").append(PENDING).append(", SET ").append(EXPIRES_AT).append(" = '").append(expiresAt);
+			dql.append("', SET ").append(RESERVATION_TOKEN).append(" = '").append(token);
+			dql.append("' WHERE r_object_id = '").append(candidate[0]).append("' AND i_vstamp = ").append(candidate[2]);
+			if (execute(session, dql.toString(), OBJECTS_UPDATED)) {
+				return new Entry(sessionManager, docbaseName, candidate[0], token, Long.parseLong(candidate[1]),
+						Integer.parseInt(candidate[3]) == PENDING);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Reads the released and expired numbers of a sequence, lowest first, as
+	 * object id, number, version stamp and state.
+	 */
+	private List<String[]> readRecyclable(final IDfSession session, final String numberSequenceName)
+			throws DfException {
+		final StringBuilder dql = new StringBuilder(256);
+		dql.append("SELECT r_object_id, ").append(RESERVED_NUMBER).append(", i_vstamp, ").append(RESERVATION_STATE);
+		dql.append(" FROM ").append(getGaplessNumberType()).append(" WHERE object_name = '");
+		dql.append(numberSequenceName.replace("'", "''")).append("' AND (").append(RESERVATION_STATE).append(" = ");
+		dql.append(RELEASED).append(" OR ").append(EXPIRES_AT).append(" < '").append(pad(System.currentTimeMillis()));
+		dql.append("') ORDER BY ").append(RESERVED_NUMBER);
+		final IDfQuery query = new DfQuery();
+		query.setDQL(dql.toString());
+		final List<String[]> candidates = new ArrayList<String[]>();
+		final IDfCollection result = query.execute(session, IDfQuery.DF_READ_QUERY);
+		try {
+			while (result.next()) {
+				candidates.add(new String[] { result.getString("r_object_id"), result.getString(RESERVED_NUMBER),
+						String.valueOf(result.getInt("i_vstamp")), String.valueOf(result.getInt(RESERVATION_STATE)) });
+			}
+		} finally {
+			result.close();
+		}
+		return candidates;
+	}
+
+	/**
+	 * Executes a statement in a session of its own, outside any transaction.
+	 */
+	private static boolean execute(final Entry entry, final String dql, final String countAttribute)
+			throws DfException {
+		final IDfSession session = entry.sessionManager.newSession(entry.docbaseName);
+		try {
+			return execute(session, dql, countAttribute);
+		} finally {
+			entry.sessionManager.release(session);
+		}
+	}
+
+	private static boolean execute(final IDfSession session, final String dql, final String countAttribute)
+			throws DfException {
+		final IDfQuery query = new DfQuery();
+		query.setDQL(dql);
+		final IDfCollection result = query.execute(session, IDfQuery.DF_EXEC_QUERY);
+		try {
+			return result.next() && result.getInt(countAttribute) > 0;
+		} finally {
+			result.close();
+		}
+	}
+
+	private static String pad(final long millis) {
+		final String digits = String.valueOf(millis);
+		final StringBuilder padded = new StringBuilder(19);
+		for (int i = digits.length(); i < 19; ++i) {
+			padded.append('0');
+		}
+		return padded.append(digits).toString();
+	}
+
+	/**
+	 * A number stored for a pending reservation.
+	 */
+	public static class Entry {
+		final IDfSessionManager	sessionManager;
+		final String			docbaseName;
+		final String			objectId;
+		final String			token;
+		final long				number;
+		final boolean			expired;
+
+		Entry(final IDfSessionManager sessionManager, final String docbaseName, final String objectId,
+				final String token, final long number, final boolean expired) {
+			this.sessionManager = sessionManager;
+			this.docbaseName = docbaseName;
+			this.objectId = objectId;
+			this.token = token;
+			this.number = number;
+			this.expired = expired;
+		}
+
+		/**
+		 * @return the reserved number
+		 */
+		public long getNumber() {
+			return number;
+		}
+
+		/**
+		 * @return true if the number was taken over from an expired
+		 *         reservation
+		 */
+		public boolean isExpired() {
+			return expired;
+		}
+	}
+}
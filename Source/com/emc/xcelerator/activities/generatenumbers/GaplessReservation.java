@@ -0,0 +1,166 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A number of a gapless sequence handed out by a GaplessSequenceGenerator and
+ * not yet known to be used. The caller confirms the reservation once the
+ * number is going to be committed, or releases it when the number won't be
+ * used so that it is handed out again. A reservation which is neither
+ * confirmed nor released before its deadline expires and its number is
+ * handed out again.
+ * <p>
+ * The number sequence itself is only locked while the reservation is made, not
+ * for the duration of the caller's transaction. A typical caller confirms the
+ * reservation right before committing and rolls back if the confirmation
+ * fails, or releases the reservation if it rolls back for another reason. A
+ * confirmed reservation can't be released anymore: the number may already be
+ * committed, and handing it out again would duplicate it.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class GaplessReservation {
+
+	static final int						PENDING		= 0;
+	static final int						CONFIRMED	= 1;
+	static final int						RELEASED	= 2;
+	static final int						EXPIRED		= 3;
+
+	private final GaplessSequenceGenerator	generator;
+	private final String					numberSequenceName;
+	private final long						number;
+	private final long						deadline;
+	private final int						epoch;
+	private final GaplessNumberStore.Entry	entry;
+	private final AtomicInteger				state		= new AtomicInteger(PENDING);
+
+	/**
+	 * Creates a new GaplessReservation.
+	 * 
+	 * @param generator
+	 *            the generator the number is returned to
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param number
+	 *            the reserved number
+	 * @param deadline
+	 *            the System.nanoTime() after which the reservation expires
+	 * @param epoch
+	 *            the epoch of the recycle pool when the number was reserved
+	 * @param entry
+	 *            the number stored in the repository, null if the number is
+	 *            only known to the recycle pool
+	 */
+	GaplessReservation(final GaplessSequenceGenerator generator, final String numberSequenceName,
+			final long number, final long deadline, final int epoch, final GaplessNumberStore.Entry entry) {
+		this.generator = generator;
+		this.numberSequenceName = numberSequenceName;
+		this.number = number;
+		this.deadline = deadline;
+		this.epoch = epoch;
+		this.entry = entry;
+	}
+
+	/**
+	 * Confirms that the number is used, it won't expire anymore.
+	 * 
+	 * @return false if the reservation was released or has expired, the
+	 *         number must not be used then
+	 */
+	public boolean confirm() {
+		if (System.nanoTime() - deadline > 0) {
+			generator.expire(this);
+		}
+		if (state.compareAndSet(PENDING, CONFIRMED)) {
+			if (generator.confirmed(this)) {
+				return true;
+			}
+			state.set(EXPIRED);
+		}
+		return false;
+	}
+
+	/**
+	 * Releases the number so that it is handed out again.
+	 * 
+	 * @return false if the reservation has been confirmed, had already been
+	 *         released or has expired
+	 */
+	public boolean release() {
+		if (state.compareAndSet(PENDING, RELEASED)) {
+			generator.released(this);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the name of the number sequence
+	 */
+	public String getNumberSequenceName() {
+		return numberSequenceName;
+	}
+
+	/**
+	 * @return the reserved number
+	 */
+	public long getNumber() {
+		return number;
+	}
+
+	/**
+	 * @return true if the reservation has been confirmed
+	 */
+	public boolean isConfirmed() {
+		return state.get() == CONFIRMED;
+	}
+
+	/**
+	 * Expires the reservation if it is still pending.
+	 * 
+	 * @return true if the reservation expired
+	 */
+	boolean expire() {
+		return state.compareAndSet(PENDING, EXPIRED);
+	}
+
+	long getDeadline() {
+		return deadline;
+	}
+
+	int getEpoch() {
+		return epoch;
+	}
+
+	GaplessNumberStore.Entry getEntry() {
+		return entry;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return numberSequenceName + "[" + number + "]";
+	}
+}
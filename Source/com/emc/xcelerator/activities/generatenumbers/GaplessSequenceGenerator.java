@@ -0,0 +1,459 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfLogger;
+
+/**
+ * The GaplessSequenceGenerator decorator hands out the numbers of gapless
+ * sequences without leaving permanent gaps, without generating them inside
+ * the caller's transaction. Numbers are reserved from the backend, which
+ * updates the number sequence in a short transaction of its own, and the
+ * caller confirms or releases each GaplessReservation. Released and expired
+ * numbers are handed out again, lowest number first, before the counter
+ * advances again. Requests for gapless sequences bypass the decorated layers,
+ * so that no lease holds on to their numbers; other sequences pass through
+ * unchanged.
+ * <p>
+ * Plain requests for a single number of a gapless sequence are served from
+ * the released numbers as well, the number being used right away; ranges of
+ * several numbers always come from the counter.
+ * <p>
+ * With a GaplessNumberStore the pending and released numbers are kept in the
+ * repository, recorded in the same transaction that reserves them, so they
+ * survive a restart and are shared by all nodes. Without one, e.g. with a
+ * backend other than the repository, they are kept in recycle pools shared by
+ * all the generators within the JVM, so that a reconfiguration doesn't lose
+ * them, and a number reserved or released by a JVM that stops before handing
+ * it out again leaves a gap. The store is only configured when
+ * generatenumbers.gapless.store is enabled, as its type isn't deployed with
+ * the module.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class GaplessSequenceGenerator implements RangeSequenceGenerator, SequenceGeneratorDecorator {
+
+	private static final String							LOG_CATEGORY	= GaplessSequenceGenerator.class
+																				.getCanonicalName();
+	private static final ConcurrentMap<String, Pool>	POOLS			= new ConcurrentHashMap<String, Pool>();
+
+	private final RangeSequenceGenerator				sequenceGenerator;
+	private final RangeSequenceGenerator				backend;
+	private final GaplessNumberStore					store;
+	private final Set<String>							gaplessNames;
+	private final long									timeout;
+	private final long									timeoutNanos;
+
+	/**
+	 * Creates a new GaplessSequenceGenerator keeping the pending and released
+	 * numbers within the JVM.
+	 * 
+	 * @param sequenceGenerator
+	 *            the generator of the other sequences
+	 * @param backend
+	 *            the generator reserving the numbers of the gapless sequences
+	 *            outside the caller's transaction
+	 * @param gaplessNames
+	 *            the names of the gapless sequences
+	 * @param timeout
+	 *            the time a reservation stays valid, in milliseconds
+	 */
+	public GaplessSequenceGenerator(final RangeSequenceGenerator sequenceGenerator,
+			final RangeSequenceGenerator backend, final Set<String> gaplessNames, final long timeout) {
+		this(sequenceGenerator, backend, null, gaplessNames, timeout);
+	}
+
+	/**
+	 * Creates a new GaplessSequenceGenerator.
+	 * 
+	 * @param sequenceGenerator
+	 *            the generator of the other sequences
+	 * @param backend
+	 *            the generator reserving the numbers of the gapless sequences
+	 *            outside the caller's transaction
+	 * @param store
+	 *            the repository store of the pending and released numbers,
+	 *            null to keep them within the JVM
+	 * @param gaplessNames
+	 *            the names of the gapless sequences
+	 * @param timeout
+	 *            the time a reservation stays valid, in milliseconds
+	 */
+	public GaplessSequenceGenerator(final RangeSequenceGenerator sequenceGenerator,
+			final RangeSequenceGenerator backend, final GaplessNumberStore store, final Set<String> gaplessNames,
+			final long timeout) {
+		this.sequenceGenerator = sequenceGenerator;
+		this.backend = backend;
+		this.store = store;
+		this.gaplessNames = Collections.unmodifiableSet(gaplessNames);
+		this.timeout = timeout;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public String getNextGeneratedNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return String.valueOf(getNextNumber(session, numberSequenceName));
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public long getNextNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return reserveRange(session, numberSequenceName, 1).getFirst();
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String, int)
+	 */
+	public NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		if (!isGapless(numberSequenceName)) {
+			return sequenceGenerator.reserveRange(session, numberSequenceName, size);
+		}
+		if (size == 1) {
+			final Long recycled = takeRecycled(session, numberSequenceName);
+			if (recycled != null) {
+				return new NumberRange(numberSequenceName, recycled.longValue(), 1, 1);
+			}
+		}
+		return backend.reserveRange(session, numberSequenceName, size);
+	}
+
+	/**
+	 * Reserves a number of a gapless sequence: a recycled number if there is
+	 * one, otherwise the next number of the sequence.
+	 * 
+	 * @param session
+	 *            the repository session
+	 * @param numberSequenceName
+	 *            the name of the gapless number sequence
+	 * @return the reservation
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 * @throws SequenceObjectNotFoundException
+	 *             if the number sequence couldn't be found.
+	 * @throws SequenceGeneratorFailedException
+	 *             if the number couldn't be reserved.
+	 * @throws IllegalArgumentException
+	 *             if the number sequence isn't gapless
+	 */
+	public GaplessReservation reserve(final IDfSession session, final String numberSequenceName)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		if (!isGapless(numberSequenceName)) {
+			throw new IllegalArgumentException("The number sequence '" + numberSequenceName + "' isn't gapless.");
+		}
+		final Pool pool = getPool(numberSequenceName);
+		if (store != null) {
+			final GaplessNumberStore.Entry entry = store.reserve(session, numberSequenceName, timeout);
+			final GaplessReservation reservation;
+			pool.lock.lock();
+			try {
+				reservation = pool.reserve(this, entry.getNumber(), timeoutNanos, entry);
+			} finally {
+				pool.lock.unlock();
+			}
+			if (entry.isExpired()) {
+				DfLogger.warn(LOG_CATEGORY, "A reservation of {0} had expired, the number was reissued.",
+						new Object[] { reservation }, null);
+			}
+			return reservation;
+		}
+		final Long recycled = takeRecycled(session, numberSequenceName);
+		final long number = recycled != null ? recycled.longValue() : backend.getNextNumber(session,
+				numberSequenceName);
+		pool.lock.lock();
+		try {
+			return pool.reserve(this, number, timeoutNanos, null);
+		} finally {
+			pool.lock.unlock();
+		}
+	}
+
+	/**
+	 * Checks whether a number sequence is gapless.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @return true if the sequence is gapless
+	 */
+	public boolean isGapless(final String numberSequenceName) {
+		return gaplessNames.contains(numberSequenceName);
+	}
+
+	/**
+	 * Retrieves the number of recycled numbers waiting within the JVM to be
+	 * handed out again, always 0 with a GaplessNumberStore.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @return the number of recycled numbers
+	 */
+	public int getRecycledCount(final String numberSequenceName) {
+		final Pool pool = getPool(numberSequenceName);
+		pool.lock.lock();
+		try {
+			return pool.recycled.size();
+		} finally {
+			pool.lock.unlock();
+		}
+	}
+
+	/**
+	 * Retrieves the number of reservations made within the JVM and neither
+	 * confirmed, released nor expired.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @return the number of pending reservations
+	 */
+	public int getPendingCount(final String numberSequenceName) {
+		final Pool pool = getPool(numberSequenceName);
+		final List<GaplessReservation> reissued = new ArrayList<GaplessReservation>();
+		final int count;
+		pool.lock.lock();
+		try {
+			pool.expirePending(reissued);
+			count = pool.pending.size();
+		} finally {
+			pool.lock.unlock();
+		}
+		logReissued(reissued);
+		return count;
+	}
+
+	/**
+	 * Discards the recycled numbers a number sequence has within the JVM, e.g.
+	 * after it was reset. Numbers of pending reservations made before are not
+	 * recycled anymore when they are released or expire. The numbers stored
+	 * in the repository are discarded by GaplessNumberStore.discard.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 */
+	public void invalidate(final String numberSequenceName) {
+		final Pool pool = getPool(numberSequenceName);
+		pool.lock.lock();
+		try {
+			pool.recycled.clear();
+			pool.epoch += 1;
+		} finally {
+			pool.lock.unlock();
+		}
+	}
+
+	/**
+	 * Retrieves the repository store of the pending and released numbers.
+	 * 
+	 * @return the store or null if they are kept within the JVM
+	 */
+	public GaplessNumberStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Retrieves the decorated generator.
+	 * 
+	 * @return the decorated generator
+	 */
+	public RangeSequenceGenerator getSequenceGenerator() {
+		return sequenceGenerator;
+	}
+
+	boolean confirmed(final GaplessReservation reservation) {
+		final Pool pool = getPool(reservation.getNumberSequenceName());
+		pool.lock.lock();
+		try {
+			pool.pending.remove(reservation);
+		} finally {
+			pool.lock.unlock();
+		}
+		final GaplessNumberStore.Entry entry = reservation.getEntry();
+		if (entry == null) {
+			return true;
+		}
+		try {
+			if (store.confirm(entry)) {
+				return true;
+			}
+			DfLogger.warn(LOG_CATEGORY, "The reservation of {0} expired and was taken over, it can't be confirmed.",
+					new Object[] { reservation }, null);
+		} catch (final DfException e) {
+			DfLogger.error(LOG_CATEGORY, "Couldn't confirm the reservation of {0}, the number will be reissued.",
+					new Object[] { reservation }, e);
+		}
+		return false;
+	}
+
+	void released(final GaplessReservation reservation) {
+		final Pool pool = getPool(reservation.getNumberSequenceName());
+		final GaplessNumberStore.Entry entry = reservation.getEntry();
+		pool.lock.lock();
+		try {
+			pool.pending.remove(reservation);
+			if (entry == null) {
+				pool.recycle(reservation);
+			}
+		} finally {
+			pool.lock.unlock();
+		}
+		if (entry != null) {
+			try {
+				store.release(entry);
+			} catch (final DfException e) {
+				DfLogger.warn(LOG_CATEGORY,
+						"Couldn't release the reservation of {0}, the number will be reissued once it expired.",
+						new Object[] { reservation }, e);
+			}
+		}
+	}
+
+	void expire(final GaplessReservation reservation) {
+		final Pool pool = getPool(reservation.getNumberSequenceName());
+		final List<GaplessReservation> reissued = new ArrayList<GaplessReservation>(1);
+		pool.lock.lock();
+		try {
+			if (pool.pending.remove(reservation)) {
+				pool.expire(reservation, reissued);
+			}
+		} finally {
+			pool.lock.unlock();
+		}
+		logReissued(reissued);
+	}
+
+	/**
+	 * Takes the lowest recycled number of a gapless sequence for immediate
+	 * use.
+	 */
+	private Long takeRecycled(final IDfSession session, final String numberSequenceName) throws DfException {
+		if (store != null) {
+			return store.take(session, numberSequenceName);
+		}
+		final Pool pool = getPool(numberSequenceName);
+		final List<GaplessReservation> reissued = new ArrayList<GaplessReservation>();
+		final Long recycled;
+		pool.lock.lock();
+		try {
+			pool.expirePending(reissued);
+			recycled = pool.recycled.poll();
+		} finally {
+			pool.lock.unlock();
+		}
+		logReissued(reissued);
+		return recycled;
+	}
+
+	private static void logReissued(final List<GaplessReservation> reissued) {
+		for (final GaplessReservation reservation : reissued) {
+			DfLogger.warn(LOG_CATEGORY, "The reservation of {0} expired, the number will be reissued.",
+					new Object[] { reservation }, null);
+		}
+	}
+
+	private Pool getPool(final String numberSequenceName) {
+		Pool pool = POOLS.get(numberSequenceName);
+		if (pool == null) {
+			final Pool newPool = new Pool(numberSequenceName);
+			pool = POOLS.putIfAbsent(numberSequenceName, newPool);
+			if (pool == null) {
+				pool = newPool;
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * The recycled numbers and pending reservations of a gapless sequence
+	 * within the JVM, guarded by the lock of the pool. Numbers stored in the
+	 * repository are tracked as pending but never recycled here. Reservations
+	 * are checked for expiry in the order they were made, which is the order
+	 * they expire in unless the timeout was reconfigured in between; confirm
+	 * checks its own deadline. The expired reservations whose numbers are
+	 * recycled are collected for the caller to log once the lock is released.
+	 */
+	private static class Pool {
+		final ReentrantLock						lock		= new ReentrantLock();
+		final String							numberSequenceName;
+		final PriorityQueue<Long>				recycled	= new PriorityQueue<Long>();
+		final LinkedHashSet<GaplessReservation>	pending		= new LinkedHashSet<GaplessReservation>();
+		int										epoch;
+
+		Pool(final String numberSequenceName) {
+			this.numberSequenceName = numberSequenceName;
+		}
+
+		GaplessReservation reserve(final GaplessSequenceGenerator generator, final long number,
+				final long timeoutNanos, final GaplessNumberStore.Entry entry) {
+			final GaplessReservation reservation = new GaplessReservation(generator, numberSequenceName, number,
+					System.nanoTime() + timeoutNanos, epoch, entry);
+			pending.add(reservation);
+			return reservation;
+		}
+
+		void expire(final GaplessReservation reservation, final List<GaplessReservation> reissued) {
+			if (reservation.expire() && recycle(reservation)) {
+				reissued.add(reservation);
+			}
+		}
+
+		boolean recycle(final GaplessReservation reservation) {
+			if (reservation.getEntry() != null || reservation.getEpoch() != epoch) {
+				return false;
+			}
+			recycled.add(Long.valueOf(reservation.getNumber()));
+			return true;
+		}
+
+		void expirePending(final List<GaplessReservation> reissued) {
+			final long now = System.nanoTime();
+			for (final Iterator<GaplessReservation> i = pending.iterator(); i.hasNext();) {
+				final GaplessReservation reservation = i.next();
+				if (now - reservation.getDeadline() <= 0) {
+					break;
+				}
+				i.remove();
+				expire(reservation, reissued);
+			}
+		}
+	}
+}
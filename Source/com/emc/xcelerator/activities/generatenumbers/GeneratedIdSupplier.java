@@ -0,0 +1,308 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.client.IDfSessionManager;
+import com.documentum.fc.common.DfException;
+
+/**
+ * Supplies formatted ids lazily, reserving the next block of numbers from the
+ * number sequence only when the consumer has used up the current one. Only
+ * the current block is held in memory, however many ids are consumed. A
+ * repository session is obtained for each reservation and released right
+ * after, so the supplier may be kept open for the duration of a long import.
+ * <p>
+ * The ids can be consumed as an Iterator, a Stream or a Flow.Publisher; the
+ * supplier is not thread-safe and supports a single consumer. Blocks are
+ * reserved with the BULK GenerationPriority.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class GeneratedIdSupplier implements Iterator<String> {
+
+	private final RangeSequenceGenerator	generator;
+	private final IDfSessionManager			sessionManager;
+	private final String					docbaseName;
+	private final String					numberSequenceName;
+	private final int						blockSize;
+	private final long						limit;
+	private final String					formatPattern;
+	private final String[]					prefix;
+	private final String[]					suffix;
+
+	private NumberRange						block;
+	private GeneratedIdTemplate				template;
+	private int								next;
+	private long							supplied;
+
+	/**
+	 * Creates a new GeneratedIdSupplier.
+	 * 
+	 * @param generator
+	 *            the generator the blocks are reserved from
+	 * @param sessionManager
+	 *            the session manager providing the repository sessions
+	 * @param docbaseName
+	 *            the name of the repository
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param blockSize
+	 *            the number of values reserved at once
+	 * @param limit
+	 *            the maximum number of ids supplied, Long.MAX_VALUE for no
+	 *            limit
+	 * @param formatPattern
+	 *            the format pattern, may be null
+	 * @param prefix
+	 *            the strings preceding each number, may be null
+	 * @param suffix
+	 *            the strings following each number, may be null
+	 */
+	public GeneratedIdSupplier(final RangeSequenceGenerator generator, final IDfSessionManager sessionManager,
+			final String docbaseName, final String numberSequenceName, final int blockSize, final long limit,
+			final String formatPattern, final String[] prefix, final String[] suffix) {
+		if (blockSize < 1) {
+			throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+		}
+		this.generator = generator;
+		this.sessionManager = sessionManager;
+		this.docbaseName = docbaseName;
+		this.numberSequenceName = numberSequenceName;
+		this.blockSize = blockSize;
+		this.limit = limit;
+		this.formatPattern = formatPattern;
+		this.prefix = prefix == null ? null : prefix.clone();
+		this.suffix = suffix == null ? null : suffix.clone();
+	}
+
+	/**
+	 * @see java.util.Iterator#hasNext()
+	 */
+	public boolean hasNext() {
+		return supplied < limit;
+	}
+
+	/**
+	 * Supplies the next id, reserving a new block if necessary.
+	 * 
+	 * @return the next id
+	 * @throws NoSuchElementException
+	 *             if the limit has been reached
+	 * @throws RuntimeException
+	 *             wrapping the DfException if a block couldn't be reserved
+	 */
+	public String next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		if (block == null || next >= block.getSize()) {
+			try {
+				reserveBlock((int) Math.min(blockSize, limit - supplied));
+			} catch (final DfException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		supplied += 1;
+		return template.apply(block.valueAt(next++));
+	}
+
+	/**
+	 * @see java.util.Iterator#remove()
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Retrieves the ids as a sequential, ordered Stream.
+	 * 
+	 * @return the stream
+	 */
+	public Stream<String> stream() {
+		final int characteristics = Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT;
+		final Spliterator<String> spliterator = limit == Long.MAX_VALUE ? Spliterators.spliteratorUnknownSize(this,
+				characteristics) : Spliterators.spliterator(this, limit - supplied, characteristics);
+		return StreamSupport.stream(spliterator, false);
+	}
+
+	/**
+	 * Retrieves the ids as a Flow.Publisher which honors the demand signalled
+	 * by its subscriber, ids are delivered on the thread requesting them.
+	 * 
+	 * @return the publisher
+	 */
+	public Flow.Publisher<String> publisher() {
+		return publisher(new Executor() {
+			public void execute(final Runnable command) {
+				command.run();
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the ids as a Flow.Publisher which honors the demand signalled
+	 * by its subscriber. A single subscriber is supported.
+	 * 
+	 * @param executor
+	 *            the executor delivering the ids (and reserving blocks)
+	 * @return the publisher
+	 */
+	public Flow.Publisher<String> publisher(final Executor executor) {
+		return new Flow.Publisher<String>() {
+			private final AtomicBoolean	subscribed	= new AtomicBoolean();
+
+			public void subscribe(final Flow.Subscriber<? super String> subscriber) {
+				if (!subscribed.compareAndSet(false, true)) {
+					subscriber.onSubscribe(new Flow.Subscription() {
+						public void request(final long n) {
+							// NOP.
+						}
+
+						public void cancel() {
+							// NOP.
+						}
+					});
+					subscriber.onError(new IllegalStateException("The ids can only be consumed once."));
+					return;
+				}
+				final IdSubscription subscription = new IdSubscription(subscriber, executor);
+				subscriber.onSubscribe(subscription);
+			}
+		};
+	}
+
+	/**
+	 * @return the number of ids supplied so far
+	 */
+	public long getSupplied() {
+		return supplied;
+	}
+
+	/**
+	 * Reserves the next block of numbers in a session of its own.
+	 * 
+	 * @param size
+	 *            the number of values to reserve
+	 * @throws DfException
+	 *             if the block couldn't be reserved
+	 */
+	private void reserveBlock(final int size) throws DfException {
+		final IDfSession session = sessionManager.getSession(docbaseName);
+		final GenerationPriority previous = GenerationPriority.set(GenerationPriority.BULK);
+		try {
+			block = generator.reserveRange(session, numberSequenceName, size);
+		} finally {
+			GenerationPriority.set(previous);
+			sessionManager.release(session);
+		}
+		template = GeneratedIdTemplate.compile(block.getPrefix(), formatPattern, prefix, suffix);
+		next = 0;
+	}
+
+	/**
+	 * Delivers ids to a subscriber according to its demand. A work-in-progress
+	 * counter ensures a single drain loop runs at a time, so request may be
+	 * called re-entrantly from onNext. An invalid request is recorded and
+	 * signalled by the drain loop as well, never concurrently with onNext.
+	 */
+	private class IdSubscription implements Flow.Subscription, Runnable {
+		private final Flow.Subscriber<? super String>	subscriber;
+		private final Executor							executor;
+		private final AtomicLong						demand		= new AtomicLong();
+		private final AtomicInteger						wip			= new AtomicInteger();
+		private volatile boolean						cancelled;
+		private volatile Throwable						error;
+		private boolean									done;
+
+		IdSubscription(final Flow.Subscriber<? super String> subscriber, final Executor executor) {
+			this.subscriber = subscriber;
+			this.executor = executor;
+		}
+
+		public void request(final long n) {
+			if (n <= 0) {
+				if (error == null) {
+					error = new IllegalArgumentException("Non-positive request: " + n);
+				}
+			} else {
+				long current;
+				long updated;
+				do {
+					current = demand.get();
+					updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while (!demand.compareAndSet(current, updated));
+			}
+			if (wip.getAndIncrement() == 0) {
+				executor.execute(this);
+			}
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+
+		public void run() {
+			int missed = 1;
+			do {
+				if (!cancelled && !done && error != null) {
+					done = true;
+					subscriber.onError(error);
+				}
+				while (!cancelled && !done && error == null && demand.get() > 0) {
+					if (!hasNext()) {
+						done = true;
+						subscriber.onComplete();
+						break;
+					}
+					final String id;
+					try {
+						id = next();
+					} catch (final RuntimeException e) {
+						done = true;
+						subscriber.onError(e.getCause() != null ? e.getCause() : e);
+						break;
+					}
+					demand.decrementAndGet();
+					subscriber.onNext(id);
+				}
+				if (!done && !cancelled && error == null && !hasNext()) {
+					done = true;
+					subscriber.onComplete();
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+	}
+}
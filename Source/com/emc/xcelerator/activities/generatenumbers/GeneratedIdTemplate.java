@@ -0,0 +1,240 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A compiled template for complete generated ids: the prefix strings, the
+ * number formatted according to a GeneratedNumberFormat pattern and the suffix
+ * strings. The prefix and suffix are folded into the constant parts of the
+ * format and the length of the id is known before it is written, so each id
+ * is written once into an exactly sized buffer.
+ * <p>
+ * The template also parses ids back into their numbers, so services
+ * receiving an id can route on its number without a pattern of their own.
+ * <p>
+ * Templates are immutable and cached by their prefix, format pattern and
+ * suffix arrays.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class GeneratedIdTemplate {
+
+	private static final int							MAX_CACHED_TEMPLATES	= 1024;
+	private static final ConcurrentMap<Key, GeneratedIdTemplate>	TEMPLATES		= new ConcurrentHashMap<Key, GeneratedIdTemplate>();
+
+	private final GeneratedNumberFormat				format;
+
+	/**
+	 * Creates a new GeneratedIdTemplate.
+	 * 
+	 * @param format
+	 *            the format including the prefix and suffix
+	 */
+	private GeneratedIdTemplate(final GeneratedNumberFormat format) {
+		this.format = format;
+	}
+
+	/**
+	 * Retrieves the template for the specified prefix, format pattern and
+	 * suffix, compiling it only the first time it is requested.
+	 * 
+	 * @param leadingPrefix
+	 *            text preceding the prefix strings (e.g. the prefix of a
+	 *            period-scoped sequence), may be null
+	 * @param formatPattern
+	 *            the format pattern, null or empty to produce all digits of the
+	 *            number
+	 * @param prefix
+	 *            the strings preceding the number, may be null
+	 * @param suffix
+	 *            the strings following the number, may be null
+	 * @return the template
+	 */
+	public static GeneratedIdTemplate compile(final String leadingPrefix, final String formatPattern,
+			final String[] prefix, final String[] suffix) {
+		final Key key = new Key(leadingPrefix, formatPattern, prefix, suffix);
+		GeneratedIdTemplate template = TEMPLATES.get(key);
+		if (template == null) {
+			final GeneratedNumberFormat numberFormat;
+			if (formatPattern == null || formatPattern.length() == 0) {
+				numberFormat = GeneratedNumberFormat.plain();
+			} else {
+				numberFormat = GeneratedNumberFormat.compile(formatPattern);
+			}
+			template = new GeneratedIdTemplate(numberFormat.withAffixes(concat(leadingPrefix, prefix),
+					concat(null, suffix)));
+			if (TEMPLATES.size() < MAX_CACHED_TEMPLATES) {
+				final GeneratedIdTemplate existing = TEMPLATES.putIfAbsent(key.copy(), template);
+				if (existing != null) {
+					template = existing;
+				}
+			}
+		}
+		return template;
+	}
+
+	/**
+	 * Produces the id for the specified number.
+	 * 
+	 * @param number
+	 *            the number
+	 * @return the id
+	 * @throws GeneratedNumberFormatOverflowException
+	 *             if the pattern cannot cope with the number
+	 */
+	public String apply(final long number) throws GeneratedNumberFormatOverflowException {
+		return format.apply(number);
+	}
+
+	/**
+	 * Calculates the exact length of the id for the specified number.
+	 * 
+	 * @param number
+	 *            the number
+	 * @return the length of the id
+	 * @throws GeneratedNumberFormatOverflowException
+	 *             if the pattern cannot cope with the number
+	 */
+	public int length(final long number) throws GeneratedNumberFormatOverflowException {
+		return format.length(number);
+	}
+
+	/**
+	 * Writes the id for the specified number into a buffer, which must have
+	 * room for length(number) characters after the offset.
+	 * 
+	 * @param number
+	 *            the number
+	 * @param buffer
+	 *            the buffer to write to
+	 * @param offset
+	 *            the position of the first character written
+	 * @return the position following the last character written
+	 * @throws GeneratedNumberFormatOverflowException
+	 *             if the pattern cannot cope with the number
+	 */
+	public int formatTo(final long number, final char[] buffer, final int offset)
+			throws GeneratedNumberFormatOverflowException {
+		return format.formatTo(number, buffer, offset);
+	}
+
+	/**
+	 * Recovers the number from an id, including its prefix and suffix.
+	 * 
+	 * @param id
+	 *            the id
+	 * @return the number
+	 * @throws ParseException
+	 *             if the template can't produce the id
+	 */
+	public long parse(final CharSequence id) throws ParseException {
+		return format.parse(id);
+	}
+
+	/**
+	 * Recovers the number from an id, including its prefix and suffix,
+	 * without throwing an exception when the id doesn't match.
+	 * 
+	 * @param id
+	 *            the id
+	 * @param invalidValue
+	 *            the value returned if the template can't produce the id
+	 * @return the number or invalidValue
+	 */
+	public long parse(final CharSequence id, final long invalidValue) {
+		return format.parse(id, invalidValue);
+	}
+
+	/**
+	 * Retrieves the format producing the complete id.
+	 * 
+	 * @return the format
+	 */
+	GeneratedNumberFormat getFormat() {
+		return format;
+	}
+
+	private static String concat(final String first, final String[] strings) {
+		if (strings == null || strings.length == 0) {
+			return first;
+		}
+		final StringBuilder buffer = new StringBuilder();
+		if (first != null) {
+			buffer.append(first);
+		}
+		for (final String string : strings) {
+			buffer.append(string);
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * The cache key of a template. Lookups use the arrays passed by the
+	 * caller, the arrays are copied when the key is stored in the cache.
+	 */
+	private static class Key {
+		private final String	leadingPrefix;
+		private final String	formatPattern;
+		private final String[]	prefix;
+		private final String[]	suffix;
+		private final int		hash;
+
+		Key(final String leadingPrefix, final String formatPattern, final String[] prefix, final String[] suffix) {
+			this.leadingPrefix = leadingPrefix;
+			this.formatPattern = formatPattern;
+			this.prefix = prefix;
+			this.suffix = suffix;
+			int h = leadingPrefix == null ? 0 : leadingPrefix.hashCode();
+			h = 31 * h + (formatPattern == null ? 0 : formatPattern.hashCode());
+			h = 31 * h + Arrays.hashCode(prefix);
+			this.hash = 31 * h + Arrays.hashCode(suffix);
+		}
+
+		Key copy() {
+			return new Key(leadingPrefix, formatPattern, prefix == null ? null : prefix.clone(), suffix == null ? null
+					: suffix.clone());
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return hash == other.hash && equal(leadingPrefix, other.leadingPrefix)
+					&& equal(formatPattern, other.formatPattern) && Arrays.equals(prefix, other.prefix)
+					&& Arrays.equals(suffix, other.suffix);
+		}
+
+		private static boolean equal(final String a, final String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
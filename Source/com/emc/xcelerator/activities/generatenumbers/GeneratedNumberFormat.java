@@ -21,8 +21,15 @@
 package com.emc.xcelerator.activities.generatenumbers;
 
 import java.text.MessageFormat;
+import java.text.ParseException;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.emc.xcelerator.activities.generatenumbers.jfr.FormatApplyEvent;
+import com.emc.xcelerator.activities.generatenumbers.jfr.FormatCompileEvent;
 
 /**
  * A CaseNumberFormat is specified by:
@@ -36,6 +43,10 @@ import java.util.Collection;
  * <li>A ? (question mark) character followed by any character is equivalent to
  * 0 but instead of producing a 0 the second character is produced. I.e. ?0 is
  * the same as 0.
+ * <li>{luhn} is replaced by the Luhn check digit of the number and {mod97} by
+ * the two ISO 7064 MOD 97-10 check digits of the number. The check digits are
+ * computed from the digits of the number, regardless of padding and constant
+ * text.</li>
  * <li>Any other characters is replaced with itself unless it occurs after a #
  * character and before a # character which would be replaced with nothing.</li>
  * </ul>
@@ -86,7 +97,19 @@ import java.util.Collection;
  * <td>The number is 000-000-0</td>
  * <td>The number is 000-123-4</td>
  * </tr>
+ * <tr>
+ * <td>7992739871</td>
+ * <td>##########{luhn}</td>
+ * <td>79927398713</td>
+ * </tr>
+ * <tr>
+ * <td>1234</td>
+ * <td>000000-{mod97}</td>
+ * <td>001234-82</td>
+ * </tr>
  * </table>
+ * The format can also be applied in reverse, parse recovers the number from a
+ * formatted number and verifies its check digits.
  * 
  * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
  **/
@@ -96,12 +119,27 @@ public class GeneratedNumberFormat {
 	private static final char			NUMBER_OR_ZERO			= '0';
 	private static final char			NUMBER_OR_PAD			= '?';
 	private static final char			NUMBER_OR_NOTHING		= '#';
-	private static final MessageFormat	ERROR_FORMAT_OVERFLOW	= new MessageFormat(
-																		"The CaseNumberFormat ''{0}'' can''t handle the number ''{1}''.");
+	private static final char			CHECK_DIGITS			= '{';
+	// a pattern, MessageFormat instances aren't thread-safe
+	private static final String			ERROR_FORMAT_OVERFLOW	= "The CaseNumberFormat ''{0}'' can''t handle the number ''{1}''.";
+	private static final int			MAX_CACHED_FORMATS		= 256;
+	private static final ConcurrentMap<String, GeneratedNumberFormat>	FORMATS	= new ConcurrentHashMap<String, GeneratedNumberFormat>();
+	/** The maximum number of characters of a long, including the sign. */
+	static final int					MAX_NUMBER_LENGTH		= 20;
+	private static final long[]			POW10					= new long[19];
 
-	private Collection<FormatPart>		formatSpecification;
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; ++i) {
+			POW10[i] = POW10[i - 1] * 10;
+		}
+	}
+
+	private FormatPart[]				formatSpecification;
 	private int							digitPositions;
 	private final String				formatPattern;
+	private final int[]					lengths					= new int[MAX_NUMBER_LENGTH + 1];
+	private volatile GeneratedNumberParser	parser;
 
 	/**
 	 * Creates a new CaseNumberFormat object, as specified by the format pattern.  
@@ -111,6 +149,98 @@ public class GeneratedNumberFormat {
 	public GeneratedNumberFormat(final String formatPattern) {
 		this.formatPattern = formatPattern;
 		parseFormat(formatPattern);
+		computeLengths();
+	}
+
+	/**
+	 * Creates a new CaseNumberFormat object from already parsed format parts.
+	 * 
+	 * @param formatPattern the format pattern the parts were derived from
+	 * @param formatSpecification the format parts
+	 * @param digitPositions the number of digit positions
+	 */
+	private GeneratedNumberFormat(final String formatPattern, final FormatPart[] formatSpecification,
+			final int digitPositions) {
+		this.formatPattern = formatPattern;
+		this.formatSpecification = formatSpecification;
+		this.digitPositions = digitPositions;
+	}
+
+	/**
+	 * Retrieves the CaseNumberFormat for the specified format pattern, parsing
+	 * the pattern only the first time it is requested. CaseNumberFormat objects
+	 * are immutable and can be shared between threads.
+	 * 
+	 * @param formatPattern the format pattern
+	 * @return the CaseNumberFormat
+	 */
+	public static GeneratedNumberFormat compile(final String formatPattern) {
+		GeneratedNumberFormat format = FORMATS.get(formatPattern);
+		if (format == null) {
+			final FormatCompileEvent event = new FormatCompileEvent();
+			event.begin();
+			format = new GeneratedNumberFormat(formatPattern);
+			if (event.shouldCommit()) {
+				event.pattern = formatPattern;
+				event.commit();
+			}
+			if (FORMATS.size() < MAX_CACHED_FORMATS) {
+				final GeneratedNumberFormat existing = FORMATS.putIfAbsent(formatPattern, format);
+				if (existing != null) {
+					format = existing;
+				}
+			}
+		}
+		return format;
+	}
+
+	/**
+	 * Creates a CaseNumberFormat which produces all the digits of the number,
+	 * i.e. the equivalent of String.valueOf(number).
+	 * 
+	 * @return the CaseNumberFormat
+	 */
+	static GeneratedNumberFormat plain() {
+		final GeneratedNumberFormat format = new GeneratedNumberFormat(null, new FormatPart[1], MAX_NUMBER_LENGTH);
+		format.formatSpecification[0] = format.new NumberFormatPart();
+		format.computeLengths();
+		return format;
+	}
+
+	/**
+	 * Creates a CaseNumberFormat which produces the same result as this one,
+	 * preceded by the prefix and followed by the suffix. The prefix and suffix
+	 * are folded into the adjacent constant parts of this format where
+	 * possible.
+	 * 
+	 * @param prefix the text preceding the formatted number, may be null
+	 * @param suffix the text following the formatted number, may be null
+	 * @return the CaseNumberFormat
+	 */
+	GeneratedNumberFormat withAffixes(final String prefix, final String suffix) {
+		final List<FormatPart> parts = new ArrayList<FormatPart>(Arrays.asList(formatSpecification));
+		if (prefix != null && prefix.length() > 0) {
+			if (!parts.isEmpty() && isUnconditionalConstant(parts.get(0))) {
+				parts.set(0, new ConstantFormatPart(false, prefix + new String(((ConstantFormatPart) parts.get(0)).value)));
+			} else {
+				parts.add(0, new ConstantFormatPart(false, prefix));
+			}
+		}
+		if (suffix != null && suffix.length() > 0) {
+			final int last = parts.size() - 1;
+			if (last >= 0 && isUnconditionalConstant(parts.get(last))) {
+				parts.set(last, new ConstantFormatPart(false, new String(((ConstantFormatPart) parts.get(last)).value) + suffix));
+			} else {
+				parts.add(new ConstantFormatPart(false, suffix));
+			}
+		}
+		final GeneratedNumberFormat format = new GeneratedNumberFormat(formatPattern, new FormatPart[parts.size()],
+				digitPositions);
+		for (int i = 0; i < parts.size(); ++i) {
+			format.formatSpecification[i] = format.adopt(parts.get(i));
+		}
+		format.computeLengths();
+		return format;
 	}
 
 	/**
@@ -121,7 +251,57 @@ public class GeneratedNumberFormat {
 	 * @throws GeneratedNumberFormatOverflowException if the pattern cannot cope with the number (i.e. too many digits). 
 	 */
 	public String apply(final int number) throws GeneratedNumberFormatOverflowException {
-		final FormatContext ctx = new FormatContext(number);
+		return apply((long) number);
+	}
+
+	/**
+	 * Applies this CaseNumberFormat to the specified number producing a formatted number. 
+	 * 
+	 * @param number the number to format
+	 * @return the formatted number
+	 * @throws GeneratedNumberFormatOverflowException if the pattern cannot cope with the number (i.e. too many digits). 
+	 */
+	public String apply(final long number) throws GeneratedNumberFormatOverflowException {
+		final FormatApplyEvent event = new FormatApplyEvent();
+		event.begin();
+		final char[] buffer = new char[length(number)];
+		formatTo(number, buffer, 0);
+		if (event.shouldCommit()) {
+			event.number = number;
+			event.length = buffer.length;
+			event.commit();
+		}
+		return new String(buffer);
+	}
+
+	/**
+	 * Calculates the exact length of the formatted number. 
+	 * 
+	 * @param number the number to format
+	 * @return the number of characters produced by formatTo
+	 * @throws GeneratedNumberFormatOverflowException if the pattern cannot cope with the number (i.e. too many digits). 
+	 */
+	public int length(final long number) throws GeneratedNumberFormatOverflowException {
+		final int numberLength = numberLength(number);
+		if (numberLength > getDigitPositions()) {
+			throw new GeneratedNumberFormatOverflowException(getErrorFormatOverflow(getFormatPattern(), number));
+		}
+		return lengths[numberLength];
+	}
+
+	/**
+	 * Writes the formatted number into a buffer, which must have room for
+	 * length(number) characters after the offset. 
+	 * 
+	 * @param number the number to format
+	 * @param buffer the buffer to write to
+	 * @param offset the position of the first character written
+	 * @return the position following the last character written
+	 * @throws GeneratedNumberFormatOverflowException if the pattern cannot cope with the number (i.e. too many digits). 
+	 */
+	public int formatTo(final long number, final char[] buffer, final int offset)
+			throws GeneratedNumberFormatOverflowException {
+		final FormatContext ctx = new FormatContext(number, buffer, offset);
 
 		if (ctx.numberLength > getDigitPositions()) {
 			throw new GeneratedNumberFormatOverflowException(getErrorFormatOverflow(getFormatPattern(), number));
@@ -130,7 +310,116 @@ public class GeneratedNumberFormat {
 		for (final FormatPart opt : formatSpecification) {
 			opt.apply(ctx);
 		}
-		return ctx.buffer.toString();
+		return ctx.position;
+	}
+
+	/**
+	 * Recovers the number from a formatted number. 
+	 * 
+	 * @param text the formatted number
+	 * @return the number
+	 * @throws ParseException if this CaseNumberFormat can't produce the text.
+	 */
+	public long parse(final CharSequence text) throws ParseException {
+		final GeneratedNumberParser numberParser = getParser();
+		final int numberLength = numberParser.match(text);
+		if (numberLength < 0) {
+			throw new ParseException(getErrorParse(getFormatPattern(), text), ~numberLength);
+		}
+		return numberParser.value(text, numberLength);
+	}
+
+	/**
+	 * Recovers the number from a formatted number, without throwing an
+	 * exception when the text doesn't match. 
+	 * 
+	 * @param text the formatted number
+	 * @param invalidValue the value returned if this CaseNumberFormat can't produce the text
+	 * @return the number or invalidValue
+	 */
+	public long parse(final CharSequence text, final long invalidValue) {
+		final GeneratedNumberParser numberParser = getParser();
+		final int numberLength = numberParser.match(text);
+		return numberLength < 0 ? invalidValue : numberParser.value(text, numberLength);
+	}
+
+	/**
+	 * Retrieves the parser of this CaseNumberFormat, compiling it the first time. 
+	 * 
+	 * @return the parser
+	 */
+	GeneratedNumberParser getParser() {
+		GeneratedNumberParser numberParser = parser;
+		if (numberParser == null) {
+			numberParser = compileParser();
+			parser = numberParser;
+		}
+		return numberParser;
+	}
+
+	/**
+	 * Compiles the parser by formatting a representative number of each
+	 * possible number of digits, recording which characters are constant and
+	 * which belong to the number. 
+	 * 
+	 * @return the parser
+	 */
+	private GeneratedNumberParser compileParser() {
+		final int maxLength = Math.min(getDigitPositions(), MAX_NUMBER_LENGTH);
+		final char[][] shapes = new char[maxLength + 1][];
+		final int[][] slots = new int[maxLength + 1][];
+		for (int numberLength = 1; numberLength <= maxLength; ++numberLength) {
+			final long number = numberLength < MAX_NUMBER_LENGTH ? POW10[numberLength - 1] : Long.MIN_VALUE;
+			final ShapeContext ctx = new ShapeContext(number, new char[lengths[numberLength]]);
+			for (final FormatPart opt : formatSpecification) {
+				opt.apply(ctx);
+			}
+			shapes[numberLength] = ctx.buffer;
+			slots[numberLength] = ctx.slots;
+		}
+		return new GeneratedNumberParser(shapes, slots, checkPositions(), checkAlgorithms());
+	}
+
+	/**
+	 * Retrieves the position of each check digit part among the characters
+	 * of the formatted number, for every possible number of digits. 
+	 * 
+	 * @return the positions, indexed by number length, null without check digits
+	 */
+	private int[][] checkPositions() {
+		final CheckDigitAlgorithm[] algorithms = checkAlgorithms();
+		if (algorithms == null) {
+			return null;
+		}
+		final int maxLength = Math.min(getDigitPositions(), MAX_NUMBER_LENGTH);
+		final int[][] positions = new int[maxLength + 1][algorithms.length];
+		for (int numberLength = 1; numberLength <= maxLength; ++numberLength) {
+			final long number = numberLength < MAX_NUMBER_LENGTH ? POW10[numberLength - 1] : Long.MIN_VALUE;
+			final FormatContext ctx = new FormatContext(number, new char[lengths[numberLength]], 0);
+			int check = 0;
+			for (final FormatPart opt : formatSpecification) {
+				if (opt instanceof CheckDigitFormatPart) {
+					positions[numberLength][check++] = ctx.position;
+				}
+				opt.apply(ctx);
+			}
+		}
+		return positions;
+	}
+
+	/**
+	 * Retrieves the algorithms of the check digit parts, in pattern order. 
+	 * 
+	 * @return the algorithms, null without check digits
+	 */
+	private CheckDigitAlgorithm[] checkAlgorithms() {
+		final List<CheckDigitAlgorithm> algorithms = new ArrayList<CheckDigitAlgorithm>();
+		for (final FormatPart part : formatSpecification) {
+			if (part instanceof CheckDigitFormatPart) {
+				algorithms.add(((CheckDigitFormatPart) part).algorithm);
+			}
+		}
+		return algorithms.isEmpty() ? null : algorithms.toArray(new CheckDigitAlgorithm[algorithms.size()]);
 	}
 
 	/**
@@ -139,7 +428,7 @@ public class GeneratedNumberFormat {
 	 * @param format the format pattern
 	 */
 	private void parseFormat(final String format) {
-		formatSpecification = new ArrayList<FormatPart>();
+		final List<FormatPart> parts = new ArrayList<FormatPart>();
 		digitPositions = 0;
 		final int len = format.length();
 		final StringBuilder buffer = new StringBuilder();
@@ -152,8 +441,8 @@ public class GeneratedNumberFormat {
 				buffer.append(c);
 				escape = false;
 			} else if (nextIsPadding) {
-				addConstantPart(buffer, hasSeenNumberOrNothing);
-				formatSpecification.add(new DigitFormatPart(digitPositions, true, c));
+				addConstantPart(parts, buffer, hasSeenNumberOrNothing);
+				parts.add(new DigitFormatPart(digitPositions, true, c));
 				digitPositions += 1;
 				nextIsPadding = false;
 			} else {
@@ -166,15 +455,25 @@ public class GeneratedNumberFormat {
 						break;
 					case NUMBER_OR_NOTHING:
 					case NUMBER_OR_ZERO:
-						addConstantPart(buffer, hasSeenNumberOrNothing);
+						addConstantPart(parts, buffer, hasSeenNumberOrNothing);
 						if (c == NUMBER_OR_NOTHING) {
-							formatSpecification.add(new DigitFormatPart(digitPositions));
+							parts.add(new DigitFormatPart(digitPositions));
 							hasSeenNumberOrNothing = true;
 						} else {
-							formatSpecification.add(new DigitFormatPart(digitPositions, true, '0'));
+							parts.add(new DigitFormatPart(digitPositions, true, '0'));
 						}
 						digitPositions += 1;
 						break;
+					case CHECK_DIGITS:
+						final CheckDigitAlgorithm algorithm = CheckDigitAlgorithm.tokenAt(format, i);
+						if (algorithm == null) {
+							buffer.append(c);
+						} else {
+							addConstantPart(parts, buffer, hasSeenNumberOrNothing);
+							parts.add(new CheckDigitFormatPart(algorithm));
+							i += algorithm.getToken().length() - 1;
+						}
+						break;
 					default:
 						buffer.append(c);
 				}
@@ -182,24 +481,92 @@ public class GeneratedNumberFormat {
 		}
 
 		if (buffer.length() > 0) {
-			formatSpecification.add(new ConstantFormatPart(hasSeenNumberOrNothing, buffer.toString()));
+			parts.add(new ConstantFormatPart(hasSeenNumberOrNothing, buffer.toString()));
 		}
+		formatSpecification = parts.toArray(new FormatPart[parts.size()]);
 	}
 
 	
 	/**
-	 * Adds a constant format part to the formatSpecification.
+	 * Adds a constant format part to the format parts.
 	 * 
+	 * @param parts the format parts
 	 * @param buffer the buffer containing the constant part
 	 * @param occursInsideOption whether an optional digit position has preceeded this pattern 
 	 */
-	private void addConstantPart(final StringBuilder buffer, final boolean occursInsideOption) {
+	private void addConstantPart(final List<FormatPart> parts, final StringBuilder buffer,
+			final boolean occursInsideOption) {
 		if (buffer.length() > 0) {
-			formatSpecification.add(new ConstantFormatPart(occursInsideOption, buffer.toString()));
+			parts.add(new ConstantFormatPart(occursInsideOption, buffer.toString()));
 			buffer.setLength(0);
 		}
 	}
 
+	/**
+	 * Precomputes the length of the formatted number for every possible
+	 * number of digits, by formatting a representative number of each length. 
+	 */
+	private void computeLengths() {
+		int bound = MAX_NUMBER_LENGTH;
+		for (final FormatPart part : formatSpecification) {
+			if (part instanceof ConstantFormatPart) {
+				bound += ((ConstantFormatPart) part).value.length;
+			} else if (part instanceof CheckDigitFormatPart) {
+				bound += ((CheckDigitFormatPart) part).algorithm.getWidth();
+			} else {
+				bound += 1;
+			}
+		}
+		final char[] scratch = new char[bound];
+		final int maxLength = Math.min(getDigitPositions(), MAX_NUMBER_LENGTH);
+		for (int numberLength = 1; numberLength <= maxLength; ++numberLength) {
+			final long number = numberLength < MAX_NUMBER_LENGTH ? POW10[numberLength - 1] : Long.MIN_VALUE;
+			final FormatContext ctx = new FormatContext(number, scratch, 0);
+			for (final FormatPart opt : formatSpecification) {
+				opt.apply(ctx);
+			}
+			lengths[numberLength] = ctx.position;
+		}
+	}
+
+	/**
+	 * Calculates the number of characters of the decimal representation of a
+	 * number, including the sign. 
+	 * 
+	 * @param number the number
+	 * @return the number of characters
+	 */
+	static int numberLength(final long number) {
+		final long negative = number < 0 ? number : -number;
+		int length = 1;
+		long bound = -10;
+		while (length < POW10.length && negative <= bound) {
+			length += 1;
+			bound *= 10;
+		}
+		return number < 0 ? length + 1 : length;
+	}
+
+	private static boolean isUnconditionalConstant(final FormatPart part) {
+		return part instanceof ConstantFormatPart && !((ConstantFormatPart) part).occursInsideOptionals;
+	}
+
+	/**
+	 * Copies a format part of another CaseNumberFormat into this one. 
+	 * 
+	 * @param part the format part
+	 * @return the equivalent part belonging to this CaseNumberFormat
+	 */
+	private FormatPart adopt(final FormatPart part) {
+		if (part instanceof DigitFormatPart) {
+			final DigitFormatPart digit = (DigitFormatPart) part;
+			return new DigitFormatPart(digit.offset, digit.usePadding, digit.padCharacter);
+		} else if (part instanceof NumberFormatPart) {
+			return new NumberFormatPart();
+		}
+		return part;
+	}
+
 	/**
 	 * Retrieves the number of digit positions this pattern contains. 
 	 * 
@@ -226,7 +593,30 @@ public class GeneratedNumberFormat {
 	 * @return The error message. 
 	 */	
 	protected String getErrorFormatOverflow(final String formatPattern, final int number) {
-		return ERROR_FORMAT_OVERFLOW.format(new Object[] { formatPattern, String.valueOf(number) });
+		return getErrorFormatOverflow(formatPattern, (long) number);
+	}
+
+	/**
+	 * Creates the format overflow error message. 
+	 * 
+	 * @param formatPattern the format pattern.
+	 * @param number the number being formatted. 
+	 * @return The error message. 
+	 */	
+	protected String getErrorFormatOverflow(final String formatPattern, final long number) {
+		return MessageFormat.format(ERROR_FORMAT_OVERFLOW, new Object[] { formatPattern, String.valueOf(number) });
+	}
+
+	/**
+	 * Creates the parse error message. 
+	 * 
+	 * @param formatPattern the format pattern.
+	 * @param text the text being parsed. 
+	 * @return The error message. 
+	 */	
+	protected String getErrorParse(final String formatPattern, final CharSequence text) {
+		return MessageFormat.format("The text ''{0}'' doesn''t match the CaseNumberFormat ''{1}''.", new Object[] {
+				String.valueOf(text), formatPattern });
 	}
 
 	/**
@@ -235,21 +625,72 @@ public class GeneratedNumberFormat {
 	 * formatted and some contextual information used by the formatting
 	 * algorithm.
 	 */
-	class FormatContext {
+	static class FormatContext {
 		int				atDigit	= 0;
-		StringBuilder	buffer	= new StringBuilder();
-		String			number;
-		int				numberLength;
+		final char[]	buffer;
+		int				position;
+		final long		number;
+		final int		numberLength;
 
 		
 		/**
 		 * Creates a new FormatContext for the specified number. 
 		 * 
 		 * @param number the number to format.
+		 * @param buffer the buffer to write to.
+		 * @param offset the position of the first character written.
 		 */
-		FormatContext(final int number) {
-			this.number = String.valueOf(number);
-			this.numberLength = this.number.length();
+		FormatContext(final long number, final char[] buffer, final int offset) {
+			this.number = number;
+			this.numberLength = numberLength(number);
+			this.buffer = buffer;
+			this.position = offset;
+		}
+
+		/**
+		 * Retrieves a character of the decimal representation of the number,
+		 * without creating that representation. 
+		 * 
+		 * @param index the index of the character, 0 being the leftmost.
+		 * @return the character.
+		 */
+		char charAt(final int index) {
+			if (number < 0) {
+				if (index == 0) {
+					return '-';
+				}
+				return (char) ('0' - number / POW10[numberLength - 1 - index] % 10);
+			}
+			return (char) ('0' + number / POW10[numberLength - 1 - index] % 10);
+		}
+	}
+
+	/**
+	 * A formatting context which records the positions the characters of the
+	 * number are written to.
+	 */
+	static class ShapeContext extends FormatContext {
+		final int[]	slots;
+		private int	slot;
+
+		/**
+		 * Creates a new ShapeContext for the specified number. 
+		 * 
+		 * @param number the representative number.
+		 * @param buffer the buffer to write to, exactly as long as the formatted number.
+		 */
+		ShapeContext(final long number, final char[] buffer) {
+			super(number, buffer, 0);
+			this.slots = new int[numberLength];
+		}
+
+		/**
+		 * @see com.emc.xcelerator.activities.generatenumbers.GeneratedNumberFormat.FormatContext#charAt(int)
+		 */
+		char charAt(final int index) {
+			// the format parts advance the position before they ask for the character
+			slots[slot++] = position - 1;
+			return super.charAt(index);
 		}
 	}
 
@@ -267,9 +708,9 @@ public class GeneratedNumberFormat {
 	/**
 	 * Represents a constant position in the format pattern.
 	 */
-	class ConstantFormatPart implements FormatPart {
+	static class ConstantFormatPart implements FormatPart {
 		private final boolean	occursInsideOptionals;
-		private final String	value;
+		private final char[]	value;
 
 		/**
 		 * Creates a new ConstantFormatPart.
@@ -284,7 +725,7 @@ public class GeneratedNumberFormat {
 		 */
 		ConstantFormatPart(final boolean occursInsideOptionals, final String value) {
 			this.occursInsideOptionals = occursInsideOptionals;
-			this.value = value;
+			this.value = value.toCharArray();
 		}
 
 		/**
@@ -293,7 +734,8 @@ public class GeneratedNumberFormat {
 		 */
 		public void apply(final FormatContext ctx) {
 			if (!occursInsideOptionals || ctx.atDigit > 0) {
-				ctx.buffer.append(value);
+				System.arraycopy(value, 0, ctx.buffer, ctx.position, value.length);
+				ctx.position += value.length;
 			}
 		}
 	}
@@ -340,14 +782,56 @@ public class GeneratedNumberFormat {
 		public void apply(final FormatContext ctx) {
 			final int position = ctx.numberLength - (getDigitPositions() - offset);
 			if (position >= 0) {
-				ctx.buffer.append(ctx.number.charAt(position));
+				ctx.buffer[ctx.position++] = ctx.charAt(position);
 				ctx.atDigit += 1;
 			} else {
 				if (usePadding) {
-					ctx.buffer.append(padCharacter);
+					ctx.buffer[ctx.position++] = padCharacter;
 				}
 			}
 		}
 	}
 
+	/**
+	 * Represents check digits computed from the number.
+	 */
+	static class CheckDigitFormatPart implements FormatPart {
+		private final CheckDigitAlgorithm	algorithm;
+
+		/**
+		 * Creates a new CheckDigitFormatPart.
+		 * 
+		 * @param algorithm
+		 *            the check digit algorithm
+		 */
+		CheckDigitFormatPart(final CheckDigitAlgorithm algorithm) {
+			this.algorithm = algorithm;
+		}
+
+		/**
+		 * @see com.emc.xcelerator.activities.generatenumbers.GeneratedNumberFormat.FormatPart#apply(com.emc.xcelerator.activities.generatenumbers.GeneratedNumberFormat.FormatContext)
+		 */
+		public void apply(final FormatContext ctx) {
+			algorithm.write(ctx.number, ctx.buffer, ctx.position);
+			ctx.position += algorithm.getWidth();
+		}
+	}
+
+	/**
+	 * Represents the whole number, all of its digits are produced.
+	 */
+	class NumberFormatPart implements FormatPart {
+
+		/**
+		 * @see com.emc.xcelerator.activities.GeneratedNumberFormat.CaseNumberFormat.FormatPart#apply(java.lang.StringBuilder,
+		 *      java.lang.String)
+		 */
+		public void apply(final FormatContext ctx) {
+			for (int i = 0; i < ctx.numberLength; ++i) {
+				ctx.buffer[ctx.position++] = ctx.charAt(i);
+			}
+			ctx.atDigit += ctx.numberLength;
+		}
+	}
+
 }
@@ -0,0 +1,223 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+/**
+ * The reverse of a GeneratedNumberFormat: recovers the number from a
+ * formatted number. The text a format produces only depends on the number of
+ * characters of the number, so the parser holds the shape of the text for
+ * every number length: its length, its constant characters and the positions
+ * of the digits. Parsing compares the text with the shapes of its length and
+ * reads the digits, without allocating anything.
+ * <p>
+ * The digits must form the decimal representation the format would have
+ * written, i.e. without leading zeros, so padding which looks like a digit
+ * isn't taken for one. When several numbers produce the same text, which can
+ * happen when a padding character is a digit, the number with the fewest
+ * digits is returned. Check digits are verified once the number has been
+ * read, a text with wrong check digits doesn't match.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+final class GeneratedNumberParser {
+
+	private static final String			MAX_DIGITS	= String.valueOf(Long.MAX_VALUE);
+	private static final String			MIN_DIGITS	= String.valueOf(Long.MIN_VALUE);
+
+	private final char[][]				shapes;
+	private final int[][]				slots;
+	private final int[][]				checkPositions;
+	private final CheckDigitAlgorithm[]	checkAlgorithms;
+
+	/**
+	 * Creates a new GeneratedNumberParser.
+	 * 
+	 * @param shapes
+	 *            the text produced for each number length, null for lengths
+	 *            the format can't produce; the characters at the digit
+	 *            positions are ignored
+	 * @param slots
+	 *            the positions of the characters of the number in each shape
+	 * @param checkPositions
+	 *            the positions of the first check digit of each check digit
+	 *            part in each shape, null without check digits
+	 * @param checkAlgorithms
+	 *            the algorithm of each check digit part, null without check
+	 *            digits
+	 */
+	GeneratedNumberParser(final char[][] shapes, final int[][] slots, final int[][] checkPositions,
+			final CheckDigitAlgorithm[] checkAlgorithms) {
+		this.shapes = shapes;
+		this.slots = slots;
+		this.checkPositions = checkPositions;
+		this.checkAlgorithms = checkAlgorithms;
+	}
+
+	/**
+	 * Finds the number length whose shape the text matches.
+	 * 
+	 * @param text
+	 *            the text
+	 * @return the number length, or the complement (~) of the position
+	 *         where the closest shape stopped matching
+	 */
+	int match(final CharSequence text) {
+		final int length = text.length();
+		int errorOffset = 0;
+		for (int numberLength = 1; numberLength < shapes.length; ++numberLength) {
+			final char[] shape = shapes[numberLength];
+			if (shape == null || shape.length != length) {
+				continue;
+			}
+			int result;
+			if (checkPositions == null) {
+				result = match(text, shape, slots[numberLength], null, null);
+			} else {
+				result = match(text, shape, slots[numberLength], checkPositions[numberLength], checkAlgorithms);
+				if (result >= 0) {
+					result = checkDigits(text, numberLength);
+				}
+			}
+			if (result >= 0) {
+				return numberLength;
+			}
+			errorOffset = Math.max(errorOffset, ~result);
+		}
+		return ~errorOffset;
+	}
+
+	/**
+	 * Reads the number from a text matching the shape of a number length.
+	 * 
+	 * @param text
+	 *            the text
+	 * @param numberLength
+	 *            the number length returned by match
+	 * @return the number
+	 */
+	long value(final CharSequence text, final int numberLength) {
+		final int[] positions = slots[numberLength];
+		final boolean negative = text.charAt(positions[0]) == '-';
+		long value = 0;
+		for (int i = negative ? 1 : 0; i < positions.length; ++i) {
+			value = value * 10 - (text.charAt(positions[i]) - '0');
+		}
+		return negative ? value : -value;
+	}
+
+	/**
+	 * Compares a text with a shape: the constant characters must be equal,
+	 * the number must be canonical and in range, check digits must be
+	 * digits.
+	 * 
+	 * @return 0 if the text matches, the complement of the position of the
+	 *         first mismatch otherwise
+	 */
+	private static int match(final CharSequence text, final char[] shape, final int[] positions,
+			final int[] checks, final CheckDigitAlgorithm[] algorithms) {
+		final boolean negative = text.charAt(positions[0]) == '-';
+		int slot = 0;
+		int next = positions[0];
+		int check = 0;
+		int nextCheck = checks == null ? -1 : checks[0];
+		for (int i = 0; i < shape.length; ++i) {
+			final char c = text.charAt(i);
+			if (i == next) {
+				if (!isDigit(c, slot, positions.length, negative)) {
+					return ~i;
+				}
+				slot += 1;
+				next = slot < positions.length ? positions[slot] : -1;
+			} else if (i == nextCheck) {
+				final int end = i + algorithms[check].getWidth();
+				for (; i < end; ++i) {
+					final char d = text.charAt(i);
+					if (d < '0' || d > '9') {
+						return ~i;
+					}
+				}
+				i -= 1;
+				check += 1;
+				nextCheck = check < checks.length ? checks[check] : -1;
+			} else if (c != shape[i]) {
+				return ~i;
+			}
+		}
+		if (positions.length >= MAX_DIGITS.length() && exceeds(text, positions)) {
+			return ~positions[0];
+		}
+		return 0;
+	}
+
+	/**
+	 * Verifies the check digits of a text matching the shape of a number
+	 * length.
+	 * 
+	 * @return 0 if they are correct, the complement of the position of the
+	 *         first wrong check digits otherwise
+	 */
+	private int checkDigits(final CharSequence text, final int numberLength) {
+		final long number = value(text, numberLength);
+		final int[] positions = checkPositions[numberLength];
+		for (int i = 0; i < positions.length; ++i) {
+			if (!checkAlgorithms[i].matches(number, text, positions[i])) {
+				return ~positions[i];
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Checks whether a character is valid at a position of the decimal
+	 * representation of a number.
+	 */
+	private static boolean isDigit(final char c, final int index, final int numberLength, final boolean negative) {
+		if (index == 0) {
+			if (c == '-') {
+				return numberLength > 1;
+			}
+			return c >= '1' && c <= '9' || c == '0' && numberLength == 1;
+		}
+		if (index == 1 && negative) {
+			return c >= '1' && c <= '9';
+		}
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Checks whether the digits of the longest numbers are outside the range
+	 * of a long, by comparing them with the extreme values.
+	 */
+	private static boolean exceeds(final CharSequence text, final int[] positions) {
+		final String limit = text.charAt(positions[0]) == '-' ? MIN_DIGITS : MAX_DIGITS;
+		if (positions.length != limit.length()) {
+			return positions.length > limit.length();
+		}
+		for (int i = 0; i < positions.length; ++i) {
+			final char c = text.charAt(positions[i]);
+			if (c != limit.charAt(i)) {
+				return c > limit.charAt(i);
+			}
+		}
+		return false;
+	}
+}
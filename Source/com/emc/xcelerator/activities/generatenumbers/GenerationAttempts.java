@@ -0,0 +1,72 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+/**
+ * Remembers, per thread, how many update attempts the last reservation made by
+ * a backend took, so that callers further up the pipeline can report it
+ * without the SequenceGenerator interface having to carry it.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public final class GenerationAttempts {
+
+	private static final ThreadLocal<int[]>	LAST	= new ThreadLocal<int[]>() {
+														protected int[] initialValue() {
+															return new int[1];
+														}
+													};
+
+	private GenerationAttempts() {
+		// NOP.
+	}
+
+	/**
+	 * Records the number of attempts of the reservation just made by the
+	 * calling thread.
+	 * 
+	 * @param attempts
+	 *            the number of attempts
+	 */
+	public static void record(final int attempts) {
+		LAST.get()[0] = attempts;
+	}
+
+	/**
+	 * Clears the number of attempts of the calling thread, before a new
+	 * request.
+	 */
+	public static void reset() {
+		LAST.get()[0] = 0;
+	}
+
+	/**
+	 * Retrieves the number of attempts of the last reservation made by the
+	 * calling thread.
+	 * 
+	 * @return the number of attempts, 0 if none was recorded since the last
+	 *         reset (e.g. the request was served from a lease)
+	 */
+	public static int last() {
+		return LAST.get()[0];
+	}
+}
@@ -0,0 +1,76 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+/**
+ * The priority class of a request for numbers. The priority is associated with
+ * the calling thread, so that it reaches the generators without changing the
+ * SequenceGenerator interface:
+ * 
+ * <pre>
+ * final GenerationPriority previous = GenerationPriority.set(GenerationPriority.BULK);
+ * try {
+ * 	// generate numbers
+ * } finally {
+ * 	GenerationPriority.set(previous);
+ * }
+ * </pre>
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public enum GenerationPriority {
+
+	/** A user is waiting for the number, the default. */
+	INTERACTIVE,
+
+	/** A batch job generating many numbers, latency matters less. */
+	BULK;
+
+	private static final ThreadLocal<GenerationPriority>	CURRENT	= new ThreadLocal<GenerationPriority>();
+
+	/**
+	 * Retrieves the priority of the calling thread.
+	 * 
+	 * @return the priority, INTERACTIVE unless set otherwise
+	 */
+	public static GenerationPriority current() {
+		final GenerationPriority priority = CURRENT.get();
+		return priority == null ? INTERACTIVE : priority;
+	}
+
+	/**
+	 * Sets the priority of the calling thread.
+	 * 
+	 * @param priority
+	 *            the new priority, null resets it to INTERACTIVE
+	 * @return the previous priority
+	 */
+	public static GenerationPriority set(final GenerationPriority priority) {
+		final GenerationPriority previous = current();
+		if (priority == null || priority == INTERACTIVE) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(priority);
+		}
+		return previous;
+	}
+}
@@ -0,0 +1,151 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+
+/**
+ * An in-memory stand-in for the repository backed generator, for replaying
+ * workloads and comparing the other layers without a repository. The session
+ * isn't used and may be null.
+ * <p>
+ * Like RetrySequenceGenerator, a reservation reads the current value, waits
+ * for the simulated repository latency and then updates the value only if it
+ * hasn't changed in the meantime, retrying otherwise. Concurrent requests for
+ * the same sequence therefore conflict much as they do against the
+ * repository. Sequences are created on first use, starting at 1.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class InMemorySequenceGenerator implements RangeSequenceGenerator {
+
+	private final long								latencyNanos;
+	private final ConcurrentMap<String, AtomicLong>	values		= new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong						conflicts	= new AtomicLong();
+
+	/**
+	 * Creates a new InMemorySequenceGenerator without latency.
+	 */
+	public InMemorySequenceGenerator() {
+		this(0);
+	}
+
+	/**
+	 * Creates a new InMemorySequenceGenerator.
+	 * 
+	 * @param latencyMicros
+	 *            the simulated duration of a repository round-trip in
+	 *            microseconds
+	 */
+	public InMemorySequenceGenerator(final long latencyMicros) {
+		this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public String getNextGeneratedNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return String.valueOf(getNextNumber(session, numberSequenceName));
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public long getNextNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return reserveRange(session, numberSequenceName, 1).getFirst();
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String, int)
+	 */
+	public NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final AtomicLong value = getValue(numberSequenceName);
+		int attempts = 0;
+		while (true) {
+			attempts += 1;
+			final long current = value.get();
+			if (latencyNanos > 0) {
+				LockSupport.parkNanos(this, latencyNanos);
+			}
+			if (value.compareAndSet(current, current + size)) {
+				GenerationAttempts.record(attempts);
+				return new NumberRange(numberSequenceName, current, 1, size);
+			}
+			conflicts.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Sets the current value of a number sequence, creating it if necessary.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @param currentValue
+	 *            the next value handed out
+	 */
+	public void setCurrentValue(final String numberSequenceName, final long currentValue) {
+		getValue(numberSequenceName).set(currentValue);
+	}
+
+	/**
+	 * Retrieves the current value of a number sequence.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @return the next value handed out
+	 */
+	public long getCurrentValue(final String numberSequenceName) {
+		return getValue(numberSequenceName).get();
+	}
+
+	/**
+	 * @return the number of updates which lost a race and were retried
+	 */
+	public long getConflicts() {
+		return conflicts.get();
+	}
+
+	private AtomicLong getValue(final String numberSequenceName) {
+		AtomicLong value = values.get(numberSequenceName);
+		if (value == null) {
+			final AtomicLong newValue = new AtomicLong(1);
+			value = values.putIfAbsent(numberSequenceName, newValue);
+			if (value == null) {
+				value = newValue;
+			}
+		}
+		return value;
+	}
+}
@@ -0,0 +1,129 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+
+/**
+ * The InstrumentedSequenceGenerator decorator keeps SequenceStatistics per
+ * number sequence for the requests passing through it.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class InstrumentedSequenceGenerator implements RangeSequenceGenerator, SequenceGeneratorDecorator {
+
+	private final RangeSequenceGenerator						sequenceGenerator;
+	private final ConcurrentMap<String, SequenceStatistics>	statistics	= new ConcurrentHashMap<String, SequenceStatistics>();
+
+	/**
+	 * Creates a new InstrumentedSequenceGenerator.
+	 * 
+	 * @param sequenceGenerator
+	 *            the generator to instrument
+	 */
+	public InstrumentedSequenceGenerator(final RangeSequenceGenerator sequenceGenerator) {
+		this.sequenceGenerator = sequenceGenerator;
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public String getNextGeneratedNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return String.valueOf(getNextNumber(session, numberSequenceName));
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public long getNextNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return reserveRange(session, numberSequenceName, 1).getFirst();
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String, int)
+	 */
+	public NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final SequenceStatistics stats = getStatistics(numberSequenceName);
+		final long start = System.nanoTime();
+		boolean success = false;
+		try {
+			final NumberRange range = sequenceGenerator.reserveRange(session, numberSequenceName, size);
+			success = true;
+			stats.recordSuccess(size, System.nanoTime() - start);
+			return range;
+		} finally {
+			if (!success) {
+				stats.recordFailure(System.nanoTime() - start);
+			}
+		}
+	}
+
+	/**
+	 * Retrieves the statistics of the specified number sequence, creating them
+	 * if necessary.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @return the statistics
+	 */
+	public SequenceStatistics getStatistics(final String numberSequenceName) {
+		SequenceStatistics stats = statistics.get(numberSequenceName);
+		if (stats == null) {
+			final SequenceStatistics newStats = new SequenceStatistics(numberSequenceName);
+			stats = statistics.putIfAbsent(numberSequenceName, newStats);
+			if (stats == null) {
+				stats = newStats;
+			}
+		}
+		return stats;
+	}
+
+	/**
+	 * Retrieves the statistics of all number sequences requested so far.
+	 * 
+	 * @return the statistics
+	 */
+	public Collection<SequenceStatistics> getStatistics() {
+		return Collections.unmodifiableCollection(statistics.values());
+	}
+
+	/**
+	 * Retrieves the decorated generator.
+	 * 
+	 * @return the decorated generator
+	 */
+	public RangeSequenceGenerator getSequenceGenerator() {
+		return sequenceGenerator;
+	}
+}
@@ -0,0 +1,127 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+/**
+ * An immutable record of a lease size decision taken by the
+ * LeasingSequenceGenerator when it renewed the lease of a number sequence.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class LeaseSizeDecision {
+
+	/**
+	 * The reason of a decision.
+	 */
+	public enum Reason {
+		/** The lease was used up faster than the target interval. */
+		GROW,
+		/** The lease lasted longer than the target interval. */
+		SHRINK,
+		/** The lease lasted about the target interval, or the size is at a bound. */
+		KEEP
+	}
+
+	private final String	numberSequenceName;
+	private final long		time;
+	private final int		previousSize;
+	private final int		size;
+	private final long		interval;
+	private final Reason	reason;
+
+	/**
+	 * Creates a new LeaseSizeDecision.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param time
+	 *            the time of the decision in milliseconds since 1970
+	 * @param previousSize
+	 *            the size of the lease which was used up
+	 * @param size
+	 *            the size of the new lease
+	 * @param interval
+	 *            the time the previous lease lasted in milliseconds, -1 for the
+	 *            first lease
+	 * @param reason
+	 *            the reason of the decision
+	 */
+	public LeaseSizeDecision(final String numberSequenceName, final long time, final int previousSize,
+			final int size, final long interval, final Reason reason) {
+		this.numberSequenceName = numberSequenceName;
+		this.time = time;
+		this.previousSize = previousSize;
+		this.size = size;
+		this.interval = interval;
+		this.reason = reason;
+	}
+
+	/**
+	 * @return the name of the number sequence
+	 */
+	public String getNumberSequenceName() {
+		return numberSequenceName;
+	}
+
+	/**
+	 * @return the time of the decision in milliseconds since 1970
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the size of the lease which was used up
+	 */
+	public int getPreviousSize() {
+		return previousSize;
+	}
+
+	/**
+	 * @return the size of the new lease
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the time the previous lease lasted in milliseconds, -1 for the
+	 *         first lease
+	 */
+	public long getInterval() {
+		return interval;
+	}
+
+	/**
+	 * @return the reason of the decision
+	 */
+	public Reason getReason() {
+		return reason;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return numberSequenceName + ": " + reason + " " + previousSize + " -> " + size + " after " + interval + " ms";
+	}
+}
@@ -0,0 +1,386 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfLogger;
+
+/**
+ * The LeasingSequenceGenerator decorator reserves a block (lease) of numbers
+ * from the decorated generator and hands them out from memory until the lease
+ * is used up. Only one in leaseSize requests reaches the repository.
+ * 
+ * <b>Note:</b> numbers left in a lease when the JVM stops, or when the
+ * generator is discarded, are never handed out, so sequences served by this
+ * decorator can contain gaps.
+ * <p>
+ * The lease size can adapt to the demand of each number sequence, keeping the
+ * number of renewals per sequence near one per targetInterval: a lease used up
+ * in less than half the target interval makes the next lease twice as large, a
+ * lease lasting more than twice the target interval halves the next one. The
+ * size stays within minLeaseSize and maxLeaseSize and never exceeds maxGap,
+ * the largest number of values a sequence may lose. The last decision taken
+ * for each sequence is kept for monitoring.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class LeasingSequenceGenerator implements RangeSequenceGenerator, SequenceGeneratorDecorator {
+
+	private static final String					LOG_CATEGORY	= LeasingSequenceGenerator.class.getCanonicalName();
+
+	private final RangeSequenceGenerator		sequenceGenerator;
+	private final int							leaseSize;
+	private final int							minLeaseSize;
+	private final int							maxLeaseSize;
+	private final long							targetInterval;
+	private final ConcurrentMap<String, Lease>	leases	= new ConcurrentHashMap<String, Lease>();
+
+	/**
+	 * Creates a new LeasingSequenceGenerator with a fixed lease size.
+	 * 
+	 * @param sequenceGenerator
+	 *            the generator the leases are reserved from
+	 * @param leaseSize
+	 *            the number of values reserved per lease
+	 */
+	public LeasingSequenceGenerator(final RangeSequenceGenerator sequenceGenerator, final int leaseSize) {
+		this(sequenceGenerator, leaseSize, leaseSize, leaseSize, Integer.MAX_VALUE, 0);
+	}
+
+	/**
+	 * Creates a new LeasingSequenceGenerator adapting the lease size to the
+	 * demand.
+	 * 
+	 * @param sequenceGenerator
+	 *            the generator the leases are reserved from
+	 * @param leaseSize
+	 *            the number of values reserved by the first lease
+	 * @param minLeaseSize
+	 *            the smallest lease size
+	 * @param maxLeaseSize
+	 *            the largest lease size
+	 * @param maxGap
+	 *            the largest number of values a sequence may lose
+	 * @param targetInterval
+	 *            the desired time between two renewals in milliseconds, 0
+	 *            keeps the lease size fixed
+	 */
+	public LeasingSequenceGenerator(final RangeSequenceGenerator sequenceGenerator, final int leaseSize,
+			final int minLeaseSize, final int maxLeaseSize, final int maxGap, final long targetInterval) {
+		if (minLeaseSize < 1 || minLeaseSize > maxLeaseSize) {
+			throw new IllegalArgumentException("Invalid lease size bounds: " + minLeaseSize + ", " + maxLeaseSize);
+		}
+		this.sequenceGenerator = sequenceGenerator;
+		this.minLeaseSize = minLeaseSize;
+		this.maxLeaseSize = Math.max(minLeaseSize, Math.min(maxLeaseSize, maxGap));
+		this.leaseSize = Math.max(this.minLeaseSize, Math.min(leaseSize, this.maxLeaseSize));
+		this.targetInterval = targetInterval;
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public String getNextGeneratedNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return String.valueOf(getNextNumber(session, numberSequenceName));
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public long getNextNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return reserveRange(session, numberSequenceName, 1).getFirst();
+	}
+
+	/**
+	 * Takes the range from the current lease of the number sequence, renewing
+	 * the lease when it can't satisfy the request. Requests at least as large as
+	 * a lease bypass the lease altogether. The size checked without the lock
+	 * may shrink before the lease is renewed, so the renewal reserves at least
+	 * the requested number of values.
+	 * 
+	 * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String, int)
+	 */
+	public NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final Lease lease = getLease(numberSequenceName);
+		if (size >= lease.size) {
+			return sequenceGenerator.reserveRange(session, numberSequenceName, size);
+		}
+		lease.lock.lock();
+		try {
+			NumberRange range = lease.take(size);
+			if (range == null) {
+				lease.renew(sequenceGenerator.reserveRange(session, numberSequenceName, Math.max(size, resize(
+						numberSequenceName, lease))));
+				range = lease.take(size);
+			}
+			if (range == null) {
+				// The decorated generator reserved fewer values than requested.
+				range = sequenceGenerator.reserveRange(session, numberSequenceName, size);
+			}
+			return range;
+		} finally {
+			lease.lock.unlock();
+		}
+	}
+
+	/**
+	 * Renews the lease of the specified number sequence if it is empty, so that
+	 * the next request is served from memory.
+	 * 
+	 * @param session
+	 *            the repository session
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 * @throws SequenceObjectNotFoundException
+	 *             if the number sequence couldn't be found.
+	 * @throws SequenceGeneratorFailedException
+	 *             if the lease couldn't be reserved.
+	 */
+	public void prefetch(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final Lease lease = getLease(numberSequenceName);
+		lease.lock.lock();
+		try {
+			if (lease.isEmpty()) {
+				lease.renew(sequenceGenerator.reserveRange(session, numberSequenceName, resize(numberSequenceName,
+						lease)));
+			}
+		} finally {
+			lease.lock.unlock();
+		}
+	}
+
+	/**
+	 * Discards the lease of the specified number sequence, the remaining
+	 * numbers in it are never handed out.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 */
+	public void invalidate(final String numberSequenceName) {
+		leases.remove(numberSequenceName);
+	}
+
+	/**
+	 * Discards all leases.
+	 */
+	public void invalidateAll() {
+		leases.clear();
+	}
+
+	/**
+	 * Retrieves the number of values reserved by the first lease of a number
+	 * sequence.
+	 * 
+	 * @return the initial lease size
+	 */
+	public int getLeaseSize() {
+		return leaseSize;
+	}
+
+	/**
+	 * Retrieves the number of values the next lease of the specified number
+	 * sequence reserves.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @return the current lease size
+	 */
+	public int getLeaseSize(final String numberSequenceName) {
+		final Lease lease = leases.get(numberSequenceName);
+		return lease == null ? leaseSize : lease.size;
+	}
+
+	/**
+	 * Retrieves the last lease size decision taken for the specified number
+	 * sequence.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @return the decision or null if no lease has been renewed yet
+	 */
+	public LeaseSizeDecision getLastDecision(final String numberSequenceName) {
+		final Lease lease = leases.get(numberSequenceName);
+		return lease == null ? null : lease.decision;
+	}
+
+	/**
+	 * Retrieves the last lease size decisions taken for all number sequences.
+	 * 
+	 * @return the decisions
+	 */
+	public Collection<LeaseSizeDecision> getLastDecisions() {
+		final List<LeaseSizeDecision> decisions = new ArrayList<LeaseSizeDecision>();
+		for (final Lease lease : leases.values()) {
+			final LeaseSizeDecision decision = lease.decision;
+			if (decision != null) {
+				decisions.add(decision);
+			}
+		}
+		return decisions;
+	}
+
+	/**
+	 * Retrieves the decorated generator.
+	 * 
+	 * @return the decorated generator
+	 */
+	public RangeSequenceGenerator getSequenceGenerator() {
+		return sequenceGenerator;
+	}
+
+	/**
+	 * Decides the size of the next lease of a number sequence from the time the
+	 * previous lease lasted. Called with the lock of the lease held.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @param lease
+	 *            the lease about to be renewed
+	 * @return the size of the next lease
+	 */
+	private int resize(final String numberSequenceName, final Lease lease) {
+		final long now = System.nanoTime();
+		if (targetInterval <= 0 || minLeaseSize == maxLeaseSize) {
+			return lease.size;
+		}
+		final int previousSize = lease.size;
+		long interval = -1;
+		LeaseSizeDecision.Reason reason = LeaseSizeDecision.Reason.KEEP;
+		if (lease.renewed) {
+			interval = (now - lease.renewedAt) / 1000000L;
+			if (interval < targetInterval / 2 && previousSize < maxLeaseSize) {
+				lease.size = (int) Math.min((long) previousSize * 2, maxLeaseSize);
+				reason = LeaseSizeDecision.Reason.GROW;
+			} else if (interval > targetInterval * 2 && previousSize > minLeaseSize) {
+				lease.size = Math.max(previousSize / 2, minLeaseSize);
+				reason = LeaseSizeDecision.Reason.SHRINK;
+			}
+		}
+		lease.renewed = true;
+		lease.renewedAt = now;
+		final LeaseSizeDecision decision = new LeaseSizeDecision(numberSequenceName, System.currentTimeMillis(),
+				previousSize, lease.size, interval, reason);
+		lease.decision = decision;
+		if (reason != LeaseSizeDecision.Reason.KEEP) {
+			DfLogger.debug(LOG_CATEGORY, "Lease size decision {0}.", new Object[] { decision }, null);
+		}
+		return lease.size;
+	}
+
+	/**
+	 * Retrieves the lease of the specified number sequence, creating an empty
+	 * one if necessary.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @return the lease
+	 */
+	private Lease getLease(final String numberSequenceName) {
+		Lease lease = leases.get(numberSequenceName);
+		if (lease == null) {
+			final Lease newLease = new Lease(leaseSize);
+			lease = leases.putIfAbsent(numberSequenceName, newLease);
+			if (lease == null) {
+				lease = newLease;
+			}
+		}
+		return lease;
+	}
+
+	/**
+	 * The numbers of a number sequence reserved but not yet handed out. Access
+	 * is guarded by the lock of the lease, which is held while the lease is
+	 * renewed so that only one renewal per sequence is in flight. The size is
+	 * also read without the lock, to route large requests around the lease.
+	 */
+	static class Lease {
+		final ReentrantLock				lock	= new ReentrantLock();
+		volatile int					size;
+		volatile LeaseSizeDecision		decision;
+		boolean							renewed;
+		long							renewedAt;
+		private NumberRange			range;
+		private int					next;
+
+		/**
+		 * Creates an empty lease.
+		 * 
+		 * @param size
+		 *            the size of the first renewal
+		 */
+		Lease(final int size) {
+			this.size = size;
+		}
+
+		/**
+		 * Replaces the current range, the remaining values are discarded.
+		 * 
+		 * @param range
+		 *            the new range
+		 */
+		void renew(final NumberRange range) {
+			this.range = range;
+			this.next = 0;
+		}
+
+		/**
+		 * @return true if no values are left in the lease
+		 */
+		boolean isEmpty() {
+			return range == null || next >= range.getSize();
+		}
+
+		/**
+		 * Takes the next size values from the lease.
+		 * 
+		 * @param size
+		 *            the number of values
+		 * @return the values taken or null if the lease has fewer than size
+		 *         values left
+		 */
+		NumberRange take(final int size) {
+			if (range == null || range.getSize() - next < size) {
+				return null;
+			}
+			final NumberRange taken = range.subRange(next, size);
+			next += size;
+			return taken;
+		}
+	}
+}
@@ -0,0 +1,57 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+
+/**
+ * A RangeSequenceGenerator which is able to reserve ranges in several number
+ * sequences with fewer repository round-trips than reserving them one by one.
+ * The sequences are always processed, and any locks taken, in the order of
+ * their names, so concurrent multi-sequence requests can't deadlock.
+ * <p>
+ * The reservation isn't atomic: when a sequence fails, the ranges already
+ * reserved in other sequences are lost.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public interface MultiSequenceGenerator extends RangeSequenceGenerator {
+
+	/**
+	 * Reserves a range of consecutive numbers in each of the specified
+	 * sequences.
+	 * 
+	 * @param session the repository session
+	 * @param sizes the number of values to reserve, at least 1, by number sequence name
+	 * @return the reserved ranges by number sequence name
+	 * @throws DfException if an internal error occurred. 
+	 * @throws SequenceObjectNotFoundException if a number sequence couldn't be found.
+	 * @throws SequenceGeneratorFailedException if a range couldn't be reserved.
+	 */
+	public abstract Map<String, NumberRange> reserveRanges(final IDfSession session, final SortedMap<String, Integer> sizes)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException;
+
+}
@@ -0,0 +1,217 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.time.Clock;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfLogger;
+
+/**
+ * Generates unique 64-bit numbers without any repository access, for number
+ * sequences which only need to be unique and roughly ordered in time rather
+ * than dense. A number is composed, from the most significant bit down, of
+ * the milliseconds elapsed since the epoch (41 bits), the node id (10 bits)
+ * and a counter (12 bits), leaving the sign bit clear.
+ * <p>
+ * The timestamp and counter are held in a single AtomicLong and advanced with
+ * compare-and-set, so the next state is never smaller than the previous state
+ * plus one: when the clock goes backwards, or the counter of the current
+ * millisecond is exhausted, numbers keep being issued from the last timestamp
+ * onwards and the counter carries over into it. Numbers are therefore unique
+ * and increasing for the lifetime of the generator. Uniqueness across
+ * generators requires each running generator to have its own node id, and the
+ * clock not to be set back across a restart further than the time the
+ * generator was stopped.
+ * <p>
+ * The number sequence name is not used, all sequences share the numbers of
+ * the node.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class NodeSequenceGenerator implements RangeSequenceGenerator {
+
+	private static final String	LOG_CATEGORY			= NodeSequenceGenerator.class.getCanonicalName();
+
+	/** The number of bits of the counter. */
+	public static final int		COUNTER_BITS			= 12;
+	/** The number of bits of the node id. */
+	public static final int		NODE_BITS				= 10;
+	/** The number of bits of the timestamp. */
+	public static final int		TIMESTAMP_BITS			= 63 - NODE_BITS - COUNTER_BITS;
+	/** The largest node id. */
+	public static final int		MAX_NODE_ID				= (1 << NODE_BITS) - 1;
+	/** The largest range which can be reserved at once. */
+	public static final int		MAX_RANGE_SIZE			= 1 << COUNTER_BITS;
+	/** The default epoch, 2010-01-01T00:00:00Z. */
+	public static final long	DEFAULT_EPOCH			= 1262304000000L;
+
+	private static final long	COUNTER_MASK			= MAX_RANGE_SIZE - 1;
+	private static final long	MAX_TIMESTAMP			= (1L << TIMESTAMP_BITS) - 1;
+	private static final long	MAX_CLOCK_LAG			= 1000;
+
+	private final int			nodeId;
+	private final long			epoch;
+	private final Clock			clock;
+	private final AtomicLong	state					= new AtomicLong();
+
+	/**
+	 * Creates a new NodeSequenceGenerator using the system clock and the
+	 * default epoch.
+	 * 
+	 * @param nodeId
+	 *            the node id, between 0 and MAX_NODE_ID
+	 */
+	public NodeSequenceGenerator(final int nodeId) {
+		this(nodeId, DEFAULT_EPOCH, Clock.systemUTC());
+	}
+
+	/**
+	 * Creates a new NodeSequenceGenerator.
+	 * 
+	 * @param nodeId
+	 *            the node id, between 0 and MAX_NODE_ID
+	 * @param epoch
+	 *            the time the timestamps are relative to, in milliseconds since
+	 *            1970-01-01T00:00:00Z
+	 * @param clock
+	 *            the clock
+	 */
+	public NodeSequenceGenerator(final int nodeId, final long epoch, final Clock clock) {
+		if (nodeId < 0 || nodeId > MAX_NODE_ID) {
+			throw new IllegalArgumentException("The node id must be between 0 and " + MAX_NODE_ID + ": " + nodeId);
+		}
+		this.nodeId = nodeId;
+		this.epoch = epoch;
+		this.clock = clock;
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public String getNextGeneratedNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return String.valueOf(getNextNumber(session, numberSequenceName));
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public long getNextNumber(final IDfSession session, final String numberSequenceName)
+			throws SequenceGeneratorFailedException {
+		return toNumber(advance(1));
+	}
+
+	/**
+	 * Reserves consecutive numbers, all within the same millisecond. The
+	 * session isn't used and may be null.
+	 * 
+	 * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String, int)
+	 * @throws IllegalArgumentException
+	 *             if size is larger than MAX_RANGE_SIZE
+	 */
+	public NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws SequenceGeneratorFailedException {
+		if (size < 1 || size > MAX_RANGE_SIZE) {
+			throw new IllegalArgumentException("The range size must be between 1 and " + MAX_RANGE_SIZE + ": " + size);
+		}
+		return new NumberRange(numberSequenceName, toNumber(advance(size)), 1, size);
+	}
+
+	/**
+	 * @return the node id
+	 */
+	public int getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Extracts the time a number was generated at.
+	 * 
+	 * @param number
+	 *            a number generated by this generator
+	 * @return the time in milliseconds since 1970-01-01T00:00:00Z
+	 */
+	public long getTimestamp(final long number) {
+		return (number >>> (NODE_BITS + COUNTER_BITS)) + epoch;
+	}
+
+	/**
+	 * Extracts the node id a number was generated on.
+	 * 
+	 * @param number
+	 *            a number generated by a NodeSequenceGenerator
+	 * @return the node id
+	 */
+	public static int getNodeId(final long number) {
+		return (int) ((number >>> COUNTER_BITS) & MAX_NODE_ID);
+	}
+
+	/**
+	 * Advances the state by size counter values, all in the same millisecond.
+	 * 
+	 * @param size
+	 *            the number of counter values
+	 * @return the state of the first value
+	 * @throws SequenceGeneratorFailedException
+	 *             if the timestamp no longer fits its bits
+	 */
+	private long advance(final int size) throws SequenceGeneratorFailedException {
+		while (true) {
+			final long now = clock.millis() - epoch;
+			final long last = state.get();
+			long first = Math.max(now << COUNTER_BITS, last + 1);
+			if ((first & COUNTER_MASK) + size - 1 > COUNTER_MASK) {
+				first = ((first >>> COUNTER_BITS) + 1) << COUNTER_BITS;
+			}
+			if ((first >>> COUNTER_BITS) > MAX_TIMESTAMP || now < 0) {
+				throw new SequenceGeneratorFailedException("The clock is outside of the range of node "
+						+ nodeId + ": " + clock.millis());
+			}
+			if (state.compareAndSet(last, first + size - 1)) {
+				final long lag = (last >>> COUNTER_BITS) - now;
+				if (lag > MAX_CLOCK_LAG) {
+					DfLogger.warn(LOG_CATEGORY, "The clock is {0} ms behind the last number issued by node {1}.",
+							new Object[] { String.valueOf(lag), String.valueOf(nodeId) }, null);
+				}
+				return first;
+			}
+		}
+	}
+
+	/**
+	 * Composes the number from the state.
+	 * 
+	 * @param s
+	 *            the state, timestamp and counter
+	 * @return the number
+	 */
+	private long toNumber(final long s) {
+		return ((s >>> COUNTER_BITS) << (NODE_BITS + COUNTER_BITS)) | ((long) nodeId << COUNTER_BITS)
+				| (s & COUNTER_MASK);
+	}
+}
@@ -0,0 +1,175 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+/**
+ * An immutable, contiguous range of numbers reserved from a number sequence.
+ * The range starts at the first value and contains size values, each value
+ * being increment larger than the previous one. A range may carry a prefix,
+ * constant text which precedes every number in the range when it is rendered.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class NumberRange {
+
+	private final String	numberSequenceName;
+	private final long		first;
+	private final int		increment;
+	private final int		size;
+	private final String	prefix;
+
+	/**
+	 * Creates a new NumberRange.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence the range was reserved from
+	 * @param first
+	 *            the first value in the range
+	 * @param increment
+	 *            the difference between two consecutive values
+	 * @param size
+	 *            the number of values in the range
+	 */
+	public NumberRange(final String numberSequenceName, final long first, final int increment, final int size) {
+		this(numberSequenceName, first, increment, size, null);
+	}
+
+	/**
+	 * Creates a new NumberRange with a prefix.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence the range was reserved from
+	 * @param first
+	 *            the first value in the range
+	 * @param increment
+	 *            the difference between two consecutive values
+	 * @param size
+	 *            the number of values in the range
+	 * @param prefix
+	 *            the text preceding every number, or null
+	 */
+	public NumberRange(final String numberSequenceName, final long first, final int increment, final int size,
+			final String prefix) {
+		this.numberSequenceName = numberSequenceName;
+		this.first = first;
+		this.increment = increment;
+		this.size = size;
+		this.prefix = prefix;
+	}
+
+	/**
+	 * Creates a copy of this range with the specified prefix.
+	 * 
+	 * @param newPrefix
+	 *            the text preceding every number, or null
+	 * @return the new range
+	 */
+	public NumberRange withPrefix(final String newPrefix) {
+		return new NumberRange(numberSequenceName, first, increment, size, newPrefix);
+	}
+
+	/**
+	 * Creates the sub-range of this range starting at the specified index.
+	 * 
+	 * @param index
+	 *            the index of the first value of the sub-range
+	 * @param subSize
+	 *            the number of values in the sub-range
+	 * @return the sub-range
+	 * @throws IndexOutOfBoundsException
+	 *             if the sub-range doesn't fit in this range
+	 */
+	public NumberRange subRange(final int index, final int subSize) {
+		if (subSize < 0 || index < 0 || index + subSize > size) {
+			throw new IndexOutOfBoundsException(index + "+" + subSize);
+		}
+		return new NumberRange(numberSequenceName, first + (long) index * increment, increment, subSize, prefix);
+	}
+
+	/**
+	 * Retrieves the value at the specified index.
+	 * 
+	 * @param index
+	 *            the index, in the interval [0, size)
+	 * @return the value at the index
+	 * @throws IndexOutOfBoundsException
+	 *             if the index is outside the range
+	 */
+	public long valueAt(final int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return first + (long) index * increment;
+	}
+
+	/**
+	 * Retrieves the name of the number sequence the range was reserved from.
+	 * 
+	 * @return the name of the number sequence
+	 */
+	public String getNumberSequenceName() {
+		return numberSequenceName;
+	}
+
+	/**
+	 * Retrieves the first value in the range.
+	 * 
+	 * @return the first value
+	 */
+	public long getFirst() {
+		return first;
+	}
+
+	/**
+	 * Retrieves the difference between two consecutive values.
+	 * 
+	 * @return the increment
+	 */
+	public int getIncrement() {
+		return increment;
+	}
+
+	/**
+	 * Retrieves the number of values in the range.
+	 * 
+	 * @return the size of the range
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Retrieves the text preceding every number in the range.
+	 * 
+	 * @return the prefix or null if there is none
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return numberSequenceName + "[" + first + ", +" + increment + " x " + size + "]";
+	}
+}
@@ -0,0 +1,543 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.documentum.fc.client.DfQuery;
+import com.documentum.fc.client.IDfCollection;
+import com.documentum.fc.client.IDfQuery;
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.client.IDfSessionManager;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfLogger;
+import com.emc.xcelerator.activities.generatenumbers.server.ServerSequenceGenerator;
+
+/**
+ * Creates, resets and re-increments many number sequences at once. The names
+ * are processed in alphabetical order, in batches which are each committed in
+ * a single transaction of a session of their own, so administration never
+ * joins a transaction of the caller and doesn't hold locks on more than one
+ * batch of number sequences at a time.
+ * <p>
+ * The operations are idempotent: creating an existing number sequence is a no
+ * op and resetting sets absolute values. When an operation fails the batches
+ * committed so far stay committed and the operation may be resumed after the
+ * last name of the last committed batch, see {@link Result#getResumeAfter()}.
+ * <p>
+ * After each committed batch the caches and leases this JVM holds for the
+ * number sequences of the batch are invalidated. Other JVMs are not reached,
+ * their leases run out or must be invalidated there.
+ * <p>
+ * When the pipeline uses the sequence server backend, create and reset apply
+ * to the counters of the server instead of the repository. The server applies
+ * each sequence on its own, so a failed batch may be partly applied; resuming
+ * applies it again. seedServer copies the number sequences of the repository
+ * to the server, e.g. when switching to the server backend.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class NumberSequenceAdministration {
+
+	private static final String				LOG_CATEGORY		= NumberSequenceAdministration.class
+																		.getCanonicalName();
+	private static final String				CURRENT_VALUE		= "current_value";
+	private static final String				INCREMENT_AMOUNT	= "increment_amount";
+
+	private final SequenceGeneratorPipeline	pipeline;
+	private final IDfSessionManager			sessionManager;
+	private final String					docbaseName;
+	private final int						batchSize;
+
+	/**
+	 * Creates a new NumberSequenceAdministration.
+	 * 
+	 * @param pipeline
+	 *            the pipeline whose caches are invalidated, may be null
+	 * @param sessionManager
+	 *            the session manager sessions are taken from
+	 * @param docbaseName
+	 *            the name of the repository
+	 * @param batchSize
+	 *            the number of number sequences per transaction
+	 */
+	public NumberSequenceAdministration(final SequenceGeneratorPipeline pipeline,
+			final IDfSessionManager sessionManager, final String docbaseName, final int batchSize) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("The batch size must be positive: " + batchSize);
+		}
+		this.pipeline = pipeline;
+		this.sessionManager = sessionManager;
+		this.docbaseName = docbaseName;
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Creates the number sequences which don't exist yet. Existing number
+	 * sequences are left untouched and counted as skipped.
+	 * 
+	 * @param names
+	 *            the names of the number sequences
+	 * @param currentValue
+	 *            the initial current value
+	 * @param incrementAmount
+	 *            the increment amount
+	 * @param resumeAfter
+	 *            the name after which to start, null to start at the first
+	 * @return the outcome
+	 */
+	public Result create(final Collection<String> names, final int currentValue, final int incrementAmount,
+			final String resumeAfter) {
+		final ServerSequenceGenerator server = getServer();
+		if (server != null) {
+			return run(names, resumeAfter, false, new Operation() {
+				public void apply(final IDfSession session, final List<String> batch, final Result result)
+						throws DfException {
+					for (final String name : batch) {
+						if (server.create(name, currentValue, incrementAmount)) {
+							result.processed += 1;
+						} else {
+							result.skipped += 1;
+						}
+					}
+				}
+			});
+		}
+		return run(names, resumeAfter, true, new Operation() {
+			public void apply(final IDfSession session, final List<String> batch, final Result result)
+					throws DfException {
+				final Set<String> existing = findExisting(session, batch);
+				for (final String name : batch) {
+					if (existing.contains(name)) {
+						result.skipped += 1;
+					} else {
+						NumberSequenceObject.create(session, getNumberSequenceType(), name, currentValue,
+								incrementAmount);
+						result.processed += 1;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sets the current value of existing number sequences. Number sequences
+	 * which don't exist are counted as missing.
+	 * <p>
+	 * The pending and released numbers stored for gapless number sequences are
+	 * discarded in the same transaction.
+	 * <p>
+	 * <b>Note:</b> running a reset again after numbers were generated from the
+	 * number sequences hands these numbers out a second time, resume with
+	 * {@link Result#getResumeAfter()} rather than starting over.
+	 * 
+	 * @param names
+	 *            the names of the number sequences
+	 * @param currentValue
+	 *            the new current value
+	 * @param resumeAfter
+	 *            the name after which to start, null to start at the first
+	 * @return the outcome
+	 */
+	public Result reset(final Collection<String> names, final int currentValue, final String resumeAfter) {
+		final ServerSequenceGenerator server = getServer();
+		if (server != null) {
+			return run(names, resumeAfter, false, new Operation() {
+				public void apply(final IDfSession session, final List<String> batch, final Result result)
+						throws DfException {
+					for (final String name : batch) {
+						try {
+							server.reset(name, currentValue);
+							result.processed += 1;
+						} catch (final SequenceObjectNotFoundException e) {
+							result.missing.add(name);
+						}
+					}
+				}
+			});
+		}
+		return run(names, resumeAfter, true, new Operation() {
+			public void apply(final IDfSession session, final List<String> batch, final Result result)
+					throws DfException {
+				update(session, batch, CURRENT_VALUE, String.valueOf(currentValue), result);
+				discardGaplessNumbers(session, batch);
+			}
+		});
+	}
+
+	/**
+	 * Sets the increment amount of existing number sequences in the repository.
+	 * Number sequences which don't exist are counted as missing.
+	 * 
+	 * @param names
+	 *            the names of the number sequences
+	 * @param incrementAmount
+	 *            the new increment amount
+	 * @param resumeAfter
+	 *            the name after which to start, null to start at the first
+	 * @return the outcome
+	 */
+	public Result setIncrementAmount(final Collection<String> names, final int incrementAmount,
+			final String resumeAfter) {
+		return run(names, resumeAfter, true, new Operation() {
+			public void apply(final IDfSession session, final List<String> batch, final Result result)
+					throws DfException {
+				update(session, batch, INCREMENT_AMOUNT, String.valueOf(incrementAmount), result);
+			}
+		});
+	}
+
+	/**
+	 * Sets the counters of the sequence server to the current values and
+	 * increment amounts of the number sequences in the repository, creating
+	 * them on the server if necessary. Number sequences which don't exist in
+	 * the repository are counted as missing.
+	 * <p>
+	 * <b>Note:</b> seeding sets absolute values, seed before the server hands
+	 * out numbers of the sequences or the numbers handed out since are handed
+	 * out a second time.
+	 * 
+	 * @param names
+	 *            the names of the number sequences, null for all the number
+	 *            sequences in the repository
+	 * @param resumeAfter
+	 *            the name after which to start, null to start at the first
+	 * @return the outcome
+	 * @throws IllegalStateException
+	 *             if the pipeline doesn't use the sequence server backend
+	 */
+	public Result seedServer(final Collection<String> names, final String resumeAfter) {
+		final ServerSequenceGenerator server = getServer();
+		if (server == null) {
+			throw new IllegalStateException("The pipeline doesn't use the sequence server backend.");
+		}
+		Collection<String> seeded = names;
+		if (seeded == null) {
+			try {
+				seeded = findAll();
+			} catch (final DfException e) {
+				DfLogger.error(LOG_CATEGORY, "Couldn't list the number sequences to seed the sequence server.",
+						null, e);
+				final Result result = new Result(resumeAfter);
+				result.failure = e;
+				return result;
+			}
+		}
+		return run(seeded, resumeAfter, true, new Operation() {
+			public void apply(final IDfSession session, final List<String> batch, final Result result)
+					throws DfException {
+				final StringBuilder dql = new StringBuilder("SELECT object_name, current_value, increment_amount FROM ");
+				dql.append(getNumberSequenceType()).append(" WHERE ");
+				appendNameCondition(dql, batch);
+				final IDfQuery query = new DfQuery();
+				query.setDQL(dql.toString());
+				final Set<String> found = new HashSet<String>();
+				final IDfCollection values = query.execute(session, IDfQuery.DF_READ_QUERY);
+				try {
+					while (values.next()) {
+						final String name = values.getString("object_name");
+						server.setCurrentValue(name, Long.parseLong(values.getString(CURRENT_VALUE)), values
+								.getInt(INCREMENT_AMOUNT));
+						found.add(name);
+					}
+				} finally {
+					values.close();
+				}
+				for (final String name : batch) {
+					if (found.contains(name)) {
+						result.processed += 1;
+					} else {
+						result.missing.add(name);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Retrieves the name of the number sequence type.
+	 * 
+	 * @return the type name
+	 */
+	protected String getNumberSequenceType() {
+		return RetrySequenceGenerator.NUMBER_SEQUENCE_TYPE;
+	}
+
+	private ServerSequenceGenerator getServer() {
+		return pipeline == null ? null : pipeline.findLayer(ServerSequenceGenerator.class);
+	}
+
+	private Result run(final Collection<String> names, final String resumeAfter, final boolean transactional,
+			final Operation operation) {
+		SortedSet<String> pending = new TreeSet<String>(names);
+		if (resumeAfter != null) {
+			pending = pending.tailSet(resumeAfter + '\0');
+		}
+		final Result result = new Result(resumeAfter);
+		final List<String> batch = new ArrayList<String>(batchSize);
+		for (final String name : pending) {
+			batch.add(name);
+			if (batch.size() == batchSize) {
+				if (!runBatch(batch, transactional, operation, result)) {
+					return result;
+				}
+				batch.clear();
+			}
+		}
+		if (!batch.isEmpty()) {
+			runBatch(batch, transactional, operation, result);
+		}
+		return result;
+	}
+
+	private boolean runBatch(final List<String> batch, final boolean transactional, final Operation operation,
+			final Result result) {
+		final Result counts = new Result(null);
+		IDfSession session = null;
+		try {
+			if (!transactional) {
+				operation.apply(null, batch, counts);
+			} else {
+				session = sessionManager.newSession(docbaseName);
+				session.beginTrans();
+				try {
+					operation.apply(session, batch, counts);
+					session.commitTrans();
+				} finally {
+					if (session.isTransactionActive()) {
+						session.abortTrans();
+					}
+				}
+			}
+		} catch (final DfException e) {
+			DfLogger.error(LOG_CATEGORY, "Number sequence administration failed in the batch starting at "
+					+ batch.get(0) + ", resume after " + result.resumeAfter, null, e);
+			result.failure = e;
+			return false;
+		} finally {
+			if (session != null) {
+				sessionManager.release(session);
+			}
+		}
+		result.processed += counts.processed;
+		result.skipped += counts.skipped;
+		result.missing.addAll(counts.missing);
+		result.resumeAfter = batch.get(batch.size() - 1);
+		invalidate(batch);
+		return true;
+	}
+
+	private void discardGaplessNumbers(final IDfSession session, final List<String> batch) throws DfException {
+		final GaplessSequenceGenerator gapless = pipeline == null ? null : pipeline
+				.findLayer(GaplessSequenceGenerator.class);
+		if (gapless == null || gapless.getStore() == null) {
+			return;
+		}
+		final List<String> names = new ArrayList<String>();
+		for (final String name : batch) {
+			if (gapless.isGapless(name)) {
+				names.add(name);
+			}
+		}
+		gapless.getStore().discard(session, names);
+	}
+
+	private void invalidate(final List<String> batch) {
+		if (pipeline == null) {
+			return;
+		}
+		final RetrySequenceGenerator retry = pipeline.findLayer(RetrySequenceGenerator.class);
+		final LeasingSequenceGenerator leasing = pipeline.findLayer(LeasingSequenceGenerator.class);
+		final GaplessSequenceGenerator gapless = pipeline.findLayer(GaplessSequenceGenerator.class);
+		for (final String name : batch) {
+			if (retry != null) {
+				retry.invalidate(name);
+			}
+			if (leasing != null) {
+				leasing.invalidate(name);
+			}
+			if (gapless != null) {
+				gapless.invalidate(name);
+			}
+		}
+	}
+
+	private void update(final IDfSession session, final List<String> batch, final String attribute,
+			final String value, final Result result) throws DfException {
+		final Set<String> existing = findExisting(session, batch);
+		if (!existing.isEmpty()) {
+			final StringBuilder dql = new StringBuilder("UPDATE ");
+			dql.append(getNumberSequenceType()).append(" OBJECTS SET ").append(attribute).append(" = ");
+			dql.append(value).append(" WHERE ");
+			appendNameCondition(dql, existing);
+			final IDfQuery query = new DfQuery();
+			query.setDQL(dql.toString());
+			query.execute(session, IDfQuery.DF_EXEC_QUERY).close();
+		}
+		for (final String name : batch) {
+			if (existing.contains(name)) {
+				result.processed += 1;
+			} else {
+				result.missing.add(name);
+			}
+		}
+	}
+
+	private SortedSet<String> findAll() throws DfException {
+		final IDfSession session = sessionManager.newSession(docbaseName);
+		try {
+			final IDfQuery query = new DfQuery();
+			query.setDQL("SELECT object_name FROM " + getNumberSequenceType());
+			final SortedSet<String> names = new TreeSet<String>();
+			final IDfCollection result = query.execute(session, IDfQuery.DF_READ_QUERY);
+			try {
+				while (result.next()) {
+					names.add(result.getString("object_name"));
+				}
+			} finally {
+				result.close();
+			}
+			return names;
+		} finally {
+			sessionManager.release(session);
+		}
+	}
+
+	private Set<String> findExisting(final IDfSession session, final Collection<String> names) throws DfException {
+		final StringBuilder dql = new StringBuilder("SELECT object_name FROM ");
+		dql.append(getNumberSequenceType()).append(" WHERE ");
+		appendNameCondition(dql, names);
+		final IDfQuery query = new DfQuery();
+		query.setDQL(dql.toString());
+		final Set<String> existing = new HashSet<String>();
+		final IDfCollection result = query.execute(session, IDfQuery.DF_READ_QUERY);
+		try {
+			while (result.next()) {
+				existing.add(result.getString("object_name"));
+			}
+		} finally {
+			result.close();
+		}
+		return existing;
+	}
+
+	private static void appendNameCondition(final StringBuilder dql, final Collection<String> names) {
+		dql.append("object_name IN (");
+		boolean first = true;
+		for (final String name : names) {
+			if (!first) {
+				dql.append(", ");
+			}
+			dql.append('\'').append(name.replace("'", "''")).append('\'');
+			first = false;
+		}
+		dql.append(')');
+	}
+
+	/**
+	 * The work done on one batch, within its transaction unless it works on
+	 * the sequence server, where the session is null.
+	 */
+	private interface Operation {
+		void apply(IDfSession session, List<String> batch, Result result) throws DfException;
+	}
+
+	/**
+	 * The outcome of an administration operation.
+	 */
+	public static class Result {
+
+		private int					processed;
+		private int					skipped;
+		private final List<String>	missing	= new ArrayList<String>();
+		private String				resumeAfter;
+		private DfException			failure;
+
+		Result(final String resumeAfter) {
+			this.resumeAfter = resumeAfter;
+		}
+
+		/**
+		 * Retrieves the number of number sequences created or updated.
+		 * 
+		 * @return the number of number sequences
+		 */
+		public int getProcessed() {
+			return processed;
+		}
+
+		/**
+		 * Retrieves the number of number sequences which weren't created
+		 * because they existed already.
+		 * 
+		 * @return the number of number sequences
+		 */
+		public int getSkipped() {
+			return skipped;
+		}
+
+		/**
+		 * Retrieves the names of the number sequences which weren't updated
+		 * because they don't exist.
+		 * 
+		 * @return the names, in alphabetical order
+		 */
+		public List<String> getMissing() {
+			return missing;
+		}
+
+		/**
+		 * Retrieves the last name of the last committed batch, the name to
+		 * resume after if the operation failed.
+		 * 
+		 * @return the name, null if no batch was committed and the operation
+		 *         didn't resume
+		 */
+		public String getResumeAfter() {
+			return resumeAfter;
+		}
+
+		/**
+		 * Retrieves the error which stopped the operation.
+		 * 
+		 * @return the error, null if all batches were committed
+		 */
+		public DfException getFailure() {
+			return failure;
+		}
+
+		/**
+		 * Tells whether all batches were committed.
+		 * 
+		 * @return true if the operation completed
+		 */
+		public boolean isComplete() {
+			return failure == null;
+		}
+	}
+}
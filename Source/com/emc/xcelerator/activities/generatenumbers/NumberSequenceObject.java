@@ -21,7 +21,10 @@
 
 package com.emc.xcelerator.activities.generatenumbers;
 
+import com.documentum.fc.client.DfQuery;
+import com.documentum.fc.client.IDfCollection;
 import com.documentum.fc.client.IDfPersistentObject;
+import com.documentum.fc.client.IDfQuery;
 import com.documentum.fc.client.IDfSession;
 import com.documentum.fc.common.DfException;
 
@@ -35,6 +38,9 @@ public class NumberSequenceObject {
 
 	private static final String	CURRENT_VALUE		= "current_value";
 	private static final String	INCREMENT_AMOUNT	= "increment_amount";
+	private static final String	OBJECT_TYPE			= "r_object_type";
+	private static final String	OBJECT_NAME			= "object_name";
+	private static final String	OBJECTS_UPDATED		= "objects_updated";
 	private IDfPersistentObject	object;
 
 	/**
@@ -48,6 +54,34 @@ public class NumberSequenceObject {
 		this.object = object;
 	}
 
+	/**
+	 * Creates and persists a new number sequence.
+	 * 
+	 * @param session
+	 *            the repository session
+	 * @param typeName
+	 *            the name of the number sequence type
+	 * @param name
+	 *            the name of the number sequence
+	 * @param currentValue
+	 *            the initial current value
+	 * @param incrementAmount
+	 *            the increment amount
+	 * @return the new number sequence
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 */
+	public static NumberSequenceObject create(final IDfSession session, final String typeName, final String name,
+			final int currentValue, final int incrementAmount) throws DfException {
+		final IDfPersistentObject object = session.newObject(typeName);
+		object.setString(OBJECT_NAME, name);
+		final NumberSequenceObject seq = new NumberSequenceObject(object);
+		seq.setCurrentValue(currentValue);
+		seq.setIncrementAmount(incrementAmount);
+		seq.save();
+		return seq;
+	}
+
 	/**
 	 * Retrieves the increment amount.
 	 * 
@@ -128,13 +162,115 @@ public class NumberSequenceObject {
 	 * @throws DfException if an internal error occurred. 
 	 */
 	public String getAndIncrement() throws DfException {
+		return String.valueOf(getAndIncrementValue());
+	}
+
+	/**
+	 * Retrieves the current value while also creating the next value by
+	 * incrementing the current value and persisting it.
+	 * 
+	 * @return the next value, as a number
+	 * @throws DfException if an internal error occurred. 
+	 */
+	public int getAndIncrementValue() throws DfException {
 		final int incrementValue = getIncrementAmount();
-		int currentValue = getCurrentValue();
-		final String retVal = String.valueOf(currentValue);
-		currentValue += incrementValue;
-		setCurrentValue(currentValue);
+		final int currentValue = getCurrentValue();
+		setCurrentValue(currentValue + incrementValue);
 		save();
-		return retVal;
+		return currentValue;
+	}
+
+	/**
+	 * Retrieves the version stamp (i_vstamp) of the underlying object as it was
+	 * when the object was last fetched.
+	 * 
+	 * @return the version stamp.
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 */
+	public int getVStamp() throws DfException {
+		return object.getVStamp();
+	}
+
+	/**
+	 * Sets the current value to the specified amount, provided the number
+	 * sequence hasn't been modified since it was last fetched. The update is
+	 * qualified by the version stamp, so a concurrent modification simply
+	 * results in no object being updated instead of a VERSION_MISMATCH
+	 * exception being thrown.
+	 * 
+	 * <b>Note:</b> the underlying object is stale after this method returns,
+	 * refresh must be called before the sequence is read again.
+	 * 
+	 * @param session
+	 *            the repository session
+	 * @param currentValue
+	 *            the new currentValue.
+	 * @return true if the current value was updated, false if the number
+	 *         sequence was concurrently modified.
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 */
+	public boolean compareAndSetCurrentValue(final IDfSession session, final int currentValue) throws DfException {
+		return compareAndSetCurrentValue(new DfQuery(), session, currentValue);
+	}
+
+	/**
+	 * Sets the current value like {@link #compareAndSetCurrentValue(IDfSession, int)},
+	 * running the update with the specified query.
+	 * 
+	 * @param query
+	 *            the query to run the update with
+	 * @param session
+	 *            the repository session
+	 * @param currentValue
+	 *            the new currentValue.
+	 * @return true if the current value was updated, false if the number
+	 *         sequence was concurrently modified.
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 */
+	boolean compareAndSetCurrentValue(final IDfQuery query, final IDfSession session, final int currentValue)
+			throws DfException {
+		return compareAndSetCurrentValue(query, session, object.getString(OBJECT_TYPE), object.getObjectId().getId(),
+				getVStamp(), currentValue);
+	}
+
+	/**
+	 * Sets the current value of a number sequence known only by its query
+	 * result, provided its version stamp is still the one read.
+	 * 
+	 * @param query
+	 *            the query to run the update with
+	 * @param session
+	 *            the repository session
+	 * @param typeName
+	 *            the type of the number sequence object
+	 * @param objectId
+	 *            the object id of the number sequence
+	 * @param vstamp
+	 *            the version stamp read along with the current value
+	 * @param currentValue
+	 *            the new current value
+	 * @return true if the value was updated, false if the object was modified
+	 *         since it was read
+	 * @throws DfException
+	 *             if an internal error occurred.
+	 */
+	static boolean compareAndSetCurrentValue(final IDfQuery query, final IDfSession session, final String typeName,
+			final String objectId, final int vstamp, final int currentValue) throws DfException {
+		// built per call: this runs concurrently for every number and a shared
+		// MessageFormat isn't thread-safe
+		final StringBuilder dql = new StringBuilder(128);
+		dql.append("UPDATE ").append(typeName).append(" OBJECTS SET current_value = ").append(currentValue);
+		dql.append(" WHERE r_object_id = '").append(objectId).append("' AND i_vstamp = ").append(vstamp);
+		query.setDQL(dql.toString());
+		final IDfCollection result = query.execute(session, IDfQuery.DF_EXEC_QUERY);
+		try {
+			return result.next() && result.getInt(OBJECTS_UPDATED) > 0;
+		} finally {
+			result.close();
+		}
 	}
 
 	/**
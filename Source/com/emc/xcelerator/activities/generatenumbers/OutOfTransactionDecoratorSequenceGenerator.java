@@ -1,45 +1,204 @@
 package com.emc.xcelerator.activities.generatenumbers;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 import com.documentum.fc.client.IDfSession;
 import com.documentum.fc.client.IDfSessionManager;
 import com.documentum.fc.common.DfException;
+import com.emc.xcelerator.activities.generatenumbers.jfr.SessionCreationEvent;
 
 public class OutOfTransactionDecoratorSequenceGenerator implements
-		SequenceGenerator {
+		MultiSequenceGenerator, SequenceGeneratorDecorator {
 
-	private SequenceGenerator sequenceGenerator;
-	private static final int[] LOCK = new int[0];	
+	private RangeSequenceGenerator sequenceGenerator;
+	// One lock per number sequence, shared by all instances. These are
+	// java.util.concurrent locks rather than monitors so that a virtual thread
+	// blocked on the repository doesn't pin its carrier thread.
+	private static final ConcurrentMap<String, Lock> LOCKS = new ConcurrentHashMap<String, Lock>();
 
 	public OutOfTransactionDecoratorSequenceGenerator(
-			SequenceGenerator sequenceGenerator) {
+			RangeSequenceGenerator sequenceGenerator) {
 		this.sequenceGenerator = sequenceGenerator;
 	}
 
 	public String getNextGeneratedNumber(IDfSession session,
-			String numberSequenceName) throws DfException,
+			final String numberSequenceName) throws DfException,
 			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return outOfTransaction(session, Collections.singleton(numberSequenceName),
+				new Call<String>() {
+					public String call(IDfSession callSession) throws DfException {
+						return sequenceGenerator.getNextGeneratedNumber(callSession, numberSequenceName);
+					}
+				});
+	}
+
+	public long getNextNumber(IDfSession session, final String numberSequenceName)
+			throws DfException, SequenceObjectNotFoundException,
+			SequenceGeneratorFailedException {
+		return outOfTransaction(session, Collections.singleton(numberSequenceName),
+				new Call<Long>() {
+					public Long call(IDfSession callSession) throws DfException {
+						return Long.valueOf(sequenceGenerator.getNextNumber(callSession, numberSequenceName));
+					}
+				}).longValue();
+	}
 
-		synchronized (LOCK) {
+	public NumberRange reserveRange(IDfSession session,
+			final String numberSequenceName, final int size) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return outOfTransaction(session, Collections.singleton(numberSequenceName),
+				new Call<NumberRange>() {
+					public NumberRange call(IDfSession callSession) throws DfException {
+						return sequenceGenerator.reserveRange(callSession, numberSequenceName, size);
+					}
+				});
+	}
+
+	public Map<String, NumberRange> reserveRanges(IDfSession session,
+			final SortedMap<String, Integer> sizes) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return outOfTransaction(session, sizes.keySet(),
+				new Call<Map<String, NumberRange>>() {
+					public Map<String, NumberRange> call(IDfSession callSession) throws DfException {
+						return reserveRangesUnlocked(callSession, sizes);
+					}
+				});
+	}
+
+	private Map<String, NumberRange> reserveRangesUnlocked(IDfSession session,
+			SortedMap<String, Integer> sizes) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		if (sequenceGenerator instanceof MultiSequenceGenerator) {
+			return ((MultiSequenceGenerator) sequenceGenerator).reserveRanges(
+					session, sizes);
+		}
+		Map<String, NumberRange> ranges = new LinkedHashMap<String, NumberRange>();
+		for (Map.Entry<String, Integer> entry : sizes.entrySet()) {
+			ranges.put(entry.getKey(), sequenceGenerator.reserveRange(session,
+					entry.getKey(), entry.getValue().intValue()));
+		}
+		return ranges;
+	}
+
+	public RangeSequenceGenerator getSequenceGenerator() {
+		return sequenceGenerator;
+	}
+
+	/**
+	 * Drops the lock of a number sequence which won't be used anymore, e.g.
+	 * the backing sequence of a period which ended. The lock is only dropped
+	 * while nobody holds it, and a request which obtained it just before it
+	 * was dropped finds it gone once it holds it and takes the current lock
+	 * instead, so requests for the sequence stay mutually exclusive.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 */
+	public static void releaseLock(String numberSequenceName) {
+		Lock lock = LOCKS.get(numberSequenceName);
+		if (lock != null && lock.tryLock()) {
+			try {
+				LOCKS.remove(numberSequenceName, lock);
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Runs a call holding the locks of the specified number sequences, in a
+	 * session of its own if the caller's session is in a transaction.
+	 * 
+	 * @param session
+	 *            the caller's session
+	 * @param numberSequenceNames
+	 *            the number sequences to lock, in the order of their names so
+	 *            that two multi-sequence requests can't each hold a lock the
+	 *            other waits for
+	 * @param call
+	 *            the call
+	 * @return the result of the call
+	 */
+	private static <T> T outOfTransaction(IDfSession session,
+			Collection<String> numberSequenceNames, Call<T> call)
+			throws DfException {
+		List<Lock> locks = new ArrayList<Lock>(numberSequenceNames.size());
+		try {
+			for (String numberSequenceName : numberSequenceNames) {
+				Lock lock = getLock(numberSequenceName);
+				lock.lock();
+				while (LOCKS.get(numberSequenceName) != lock) {
+					// dropped by releaseLock while this request waited for it
+					lock.unlock();
+					lock = getLock(numberSequenceName);
+					lock.lock();
+				}
+				locks.add(lock);
+			}
 
 			if (session.isTransactionActive()) {
 				IDfSessionManager sessionManager = session.getSessionManager();
 				IDfSession newSession = null;
 				try {
-					newSession = sessionManager.newSession(session
-							.getDocbaseName());
-					
-					
-					return sequenceGenerator.getNextGeneratedNumber(newSession,numberSequenceName);
+					newSession = newSession(sessionManager, session,
+							numberSequenceNames.iterator().next());
+					return call.call(newSession);
 				} finally {
 					if (newSession != null) {
 						sessionManager.release(newSession);
 					}
 				}
 			} else {
-				return sequenceGenerator.getNextGeneratedNumber(session,
-						numberSequenceName);
+				return call.call(session);
+			}
+		} finally {
+			for (int i = locks.size() - 1; i >= 0; --i) {
+				locks.get(i).unlock();
 			}
 		}
 	}
 
+	private static IDfSession newSession(IDfSessionManager sessionManager,
+			IDfSession session, String numberSequenceName) throws DfException {
+		SessionCreationEvent event = new SessionCreationEvent();
+		event.begin();
+		IDfSession newSession = sessionManager.newSession(session
+				.getDocbaseName());
+		if (event.shouldCommit()) {
+			event.sequence = numberSequenceName;
+			event.docbase = session.getDocbaseName();
+			event.commit();
+		}
+		return newSession;
+	}
+
+	private static Lock getLock(String numberSequenceName) {
+		Lock lock = LOCKS.get(numberSequenceName);
+		if (lock == null) {
+			Lock newLock = new ReentrantLock();
+			lock = LOCKS.putIfAbsent(numberSequenceName, newLock);
+			if (lock == null) {
+				lock = newLock;
+			}
+		}
+		return lock;
+	}
+
+	/**
+	 * A generator call made out of the caller's transaction.
+	 */
+	private interface Call<T> {
+		T call(IDfSession session) throws DfException;
+	}
+
 }
@@ -0,0 +1,167 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.time.Clock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+
+/**
+ * The PeriodSequenceGenerator decorator maps period-scoped sequences to the
+ * number sequence backing the current period and attaches the period's prefix
+ * to the reserved range. Other sequences pass through unchanged.
+ * <p>
+ * The clock is read once per request and the request is served entirely from
+ * the period containing that instant, so requests racing across a rollover
+ * boundary each use a consistent backing sequence and prefix. The resolved
+ * period is cached until the clock leaves it, and is only ever replaced by a
+ * later period.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class PeriodSequenceGenerator implements RangeSequenceGenerator, SequenceGeneratorDecorator {
+
+	private final RangeSequenceGenerator						sequenceGenerator;
+	private final PeriodSequences								periods;
+	private final Clock											clock;
+	private final ConcurrentMap<String, PeriodSequences.State>	states	= new ConcurrentHashMap<String, PeriodSequences.State>();
+
+	/**
+	 * Creates a new PeriodSequenceGenerator.
+	 * 
+	 * @param sequenceGenerator
+	 *            the generator of the backing number sequences
+	 * @param periods
+	 *            the period-scoped sequences
+	 * @param clock
+	 *            the clock determining the current period
+	 */
+	public PeriodSequenceGenerator(final RangeSequenceGenerator sequenceGenerator, final PeriodSequences periods,
+			final Clock clock) {
+		this.sequenceGenerator = sequenceGenerator;
+		this.periods = periods;
+		this.clock = clock;
+	}
+
+	/**
+	 * Returns the number without its prefix, use reserveRange to obtain both.
+	 * 
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public String getNextGeneratedNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return String.valueOf(getNextNumber(session, numberSequenceName));
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public long getNextNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return reserveRange(session, numberSequenceName, 1).getFirst();
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String, int)
+	 */
+	public NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final PeriodSequences.Definition definition = periods.getDefinition(numberSequenceName);
+		if (definition == null) {
+			return sequenceGenerator.reserveRange(session, numberSequenceName, size);
+		}
+		final PeriodSequences.State state = getState(definition, clock.millis());
+		return sequenceGenerator.reserveRange(session, state.getBackingName(), size).withPrefix(state.getPrefix());
+	}
+
+	/**
+	 * Retrieves the state of a period-scoped sequence at the specified instant,
+	 * resolving it again only when the instant lies outside the cached period.
+	 * The cache only moves forward: an instant read before a rollover another
+	 * thread already cached is served from its own period without touching the
+	 * cache, and only the thread which replaced the cached state ends the
+	 * previous period.
+	 * 
+	 * @param definition
+	 *            the period-scoped sequence
+	 * @param now
+	 *            the instant, in milliseconds since the epoch
+	 * @return the state
+	 */
+	protected PeriodSequences.State getState(final PeriodSequences.Definition definition, final long now) {
+		final String name = definition.getName();
+		PeriodSequences.State state = states.get(name);
+		while (state == null || !state.getPeriod().contains(now)) {
+			final PeriodSequences.State resolved = definition.stateAt(now);
+			if (state == null) {
+				state = states.putIfAbsent(name, resolved);
+				if (state == null) {
+					return resolved;
+				}
+			} else if (resolved.getPeriod().getStartMillis() <= state.getPeriod().getStartMillis()) {
+				return resolved;
+			} else if (states.replace(name, state, resolved)) {
+				if (!state.getBackingName().equals(resolved.getBackingName())) {
+					periodEnded(state);
+				}
+				return resolved;
+			} else {
+				state = states.get(name);
+			}
+		}
+		return state;
+	}
+
+	/**
+	 * Called when a period-scoped sequence rolled over, releases what was held
+	 * for the backing sequence of the previous period.
+	 * 
+	 * @param previous
+	 *            the state of the previous period
+	 */
+	protected void periodEnded(final PeriodSequences.State previous) {
+		if (SequenceGeneratorPipeline.findLayer(sequenceGenerator,
+				OutOfTransactionDecoratorSequenceGenerator.class) != null) {
+			OutOfTransactionDecoratorSequenceGenerator.releaseLock(previous.getBackingName());
+		}
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorDecorator#getSequenceGenerator()
+	 */
+	public RangeSequenceGenerator getSequenceGenerator() {
+		return sequenceGenerator;
+	}
+
+	/**
+	 * @return the period-scoped sequences
+	 */
+	public PeriodSequences getPeriods() {
+		return periods;
+	}
+}
@@ -0,0 +1,234 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.documentum.fc.common.DfLogger;
+
+/**
+ * The period-scoped number sequences defined in the configuration. A
+ * period-scoped sequence named INV is backed by one number sequence per
+ * period, named INV_&lt;period key&gt; (e.g. INV_2026), which is created on
+ * demand the first time a number is requested in the period.
+ * <p>
+ * Configuration:
+ * <ul>
+ * <li>generatenumbers.periods: the comma separated names of the period-scoped
+ * sequences</li>
+ * <li>generatenumbers.period.&lt;name&gt;: YEARLY, MONTHLY or DAILY</li>
+ * <li>generatenumbers.period.&lt;name&gt;.prefix: the prefix of every number, {0}
+ * is replaced by the period key (e.g. INV-{0}-), every other character,
+ * including apostrophes and braces, is taken literally</li>
+ * <li>generatenumbers.period.&lt;name&gt;.initialValue and .increment: the initial
+ * values of the backing number sequences, both default to 1</li>
+ * <li>generatenumbers.periods.timeZone: the time zone periods are defined in,
+ * defaults to the JVM time zone</li>
+ * </ul>
+ * <b>Note:</b> concurrent creation of a backing number sequence is serialized
+ * within the JVM only. Nodes rolling over together may each create it; the
+ * repository backend then keeps the one with the lowest object id and
+ * destroys the others, so creating the backing number sequences ahead of the
+ * rollover remains the cheaper option.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class PeriodSequences implements NumberSequenceCreationPolicy {
+
+	private static final String				LOG_CATEGORY	= PeriodSequences.class.getCanonicalName();
+	private static final String				SEPARATOR		= "_";
+	private static final String				KEY_PLACEHOLDER	= "{0}";
+
+	private final Map<String, Definition>	definitions;
+	private final ZoneId					zone;
+
+	/**
+	 * Creates the period-scoped sequences defined in the configuration.
+	 * 
+	 * @param config
+	 *            the configuration
+	 */
+	public PeriodSequences(final SequenceGeneratorConfiguration config) {
+		final Map<String, Definition> map = new HashMap<String, Definition>();
+		for (final String name : config.getList(SequenceGeneratorConfiguration.PERIODS)) {
+			final String key = SequenceGeneratorConfiguration.PERIOD + name;
+			final String period = config.getString(key, null);
+			try {
+				map.put(name, new Definition(name, SequencePeriod.valueOf(String.valueOf(period).toUpperCase()),
+						config.getString(key + ".prefix", null), config.getInt(key + ".initialValue", 1), config
+								.getInt(key + ".increment", 1)));
+			} catch (final IllegalArgumentException e) {
+				DfLogger.warn(LOG_CATEGORY, "Ignoring period-scoped sequence '" + name + "', invalid period '"
+						+ period + "'.", null, null);
+			}
+		}
+		this.definitions = Collections.unmodifiableMap(map);
+		final String timeZone = config.getString(SequenceGeneratorConfiguration.PERIODS_TIME_ZONE, null);
+		this.zone = timeZone == null ? ZoneId.systemDefault() : ZoneId.of(timeZone);
+	}
+
+	/**
+	 * @return true if no period-scoped sequences are defined
+	 */
+	public boolean isEmpty() {
+		return definitions.isEmpty();
+	}
+
+	/**
+	 * Retrieves the definition of a period-scoped sequence.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the sequence
+	 * @return the definition or null if the sequence isn't period-scoped
+	 */
+	public Definition getDefinition(final String numberSequenceName) {
+		return definitions.get(numberSequenceName);
+	}
+
+	/**
+	 * @return the time zone periods are defined in
+	 */
+	public ZoneId getZone() {
+		return zone;
+	}
+
+	/**
+	 * Allows the backing number sequences of the period-scoped sequences to be
+	 * created, provided the name carries a well-formed period key.
+	 * 
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumberSequenceCreationPolicy#getInitialValues(java.lang.String)
+	 */
+	public int[] getInitialValues(final String numberSequenceName) {
+		final int separator = numberSequenceName.lastIndexOf(SEPARATOR);
+		if (separator < 0) {
+			return null;
+		}
+		final Definition definition = definitions.get(numberSequenceName.substring(0, separator));
+		if (definition == null || !definition.isPeriodKey(numberSequenceName.substring(separator + 1))) {
+			return null;
+		}
+		return new int[] { definition.initialValue, definition.incrementAmount };
+	}
+
+	/**
+	 * The definition of a period-scoped sequence.
+	 */
+	public class Definition {
+		private final String			name;
+		private final SequencePeriod	period;
+		private final String			prefixPattern;
+		private final int				initialValue;
+		private final int				incrementAmount;
+
+		Definition(final String name, final SequencePeriod period, final String prefixPattern,
+				final int initialValue, final int incrementAmount) {
+			this.name = name;
+			this.period = period;
+			this.prefixPattern = prefixPattern;
+			this.initialValue = initialValue;
+			this.incrementAmount = incrementAmount;
+		}
+
+		/**
+		 * Resolves the backing number sequence and prefix of the period
+		 * containing the specified instant.
+		 * 
+		 * @param epochMillis
+		 *            the instant, in milliseconds since the epoch
+		 * @return the state of the sequence in that period
+		 */
+		public State stateAt(final long epochMillis) {
+			final SequencePeriod.Period p = period.periodOf(epochMillis, zone);
+			final String prefix = prefixPattern == null ? null : prefixPattern.replace(KEY_PLACEHOLDER, p
+					.getKey());
+			return new State(p, name + SEPARATOR + p.getKey(), prefix);
+		}
+
+		boolean isPeriodKey(final String key) {
+			final int length = period.key(LocalDate.of(2000, 1, 1)).length();
+			if (key.length() != length) {
+				return false;
+			}
+			for (int i = 0; i < length; ++i) {
+				if (!Character.isDigit(key.charAt(i))) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * @return the name of the period-scoped sequence
+		 */
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return the period of the sequence
+		 */
+		public SequencePeriod getPeriod() {
+			return period;
+		}
+	}
+
+	/**
+	 * A period-scoped sequence resolved for one period. The prefix is computed
+	 * once per period rather than per number.
+	 */
+	public static class State {
+		private final SequencePeriod.Period	period;
+		private final String				backingName;
+		private final String				prefix;
+
+		State(final SequencePeriod.Period period, final String backingName, final String prefix) {
+			this.period = period;
+			this.backingName = backingName;
+			this.prefix = prefix;
+		}
+
+		/**
+		 * @return the period
+		 */
+		public SequencePeriod.Period getPeriod() {
+			return period;
+		}
+
+		/**
+		 * @return the name of the number sequence backing the period
+		 */
+		public String getBackingName() {
+			return backingName;
+		}
+
+		/**
+		 * @return the prefix of every number in the period, or null
+		 */
+		public String getPrefix() {
+			return prefix;
+		}
+	}
+}
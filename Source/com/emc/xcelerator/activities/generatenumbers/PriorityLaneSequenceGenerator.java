@@ -0,0 +1,283 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+
+/**
+ * The PriorityLaneSequenceGenerator decorator queues the requests of each
+ * number sequence in two lanes according to their GenerationPriority and
+ * passes them on to the decorated generator one at a time. Waiting interactive
+ * requests are served first. Waiting bulk requests are coalesced into a single
+ * reservation of up to maxBatch values, which is then split among them, so a
+ * batch job costs one repository round-trip per batch rather than per
+ * request. To keep bulk requests from starving, a bulk batch is served after
+ * interactiveBurst consecutive interactive requests.
+ * <p>
+ * No thread is dedicated to serving the lanes: whichever waiting thread finds
+ * the sequence idle serves the next request, using its own session, and hands
+ * the result over to the thread that made it.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class PriorityLaneSequenceGenerator implements RangeSequenceGenerator, SequenceGeneratorDecorator {
+
+	private final RangeSequenceGenerator			sequenceGenerator;
+	private final int								maxBatch;
+	private final int								interactiveBurst;
+	private final ConcurrentMap<String, Lanes>	lanes	= new ConcurrentHashMap<String, Lanes>();
+
+	/**
+	 * Creates a new PriorityLaneSequenceGenerator.
+	 * 
+	 * @param sequenceGenerator
+	 *            the generator the requests are passed on to
+	 * @param maxBatch
+	 *            the maximum number of values reserved for coalesced bulk
+	 *            requests
+	 * @param interactiveBurst
+	 *            the number of consecutive interactive requests after which
+	 *            waiting bulk requests are served
+	 */
+	public PriorityLaneSequenceGenerator(final RangeSequenceGenerator sequenceGenerator, final int maxBatch,
+			final int interactiveBurst) {
+		if (maxBatch < 1 || interactiveBurst < 1) {
+			throw new IllegalArgumentException("maxBatch and interactiveBurst must be positive: " + maxBatch + ", "
+					+ interactiveBurst);
+		}
+		this.sequenceGenerator = sequenceGenerator;
+		this.maxBatch = maxBatch;
+		this.interactiveBurst = interactiveBurst;
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public String getNextGeneratedNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return String.valueOf(getNextNumber(session, numberSequenceName));
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public long getNextNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return reserveRange(session, numberSequenceName, 1).getFirst();
+	}
+
+	/**
+	 * Queues the request in the lane of the calling thread's priority and
+	 * waits until it has been served.
+	 * 
+	 * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String, int)
+	 */
+	public NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final Request request = new Request(size);
+		final Lanes sequenceLanes = getLanes(numberSequenceName);
+		sequenceLanes.lock.lock();
+		try {
+			if (GenerationPriority.current() == GenerationPriority.BULK) {
+				sequenceLanes.bulk.add(request);
+			} else {
+				sequenceLanes.interactive.add(request);
+			}
+			while (!request.done) {
+				if (sequenceLanes.busy) {
+					sequenceLanes.served.awaitUninterruptibly();
+				} else {
+					serveNext(session, numberSequenceName, sequenceLanes);
+				}
+			}
+		} finally {
+			sequenceLanes.lock.unlock();
+		}
+		if (request.error != null) {
+			throw request.error;
+		}
+		if (request.failure != null) {
+			throw request.failure;
+		}
+		return request.range;
+	}
+
+	/**
+	 * Retrieves the number of requests waiting in the lanes of the specified
+	 * number sequence.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @param priority
+	 *            the lane
+	 * @return the number of waiting requests
+	 */
+	public int getWaiting(final String numberSequenceName, final GenerationPriority priority) {
+		final Lanes sequenceLanes = lanes.get(numberSequenceName);
+		if (sequenceLanes == null) {
+			return 0;
+		}
+		sequenceLanes.lock.lock();
+		try {
+			return priority == GenerationPriority.BULK ? sequenceLanes.bulk.size() : sequenceLanes.interactive.size();
+		} finally {
+			sequenceLanes.lock.unlock();
+		}
+	}
+
+	/**
+	 * Retrieves the decorated generator.
+	 * 
+	 * @return the decorated generator
+	 */
+	public RangeSequenceGenerator getSequenceGenerator() {
+		return sequenceGenerator;
+	}
+
+	/**
+	 * Serves the next batch of requests. Called, and returns, with the lock
+	 * held; the lock is released while the decorated generator is called.
+	 * 
+	 * @param session
+	 *            the repository session of the serving thread
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @param sequenceLanes
+	 *            the lanes of the number sequence
+	 */
+	private void serveNext(final IDfSession session, final String numberSequenceName, final Lanes sequenceLanes) {
+		final List<Request> batch = sequenceLanes.nextBatch();
+		int total = 0;
+		for (final Request request : batch) {
+			total += request.size;
+		}
+		sequenceLanes.busy = true;
+		sequenceLanes.lock.unlock();
+		NumberRange range = null;
+		DfException failure = null;
+		RuntimeException error = null;
+		try {
+			range = sequenceGenerator.reserveRange(session, numberSequenceName, total);
+		} catch (final DfException e) {
+			failure = e;
+		} catch (final RuntimeException e) {
+			error = e;
+		} finally {
+			sequenceLanes.lock.lock();
+		}
+		int index = 0;
+		for (final Request request : batch) {
+			if (range != null) {
+				request.range = batch.size() == 1 ? range : range.subRange(index, request.size);
+				index += request.size;
+			}
+			request.failure = failure;
+			request.error = error;
+			request.done = true;
+		}
+		sequenceLanes.busy = false;
+		sequenceLanes.served.signalAll();
+	}
+
+	/**
+	 * Retrieves the lanes of the specified number sequence, creating them if
+	 * necessary.
+	 * 
+	 * @param numberSequenceName
+	 *            The name of the number sequence
+	 * @return the lanes
+	 */
+	private Lanes getLanes(final String numberSequenceName) {
+		Lanes sequenceLanes = lanes.get(numberSequenceName);
+		if (sequenceLanes == null) {
+			final Lanes newLanes = new Lanes();
+			sequenceLanes = lanes.putIfAbsent(numberSequenceName, newLanes);
+			if (sequenceLanes == null) {
+				sequenceLanes = newLanes;
+			}
+		}
+		return sequenceLanes;
+	}
+
+	/**
+	 * A request waiting in a lane, completed by the thread serving it.
+	 */
+	private static class Request {
+		final int			size;
+		NumberRange			range;
+		DfException			failure;
+		RuntimeException	error;
+		boolean				done;
+
+		Request(final int size) {
+			this.size = size;
+		}
+	}
+
+	/**
+	 * The lanes of one number sequence. Access is guarded by the lock; busy is
+	 * set while a batch is being served.
+	 */
+	private class Lanes {
+		final ReentrantLock				lock		= new ReentrantLock();
+		final Condition					served		= lock.newCondition();
+		final ArrayDeque<Request>		interactive	= new ArrayDeque<Request>();
+		final ArrayDeque<Request>		bulk		= new ArrayDeque<Request>();
+		boolean							busy;
+		int								burst;
+
+		/**
+		 * Takes the next batch off the lanes: a single interactive request, or
+		 * as many bulk requests as fit in maxBatch values (at least one).
+		 * 
+		 * @return the batch, never empty
+		 */
+		List<Request> nextBatch() {
+			final List<Request> batch = new ArrayList<Request>();
+			if (!interactive.isEmpty() && (bulk.isEmpty() || burst < interactiveBurst)) {
+				burst += 1;
+				batch.add(interactive.poll());
+				return batch;
+			}
+			burst = 0;
+			int total = 0;
+			while (!bulk.isEmpty() && (batch.isEmpty() || total + bulk.peek().size <= maxBatch)) {
+				final Request request = bulk.poll();
+				total += request.size;
+				batch.add(request);
+			}
+			return batch;
+		}
+	}
+}
@@ -0,0 +1,50 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+
+/**
+ * A SequenceGenerator which is able to reserve several consecutive numbers in
+ * a sequence at once. Reserving a range costs the same number of repository
+ * round-trips as generating a single number.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public interface RangeSequenceGenerator extends NumericSequenceGenerator {
+
+	/**
+	 * Reserves a range of consecutive numbers in a specified sequence.
+	 * 
+	 * @param session the repository session
+	 * @param numberSequenceName The name of the number sequence
+	 * @param size the number of values to reserve, at least 1
+	 * @return the reserved range
+	 * @throws DfException if an internal error occurred. 
+	 * @throws SequenceObjectNotFoundException if the number sequence couldn't be found.
+	 * @throws SequenceGeneratorFailedException if the range couldn't be reserved.
+	 */
+	public abstract NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException;
+
+}
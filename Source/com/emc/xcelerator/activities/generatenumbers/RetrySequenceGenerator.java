@@ -25,44 +25,131 @@
 package com.emc.xcelerator.activities.generatenumbers;
 
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
+import com.documentum.fc.client.DfQuery;
+import com.documentum.fc.client.IDfCollection;
 import com.documentum.fc.client.IDfPersistentObject;
+import com.documentum.fc.client.IDfQuery;
 import com.documentum.fc.client.IDfSession;
 import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfId;
 import com.documentum.fc.common.DfLogger;
 import com.documentum.fc.common.IDfException;
+import com.documentum.fc.common.IDfId;
+import com.emc.xcelerator.activities.generatenumbers.jfr.BackoffEvent;
+import com.emc.xcelerator.activities.generatenumbers.jfr.ConflictEvent;
+import com.emc.xcelerator.activities.generatenumbers.jfr.GenerationEvent;
 
 /**
  * The RetrySequenceGenerator strategy generates new numbers in a specified
- * sequence by relying on VERSION_MISMATCH exceptions being thrown, after such
- * an exception is caught, it retries a fixed number of times (with increasing
- * randomized intervals between each retry). If a new number cannot be generated
- * after the retry attempts have been exhausted a
- * SequenceGeneratorFailedException will be thrown. Copyright (c) 1994 - 2010.
- * EMC Corporation. All Rights Reserved.
+ * sequence by updating the number sequence conditionally on its version stamp
+ * (i_vstamp). If the number sequence was modified concurrently no object is
+ * updated and it retries a fixed number of times (with increasing randomized
+ * intervals between each retry). VERSION_MISMATCH exceptions are still treated
+ * as conflicts, any other exception is a real failure. If a new number cannot
+ * be generated after the retry attempts have been exhausted a
+ * SequenceGeneratorFailedException will be thrown. The object ids of the
+ * number sequences can be cached so that the DQL qualification lookup is only
+ * performed once per number sequence. Ranges in several number sequences can
+ * be reserved together, reading all of them with a single query. Copyright (c)
+ * 1994 - 2010. EMC Corporation. All Rights Reserved.
  */
-public class RetrySequenceGenerator implements SequenceGenerator {
+public class RetrySequenceGenerator implements MultiSequenceGenerator {
   private static final String LOG_CATEGORY = RetrySequenceGenerator.class
       .getCanonicalName();
 
-  private static final int MAX_TRY_COUNT = 10;
-  private static final int INITIAL_RETRY_INTERVAL_MS = 1000;
-  private static final double RETRY_INTERVAL_GROWTH = 1.5;
-  private static final boolean RANDOMIZE_RETRY_INTERVAL = true;
+  static final int MAX_TRY_COUNT = 10;
+  static final int INITIAL_RETRY_INTERVAL_MS = 1000;
+  static final double RETRY_INTERVAL_GROWTH = 1.5;
+  static final boolean RANDOMIZE_RETRY_INTERVAL = true;
   // New Type gennum_number_sequence
-  private static final MessageFormat SEQUENCE_GENERATOR_QUALIFICATION = new MessageFormat(
-      "numgen_number_sequence where object_name = ''{0}''");
-  private static final MessageFormat ERR_NUMBER_SEQUENCE_NOT_FOUND = new MessageFormat(
-      "Number sequence not found or user does not have access to the number sequence ''{0}''.");
-  private static final MessageFormat ERR_RETRY_ATTEMPTS_EXHAUSTED = new MessageFormat(
-      "Sequence Generator failed to generate a new number in the sequence ''{0}'' because all retry attempts was exhausted.");
+  static final String NUMBER_SEQUENCE_TYPE = "numgen_number_sequence";
+  // Patterns rather than MessageFormat instances, which aren't thread-safe.
+  private static final String SEQUENCE_GENERATOR_QUALIFICATION =
+      "numgen_number_sequence where object_name = ''{0}''";
+  private static final String ERR_NUMBER_SEQUENCE_NOT_FOUND =
+      "Number sequence not found or user does not have access to the number sequence ''{0}''.";
+  private static final String ERR_RETRY_ATTEMPTS_EXHAUSTED =
+      "Sequence Generator failed to generate a new number in the sequence ''{0}'' because all retry attempts was exhausted.";
 
-  private static final MessageFormat ERR_NUMBER_GENERATION_FAILED = new MessageFormat(
-      "Sequence Generator failed to generate a new number in the sequence ''{0}'' due to an internal error.");
+  private static final String ERR_NUMBER_GENERATION_FAILED =
+      "Sequence Generator failed to generate a new number in the sequence ''{0}'' due to an internal error.";
+  private static final String ERR_RETRY_INTERRUPTED =
+      "Sequence Generator stopped retrying to generate a new number in the sequence ''{0}'' because the thread was interrupted.";
+  private static final String ERR_RANGE_OVERFLOW =
+      "Sequence Generator failed to reserve {1} number(s) in the sequence ''{0}'' because the current value would overflow.";
+
+  private static final String CREATED_SEQUENCE_SELECT =
+      "SELECT r_object_id FROM {0} WHERE object_name = ''{1}'' ORDER BY r_object_id";
+  private static final String MULTI_SEQUENCE_SELECT =
+      "SELECT r_object_id, r_object_type, object_name, current_value, increment_amount, i_vstamp FROM ";
 
   private static final String EXCEPTION_MSG_ID_CANT_SAVE = "CANT_SAVE";
   private static final String EXCEPTION_MSG_ID_VERSION_MISMATCH = "VERSION_MISMATCH";
 
+  private final int maxTryCount;
+  private final int initialRetryInterval;
+  private final double retryIntervalGrowth;
+  private final boolean randomizeRetryInterval;
+  private final boolean cacheObjectIds;
+  private final ConcurrentMap<String, IDfId> objectIds = new ConcurrentHashMap<String, IDfId>();
+  private volatile NumberSequenceCreationPolicy creationPolicy;
+  private volatile QueryFactory queryFactory;
+
+  /**
+   * Creates the queries the generator runs against the repository.
+   */
+  public interface QueryFactory {
+
+    /**
+     * @return a new query
+     */
+    IDfQuery newQuery();
+  }
+
+  /**
+   * Creates a new RetrySequenceGenerator using the default retry policy and
+   * no object id caching.
+   */
+  public RetrySequenceGenerator() {
+    this(MAX_TRY_COUNT, INITIAL_RETRY_INTERVAL_MS, RETRY_INTERVAL_GROWTH,
+        RANDOMIZE_RETRY_INTERVAL, false);
+  }
+
+  /**
+   * Creates a new RetrySequenceGenerator.
+   * @param maxTryCount
+   *          the maximum number of attempts.
+   * @param initialRetryInterval
+   *          the initial retry interval in milliseconds.
+   * @param retryIntervalGrowth
+   *          the retry interval growth.
+   * @param randomizeRetryInterval
+   *          whether retry interval randomization is to be employed.
+   * @param cacheObjectIds
+   *          whether the object ids of the number sequences are cached.
+   */
+  public RetrySequenceGenerator(final int maxTryCount,
+      final int initialRetryInterval, final double retryIntervalGrowth,
+      final boolean randomizeRetryInterval, final boolean cacheObjectIds) {
+    this.maxTryCount = maxTryCount;
+    this.initialRetryInterval = initialRetryInterval;
+    this.retryIntervalGrowth = retryIntervalGrowth;
+    this.randomizeRetryInterval = randomizeRetryInterval;
+    this.cacheObjectIds = cacheObjectIds;
+  }
+
   /**
    * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
    *      java.lang.String)
@@ -70,26 +157,210 @@ public class RetrySequenceGenerator implements SequenceGenerator {
   public String getNextGeneratedNumber(final IDfSession session,
       final String numberSequenceName) throws DfException,
       SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+    return String.valueOf(getNextNumber(session, numberSequenceName));
+  }
+
+  /**
+   * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+   *      java.lang.String)
+   */
+  public long getNextNumber(final IDfSession session,
+      final String numberSequenceName) throws DfException,
+      SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+    return reserveRange(session, numberSequenceName, 1).getFirst();
+  }
 
-    final NumberSequenceObject seq = getSequenceGeneratorObject(session,
-        numberSequenceName);
+  /**
+   * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+   *      java.lang.String, int)
+   */
+  public NumberRange reserveRange(final IDfSession session,
+      final String numberSequenceName, final int size) throws DfException,
+      SequenceObjectNotFoundException, SequenceGeneratorFailedException {
 
-    for (int i = 0; i < getMaxRetryCount(); ++i) {
-      try {
-        seq.refresh(session);
-        return seq.getAndIncrement();
-      } catch (final DfException e) {
-        if (!isVersionMismatchError(e)) {
-          throw new SequenceGeneratorFailedException(
-              getErrorNumberGenerationFailed(numberSequenceName), e);
-        } else {
-          sleep(i);
+    checkSize(size);
+    final GenerationEvent event = new GenerationEvent();
+    event.begin();
+    int attempts = 0;
+    try {
+      final NumberSequenceObject seq = getSequenceGeneratorObject(session,
+          numberSequenceName);
+
+      for (int i = 0; i < getMaxRetryCount(); ++i) {
+        attempts = i + 1;
+        final ConflictEvent conflict = new ConflictEvent();
+        conflict.begin();
+        try {
+          if (i > 0) {
+            seq.refresh(session);
+          }
+          final int currentValue = seq.getCurrentValue();
+          final int incrementAmount = seq.getIncrementAmount();
+          final long nextValue = currentValue + (long) incrementAmount * size;
+          if (nextValue > Integer.MAX_VALUE || nextValue < Integer.MIN_VALUE) {
+            throw new SequenceGeneratorFailedException(getErrorRangeOverflow(
+                numberSequenceName, size));
+          }
+          if (seq.compareAndSetCurrentValue(newQuery(), session,
+              (int) nextValue)) {
+            event.succeeded = true;
+            return new NumberRange(numberSequenceName, currentValue,
+                incrementAmount, size);
+          }
+        } catch (final SequenceGeneratorFailedException e) {
+          throw e;
+        } catch (final DfException e) {
+          if (!isVersionMismatchError(e)) {
+            throw new SequenceGeneratorFailedException(
+                getErrorNumberGenerationFailed(numberSequenceName), e);
+          }
+        }
+        if (conflict.shouldCommit()) {
+          conflict.sequence = numberSequenceName;
+          conflict.attempt = attempts;
+          conflict.commit();
         }
+        sleep(i, numberSequenceName);
+      }
+
+      throw new SequenceGeneratorFailedException(
+          getErrorRetryAttemptsExhausted(numberSequenceName));
+    } finally {
+      GenerationAttempts.record(attempts);
+      if (event.shouldCommit()) {
+        event.sequence = numberSequenceName;
+        event.size = size;
+        event.attempts = attempts;
+        event.commit();
       }
     }
+  }
+
+  /**
+   * Reads all requested number sequences with one query per attempt and
+   * updates each of them conditionally, in the order of their names. The
+   * sequences which lost the race for their update are read again together
+   * and retried. Sequences the query doesn't return are reserved one at a time
+   * by reserveRange, which looks them up and may create them.
+   * @see com.emc.xcelerator.activities.generatenumbers.MultiSequenceGenerator#reserveRanges(com.documentum.fc.client.IDfSession,
+   *      java.util.SortedMap)
+   */
+  public Map<String, NumberRange> reserveRanges(final IDfSession session,
+      final SortedMap<String, Integer> sizes) throws DfException,
+      SequenceObjectNotFoundException, SequenceGeneratorFailedException {
 
-    throw new SequenceGeneratorFailedException(
-        getErrorRetryAttemptsExhausted(numberSequenceName));
+    for (final Integer size : sizes.values()) {
+      checkSize(size.intValue());
+    }
+    final Map<String, NumberRange> ranges = new LinkedHashMap<String, NumberRange>();
+    final SortedMap<String, Integer> remaining = new TreeMap<String, Integer>(
+        sizes);
+    int attempts = 0;
+    try {
+      for (int i = 0; i < getMaxRetryCount() && !remaining.isEmpty(); ++i) {
+        attempts = i + 1;
+        final Map<String, SequenceRow> rows = readSequences(session,
+            remaining.keySet());
+        for (final Map.Entry<String, Integer> entry : new ArrayList<Map.Entry<String, Integer>>(
+            remaining.entrySet())) {
+          final String name = entry.getKey();
+          final int size = entry.getValue().intValue();
+          final SequenceRow row = rows.get(name);
+          if (row == null) {
+            ranges.put(name, reserveRange(session, name, size));
+            remaining.remove(name);
+            continue;
+          }
+          final long nextValue = row.currentValue + (long) row.incrementAmount
+              * size;
+          if (nextValue > Integer.MAX_VALUE || nextValue < Integer.MIN_VALUE) {
+            throw new SequenceGeneratorFailedException(getErrorRangeOverflow(
+                name, size));
+          }
+          try {
+            if (NumberSequenceObject.compareAndSetCurrentValue(newQuery(),
+                session, row.typeName, row.objectId, row.vstamp,
+                (int) nextValue)) {
+              ranges.put(name, new NumberRange(name, row.currentValue,
+                  row.incrementAmount, size));
+              remaining.remove(name);
+            }
+          } catch (final DfException e) {
+            if (!isVersionMismatchError(e)) {
+              throw new SequenceGeneratorFailedException(
+                  getErrorNumberGenerationFailed(name), e);
+            }
+          }
+        }
+        if (!remaining.isEmpty()) {
+          sleep(i, remaining.firstKey());
+        }
+      }
+    } finally {
+      GenerationAttempts.record(attempts);
+    }
+
+    if (!remaining.isEmpty()) {
+      throw new SequenceGeneratorFailedException(
+          getErrorRetryAttemptsExhausted(remaining.firstKey()));
+    }
+    return ranges;
+  }
+
+  /**
+   * Rejects a range size which would leave the current value where it is or
+   * move it backwards, before the number sequence is touched.
+   * @param size
+   *          the number of values to reserve
+   * @throws IllegalArgumentException
+   *           if size is less than 1
+   */
+  private static void checkSize(final int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("The range size must be positive: "
+          + size);
+    }
+  }
+
+  /**
+   * Reads the current state of several number sequences with a single query.
+   * @param session
+   *          the repository session
+   * @param names
+   *          the names of the number sequences
+   * @return the state of the number sequences found, by name
+   * @throws DfException
+   *           if an internal error occurred.
+   */
+  protected Map<String, SequenceRow> readSequences(final IDfSession session,
+      final Iterable<String> names) throws DfException {
+    final StringBuilder dql = new StringBuilder(MULTI_SEQUENCE_SELECT);
+    dql.append(getNumberSequenceType()).append(" WHERE object_name IN (");
+    boolean first = true;
+    for (final String name : names) {
+      if (!first) {
+        dql.append(", ");
+      }
+      dql.append('\'').append(name.replace("'", "''")).append('\'');
+      first = false;
+    }
+    dql.append(')');
+    final IDfQuery query = newQuery();
+    query.setDQL(dql.toString());
+    final Map<String, SequenceRow> rows = new HashMap<String, SequenceRow>();
+    final IDfCollection result = query.execute(session, IDfQuery.DF_READ_QUERY);
+    try {
+      while (result.next()) {
+        final SequenceRow row = new SequenceRow(result.getString("r_object_id"),
+            result.getString("r_object_type"), Integer.parseInt(result
+                .getString("current_value")), result.getInt("increment_amount"),
+            result.getInt("i_vstamp"));
+        rows.put(result.getString("object_name"), row);
+      }
+    } finally {
+      result.close();
+    }
+    return rows;
   }
 
   /**
@@ -107,30 +378,247 @@ public class RetrySequenceGenerator implements SequenceGenerator {
   protected NumberSequenceObject getSequenceGeneratorObject(
       final IDfSession session, final String numberSequenceName)
       throws SequenceObjectNotFoundException, DfException {
+    if (cacheObjectIds) {
+      final IDfId objectId = objectIds.get(numberSequenceName);
+      if (objectId != null) {
+        try {
+          return new NumberSequenceObject(session.getObject(objectId));
+        } catch (final DfException e) {
+          // The number sequence may have been deleted and recreated.
+          objectIds.remove(numberSequenceName, objectId);
+        }
+      }
+    }
     final String qualification = getNumberSequenceQualification(numberSequenceName);
     final IDfPersistentObject doc = session
         .getObjectByQualification(qualification);
     if (doc == null) {
+      return createSequenceGeneratorObject(session, numberSequenceName);
+    }
+    if (cacheObjectIds) {
+      objectIds.put(numberSequenceName, doc.getObjectId());
+    }
+    return new NumberSequenceObject(doc);
+  }
+
+  /**
+   * Creates the missing number sequence specified by numberSequenceName, if
+   * the creation policy allows it. Creation is serialized within the JVM only,
+   * so nodes rolling over together may each create the number sequence. After
+   * saving, the number sequences with that name are read again and the one
+   * with the lowest object id is kept; a node whose own object lost destroys
+   * it and continues with the survivor.
+   * @param session
+   *          the repository session
+   * @param numberSequenceName
+   *          The name of the number sequence
+   * @return The new number sequence object
+   * @throws SequenceObjectNotFoundException
+   *           if the number sequence must not be created.
+   * @throws DfException
+   *           if an internal error occurred.
+   */
+  protected NumberSequenceObject createSequenceGeneratorObject(
+      final IDfSession session, final String numberSequenceName)
+      throws SequenceObjectNotFoundException, DfException {
+    final NumberSequenceCreationPolicy policy = creationPolicy;
+    final int[] initialValues = policy == null ? null : policy
+        .getInitialValues(numberSequenceName);
+    if (initialValues == null) {
       throw new SequenceObjectNotFoundException(
           getErrorNumberSequenceNotFound(numberSequenceName));
     }
-    return new NumberSequenceObject(doc);
+    final NumberSequenceObject created = NumberSequenceObject.create(session,
+        getNumberSequenceType(), numberSequenceName, initialValues[0],
+        initialValues[1]);
+    final NumberSequenceObject seq = keepFirstCreated(session,
+        numberSequenceName, created);
+    if (seq == created) {
+      DfLogger.info(LOG_CATEGORY, "Created number sequence ''{0}''.",
+          new String[] {numberSequenceName}, null);
+    } else {
+      DfLogger.info(LOG_CATEGORY,
+          "Number sequence ''{0}'' was created concurrently, discarded the duplicate.",
+          new String[] {numberSequenceName}, null);
+    }
+    if (cacheObjectIds) {
+      objectIds.put(numberSequenceName, seq.getObject().getObjectId());
+    }
+    seq.refresh(session);
+    return seq;
+  }
+
+  /**
+   * Resolves concurrent creation of the same number sequence: the one with
+   * the lowest object id survives, the created one is destroyed if it isn't
+   * that one.
+   * @param session
+   *          the repository session
+   * @param numberSequenceName
+   *          The name of the number sequence
+   * @param created
+   *          the number sequence just created by this node
+   * @return the surviving number sequence
+   * @throws DfException
+   *           if an internal error occurred.
+   */
+  protected NumberSequenceObject keepFirstCreated(final IDfSession session,
+      final String numberSequenceName, final NumberSequenceObject created)
+      throws DfException {
+    final IDfQuery query = newQuery();
+    query.setDQL(MessageFormat.format(CREATED_SEQUENCE_SELECT, new Object[] {
+        getNumberSequenceType(), numberSequenceName.replace("'", "''")}));
+    String firstId = null;
+    final IDfCollection result = query.execute(session, IDfQuery.DF_READ_QUERY);
+    try {
+      if (result.next()) {
+        firstId = result.getString("r_object_id");
+      }
+    } finally {
+      result.close();
+    }
+    final IDfId createdId = created.getObject().getObjectId();
+    if (firstId == null || firstId.equals(createdId.getId())) {
+      return created;
+    }
+    created.getObject().destroy();
+    return new NumberSequenceObject(session.getObject(new DfId(firstId)));
+  }
+
+  /**
+   * Sets the policy deciding which missing number sequences are created on
+   * demand. When the OutOfTransactionDecoratorSequenceGenerator decorates this
+   * generator, creation is serialized per number sequence within the JVM.
+   * @param creationPolicy
+   *          the policy or null to never create number sequences.
+   */
+  public void setCreationPolicy(
+      final NumberSequenceCreationPolicy creationPolicy) {
+    this.creationPolicy = creationPolicy;
+  }
+
+  /**
+   * Sets the factory of the queries run against the repository, e.g. to run
+   * the generator against something other than a Content Server.
+   * @param queryFactory
+   *          the factory or null to run DfQuery instances.
+   */
+  public void setQueryFactory(final QueryFactory queryFactory) {
+    this.queryFactory = queryFactory;
+  }
+
+  /**
+   * Creates a query to be run against the repository.
+   * @return a query of the query factory if one was set, a DfQuery otherwise
+   */
+  protected IDfQuery newQuery() {
+    final QueryFactory factory = queryFactory;
+    return factory == null ? new DfQuery() : factory.newQuery();
+  }
+
+  /**
+   * Looks the specified number sequence up, which caches its object id if
+   * caching is enabled.
+   * @param session
+   *          the repository session
+   * @param numberSequenceName
+   *          The name of the number sequence
+   * @throws SequenceObjectNotFoundException
+   *           if the number sequence wasn't found.
+   * @throws DfException
+   *           if an internal error occurred.
+   */
+  public void resolve(final IDfSession session,
+      final String numberSequenceName) throws SequenceObjectNotFoundException,
+      DfException {
+    getSequenceGeneratorObject(session, numberSequenceName);
+  }
+
+  /**
+   * Discards the cached object id of the specified number sequence, the next
+   * request will look the number sequence up by name again.
+   * @param numberSequenceName
+   *          The name of the number sequence
+   */
+  public void invalidate(final String numberSequenceName) {
+    objectIds.remove(numberSequenceName);
+  }
+
+  /**
+   * Discards all cached object ids.
+   */
+  public void invalidateAll() {
+    objectIds.clear();
+  }
+
+  /**
+   * The state of a number sequence as read by readSequences.
+   */
+  protected static class SequenceRow {
+    final String objectId;
+    final String typeName;
+    final int currentValue;
+    final int incrementAmount;
+    final int vstamp;
+
+    SequenceRow(final String objectId, final String typeName,
+        final int currentValue, final int incrementAmount, final int vstamp) {
+      this.objectId = objectId;
+      this.typeName = typeName;
+      this.currentValue = currentValue;
+      this.incrementAmount = incrementAmount;
+      this.vstamp = vstamp;
+    }
   }
 
   /**
    * Temporarily pauses the execution of the current thread for the amount
-   * specified by the current retry interval.
+   * specified by the current retry interval. The thread is parked rather than
+   * put to sleep, so a virtual thread releases its carrier thread while it
+   * waits. An interrupt ends the retries: once interrupted, every later park
+   * would return at once and the remaining attempts would hit the repository
+   * back to back, so the pause fails instead and the interrupt is left
+   * pending.
    * @param retryNumber
    *          The number of the retry attempt.
+   * @param numberSequenceName
+   *          The name of the number sequence being retried.
+   * @throws SequenceGeneratorFailedException
+   *           if the thread is or gets interrupted.
    */
-  protected void sleep(final int retryNumber) {
+  protected void sleep(final int retryNumber, final String numberSequenceName)
+      throws SequenceGeneratorFailedException {
+    if (Thread.currentThread().isInterrupted()) {
+      throw new SequenceGeneratorFailedException(
+          getErrorRetryInterrupted(numberSequenceName));
+    }
+    final long interval = getInterval(retryNumber);
+    if (interval <= 0) {
+      return;
+    }
+    final BackoffEvent event = new BackoffEvent();
+    event.begin();
+    final long deadline = System.nanoTime()
+        + TimeUnit.MILLISECONDS.toNanos(interval);
+    long remaining = deadline - System.nanoTime();
     try {
-      final long interval = getInterval(retryNumber);
-      Thread.sleep(interval);
-    } catch (final InterruptedException e) {
-      DfLogger.warn(LOG_CATEGORY, "Got interrupted while trying to sleep.",
-          null, e);
-      // IGNORE
+      while (remaining > 0) {
+        LockSupport.parkNanos(this, remaining);
+        if (Thread.currentThread().isInterrupted()) {
+          DfLogger.warn(LOG_CATEGORY, "Got interrupted while trying to sleep.",
+              null, null);
+          event.interrupted = true;
+          throw new SequenceGeneratorFailedException(
+              getErrorRetryInterrupted(numberSequenceName));
+        }
+        remaining = deadline - System.nanoTime();
+      }
+    } finally {
+      if (event.shouldCommit()) {
+        event.retry = retryNumber;
+        event.interval = interval;
+        event.commit();
+      }
     }
   }
 
@@ -159,11 +647,16 @@ public class RetrySequenceGenerator implements SequenceGenerator {
    *         otherwise.
    */
   protected boolean isVersionMismatchError(final DfException e) {
-    if (e.getMessageId().contains(EXCEPTION_MSG_ID_CANT_SAVE)) {
+    final String messageId = e.getMessageId();
+    if (messageId == null) {
+      return false;
+    }
+    if (messageId.contains(EXCEPTION_MSG_ID_CANT_SAVE)) {
       final IDfException e1 = e.getNextException();
-      return e1.getMessageId().contains(EXCEPTION_MSG_ID_VERSION_MISMATCH);
+      return e1 != null && e1.getMessageId() != null
+          && e1.getMessageId().contains(EXCEPTION_MSG_ID_VERSION_MISMATCH);
     }
-    return e.getMessageId().contains(EXCEPTION_MSG_ID_VERSION_MISMATCH);
+    return messageId.contains(EXCEPTION_MSG_ID_VERSION_MISMATCH);
   }
 
   /**
@@ -173,7 +666,7 @@ public class RetrySequenceGenerator implements SequenceGenerator {
    * @return The error message.
    */
   protected String getErrorNumberSequenceNotFound(final String name) {
-    return ERR_NUMBER_SEQUENCE_NOT_FOUND.format(new Object[] {name});
+    return MessageFormat.format(ERR_NUMBER_SEQUENCE_NOT_FOUND, new Object[] {name});
   }
 
   /**
@@ -183,7 +676,7 @@ public class RetrySequenceGenerator implements SequenceGenerator {
    * @return The error message.
    */
   protected String getErrorNumberGenerationFailed(final String name) {
-    return ERR_NUMBER_GENERATION_FAILED.format(new Object[] {name});
+    return MessageFormat.format(ERR_NUMBER_GENERATION_FAILED, new Object[] {name});
   }
 
   /**
@@ -193,7 +686,29 @@ public class RetrySequenceGenerator implements SequenceGenerator {
    * @return The error message.
    */
   protected String getErrorRetryAttemptsExhausted(final String name) {
-    return ERR_RETRY_ATTEMPTS_EXHAUSTED.format(new Object[] {name});
+    return MessageFormat.format(ERR_RETRY_ATTEMPTS_EXHAUSTED, new Object[] {name});
+  }
+
+  /**
+   * Creates the retry interrupted error message.
+   * @param name
+   *          The name of the number sequence.
+   * @return The error message.
+   */
+  protected String getErrorRetryInterrupted(final String name) {
+    return MessageFormat.format(ERR_RETRY_INTERRUPTED, new Object[] {name});
+  }
+
+  /**
+   * Creates the range overflow error message.
+   * @param name
+   *          The name of the number sequence.
+   * @param size
+   *          The number of values requested.
+   * @return The error message.
+   */
+  protected String getErrorRangeOverflow(final String name, final int size) {
+    return MessageFormat.format(ERR_RANGE_OVERFLOW, new Object[] {name, String.valueOf(size)});
   }
 
   /**
@@ -204,7 +719,15 @@ public class RetrySequenceGenerator implements SequenceGenerator {
    * @return The number sequence DQL qualification
    */
   protected String getNumberSequenceQualification(final String name) {
-    return SEQUENCE_GENERATOR_QUALIFICATION.format(new Object[] {name});
+    return MessageFormat.format(SEQUENCE_GENERATOR_QUALIFICATION, new Object[] {name});
+  }
+
+  /**
+   * Retrieves the name of the number sequence type.
+   * @return the name of the number sequence type.
+   */
+  protected String getNumberSequenceType() {
+    return NUMBER_SEQUENCE_TYPE;
   }
 
   /**
@@ -212,7 +735,7 @@ public class RetrySequenceGenerator implements SequenceGenerator {
    * @return the maximum retry count.
    */
   protected int getMaxRetryCount() {
-    return MAX_TRY_COUNT;
+    return maxTryCount;
   }
 
   /**
@@ -220,7 +743,7 @@ public class RetrySequenceGenerator implements SequenceGenerator {
    * @return the initial retry interval
    */
   protected int getInitialRetryInterval() {
-    return INITIAL_RETRY_INTERVAL_MS;
+    return initialRetryInterval;
   }
 
   /**
@@ -228,7 +751,7 @@ public class RetrySequenceGenerator implements SequenceGenerator {
    * @return the retry interval growth.
    */
   protected double getRetryIntervalGrowth() {
-    return RETRY_INTERVAL_GROWTH;
+    return retryIntervalGrowth;
   }
 
   /**
@@ -236,6 +759,6 @@ public class RetrySequenceGenerator implements SequenceGenerator {
    * @return true if retry interval randomization is used, false otherwise.
    */
   protected boolean getRandomizeRetryInterval() {
-    return RANDOMIZE_RETRY_INTERVAL;
+    return randomizeRetryInterval;
   }
 }
\ No newline at end of file
@@ -0,0 +1,321 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import com.documentum.fc.common.DfLogger;
+
+/**
+ * The configuration of the sequence generator pipeline. The configuration is
+ * read from the generatenumbers.properties resource next to this class, any
+ * system property starting with "generatenumbers." overrides the value in the
+ * resource. Invalid values are logged and replaced by their defaults; a
+ * configuration the pipeline can't be assembled from at all, e.g. one naming
+ * an unknown backend, is logged and replaced by the defaults as a whole, see
+ * {@link SequenceGeneratorPipeline}.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class SequenceGeneratorConfiguration {
+
+	private static final String	LOG_CATEGORY				= SequenceGeneratorConfiguration.class.getCanonicalName();
+	private static final String	RESOURCE					= "generatenumbers.properties";
+	private static final String	PREFIX						= "generatenumbers.";
+
+	/** The generator backend, "repository", "node", "memory" or "server". */
+	public static final String	BACKEND						= PREFIX + "backend";
+	public static final String	BACKEND_REPOSITORY			= "repository";
+	public static final String	BACKEND_NODE				= "node";
+	public static final String	BACKEND_MEMORY				= "memory";
+	public static final String	BACKEND_SERVER				= "server";
+	/** The simulated round-trip of the "memory" backend in microseconds. */
+	public static final String	MEMORY_LATENCY				= PREFIX + "memory.latency";
+	/** The node id of the "node" backend, unique per running module. */
+	public static final String	NODE_ID						= PREFIX + "node.id";
+	/** The epoch of the "node" backend in milliseconds since 1970. */
+	public static final String	NODE_EPOCH					= PREFIX + "node.epoch";
+	/** The host:port of the sequence server of the "server" backend. */
+	public static final String	SERVER_ADDRESS				= PREFIX + "server.address";
+	/** The directory of a sequence server run in-process, when no address is set. */
+	public static final String	SERVER_DIRECTORY			= PREFIX + "server.directory";
+	/** The number of values an in-process sequence server reserves ahead of its leases. */
+	public static final String	SERVER_RESERVE_AHEAD		= PREFIX + "server.reserveAhead";
+	/** The time to wait for the sequence server in milliseconds. */
+	public static final String	SERVER_TIMEOUT				= PREFIX + "server.timeout";
+	/** The maximum number of attempts to update a number sequence. */
+	public static final String	RETRY_MAX_ATTEMPTS			= PREFIX + "retry.maxAttempts";
+	/** The initial retry interval in milliseconds. */
+	public static final String	RETRY_INITIAL_INTERVAL		= PREFIX + "retry.initialInterval";
+	/** The growth of the retry interval per attempt. */
+	public static final String	RETRY_INTERVAL_GROWTH		= PREFIX + "retry.intervalGrowth";
+	/** Whether the retry intervals are randomized. */
+	public static final String	RETRY_RANDOMIZE				= PREFIX + "retry.randomize";
+	/** Whether the object ids of the number sequences are cached. */
+	public static final String	CACHE_OBJECT_IDS			= PREFIX + "cache.objectIds";
+	/** Whether numbers are generated outside the caller's transaction. */
+	public static final String	OUT_OF_TRANSACTION			= PREFIX + "outOfTransaction";
+	/** The number of values reserved at once, 1 disables leasing. */
+	public static final String	LEASE_SIZE					= PREFIX + "lease.size";
+	/** The smallest lease size when the size adapts to the demand. */
+	public static final String	LEASE_MIN_SIZE				= PREFIX + "lease.minSize";
+	/** The largest lease size when the size adapts to the demand. */
+	public static final String	LEASE_MAX_SIZE				= PREFIX + "lease.maxSize";
+	/** The largest number of values a sequence may lose with its lease. */
+	public static final String	LEASE_MAX_GAP				= PREFIX + "lease.maxGap";
+	/** The desired time between two lease renewals in milliseconds, 0 keeps the size fixed. */
+	public static final String	LEASE_TARGET_INTERVAL		= PREFIX + "lease.targetInterval";
+	/** The comma separated names of the gapless sequences. */
+	public static final String	GAPLESS						= PREFIX + "gapless";
+	/** The time a reservation of a gapless number stays valid in milliseconds. */
+	public static final String	GAPLESS_TIMEOUT				= PREFIX + "gapless.timeout";
+	/**
+	 * Whether the pending and released gapless numbers are stored in the
+	 * repository, defaults to false as the numgen_gapless_number type must be
+	 * created first, see GaplessNumberStore.
+	 */
+	public static final String	GAPLESS_STORE				= PREFIX + "gapless.store";
+	/** The number of number sequences administered per transaction. */
+	public static final String	ADMIN_BATCH_SIZE			= PREFIX + "admin.batchSize";
+	/** Whether requests are queued in interactive and bulk lanes. */
+	public static final String	LANES						= PREFIX + "lanes";
+	/** The maximum number of values reserved for coalesced bulk requests. */
+	public static final String	LANES_MAX_BATCH				= PREFIX + "lanes.maxBatch";
+	/** The number of consecutive interactive requests served ahead of bulk ones. */
+	public static final String	LANES_INTERACTIVE_BURST		= PREFIX + "lanes.interactiveBurst";
+	/** The maximum number of concurrent requests per sequence, 0 disables the bulkhead. */
+	public static final String	BULKHEAD_MAX_CONCURRENT		= PREFIX + "bulkhead.maxConcurrent";
+	/** The maximum number of requests waiting per sequence. */
+	public static final String	BULKHEAD_QUEUE_SIZE			= PREFIX + "bulkhead.queueSize";
+	/** The maximum time a request waits in the queue in milliseconds. */
+	public static final String	BULKHEAD_QUEUE_TIMEOUT		= PREFIX + "bulkhead.queueTimeout";
+	/** The number of consecutive failed requests opening the circuit, 0 disables it. */
+	public static final String	BREAKER_FAILURE_THRESHOLD	= PREFIX + "breaker.failureThreshold";
+	/** The time the circuit stays open in milliseconds. */
+	public static final String	BREAKER_OPEN_INTERVAL		= PREFIX + "breaker.openInterval";
+	/** Whether statistics are kept per number sequence. */
+	public static final String	INSTRUMENTATION				= PREFIX + "instrumentation";
+	/** The comma separated names of the period-scoped sequences. */
+	public static final String	PERIODS						= PREFIX + "periods";
+	/** Followed by a sequence name, the period of a period-scoped sequence. */
+	public static final String	PERIOD						= PREFIX + "period.";
+	/** The time zone periods are defined in. */
+	public static final String	PERIODS_TIME_ZONE			= PREFIX + "periods.timeZone";
+	/** The comma separated names of the number sequences to warm up. */
+	public static final String	WARMUP_SEQUENCES			= PREFIX + "warmup.sequences";
+	/** Followed by a sequence name, the format pattern used with that sequence. */
+	public static final String	WARMUP_FORMAT				= PREFIX + "warmup.format.";
+	/** Whether a lease is reserved for each warmed up sequence, except gapless and period-scoped ones. */
+	public static final String	WARMUP_PRECLAIM				= PREFIX + "warmup.preclaim";
+	/** The time budget of the warm-up in milliseconds. */
+	public static final String	WARMUP_TIMEOUT				= PREFIX + "warmup.timeout";
+	/** The number of threads warming up sequences in parallel. */
+	public static final String	WARMUP_THREADS				= PREFIX + "warmup.threads";
+	/** The number of times each format pattern is applied during warm-up. */
+	public static final String	WARMUP_FORMAT_ITERATIONS	= PREFIX + "warmup.formatIterations";
+	/** The file requests are recorded into, recording is off when not set. */
+	public static final String	TRACE_FILE					= PREFIX + "trace.file";
+	/** The number of records which may be waiting to be written to the trace. */
+	public static final String	TRACE_CAPACITY				= PREFIX + "trace.capacity";
+	/** The directory of the issued number journal, the journal is off when not set. */
+	public static final String	JOURNAL_DIRECTORY			= PREFIX + "journal.directory";
+	/** The size at which the current journal file is rotated in bytes. */
+	public static final String	JOURNAL_MAX_FILE_SIZE		= PREFIX + "journal.maxFileSize";
+	/** The number of journal entries which may be waiting to be written. */
+	public static final String	JOURNAL_BUFFER_SIZE			= PREFIX + "journal.bufferSize";
+
+	private final Properties	properties;
+
+	/**
+	 * Creates a new SequenceGeneratorConfiguration from the specified
+	 * properties.
+	 * 
+	 * @param properties
+	 *            the configuration properties, they are copied.
+	 */
+	public SequenceGeneratorConfiguration(final Properties properties) {
+		this.properties = new Properties();
+		this.properties.putAll(properties);
+	}
+
+	/**
+	 * Loads the configuration from the generatenumbers.properties resource and
+	 * the system properties.
+	 * 
+	 * @return the configuration
+	 */
+	public static SequenceGeneratorConfiguration load() {
+		final Properties properties = new Properties();
+		final InputStream in = SequenceGeneratorConfiguration.class.getResourceAsStream(RESOURCE);
+		if (in != null) {
+			try {
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (final IOException e) {
+				DfLogger.warn(LOG_CATEGORY, "Couldn't read " + RESOURCE + ", using defaults.", null, e);
+			}
+		}
+		for (final Map.Entry<Object, Object> entry : System.getProperties().entrySet()) {
+			final String key = String.valueOf(entry.getKey());
+			if (key.startsWith(PREFIX)) {
+				properties.setProperty(key, String.valueOf(entry.getValue()));
+			}
+		}
+		return new SequenceGeneratorConfiguration(properties);
+	}
+
+	/**
+	 * Retrieves a string property.
+	 * 
+	 * @param key
+	 *            the property key
+	 * @param defaultValue
+	 *            the value returned if the property isn't set
+	 * @return the property value
+	 */
+	public String getString(final String key, final String defaultValue) {
+		final String value = properties.getProperty(key);
+		return value == null || value.trim().length() == 0 ? defaultValue : value.trim();
+	}
+
+	/**
+	 * Retrieves a comma separated list property.
+	 * 
+	 * @param key
+	 *            the property key
+	 * @return the list elements, an empty list if the property isn't set
+	 */
+	public List<String> getList(final String key) {
+		final String value = getString(key, null);
+		if (value == null) {
+			return Collections.emptyList();
+		}
+		final List<String> list = new ArrayList<String>();
+		for (final String element : value.split(",")) {
+			if (element.trim().length() > 0) {
+				list.add(element.trim());
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Retrieves an integer property.
+	 * 
+	 * @param key
+	 *            the property key
+	 * @param defaultValue
+	 *            the value returned if the property isn't set or invalid
+	 * @return the property value
+	 */
+	public int getInt(final String key, final int defaultValue) {
+		final String value = getString(key, null);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value);
+			} catch (final NumberFormatException e) {
+				warnInvalid(key, value);
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Retrieves a long property.
+	 * 
+	 * @param key
+	 *            the property key
+	 * @param defaultValue
+	 *            the value returned if the property isn't set or invalid
+	 * @return the property value
+	 */
+	public long getLong(final String key, final long defaultValue) {
+		final String value = getString(key, null);
+		if (value != null) {
+			try {
+				return Long.parseLong(value);
+			} catch (final NumberFormatException e) {
+				warnInvalid(key, value);
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Retrieves a floating point property.
+	 * 
+	 * @param key
+	 *            the property key
+	 * @param defaultValue
+	 *            the value returned if the property isn't set or invalid
+	 * @return the property value
+	 */
+	public double getDouble(final String key, final double defaultValue) {
+		final String value = getString(key, null);
+		if (value != null) {
+			try {
+				return Double.parseDouble(value);
+			} catch (final NumberFormatException e) {
+				warnInvalid(key, value);
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Retrieves a boolean property.
+	 * 
+	 * @param key
+	 *            the property key
+	 * @param defaultValue
+	 *            the value returned if the property isn't set
+	 * @return the property value
+	 */
+	public boolean getBoolean(final String key, final boolean defaultValue) {
+		final String value = getString(key, null);
+		return value == null ? defaultValue : Boolean.valueOf(value).booleanValue();
+	}
+
+	/**
+	 * Retrieves a copy of the configuration properties.
+	 * 
+	 * @return the properties
+	 */
+	public Properties getProperties() {
+		final Properties copy = new Properties();
+		copy.putAll(properties);
+		return copy;
+	}
+
+	private void warnInvalid(final String key, final String value) {
+		DfLogger.warn(LOG_CATEGORY, "Ignoring invalid value '" + value + "' of " + key + ".", null, null);
+	}
+}
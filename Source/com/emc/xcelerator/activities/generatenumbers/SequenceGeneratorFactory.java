@@ -0,0 +1,378 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Clock;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import com.emc.xcelerator.activities.generatenumbers.journal.IssuedNumberJournal;
+import com.emc.xcelerator.activities.generatenumbers.journal.JournalingSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.server.SequenceService;
+import com.emc.xcelerator.activities.generatenumbers.server.ServerSequenceGenerator;
+
+/**
+ * Assembles the sequence generator pipeline from a
+ * SequenceGeneratorConfiguration. From the outside in the pipeline consists of
+ * the optional issued number journal, the optional instrumentation, the
+ * optional bulkhead, the optional priority lanes, the optional period-scoped
+ * sequences, the optional gapless sequences, the optional lease, the
+ * out-of-transaction decorator and the backend.
+ * 
+ * Subclasses can override the individual create methods to replace a layer.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class SequenceGeneratorFactory {
+
+	private static final int	DEFAULT_LEASE_SIZE					= 1;
+	private static final long	DEFAULT_LEASE_TARGET_INTERVAL		= 1000;
+	private static final long	DEFAULT_GAPLESS_TIMEOUT				= 300000;
+	private static final int	DEFAULT_BULKHEAD_QUEUE_SIZE			= 16;
+	private static final long	DEFAULT_BULKHEAD_QUEUE_TIMEOUT		= 5000;
+	private static final int	DEFAULT_BREAKER_FAILURE_THRESHOLD	= 5;
+	private static final long	DEFAULT_BREAKER_OPEN_INTERVAL		= 30000;
+	private static final int	DEFAULT_LANES_MAX_BATCH				= 1000;
+	private static final int	DEFAULT_LANES_INTERACTIVE_BURST		= 8;
+	private static final long	DEFAULT_JOURNAL_MAX_FILE_SIZE		= 64L * 1024 * 1024;
+	private static final int	DEFAULT_JOURNAL_BUFFER_SIZE			= 65536;
+	private static final int	DEFAULT_SERVER_RESERVE_AHEAD		= 10000;
+	private static final long	DEFAULT_SERVER_TIMEOUT				= 5000;
+
+	/**
+	 * Creates the sequence generator pipeline.
+	 * 
+	 * @param config
+	 *            the configuration
+	 * @return the outermost generator of the pipeline
+	 * @throws IllegalArgumentException
+	 *             if the configuration specifies an unknown backend or the
+	 *             journal couldn't be opened
+	 */
+	public RangeSequenceGenerator create(final SequenceGeneratorConfiguration config) {
+		final RangeSequenceGenerator backend = createBackend(config);
+		RangeSequenceGenerator generator = backend;
+		final int leaseSize = config.getInt(SequenceGeneratorConfiguration.LEASE_SIZE, DEFAULT_LEASE_SIZE);
+		if (leaseSize > 1 || config.getInt(SequenceGeneratorConfiguration.LEASE_MAX_SIZE, leaseSize) > 1) {
+			generator = createLeasingSequenceGenerator(generator, leaseSize, config);
+		}
+		final List<String> gaplessNames = config.getList(SequenceGeneratorConfiguration.GAPLESS);
+		if (!gaplessNames.isEmpty()) {
+			generator = createGaplessSequenceGenerator(generator, backend, gaplessNames, config);
+		}
+		final PeriodSequences periods = new PeriodSequences(config);
+		if (!periods.isEmpty()) {
+			generator = createPeriodSequenceGenerator(generator, periods, config);
+		}
+		if (config.getBoolean(SequenceGeneratorConfiguration.LANES, false)) {
+			generator = createPriorityLaneSequenceGenerator(generator, config);
+		}
+		final int maxConcurrent = config.getInt(SequenceGeneratorConfiguration.BULKHEAD_MAX_CONCURRENT, 0);
+		if (maxConcurrent > 0) {
+			generator = createBulkheadSequenceGenerator(generator, maxConcurrent, config);
+		}
+		if (config.getBoolean(SequenceGeneratorConfiguration.INSTRUMENTATION, false)) {
+			generator = createInstrumentedSequenceGenerator(generator, config);
+		}
+		final String journalDirectory = config.getString(SequenceGeneratorConfiguration.JOURNAL_DIRECTORY, null);
+		if (journalDirectory != null) {
+			generator = createJournalingSequenceGenerator(generator, new File(journalDirectory), config);
+		}
+		return generator;
+	}
+
+	/**
+	 * Creates the backend, including the out-of-transaction decorator.
+	 * 
+	 * @param config
+	 *            the configuration
+	 * @return the backend
+	 */
+	protected RangeSequenceGenerator createBackend(final SequenceGeneratorConfiguration config) {
+		final String backend = config.getString(SequenceGeneratorConfiguration.BACKEND,
+				SequenceGeneratorConfiguration.BACKEND_REPOSITORY);
+		if (SequenceGeneratorConfiguration.BACKEND_REPOSITORY.equals(backend)) {
+			final RangeSequenceGenerator generator = createRetrySequenceGenerator(config);
+			if (config.getBoolean(SequenceGeneratorConfiguration.OUT_OF_TRANSACTION, true)) {
+				return new OutOfTransactionDecoratorSequenceGenerator(generator);
+			}
+			return generator;
+		}
+		if (SequenceGeneratorConfiguration.BACKEND_NODE.equals(backend)) {
+			return createNodeSequenceGenerator(config);
+		}
+		if (SequenceGeneratorConfiguration.BACKEND_MEMORY.equals(backend)) {
+			return new InMemorySequenceGenerator(config.getLong(SequenceGeneratorConfiguration.MEMORY_LATENCY, 0));
+		}
+		if (SequenceGeneratorConfiguration.BACKEND_SERVER.equals(backend)) {
+			return createServerSequenceGenerator(config);
+		}
+		throw new IllegalArgumentException("Unknown sequence generator backend '" + backend + "'.");
+	}
+
+	/**
+	 * Creates the repository backed generator.
+	 * 
+	 * @param config
+	 *            the configuration
+	 * @return the generator
+	 */
+	protected RangeSequenceGenerator createRetrySequenceGenerator(final SequenceGeneratorConfiguration config) {
+		return new RetrySequenceGenerator(config.getInt(SequenceGeneratorConfiguration.RETRY_MAX_ATTEMPTS,
+				RetrySequenceGenerator.MAX_TRY_COUNT), config.getInt(SequenceGeneratorConfiguration.RETRY_INITIAL_INTERVAL,
+				RetrySequenceGenerator.INITIAL_RETRY_INTERVAL_MS), config.getDouble(
+				SequenceGeneratorConfiguration.RETRY_INTERVAL_GROWTH, RetrySequenceGenerator.RETRY_INTERVAL_GROWTH),
+				config.getBoolean(SequenceGeneratorConfiguration.RETRY_RANDOMIZE,
+						RetrySequenceGenerator.RANDOMIZE_RETRY_INTERVAL), config.getBoolean(
+						SequenceGeneratorConfiguration.CACHE_OBJECT_IDS, true));
+	}
+
+	/**
+	 * Creates the generator issuing numbers from a node id, the time and a
+	 * counter.
+	 * 
+	 * @param config
+	 *            the configuration
+	 * @return the generator
+	 * @throws IllegalArgumentException
+	 *             if the node id isn't configured
+	 */
+	protected RangeSequenceGenerator createNodeSequenceGenerator(final SequenceGeneratorConfiguration config) {
+		final int nodeId = config.getInt(SequenceGeneratorConfiguration.NODE_ID, -1);
+		if (nodeId < 0) {
+			throw new IllegalArgumentException("The node backend requires " + SequenceGeneratorConfiguration.NODE_ID
+					+ " to be set.");
+		}
+		return new NodeSequenceGenerator(nodeId, config.getLong(SequenceGeneratorConfiguration.NODE_EPOCH,
+				NodeSequenceGenerator.DEFAULT_EPOCH), Clock.systemUTC());
+	}
+
+	/**
+	 * Creates the generator leasing its numbers from a sequence server, either
+	 * a remote one or one run in-process.
+	 * 
+	 * @param config
+	 *            the configuration
+	 * @return the generator
+	 * @throws IllegalArgumentException
+	 *             if neither the address nor the directory is configured, or
+	 *             the in-process server couldn't be opened
+	 */
+	protected RangeSequenceGenerator createServerSequenceGenerator(final SequenceGeneratorConfiguration config) {
+		final String address = config.getString(SequenceGeneratorConfiguration.SERVER_ADDRESS, null);
+		if (address != null) {
+			final int colon = address.lastIndexOf(':');
+			if (colon < 0) {
+				throw new IllegalArgumentException("The sequence server address '" + address
+						+ "' isn't of the form host:port.");
+			}
+			return new ServerSequenceGenerator(new InetSocketAddress(address.substring(0, colon), Integer
+					.parseInt(address.substring(colon + 1))), config.getLong(
+					SequenceGeneratorConfiguration.SERVER_TIMEOUT, DEFAULT_SERVER_TIMEOUT));
+		}
+		final String directory = config.getString(SequenceGeneratorConfiguration.SERVER_DIRECTORY, null);
+		if (directory == null) {
+			throw new IllegalArgumentException("The server backend requires "
+					+ SequenceGeneratorConfiguration.SERVER_ADDRESS + " or "
+					+ SequenceGeneratorConfiguration.SERVER_DIRECTORY + " to be set.");
+		}
+		try {
+			return new ServerSequenceGenerator(SequenceService.open(new File(directory), config.getInt(
+					SequenceGeneratorConfiguration.SERVER_RESERVE_AHEAD, DEFAULT_SERVER_RESERVE_AHEAD)));
+		} catch (final IOException e) {
+			throw new IllegalArgumentException("Couldn't open the sequence server in " + directory + ".", e);
+		}
+	}
+
+	/**
+	 * Creates the lease layer.
+	 * 
+	 * @param generator
+	 *            the generator to decorate
+	 * @param leaseSize
+	 *            the number of values reserved by the first lease
+	 * @param config
+	 *            the configuration
+	 * @return the decorated generator
+	 */
+	protected RangeSequenceGenerator createLeasingSequenceGenerator(final RangeSequenceGenerator generator,
+			final int leaseSize, final SequenceGeneratorConfiguration config) {
+		final int maxLeaseSize = config.getInt(SequenceGeneratorConfiguration.LEASE_MAX_SIZE, leaseSize);
+		if (maxLeaseSize <= leaseSize) {
+			return new LeasingSequenceGenerator(generator, leaseSize);
+		}
+		return new LeasingSequenceGenerator(generator, leaseSize, config.getInt(
+				SequenceGeneratorConfiguration.LEASE_MIN_SIZE, 1), maxLeaseSize, config.getInt(
+				SequenceGeneratorConfiguration.LEASE_MAX_GAP, Integer.MAX_VALUE), config.getLong(
+				SequenceGeneratorConfiguration.LEASE_TARGET_INTERVAL, DEFAULT_LEASE_TARGET_INTERVAL));
+	}
+
+	/**
+	 * Creates the gapless sequence layer, the gapless sequences bypass the
+	 * layers between it and the backend. With the repository backend the
+	 * pending and released numbers are stored in the repository.
+	 * 
+	 * @param generator
+	 *            the generator to decorate
+	 * @param backend
+	 *            the backend
+	 * @param gaplessNames
+	 *            the names of the gapless sequences
+	 * @param config
+	 *            the configuration
+	 * @return the decorated generator
+	 */
+	protected RangeSequenceGenerator createGaplessSequenceGenerator(final RangeSequenceGenerator generator,
+			final RangeSequenceGenerator backend, final List<String> gaplessNames,
+			final SequenceGeneratorConfiguration config) {
+		return new GaplessSequenceGenerator(generator, backend, createGaplessNumberStore(backend, config),
+				new LinkedHashSet<String>(gaplessNames), config.getLong(SequenceGeneratorConfiguration.GAPLESS_TIMEOUT,
+						DEFAULT_GAPLESS_TIMEOUT));
+	}
+
+	/**
+	 * Creates the repository store of the pending and released gapless
+	 * numbers, which advances the number sequences with the repository
+	 * generator inside its own transaction.
+	 * 
+	 * @param backend
+	 *            the backend
+	 * @param config
+	 *            the configuration
+	 * @return the store or null if the backend isn't the repository or the
+	 *         store isn't enabled
+	 */
+	protected GaplessNumberStore createGaplessNumberStore(final RangeSequenceGenerator backend,
+			final SequenceGeneratorConfiguration config) {
+		final RetrySequenceGenerator repository = SequenceGeneratorPipeline.findLayer(backend,
+				RetrySequenceGenerator.class);
+		if (repository == null || !config.getBoolean(SequenceGeneratorConfiguration.GAPLESS_STORE, false)) {
+			return null;
+		}
+		return new GaplessNumberStore(repository);
+	}
+
+	/**
+	 * Creates the period-scoped sequence layer, the backend is allowed to
+	 * create the number sequences backing each period.
+	 * 
+	 * @param generator
+	 *            the generator to decorate
+	 * @param periods
+	 *            the period-scoped sequences
+	 * @param config
+	 *            the configuration
+	 * @return the decorated generator
+	 */
+	protected RangeSequenceGenerator createPeriodSequenceGenerator(final RangeSequenceGenerator generator,
+			final PeriodSequences periods, final SequenceGeneratorConfiguration config) {
+		final RetrySequenceGenerator backend = SequenceGeneratorPipeline.findLayer(generator,
+				RetrySequenceGenerator.class);
+		if (backend != null) {
+			backend.setCreationPolicy(periods);
+		}
+		final ServerSequenceGenerator server = SequenceGeneratorPipeline.findLayer(generator,
+				ServerSequenceGenerator.class);
+		if (server != null) {
+			server.setCreationPolicy(periods);
+		}
+		return new PeriodSequenceGenerator(generator, periods, Clock.systemUTC());
+	}
+
+	/**
+	 * Creates the priority lane layer.
+	 * 
+	 * @param generator
+	 *            the generator to decorate
+	 * @param config
+	 *            the configuration
+	 * @return the decorated generator
+	 */
+	protected RangeSequenceGenerator createPriorityLaneSequenceGenerator(final RangeSequenceGenerator generator,
+			final SequenceGeneratorConfiguration config) {
+		return new PriorityLaneSequenceGenerator(generator, config.getInt(
+				SequenceGeneratorConfiguration.LANES_MAX_BATCH, DEFAULT_LANES_MAX_BATCH), config.getInt(
+				SequenceGeneratorConfiguration.LANES_INTERACTIVE_BURST, DEFAULT_LANES_INTERACTIVE_BURST));
+	}
+
+	/**
+	 * Creates the bulkhead layer.
+	 * 
+	 * @param generator
+	 *            the generator to decorate
+	 * @param maxConcurrent
+	 *            the maximum number of concurrent requests per sequence
+	 * @param config
+	 *            the configuration
+	 * @return the decorated generator
+	 */
+	protected RangeSequenceGenerator createBulkheadSequenceGenerator(final RangeSequenceGenerator generator,
+			final int maxConcurrent, final SequenceGeneratorConfiguration config) {
+		return new BulkheadSequenceGenerator(generator, maxConcurrent, config.getInt(
+				SequenceGeneratorConfiguration.BULKHEAD_QUEUE_SIZE, DEFAULT_BULKHEAD_QUEUE_SIZE), config.getLong(
+				SequenceGeneratorConfiguration.BULKHEAD_QUEUE_TIMEOUT, DEFAULT_BULKHEAD_QUEUE_TIMEOUT), config.getInt(
+				SequenceGeneratorConfiguration.BREAKER_FAILURE_THRESHOLD, DEFAULT_BREAKER_FAILURE_THRESHOLD),
+				config.getLong(SequenceGeneratorConfiguration.BREAKER_OPEN_INTERVAL, DEFAULT_BREAKER_OPEN_INTERVAL));
+	}
+
+	/**
+	 * Creates the instrumentation layer.
+	 * 
+	 * @param generator
+	 *            the generator to decorate
+	 * @param config
+	 *            the configuration
+	 * @return the decorated generator
+	 */
+	protected RangeSequenceGenerator createInstrumentedSequenceGenerator(final RangeSequenceGenerator generator,
+			final SequenceGeneratorConfiguration config) {
+		return new InstrumentedSequenceGenerator(generator);
+	}
+
+	/**
+	 * Creates the issued number journal layer. Pipelines journaling into the
+	 * same directory share the journal.
+	 * 
+	 * @param generator
+	 *            the generator to decorate
+	 * @param directory
+	 *            the directory of the journal files
+	 * @param config
+	 *            the configuration
+	 * @return the decorated generator
+	 * @throws IllegalArgumentException
+	 *             if the journal couldn't be opened
+	 */
+	protected RangeSequenceGenerator createJournalingSequenceGenerator(final RangeSequenceGenerator generator,
+			final File directory, final SequenceGeneratorConfiguration config) {
+		try {
+			return new JournalingSequenceGenerator(generator, IssuedNumberJournal.open(directory, config.getInt(
+					SequenceGeneratorConfiguration.JOURNAL_BUFFER_SIZE, DEFAULT_JOURNAL_BUFFER_SIZE), config.getLong(
+					SequenceGeneratorConfiguration.JOURNAL_MAX_FILE_SIZE, DEFAULT_JOURNAL_MAX_FILE_SIZE)));
+		} catch (final IOException e) {
+			throw new IllegalArgumentException("Couldn't open the issued number journal in " + directory + ".", e);
+		}
+	}
+}
@@ -75,4 +75,15 @@ public class SequenceGeneratorFailedException extends DfException {
 	public SequenceGeneratorFailedException(final Throwable cause) {
 		super(cause);
 	}
+
+	/**
+	 * Doesn't fill in the stack trace, this exception is thrown as part of the
+	 * normal operation of the sequence generator and its message identifies the
+	 * number sequence. The cause, if any, carries its own stack trace.
+	 * 
+	 * @return this exception
+	 */
+	public Throwable fillInStackTrace() {
+		return this;
+	}
 }
@@ -0,0 +1,161 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.documentum.fc.common.DfLogger;
+import com.emc.xcelerator.activities.generatenumbers.server.ServerSequenceGenerator;
+
+/**
+ * Holds the long-lived sequence generator pipeline. The pipeline is assembled
+ * once and can be replaced at any time by reconfigure; requests already
+ * running complete against the pipeline they started with, new requests use
+ * the new pipeline.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class SequenceGeneratorPipeline {
+
+	private static final String						LOG_CATEGORY	= SequenceGeneratorPipeline.class.getCanonicalName();
+	private final SequenceGeneratorFactory			factory;
+	private final AtomicReference<Assembly>		current	= new AtomicReference<Assembly>();
+
+	/**
+	 * Creates a new SequenceGeneratorPipeline. If no pipeline can be assembled
+	 * from the initial configuration, e.g. because it names an unknown backend,
+	 * the error is logged and the default pipeline, generating numbers from the
+	 * repository, is assembled instead. The pipeline is created while the
+	 * module class is initialized, where an exception would make the module
+	 * unusable until it is redeployed.
+	 * 
+	 * @param factory
+	 *            the factory used to assemble the pipeline
+	 * @param config
+	 *            the initial configuration
+	 */
+	public SequenceGeneratorPipeline(final SequenceGeneratorFactory factory, final SequenceGeneratorConfiguration config) {
+		this.factory = factory;
+		Assembly assembly;
+		try {
+			assembly = new Assembly(config, factory.create(config));
+		} catch (final RuntimeException e) {
+			DfLogger.error(LOG_CATEGORY, "The sequence generator configuration is invalid, "
+					+ "generating numbers from the repository with the default settings.", null, e);
+			final SequenceGeneratorConfiguration defaults = new SequenceGeneratorConfiguration(new Properties());
+			assembly = new Assembly(defaults, factory.create(defaults));
+		}
+		current.set(assembly);
+	}
+
+	/**
+	 * Retrieves the current pipeline, callers should use the returned generator
+	 * for the whole request.
+	 * 
+	 * @return the outermost generator of the current pipeline
+	 */
+	public RangeSequenceGenerator getSequenceGenerator() {
+		return current.get().generator;
+	}
+
+	/**
+	 * Locates the outermost layer of the current pipeline which is of the
+	 * specified type.
+	 * 
+	 * @param type
+	 *            the type of the layer
+	 * @return the layer or null if the pipeline contains no such layer
+	 */
+	public <T> T findLayer(final Class<T> type) {
+		return findLayer(getSequenceGenerator(), type);
+	}
+
+	/**
+	 * Locates the outermost layer of a pipeline which is of the specified type.
+	 * 
+	 * @param pipeline
+	 *            the outermost generator of the pipeline
+	 * @param type
+	 *            the type of the layer
+	 * @return the layer or null if the pipeline contains no such layer
+	 */
+	public static <T> T findLayer(final SequenceGenerator pipeline, final Class<T> type) {
+		SequenceGenerator generator = pipeline;
+		while (generator != null) {
+			if (type.isInstance(generator)) {
+				return type.cast(generator);
+			}
+			generator = generator instanceof SequenceGeneratorDecorator ? ((SequenceGeneratorDecorator) generator)
+					.getSequenceGenerator() : null;
+		}
+		return null;
+	}
+
+	/**
+	 * Retrieves the configuration of the current pipeline.
+	 * 
+	 * @return the configuration
+	 */
+	public SequenceGeneratorConfiguration getConfiguration() {
+		return current.get().config;
+	}
+
+	/**
+	 * Assembles a new pipeline and replaces the current one with it. If the new
+	 * configuration is invalid the current pipeline stays in place.
+	 * 
+	 * A sequence server client the new pipeline doesn't use anymore is closed
+	 * once its requests in flight completed. A sequence service in the same
+	 * JVM is reference counted: the new pipeline takes over the service of an
+	 * unchanged directory, the service of a directory no longer used is closed
+	 * with the last client.
+	 * 
+	 * @param config
+	 *            the new configuration
+	 * @return the generator of the replaced pipeline
+	 * @throws IllegalArgumentException
+	 *             if the configuration is invalid
+	 */
+	public RangeSequenceGenerator reconfigure(final SequenceGeneratorConfiguration config) {
+		final RangeSequenceGenerator generator = factory.create(config);
+		final RangeSequenceGenerator replaced = current.getAndSet(new Assembly(config, generator)).generator;
+		final ServerSequenceGenerator client = findLayer(replaced, ServerSequenceGenerator.class);
+		if (client != null && client != findLayer(generator, ServerSequenceGenerator.class)) {
+			client.close();
+		}
+		return replaced;
+	}
+
+	/**
+	 * A pipeline together with the configuration it was assembled from.
+	 */
+	private static class Assembly {
+		final SequenceGeneratorConfiguration	config;
+		final RangeSequenceGenerator			generator;
+
+		Assembly(final SequenceGeneratorConfiguration config, final RangeSequenceGenerator generator) {
+			this.config = config;
+			this.generator = generator;
+		}
+	}
+}
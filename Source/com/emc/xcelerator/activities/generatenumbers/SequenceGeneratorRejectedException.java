@@ -0,0 +1,58 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import com.documentum.fc.common.DfException;
+
+/**
+ * Signals that a request for a number was turned away without being attempted,
+ * because the number sequence is overloaded or its circuit breaker is open.
+ * Unlike SequenceGeneratorFailedException, the request may be retried later.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class SequenceGeneratorRejectedException extends DfException {
+
+	private static final long	serialVersionUID	= 4520417780355470329L;
+
+	/**
+	 * Constructs an instance of SequenceGeneratorRejectedException with the
+	 * specified detail message. A detail message is an instance of String that
+	 * describes this particular exception.
+	 * 
+	 * @param message
+	 *            the detail message
+	 */
+	public SequenceGeneratorRejectedException(final String message) {
+		super(message);
+	}
+
+	/**
+	 * Rejections are the fast path under overload, so no stack trace is
+	 * captured; the message names the sequence and the reason.
+	 * 
+	 * @return this exception
+	 */
+	public Throwable fillInStackTrace() {
+		return this;
+	}
+}
@@ -0,0 +1,327 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import com.documentum.fc.client.DfSingleDocbaseModule;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.client.IDfSessionManager;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfLogger;
+
+/**
+ * Warms up the number sequences listed in the configuration so that the first
+ * request for each of them runs at steady-state speed. Warming up happens in
+ * two phases:
+ * <ul>
+ * <li>the format phase compiles the format pattern of each sequence and
+ * applies it repeatedly, it doesn't need a repository session and runs when
+ * the module is created, within the configured time budget.</li>
+ * <li>the sequence phase looks the number sequences up (caching their object
+ * ids) and optionally reserves a lease for each of them. It is scheduled when
+ * the module is created and runs in the background, in parallel and within the
+ * configured time budget, as soon as the module has received its session
+ * manager.</li>
+ * </ul>
+ * Warming up never fails the module, problems are logged and the affected
+ * sequence is simply left cold.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class SequenceGeneratorWarmup {
+
+	private static final String				LOG_CATEGORY				= SequenceGeneratorWarmup.class.getCanonicalName();
+	private static final int				DEFAULT_TIMEOUT_MS			= 10000;
+	private static final int				DEFAULT_THREADS				= 4;
+	private static final int				DEFAULT_FORMAT_ITERATIONS	= 10000;
+	private static final long				SESSION_MANAGER_POLL_NANOS	= TimeUnit.MILLISECONDS.toNanos(5);
+
+	private final SequenceGeneratorPipeline	pipeline;
+	private final AtomicBoolean				formatsWarmedUp				= new AtomicBoolean();
+	private final AtomicBoolean				sequencesStarted			= new AtomicBoolean();
+
+	/**
+	 * Creates a new SequenceGeneratorWarmup for the specified pipeline, the
+	 * configuration of the pipeline lists the sequences to warm up.
+	 * 
+	 * @param pipeline
+	 *            the pipeline to warm up
+	 */
+	public SequenceGeneratorWarmup(final SequenceGeneratorPipeline pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	/**
+	 * Compiles and exercises the format patterns of the configured sequences,
+	 * only the first invocation has any effect. A pattern which can't be
+	 * compiled or applied is logged and skipped, patterns not reached within
+	 * the time budget are left cold.
+	 */
+	public void warmUpFormats() {
+		if (!formatsWarmedUp.compareAndSet(false, true)) {
+			return;
+		}
+		final SequenceGeneratorConfiguration config = pipeline.getConfiguration();
+		final int iterations = config.getInt(SequenceGeneratorConfiguration.WARMUP_FORMAT_ITERATIONS,
+				DEFAULT_FORMAT_ITERATIONS);
+		final long deadline = System.nanoTime()
+				+ TimeUnit.MILLISECONDS.toNanos(config.getLong(SequenceGeneratorConfiguration.WARMUP_TIMEOUT,
+						DEFAULT_TIMEOUT_MS));
+		for (final String name : config.getList(SequenceGeneratorConfiguration.WARMUP_SEQUENCES)) {
+			final String pattern = config.getString(SequenceGeneratorConfiguration.WARMUP_FORMAT + name, null);
+			if (pattern == null) {
+				continue;
+			}
+			if (System.nanoTime() - deadline > 0) {
+				DfLogger.warn(LOG_CATEGORY, "Format warm-up didn't complete within the time budget, '" + name
+						+ "' and the following sequences are left cold.", null, null);
+				return;
+			}
+			try {
+				warmUpFormat(GeneratedNumberFormat.compile(pattern), iterations, deadline);
+			} catch (final RuntimeException e) {
+				DfLogger.warn(LOG_CATEGORY, "Warm-up of the format '" + pattern + "' of number sequence '" + name
+						+ "' failed.", null, e);
+			}
+		}
+	}
+
+	private static void warmUpFormat(final GeneratedNumberFormat format, final int iterations, final long deadline) {
+		if (format.getDigitPositions() == 0) {
+			return;
+		}
+		final int bound = format.getDigitPositions() >= 9 ? Integer.MAX_VALUE : (int) Math.pow(10, format
+				.getDigitPositions());
+		for (int i = 0; i < iterations; ++i) {
+			format.apply(i % bound);
+			if ((i & 1023) == 1023 && System.nanoTime() - deadline > 0) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Schedules the sequence phase for a module which is being created: it
+	 * starts in the background as soon as the module has received its session
+	 * manager, so it doesn't wait for the first request. If the module doesn't
+	 * receive a session manager within the time budget the first request
+	 * starts the phase instead. Only the first invocation has any effect.
+	 * 
+	 * @param module
+	 *            the module being created
+	 * @return true if the sequence phase was scheduled by this invocation
+	 */
+	public boolean scheduleSequenceWarmup(final DfSingleDocbaseModule module) {
+		final SequenceGeneratorConfiguration config = pipeline.getConfiguration();
+		final List<String> names = config.getList(SequenceGeneratorConfiguration.WARMUP_SEQUENCES);
+		if (names.isEmpty() || !sequencesStarted.compareAndSet(false, true)) {
+			return false;
+		}
+		final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(config.getLong(
+				SequenceGeneratorConfiguration.WARMUP_TIMEOUT, DEFAULT_TIMEOUT_MS));
+		final Thread coordinator = new Thread(new Runnable() {
+			public void run() {
+				final long deadline = System.nanoTime() + timeoutNanos;
+				IDfSessionManager sessionManager;
+				while ((sessionManager = module.getSessionManager()) == null) {
+					if (System.nanoTime() - deadline > 0) {
+						// the first request starts the phase
+						sequencesStarted.set(false);
+						return;
+					}
+					LockSupport.parkNanos(this, SESSION_MANAGER_POLL_NANOS);
+				}
+				warmUpSequences(sessionManager, module.getDocbaseName(), names);
+			}
+		}, "generatenumbers-warmup");
+		coordinator.setDaemon(true);
+		coordinator.start();
+		return true;
+	}
+
+	/**
+	 * Starts the sequence phase in the background, only the first invocation
+	 * has any effect.
+	 * 
+	 * @param sessionManager
+	 *            the session manager used to obtain repository sessions
+	 * @param docbaseName
+	 *            the name of the repository
+	 * @return true if the sequence phase was started by this invocation
+	 */
+	public boolean startSequenceWarmup(final IDfSessionManager sessionManager, final String docbaseName) {
+		final List<String> names = pipeline.getConfiguration().getList(SequenceGeneratorConfiguration.WARMUP_SEQUENCES);
+		if (names.isEmpty() || sessionManager == null || !sequencesStarted.compareAndSet(false, true)) {
+			return false;
+		}
+		final Thread coordinator = new Thread(new Runnable() {
+			public void run() {
+				warmUpSequences(sessionManager, docbaseName, names);
+			}
+		}, "generatenumbers-warmup");
+		coordinator.setDaemon(true);
+		coordinator.start();
+		return true;
+	}
+
+	/**
+	 * Forgets that the warm-up has run, after the pipeline has been replaced.
+	 */
+	public void reset() {
+		formatsWarmedUp.set(false);
+		sequencesStarted.set(false);
+	}
+
+	/**
+	 * Warms up the specified sequences in parallel, giving up on the sequences
+	 * not warmed up within the time budget.
+	 * 
+	 * @param sessionManager
+	 *            the session manager used to obtain repository sessions
+	 * @param docbaseName
+	 *            the name of the repository
+	 * @param names
+	 *            the names of the number sequences
+	 */
+	protected void warmUpSequences(final IDfSessionManager sessionManager, final String docbaseName,
+			final List<String> names) {
+		final SequenceGeneratorConfiguration config = pipeline.getConfiguration();
+		final long timeout = config.getLong(SequenceGeneratorConfiguration.WARMUP_TIMEOUT, DEFAULT_TIMEOUT_MS);
+		final boolean preclaim = config.getBoolean(SequenceGeneratorConfiguration.WARMUP_PRECLAIM, false);
+		final int threads = Math.max(1, Math.min(names.size(), config.getInt(
+				SequenceGeneratorConfiguration.WARMUP_THREADS, DEFAULT_THREADS)));
+
+		final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (final String name : names) {
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call() throws DfException {
+					warmUpSequence(sessionManager, docbaseName, name, preclaim);
+					return Boolean.TRUE;
+				}
+			});
+		}
+
+		final long start = System.currentTimeMillis();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads, new WarmupThreadFactory());
+		int warm = 0;
+		try {
+			final List<Future<Boolean>> results = executor.invokeAll(tasks, timeout, TimeUnit.MILLISECONDS);
+			for (int i = 0; i < results.size(); ++i) {
+				try {
+					if (!results.get(i).isCancelled()) {
+						results.get(i).get();
+						warm += 1;
+					} else {
+						DfLogger.warn(LOG_CATEGORY, "Warm-up of number sequence '" + names.get(i)
+								+ "' didn't complete within " + timeout + " ms.", null, null);
+					}
+				} catch (final Exception e) {
+					DfLogger.warn(LOG_CATEGORY, "Warm-up of number sequence '" + names.get(i) + "' failed.", null,
+							e.getCause() != null ? e.getCause() : e);
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		DfLogger.info(LOG_CATEGORY, "Warmed up " + warm + " of " + names.size() + " number sequence(s) in "
+				+ (System.currentTimeMillis() - start) + " ms.", null, null);
+	}
+
+	/**
+	 * Warms up a single sequence in a session of its own.
+	 * 
+	 * @param sessionManager
+	 *            the session manager used to obtain repository sessions
+	 * @param docbaseName
+	 *            the name of the repository
+	 * @param name
+	 *            the name of the number sequence
+	 * @param preclaim
+	 *            whether a lease is reserved for the sequence
+	 * @throws DfException
+	 *             if the sequence couldn't be warmed up
+	 */
+	protected void warmUpSequence(final IDfSessionManager sessionManager, final String docbaseName,
+			final String name, final boolean preclaim) throws DfException {
+		final IDfSession session = sessionManager.newSession(docbaseName);
+		try {
+			final RetrySequenceGenerator backend = pipeline.findLayer(RetrySequenceGenerator.class);
+			if (backend != null) {
+				backend.resolve(session, name);
+			}
+			if (preclaim && isPreclaimable(name)) {
+				final LeasingSequenceGenerator leasing = pipeline.findLayer(LeasingSequenceGenerator.class);
+				if (leasing != null) {
+					leasing.prefetch(session, name);
+				}
+			}
+		} finally {
+			sessionManager.release(session);
+		}
+	}
+
+	/**
+	 * Tells whether a lease may be reserved ahead for a sequence. Gapless
+	 * sequences never are, as the lease would be lost on every restart, and
+	 * neither are period-scoped sequences, whose numbers come from the
+	 * sequence of the current period.
+	 * 
+	 * @param name
+	 *            the name of the number sequence
+	 * @return true if a lease may be reserved
+	 */
+	protected boolean isPreclaimable(final String name) {
+		final GaplessSequenceGenerator gapless = pipeline.findLayer(GaplessSequenceGenerator.class);
+		if (gapless != null && gapless.isGapless(name)) {
+			return false;
+		}
+		final PeriodSequenceGenerator periods = pipeline.findLayer(PeriodSequenceGenerator.class);
+		return periods == null || periods.getPeriods().getDefinition(name) == null;
+	}
+
+	/**
+	 * Creates the daemon threads warming up the sequences.
+	 */
+	private static class WarmupThreadFactory implements ThreadFactory {
+		private final AtomicInteger	count	= new AtomicInteger();
+
+		public Thread newThread(final Runnable r) {
+			final Thread thread = new Thread(r, "generatenumbers-warmup-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
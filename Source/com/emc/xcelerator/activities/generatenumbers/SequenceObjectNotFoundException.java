@@ -75,4 +75,14 @@ public class SequenceObjectNotFoundException extends DfException {
 	public SequenceObjectNotFoundException(final Throwable cause) {
 		super(cause);
 	}
+
+	/**
+	 * Doesn't fill in the stack trace, a missing number sequence is a
+	 * configuration problem which the message already pinpoints.
+	 * 
+	 * @return this exception
+	 */
+	public Throwable fillInStackTrace() {
+		return this;
+	}
 }
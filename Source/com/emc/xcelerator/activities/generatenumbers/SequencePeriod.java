@@ -0,0 +1,173 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * The period after which a period-scoped number sequence starts over.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public enum SequencePeriod {
+
+	/** The sequence restarts on January 1st, the period key is yyyy. */
+	YEARLY {
+		LocalDate start(final LocalDate date) {
+			return date.withDayOfYear(1);
+		}
+
+		LocalDate next(final LocalDate start) {
+			return start.plusYears(1);
+		}
+
+		String key(final LocalDate start) {
+			return pad(start.getYear(), 4);
+		}
+	},
+
+	/** The sequence restarts on the first of each month, the period key is yyyyMM. */
+	MONTHLY {
+		LocalDate start(final LocalDate date) {
+			return date.withDayOfMonth(1);
+		}
+
+		LocalDate next(final LocalDate start) {
+			return start.plusMonths(1);
+		}
+
+		String key(final LocalDate start) {
+			return pad(start.getYear(), 4) + pad(start.getMonthValue(), 2);
+		}
+	},
+
+	/** The sequence restarts every day, the period key is yyyyMMdd. */
+	DAILY {
+		LocalDate start(final LocalDate date) {
+			return date;
+		}
+
+		LocalDate next(final LocalDate start) {
+			return start.plusDays(1);
+		}
+
+		String key(final LocalDate start) {
+			return pad(start.getYear(), 4) + pad(start.getMonthValue(), 2) + pad(start.getDayOfMonth(), 2);
+		}
+	};
+
+	/**
+	 * @param date
+	 *            a date
+	 * @return the first day of the period containing the date
+	 */
+	abstract LocalDate start(LocalDate date);
+
+	/**
+	 * @param start
+	 *            the first day of a period
+	 * @return the first day of the following period
+	 */
+	abstract LocalDate next(LocalDate start);
+
+	/**
+	 * @param start
+	 *            the first day of a period
+	 * @return the key identifying the period
+	 */
+	abstract String key(LocalDate start);
+
+	/**
+	 * Determines the period containing the specified instant.
+	 * 
+	 * @param epochMillis
+	 *            the instant, in milliseconds since the epoch
+	 * @param zone
+	 *            the time zone the periods are defined in
+	 * @return the period
+	 */
+	public Period periodOf(final long epochMillis, final ZoneId zone) {
+		final LocalDate date = ZonedDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), zone).toLocalDate();
+		final LocalDate start = start(date);
+		return new Period(key(start), start.atStartOfDay(zone).toInstant().toEpochMilli(), next(start).atStartOfDay(
+				zone).toInstant().toEpochMilli());
+	}
+
+	private static String pad(final int value, final int width) {
+		final String s = String.valueOf(value);
+		final StringBuilder buffer = new StringBuilder(width);
+		for (int i = s.length(); i < width; ++i) {
+			buffer.append('0');
+		}
+		return buffer.append(s).toString();
+	}
+
+	/**
+	 * A single period, identified by its key.
+	 */
+	public static class Period {
+		private final String	key;
+		private final long		startMillis;
+		private final long		endMillis;
+
+		Period(final String key, final long startMillis, final long endMillis) {
+			this.key = key;
+			this.startMillis = startMillis;
+			this.endMillis = endMillis;
+		}
+
+		/**
+		 * @return the key identifying the period
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * @return the first instant of the period, in milliseconds since the
+		 *         epoch
+		 */
+		public long getStartMillis() {
+			return startMillis;
+		}
+
+		/**
+		 * @param epochMillis
+		 *            an instant, in milliseconds since the epoch
+		 * @return true if the instant is within the period
+		 */
+		public boolean contains(final long epochMillis) {
+			return epochMillis >= startMillis && epochMillis < endMillis;
+		}
+
+		/**
+		 * @return the first instant after the period, in milliseconds since the
+		 *         epoch
+		 */
+		public long getEndMillis() {
+			return endMillis;
+		}
+	}
+}
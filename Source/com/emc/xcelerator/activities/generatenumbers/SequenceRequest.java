@@ -0,0 +1,110 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+/**
+ * A request for count ids from a number sequence, formatted with a pattern,
+ * prefix and suffix; one element of a multi-sequence request.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class SequenceRequest {
+
+	private final String	numberSequenceName;
+	private final int		count;
+	private final String	format;
+	private final String[]	prefix;
+	private final String[]	suffix;
+
+	/**
+	 * Creates a new SequenceRequest for a single id.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param format
+	 *            the format pattern, may be null
+	 */
+	public SequenceRequest(final String numberSequenceName, final String format) {
+		this(numberSequenceName, 1, format, null, null);
+	}
+
+	/**
+	 * Creates a new SequenceRequest.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param count
+	 *            the number of ids, at least 1
+	 * @param format
+	 *            the format pattern, may be null
+	 * @param prefix
+	 *            the strings preceding each number, may be null
+	 * @param suffix
+	 *            the strings following each number, may be null
+	 */
+	public SequenceRequest(final String numberSequenceName, final int count, final String format,
+			final String[] prefix, final String[] suffix) {
+		if (count < 1) {
+			throw new IllegalArgumentException("count must be positive: " + count);
+		}
+		this.numberSequenceName = numberSequenceName;
+		this.count = count;
+		this.format = format;
+		this.prefix = prefix == null ? null : prefix.clone();
+		this.suffix = suffix == null ? null : suffix.clone();
+	}
+
+	/**
+	 * @return the name of the number sequence
+	 */
+	public String getNumberSequenceName() {
+		return numberSequenceName;
+	}
+
+	/**
+	 * @return the number of ids
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the format pattern, may be null
+	 */
+	public String getFormat() {
+		return format;
+	}
+
+	/**
+	 * @return the strings preceding each number, may be null
+	 */
+	public String[] getPrefix() {
+		return prefix == null ? null : prefix.clone();
+	}
+
+	/**
+	 * @return the strings following each number, may be null
+	 */
+	public String[] getSuffix() {
+		return suffix == null ? null : suffix.clone();
+	}
+}
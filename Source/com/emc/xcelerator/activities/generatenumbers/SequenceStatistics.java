@@ -0,0 +1,137 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing the requests made for a number sequence. The counters
+ * are updated without locking, so a snapshot of several counters isn't
+ * necessarily consistent.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class SequenceStatistics {
+
+	private final String		numberSequenceName;
+	private final AtomicLong	requests		= new AtomicLong();
+	private final AtomicLong	failures		= new AtomicLong();
+	private final AtomicLong	values			= new AtomicLong();
+	private final AtomicLong	totalNanos		= new AtomicLong();
+	private final AtomicLong	maxNanos		= new AtomicLong();
+
+	/**
+	 * Creates new, zeroed, statistics.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 */
+	public SequenceStatistics(final String numberSequenceName) {
+		this.numberSequenceName = numberSequenceName;
+	}
+
+	/**
+	 * Records a successful request.
+	 * 
+	 * @param size
+	 *            the number of values handed out
+	 * @param nanos
+	 *            the duration of the request in nanoseconds
+	 */
+	public void recordSuccess(final int size, final long nanos) {
+		requests.incrementAndGet();
+		values.addAndGet(size);
+		recordDuration(nanos);
+	}
+
+	/**
+	 * Records a failed request.
+	 * 
+	 * @param nanos
+	 *            the duration of the request in nanoseconds
+	 */
+	public void recordFailure(final long nanos) {
+		requests.incrementAndGet();
+		failures.incrementAndGet();
+		recordDuration(nanos);
+	}
+
+	private void recordDuration(final long nanos) {
+		totalNanos.addAndGet(nanos);
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * @return the name of the number sequence
+	 */
+	public String getNumberSequenceName() {
+		return numberSequenceName;
+	}
+
+	/**
+	 * @return the number of requests, including failed ones
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return the number of failed requests
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * @return the number of values handed out
+	 */
+	public long getValues() {
+		return values.get();
+	}
+
+	/**
+	 * @return the total duration of all requests in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return totalNanos.get();
+	}
+
+	/**
+	 * @return the duration of the slowest request in nanoseconds
+	 */
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		final long count = getRequests();
+		return numberSequenceName + ": requests=" + count + ", failures=" + getFailures() + ", values=" + getValues()
+				+ ", avgMicros=" + (count == 0 ? 0 : getTotalNanos() / count / 1000) + ", maxMicros="
+				+ getMaxNanos() / 1000;
+	}
+}
@@ -0,0 +1,58 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Records the reservation of numbers from a number sequence in the repository,
+ * from the lookup of the number sequence until the update succeeded or failed.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+@Name("com.emc.xcelerator.generatenumbers.Generation")
+@Label("Number Generation")
+@Category("Number Generation")
+@Description("Numbers reserved from a number sequence")
+@Threshold("20 ms")
+@StackTrace(false)
+public class GenerationEvent extends jdk.jfr.Event {
+
+	@Label("Sequence")
+	public String	sequence;
+
+	@Label("Size")
+	@Description("The number of values reserved")
+	public int		size;
+
+	@Label("Attempts")
+	@Description("The number of update attempts, including the successful one")
+	public int		attempts;
+
+	@Label("Succeeded")
+	public boolean	succeeded;
+}
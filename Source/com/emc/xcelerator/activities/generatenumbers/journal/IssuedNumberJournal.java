@@ -0,0 +1,545 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.journal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.GZIPOutputStream;
+
+import com.documentum.fc.common.DfLogger;
+import com.emc.xcelerator.activities.generatenumbers.NumberRange;
+
+/**
+ * An append-only journal of the numbers handed out, for proving which number
+ * went to which caller. Each entry records the time, the number sequence, the
+ * range of values (first value, increment and count), the repository user and
+ * the caller context set with setCallerContext.
+ * <p>
+ * Requesting threads never touch the file: append copies the entry into a
+ * slot of a ring buffer claimed with compare-and-set and returns. A single
+ * background thread writes the published slots in order and group-commits
+ * them, with one flush and one force to disk per batch. A requesting thread
+ * only waits when the ring buffer is full, i.e. when the disk can't keep up.
+ * <p>
+ * The current file, issued-numbers.log, holds one tab separated line per
+ * entry:
+ * 
+ * <pre>
+ * time  sequence  first  increment  count  user  context
+ * </pre>
+ * 
+ * When it grows beyond maxFileSize it is renamed with a time stamp and
+ * compacted into a gzip file: consecutive entries continuing the same range of
+ * the same sequence for the same user and context are merged, the merged
+ * lines ending with the time of the last entry. Journals are shared per
+ * directory within the JVM, so that reconfiguring the pipeline doesn't start a
+ * second writer on the same file.
+ * <p>
+ * When writing fails the journal closes itself. The entries not yet written
+ * and those appended afterwards are dropped: each is logged as an error and
+ * counted by getDropped.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class IssuedNumberJournal {
+
+	private static final String								LOG_CATEGORY	= IssuedNumberJournal.class.getCanonicalName();
+	private static final String								CURRENT_FILE	= "issued-numbers.log";
+	private static final String								SEGMENT_PREFIX	= "issued-numbers-";
+	private static final String								SEGMENT_SUFFIX	= ".log";
+	private static final int								MAX_BATCH		= 4096;
+	private static final long								IDLE_PARK_NANOS	= 1000000L;
+	private static final Map<String, IssuedNumberJournal>	JOURNALS		= new HashMap<String, IssuedNumberJournal>();
+	private static final ThreadLocal<String>				CALLER_CONTEXT	= new ThreadLocal<String>();
+
+	private final File										directory;
+	private final long										maxFileSize;
+	private final Entry[]									entries;
+	private final int										mask;
+	private final AtomicLong								claimed			= new AtomicLong();
+	private final AtomicLong								consumed		= new AtomicLong();
+	private final AtomicLong								dropped			= new AtomicLong();
+	private final Thread									writerThread;
+	private volatile boolean								closed;
+	private FileOutputStream								out;
+	private Writer											writer;
+	private long											fileSize;
+
+	/**
+	 * Creates a new IssuedNumberJournal and starts its writer.
+	 * 
+	 * @param directory
+	 *            the directory of the journal files
+	 * @param capacity
+	 *            the number of entries the ring buffer holds, rounded up to a
+	 *            power of two
+	 * @param maxFileSize
+	 *            the size at which the current file is rotated, in bytes
+	 * @throws IOException
+	 *             if the current file couldn't be opened
+	 */
+	IssuedNumberJournal(final File directory, final int capacity, final long maxFileSize) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Couldn't create the journal directory " + directory + ".");
+		}
+		this.directory = directory;
+		this.maxFileSize = maxFileSize;
+		final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+		this.entries = new Entry[size];
+		for (int i = 0; i < size; ++i) {
+			entries[i] = new Entry();
+		}
+		this.mask = size - 1;
+		openCurrent();
+		this.writerThread = new Thread(new Runnable() {
+			public void run() {
+				compactSegments();
+				write();
+			}
+		}, "GenerateNumber-journal-writer");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+	}
+
+	/**
+	 * Retrieves the journal of a directory, opening it if necessary. The
+	 * journal is closed when the JVM shuts down.
+	 * 
+	 * @param directory
+	 *            the directory of the journal files
+	 * @param capacity
+	 *            the number of entries the ring buffer holds
+	 * @param maxFileSize
+	 *            the size at which the current file is rotated, in bytes
+	 * @return the journal
+	 * @throws IOException
+	 *             if the journal couldn't be opened
+	 */
+	public static IssuedNumberJournal open(final File directory, final int capacity, final long maxFileSize)
+			throws IOException {
+		final String key = directory.getCanonicalPath();
+		synchronized (JOURNALS) {
+			IssuedNumberJournal journal = JOURNALS.get(key);
+			if (journal == null || journal.closed) {
+				journal = new IssuedNumberJournal(directory, capacity, maxFileSize);
+				final IssuedNumberJournal shutdownJournal = journal;
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+					public void run() {
+						shutdownJournal.close();
+					}
+				}, "GenerateNumber-journal-shutdown"));
+				JOURNALS.put(key, journal);
+			}
+			return journal;
+		}
+	}
+
+	/**
+	 * Lists the files of a journal in the order they were written: the
+	 * rotated segments, compacted or not, followed by the current file.
+	 * 
+	 * @param directory
+	 *            the directory of the journal files
+	 * @return the files, empty if the directory holds no journal
+	 */
+	public static File[] listFiles(final File directory) {
+		final File[] segments = directory.listFiles(new FilenameFilter() {
+			public boolean accept(final File dir, final String name) {
+				return name.startsWith(SEGMENT_PREFIX)
+						&& (name.endsWith(SEGMENT_SUFFIX) || name.endsWith(SEGMENT_SUFFIX + ".gz"));
+			}
+		});
+		if (segments == null) {
+			return new File[0];
+		}
+		Arrays.sort(segments);
+		final File current = new File(directory, CURRENT_FILE);
+		if (!current.isFile()) {
+			return segments;
+		}
+		final File[] files = Arrays.copyOf(segments, segments.length + 1);
+		files[segments.length] = current;
+		return files;
+	}
+
+	/**
+	 * Sets the caller context recorded with the numbers the calling thread
+	 * obtains, e.g. the workflow and activity generating them.
+	 * 
+	 * @param context
+	 *            the context, null to clear it
+	 */
+	public static void setCallerContext(final String context) {
+		if (context == null) {
+			CALLER_CONTEXT.remove();
+		} else {
+			CALLER_CONTEXT.set(context);
+		}
+	}
+
+	/**
+	 * @return the caller context of the calling thread, may be null
+	 */
+	public static String getCallerContext() {
+		return CALLER_CONTEXT.get();
+	}
+
+	/**
+	 * Appends an entry for a range handed out to the calling thread. Returns
+	 * as soon as the entry is in the ring buffer.
+	 * 
+	 * @param range
+	 *            the range
+	 * @param user
+	 *            the repository user the range was handed out to, may be null
+	 * @return false if the journal is closed and the entry was dropped
+	 */
+	public boolean append(final NumberRange range, final String user) {
+		long slot;
+		while (true) {
+			if (closed) {
+				dropped.incrementAndGet();
+				logDropped(range.getNumberSequenceName(), range.getFirst(), range.getIncrement(), range.getSize(), user);
+				return false;
+			}
+			slot = claimed.get();
+			if (slot - consumed.get() > mask) {
+				LockSupport.parkNanos(this, IDLE_PARK_NANOS / 10);
+				continue;
+			}
+			if (claimed.compareAndSet(slot, slot + 1)) {
+				break;
+			}
+		}
+		final Entry entry = entries[(int) slot & mask];
+		entry.time = System.currentTimeMillis();
+		entry.sequence = range.getNumberSequenceName();
+		entry.first = range.getFirst();
+		entry.increment = range.getIncrement();
+		entry.count = range.getSize();
+		entry.user = user;
+		entry.context = CALLER_CONTEXT.get();
+		entry.published = slot;
+		return true;
+	}
+
+	/**
+	 * @return true if the journal doesn't accept entries any more
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return the number of entries dropped because the journal was closed
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * @return the number of entries appended but not yet committed to disk
+	 */
+	public long getPending() {
+		return claimed.get() - consumed.get();
+	}
+
+	/**
+	 * Stops accepting entries, commits the pending ones and closes the file.
+	 */
+	public void close() {
+		closed = true;
+		LockSupport.unpark(writerThread);
+		try {
+			writerThread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * The writer loop: writes the published entries in order, committing each
+	 * batch, until the journal is closed and everything claimed was written.
+	 */
+	private void write() {
+		long next = consumed.get();
+		try {
+			while (!closed || next < claimed.get()) {
+				int batch = 0;
+				while (batch < MAX_BATCH) {
+					final Entry entry = entries[(int) next & mask];
+					if (entry.published != next) {
+						break;
+					}
+					writeEntry(entry);
+					entry.sequence = null;
+					entry.user = null;
+					entry.context = null;
+					next += 1;
+					batch += 1;
+				}
+				if (batch == 0) {
+					LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+					continue;
+				}
+				writer.flush();
+				out.getChannel().force(false);
+				consumed.set(next);
+				if (fileSize >= maxFileSize) {
+					rotate();
+				}
+			}
+		} catch (final IOException e) {
+			closed = true;
+			DfLogger.error(LOG_CATEGORY, "The issued number journal in {0} stopped.", new Object[] { directory },
+					e);
+			drop(next);
+		} finally {
+			try {
+				writer.close();
+			} catch (final IOException e) {
+				DfLogger.warn(LOG_CATEGORY, "Couldn't close the issued number journal.", null, e);
+			}
+		}
+	}
+
+	/**
+	 * Drops the entries from the specified slot on which were claimed before
+	 * the journal closed.
+	 * 
+	 * @param from
+	 *            the first slot not written
+	 */
+	private void drop(final long from) {
+		final long to = claimed.get();
+		for (long slot = from; slot < to; ++slot) {
+			final Entry entry = entries[(int) slot & mask];
+			if (entry.published == slot) {
+				logDropped(entry.sequence, entry.first, entry.increment, entry.count, entry.user);
+			} else {
+				DfLogger.error(LOG_CATEGORY, "Dropped an issued number journal entry still being appended.", null,
+						null);
+			}
+		}
+		dropped.addAndGet(to - from);
+		consumed.set(to);
+	}
+
+	private void logDropped(final String sequence, final long first, final int increment, final int count,
+			final String user) {
+		DfLogger.error(LOG_CATEGORY,
+				"Dropped the issued number journal entry of sequence ''{0}'': first {1}, increment {2}, count {3}, user {4}.",
+				new Object[] { sequence, String.valueOf(first), String.valueOf(increment), String.valueOf(count),
+						user }, null);
+	}
+
+	private void writeEntry(final Entry entry) throws IOException {
+		final StringBuilder line = new StringBuilder(96);
+		line.append(entry.time).append('\t');
+		appendField(line, entry.sequence).append('\t');
+		line.append(entry.first).append('\t').append(entry.increment).append('\t').append(entry.count).append('\t');
+		appendField(line, entry.user).append('\t');
+		appendField(line, entry.context).append('\n');
+		writer.write(line.toString());
+		fileSize += utf8Length(line);
+	}
+
+	/**
+	 * Counts the bytes a line takes in the file, which is UTF-8 encoded.
+	 */
+	private static int utf8Length(final CharSequence line) {
+		int length = line.length();
+		for (int i = 0; i < line.length(); ++i) {
+			final char c = line.charAt(i);
+			if (c >= 0x800) {
+				// Each half of a surrogate pair adds one to its four bytes.
+				length += Character.isSurrogate(c) ? 1 : 2;
+			} else if (c >= 0x80) {
+				length += 1;
+			}
+		}
+		return length;
+	}
+
+	private static StringBuilder appendField(final StringBuilder line, final String value) {
+		if (value == null) {
+			return line;
+		}
+		for (int i = 0; i < value.length(); ++i) {
+			final char c = value.charAt(i);
+			line.append(c == '\t' || c == '\n' || c == '\r' ? ' ' : c);
+		}
+		return line;
+	}
+
+	private void openCurrent() throws IOException {
+		final File file = new File(directory, CURRENT_FILE);
+		out = new FileOutputStream(file, true);
+		writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 65536);
+		fileSize = file.length();
+	}
+
+	/**
+	 * Renames the current file to a time stamped segment, compacts it and
+	 * starts a new current file.
+	 * 
+	 * @throws IOException
+	 *             if the new current file couldn't be opened
+	 */
+	private void rotate() throws IOException {
+		writer.close();
+		final String stamp = new SimpleDateFormat("yyyyMMddHHmmssSSS").format(new Date());
+		File segment = new File(directory, SEGMENT_PREFIX + stamp + SEGMENT_SUFFIX);
+		for (int i = 1; segment.exists() || new File(segment.getPath() + ".gz").exists(); ++i) {
+			segment = new File(directory, SEGMENT_PREFIX + stamp + "_" + i + SEGMENT_SUFFIX);
+		}
+		if (!new File(directory, CURRENT_FILE).renameTo(segment)) {
+			DfLogger.warn(LOG_CATEGORY, "Couldn't rotate the issued number journal to {0}.", new Object[] { segment },
+					null);
+		}
+		openCurrent();
+		compactSegments();
+	}
+
+	/**
+	 * Compacts the rotated segments which haven't been compacted yet, e.g.
+	 * because the JVM stopped right after a rotation.
+	 */
+	private void compactSegments() {
+		final File[] segments = directory.listFiles(new FilenameFilter() {
+			public boolean accept(final File dir, final String name) {
+				return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (segments == null) {
+			return;
+		}
+		Arrays.sort(segments);
+		for (final File segment : segments) {
+			try {
+				compact(segment);
+			} catch (final IOException e) {
+				DfLogger.warn(LOG_CATEGORY, "Couldn't compact the issued number journal segment {0}.",
+						new Object[] { segment }, e);
+			}
+		}
+	}
+
+	/**
+	 * Compacts a segment into a gzip file, merging consecutive entries which
+	 * continue each other's range, then deletes the segment.
+	 * 
+	 * @param segment
+	 *            the segment
+	 * @throws IOException
+	 *             if the segment couldn't be compacted
+	 */
+	static void compact(final File segment) throws IOException {
+		final File compacted = new File(segment.getPath() + ".gz");
+		final File temporary = new File(segment.getPath() + ".gz.tmp");
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(segment),
+				StandardCharsets.UTF_8));
+		try {
+			final FileOutputStream fileOut = new FileOutputStream(temporary);
+			final Writer compactWriter = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(fileOut),
+					StandardCharsets.UTF_8));
+			try {
+				String[] run = null;
+				long runCount = 0;
+				String runLast = null;
+				String line;
+				while ((line = reader.readLine()) != null) {
+					final String[] fields = line.split("\t", -1);
+					if (fields.length < 7) {
+						continue;
+					}
+					if (run != null && continues(run, runCount, fields)) {
+						runCount += Long.parseLong(fields[4]);
+						runLast = fields[0];
+						continue;
+					}
+					writeRun(compactWriter, run, runCount, runLast);
+					run = fields;
+					runCount = Long.parseLong(fields[4]);
+					runLast = fields[0];
+				}
+				writeRun(compactWriter, run, runCount, runLast);
+			} finally {
+				compactWriter.close();
+			}
+		} finally {
+			reader.close();
+		}
+		if (!temporary.renameTo(compacted) || !segment.delete()) {
+			throw new IOException("Couldn't replace " + segment + " by " + compacted + ".");
+		}
+	}
+
+	private static boolean continues(final String[] run, final long runCount, final String[] fields) {
+		if (!run[1].equals(fields[1]) || !run[3].equals(fields[3]) || !run[5].equals(fields[5])
+				|| !run[6].equals(fields[6])) {
+			return false;
+		}
+		return Long.parseLong(run[2]) + Long.parseLong(run[3]) * runCount == Long.parseLong(fields[2]);
+	}
+
+	private static void writeRun(final Writer compactWriter, final String[] run, final long runCount,
+			final String runLast) throws IOException {
+		if (run == null) {
+			return;
+		}
+		compactWriter.write(run[0] + '\t' + run[1] + '\t' + run[2] + '\t' + run[3] + '\t' + runCount + '\t' + run[5]
+				+ '\t' + run[6] + '\t' + runLast + '\n');
+	}
+
+	/**
+	 * A slot of the ring buffer. The fields are written by the thread which
+	 * claimed the slot before it publishes the slot number, and read by the
+	 * writer after it saw the slot number.
+	 */
+	private static class Entry {
+		volatile long	published	= -1;
+		long			time;
+		String			sequence;
+		long			first;
+		int				increment;
+		int				count;
+		String			user;
+		String			context;
+	}
+}
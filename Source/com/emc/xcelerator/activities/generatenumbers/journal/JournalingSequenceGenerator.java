@@ -0,0 +1,158 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.journal;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+import com.emc.xcelerator.activities.generatenumbers.MultiSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.NumberRange;
+import com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorDecorator;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorFailedException;
+import com.emc.xcelerator.activities.generatenumbers.SequenceObjectNotFoundException;
+
+/**
+ * The JournalingSequenceGenerator decorator records every range it hands out
+ * in an IssuedNumberJournal, together with the login user of the session and
+ * the caller context of the requesting thread. Recording doesn't perform any
+ * I/O on the requesting thread.
+ * <p>
+ * No number is handed out unaudited: while the journal is closed, e.g. after
+ * its writer failed, requests fail with a SequenceGeneratorFailedException
+ * until the pipeline is reconfigured. A range reserved just as the journal
+ * closed is not handed out either, it is logged as dropped.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class JournalingSequenceGenerator implements MultiSequenceGenerator, SequenceGeneratorDecorator {
+
+	private static final String				ERR_JOURNAL_CLOSED	= "The issued number journal is closed, no numbers are handed out unaudited.";
+
+	private final RangeSequenceGenerator	sequenceGenerator;
+	private final IssuedNumberJournal		journal;
+
+	/**
+	 * Creates a new JournalingSequenceGenerator.
+	 * 
+	 * @param sequenceGenerator
+	 *            the generator to decorate
+	 * @param journal
+	 *            the journal the ranges are recorded in
+	 */
+	public JournalingSequenceGenerator(final RangeSequenceGenerator sequenceGenerator,
+			final IssuedNumberJournal journal) {
+		this.sequenceGenerator = sequenceGenerator;
+		this.journal = journal;
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public String getNextGeneratedNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return String.valueOf(getNextNumber(session, numberSequenceName));
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public long getNextNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return reserveRange(session, numberSequenceName, 1).getFirst();
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String, int)
+	 */
+	public NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		checkOpen();
+		final NumberRange range = sequenceGenerator.reserveRange(session, numberSequenceName, size);
+		record(range, getUser(session));
+		return range;
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.MultiSequenceGenerator#reserveRanges(com.documentum.fc.client.IDfSession,
+	 *      java.util.SortedMap)
+	 */
+	public Map<String, NumberRange> reserveRanges(final IDfSession session, final SortedMap<String, Integer> sizes)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		checkOpen();
+		final Map<String, NumberRange> ranges;
+		if (sequenceGenerator instanceof MultiSequenceGenerator) {
+			ranges = ((MultiSequenceGenerator) sequenceGenerator).reserveRanges(session, sizes);
+		} else {
+			ranges = new HashMap<String, NumberRange>();
+			for (final Map.Entry<String, Integer> entry : sizes.entrySet()) {
+				ranges.put(entry.getKey(), sequenceGenerator.reserveRange(session, entry.getKey(), entry.getValue()
+						.intValue()));
+			}
+		}
+		final String user = getUser(session);
+		for (final NumberRange range : ranges.values()) {
+			record(range, user);
+		}
+		return ranges;
+	}
+
+	/**
+	 * Retrieves the journal the ranges are recorded in.
+	 * 
+	 * @return the journal
+	 */
+	public IssuedNumberJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Retrieves the decorated generator.
+	 * 
+	 * @return the decorated generator
+	 */
+	public RangeSequenceGenerator getSequenceGenerator() {
+		return sequenceGenerator;
+	}
+
+	private void checkOpen() throws SequenceGeneratorFailedException {
+		if (journal.isClosed()) {
+			throw new SequenceGeneratorFailedException(ERR_JOURNAL_CLOSED);
+		}
+	}
+
+	private void record(final NumberRange range, final String user) throws SequenceGeneratorFailedException {
+		if (!journal.append(range, user)) {
+			throw new SequenceGeneratorFailedException(ERR_JOURNAL_CLOSED);
+		}
+	}
+
+	private static String getUser(final IDfSession session) throws DfException {
+		return session == null ? null : session.getLoginUserName();
+	}
+}
@@ -0,0 +1,262 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.documentum.fc.common.DfLogger;
+
+/**
+ * The durable high-water marks of the sequence server: for each sequence a
+ * value below which all values may have been handed out. Marks are appended
+ * to a log, the last mark of a sequence wins. The log is compacted into a
+ * snapshot of the current marks once it holds many superseded ones.
+ * <p>
+ * Each record starts with a CRC-32 of the rest of the record, so a record torn
+ * by a crash is detected and the log is truncated before it; the mark it was
+ * about to write had not been acknowledged, see {@link #sync()}.
+ * <p>
+ * The directory is locked while the store is open, a second server can't use
+ * it concurrently. The store isn't thread-safe.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+final class HighWaterMarkStore {
+
+	private static final String		LOG_CATEGORY	= HighWaterMarkStore.class.getCanonicalName();
+	private static final String		LOCK_FILE		= "server.lock";
+	private static final String		LOG_FILE		= "high-water-marks.log";
+	private static final String		TEMPORARY_FILE	= "high-water-marks.tmp";
+	private static final int		MIN_COMPACTION	= 10000;
+
+	private final File				directory;
+	private final RandomAccessFile	lockFile;
+	private final FileLock			lock;
+	private final Map<String, Mark>	marks			= new HashMap<String, Mark>();
+	private final CRC32				crc				= new CRC32();
+	private FileChannel				log;
+	private ByteBuffer				pending			= ByteBuffer.allocate(16384);
+	private long					records;
+
+	/**
+	 * Opens the store in the specified directory, creating it if necessary.
+	 * 
+	 * @param directory
+	 *            the directory
+	 * @throws IOException
+	 *             if the store couldn't be read or is in use
+	 */
+	HighWaterMarkStore(final File directory) throws IOException {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("The directory " + directory + " couldn't be created.");
+		}
+		lockFile = new RandomAccessFile(new File(directory, LOCK_FILE), "rw");
+		FileLock acquired;
+		try {
+			acquired = lockFile.getChannel().tryLock();
+		} catch (final OverlappingFileLockException e) {
+			// locked within this JVM
+			acquired = null;
+		}
+		lock = acquired;
+		if (lock == null) {
+			lockFile.close();
+			throw new IOException("The directory " + directory + " is used by another sequence server.");
+		}
+		try {
+			log = new RandomAccessFile(new File(directory, LOG_FILE), "rw").getChannel();
+			load();
+		} catch (final IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Retrieves the marks, as of the last sync.
+	 * 
+	 * @return the marks by sequence name
+	 */
+	Map<String, Mark> getMarks() {
+		return Collections.unmodifiableMap(marks);
+	}
+
+	/**
+	 * Records a new mark. The mark is durable once sync returns.
+	 * 
+	 * @param name
+	 *            the sequence name
+	 * @param value
+	 *            the high-water mark
+	 * @param increment
+	 *            the increment of the sequence
+	 */
+	void record(final String name, final long value, final int increment) {
+		final int size = 4 + 2 + name.length() * 3 + 8 + 4;
+		if (pending.remaining() < size) {
+			final ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + size));
+			pending.flip();
+			grown.put(pending);
+			pending = grown;
+		}
+		final int start = pending.position();
+		pending.putInt(0);
+		SequenceProtocol.writeString(pending, name);
+		pending.putLong(value);
+		pending.putInt(increment);
+		crc.reset();
+		crc.update(pending.array(), start + 4, pending.position() - start - 4);
+		pending.putInt(start, (int) crc.getValue());
+		marks.put(name, new Mark(value, increment));
+		records += 1;
+	}
+
+	/**
+	 * Writes the recorded marks and forces them to the disk.
+	 * 
+	 * @throws IOException
+	 *             if the marks couldn't be written, they must be considered
+	 *             lost
+	 */
+	void sync() throws IOException {
+		if (pending.position() == 0) {
+			return;
+		}
+		pending.flip();
+		try {
+			while (pending.hasRemaining()) {
+				log.write(pending);
+			}
+			log.force(false);
+		} finally {
+			pending.clear();
+		}
+		if (records > MIN_COMPACTION + 2L * marks.size()) {
+			compact();
+		}
+	}
+
+	/**
+	 * Closes the store and releases the directory, unsynced marks are lost.
+	 */
+	void close() {
+		try {
+			if (log != null) {
+				log.close();
+			}
+			lock.release();
+			lockFile.close();
+		} catch (final IOException e) {
+			DfLogger.warn(LOG_CATEGORY, "Closing the high-water marks in " + directory + " failed.", null, e);
+		}
+	}
+
+	private void load() throws IOException {
+		final ByteBuffer in = ByteBuffer.allocate((int) log.size());
+		while (in.hasRemaining() && log.read(in) >= 0) {
+			// NOP.
+		}
+		in.flip();
+		int valid = 0;
+		try {
+			while (in.hasRemaining()) {
+				final int expected = in.getInt();
+				final int start = in.position();
+				final String name = SequenceProtocol.readString(in);
+				final long value = in.getLong();
+				final int increment = in.getInt();
+				crc.reset();
+				crc.update(in.array(), start, in.position() - start);
+				if ((int) crc.getValue() != expected) {
+					break;
+				}
+				marks.put(name, new Mark(value, increment));
+				records += 1;
+				valid = in.position();
+			}
+		} catch (final RuntimeException e) {
+			// a torn record, ends the log
+		}
+		if (valid < in.limit()) {
+			DfLogger.warn(LOG_CATEGORY, "Discarding " + (in.limit() - valid) + " bytes of a torn record at the end of "
+					+ new File(directory, LOG_FILE) + ".", null, null);
+			log.truncate(valid);
+		}
+		log.position(valid);
+	}
+
+	private void compact() throws IOException {
+		final File temporary = new File(directory, TEMPORARY_FILE);
+		final FileChannel snapshot = new RandomAccessFile(temporary, "rw").getChannel();
+		try {
+			snapshot.truncate(0);
+			records = 0;
+			for (final Map.Entry<String, Mark> entry : new HashMap<String, Mark>(marks).entrySet()) {
+				record(entry.getKey(), entry.getValue().value, entry.getValue().increment);
+			}
+			pending.flip();
+			while (pending.hasRemaining()) {
+				snapshot.write(pending);
+			}
+			snapshot.force(false);
+		} finally {
+			pending.clear();
+			snapshot.close();
+		}
+		log.close();
+		try {
+			Files.move(temporary.toPath(), new File(directory, LOG_FILE).toPath(), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			// the previous log if the snapshot couldn't replace it
+			log = new RandomAccessFile(new File(directory, LOG_FILE), "rw").getChannel();
+			log.position(log.size());
+		}
+	}
+
+	/**
+	 * The high-water mark of a sequence.
+	 */
+	static final class Mark {
+
+		final long	value;
+		final int	increment;
+
+		Mark(final long value, final int increment) {
+			this.value = value;
+			this.increment = increment;
+		}
+	}
+}
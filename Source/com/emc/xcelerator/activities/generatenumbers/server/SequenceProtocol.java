@@ -0,0 +1,252 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The wire format of the sequence server. Requests and responses are frames
+ * which start with the length of the rest of the frame and the request id the
+ * client chose; the server answers the requests of a connection in order, but
+ * a client doesn't need to wait for a response before sending the next
+ * request.
+ * <p>
+ * A request continues with the operation and the sequence name, as the UTF-8
+ * length (unsigned short) and bytes, followed by:
+ * <ul>
+ * <li>LEASE: the number of values to reserve (int);</li>
+ * <li>SET: the next value to hand out (long) and the increment (int);</li>
+ * <li>CREATE: as SET, applied only if the sequence doesn't exist yet;</li>
+ * <li>RESET: as SET, applied only if the sequence exists, an increment of 0
+ * keeps the current one.</li>
+ * </ul>
+ * A response continues with the status: OK is followed by the first value
+ * (long), the increment (int) and the number of values (int), the other
+ * statuses by a message in the same form as a name. SET and CREATE answer
+ * with the next value and increment of the sequence, and with 1 as the number
+ * of values if CREATE created it, 0 otherwise.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+final class SequenceProtocol {
+
+	static final byte	LEASE			= 1;
+	static final byte	SET				= 2;
+	static final byte	CREATE			= 3;
+	static final byte	RESET			= 4;
+
+	static final byte	OK				= 0;
+	static final byte	NOT_FOUND		= 1;
+	static final byte	FAILED			= 2;
+
+	/** The largest frame accepted, without the length. */
+	static final int	MAX_FRAME		= 4096;
+	/** The size of the frame header: the length and the request id. */
+	static final int	HEADER			= 8;
+
+	private SequenceProtocol() {
+		// NOP.
+	}
+
+	/**
+	 * Writes a lease request.
+	 * 
+	 * @param out
+	 *            the buffer to write to
+	 * @param id
+	 *            the request id
+	 * @param name
+	 *            the sequence name
+	 * @param size
+	 *            the number of values to reserve
+	 */
+	static void writeLease(final ByteBuffer out, final int id, final String name, final int size) {
+		final int start = beginFrame(out, id);
+		out.put(LEASE);
+		writeString(out, name);
+		out.putInt(size);
+		endFrame(out, start);
+	}
+
+	/**
+	 * Writes a set request.
+	 * 
+	 * @param out
+	 *            the buffer to write to
+	 * @param id
+	 *            the request id
+	 * @param name
+	 *            the sequence name
+	 * @param next
+	 *            the next value to hand out
+	 * @param increment
+	 *            the increment
+	 */
+	static void writeSet(final ByteBuffer out, final int id, final String name, final long next, final int increment) {
+		writeValue(out, id, SET, name, next, increment);
+	}
+
+	/**
+	 * Writes a create request.
+	 * 
+	 * @param out
+	 *            the buffer to write to
+	 * @param id
+	 *            the request id
+	 * @param name
+	 *            the sequence name
+	 * @param next
+	 *            the next value to hand out
+	 * @param increment
+	 *            the increment
+	 */
+	static void writeCreate(final ByteBuffer out, final int id, final String name, final long next,
+			final int increment) {
+		writeValue(out, id, CREATE, name, next, increment);
+	}
+
+	/**
+	 * Writes a successful response.
+	 * 
+	 * @param out
+	 *            the buffer to write to
+	 * @param id
+	 *            the request id
+	 * @param first
+	 *            the first value
+	 * @param increment
+	 *            the increment
+	 * @param count
+	 *            the number of values
+	 */
+	static void writeRange(final ByteBuffer out, final int id, final long first, final int increment, final int count) {
+		final int start = beginFrame(out, id);
+		out.put(OK);
+		out.putLong(first);
+		out.putInt(increment);
+		out.putInt(count);
+		endFrame(out, start);
+	}
+
+	/**
+	 * Writes a failed response.
+	 * 
+	 * @param out
+	 *            the buffer to write to
+	 * @param id
+	 *            the request id
+	 * @param status
+	 *            the status
+	 * @param message
+	 *            the message
+	 */
+	static void writeError(final ByteBuffer out, final int id, final byte status, final String message) {
+		final int start = beginFrame(out, id);
+		out.put(status);
+		writeString(out, message);
+		endFrame(out, start);
+	}
+
+	/**
+	 * Retrieves the length of the first complete frame in the buffer, without
+	 * consuming it.
+	 * 
+	 * @param in
+	 *            the buffer, positioned at the start of a frame
+	 * @return the length of the frame including its length, 0 if the frame
+	 *         isn't complete yet
+	 * @throws IllegalStateException
+	 *             if the frame is malformed
+	 */
+	static int frameLength(final ByteBuffer in) {
+		if (in.remaining() < 4) {
+			return 0;
+		}
+		final int length = in.getInt(in.position());
+		if (length < HEADER - 4 || length > MAX_FRAME) {
+			throw new IllegalStateException("Malformed frame of length " + length + ".");
+		}
+		return in.remaining() < length + 4 ? 0 : length + 4;
+	}
+
+	static void writeString(final ByteBuffer out, final String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		// leaves room for the rest of the frame
+		if (bytes.length > MAX_FRAME - 32) {
+			throw new IllegalArgumentException("The string is too long: " + bytes.length + " bytes.");
+		}
+		out.putShort((short) bytes.length);
+		out.put(bytes);
+	}
+
+	static String readString(final ByteBuffer in) {
+		final int length = in.getShort() & 0xFFFF;
+		final String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return value;
+	}
+
+	/**
+	 * Writes a reset request.
+	 * 
+	 * @param out
+	 *            the buffer to write to
+	 * @param id
+	 *            the request id
+	 * @param name
+	 *            the sequence name
+	 * @param next
+	 *            the next value to hand out
+	 * @param increment
+	 *            the increment, 0 to keep the current one
+	 */
+	static void writeReset(final ByteBuffer out, final int id, final String name, final long next,
+			final int increment) {
+		writeValue(out, id, RESET, name, next, increment);
+	}
+
+	private static void writeValue(final ByteBuffer out, final int id, final byte operation, final String name,
+			final long next, final int increment) {
+		final int start = beginFrame(out, id);
+		out.put(operation);
+		writeString(out, name);
+		out.putLong(next);
+		out.putInt(increment);
+		endFrame(out, start);
+	}
+
+	private static int beginFrame(final ByteBuffer out, final int id) {
+		final int start = out.position();
+		out.putInt(0);
+		out.putInt(id);
+		return start;
+	}
+
+	private static void endFrame(final ByteBuffer out, final int start) {
+		final int length = out.position() - start - 4;
+		if (length > MAX_FRAME) {
+			throw new IllegalArgumentException("The frame is too long: " + length + " bytes.");
+		}
+		out.putInt(start, length);
+	}
+}
@@ -0,0 +1,334 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.documentum.fc.common.DfLogger;
+
+/**
+ * Serves the leases of a SequenceService over TCP. A single thread multiplexes
+ * all connections with a selector: it reads whatever requests arrived on the
+ * ready connections, handles them, forces the high-water marks of all of them
+ * to the disk at once and only then writes the responses. Clients pipeline
+ * their requests, so the more requests arrive together the fewer disk writes
+ * each costs.
+ * <p>
+ * A connection which sends responses slower than it is sent requests stops
+ * being read until its responses are written.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class SequenceServer {
+
+	private static final String			LOG_CATEGORY		= SequenceServer.class.getCanonicalName();
+	private static final int			BUFFER_SIZE			= 64 * 1024;
+	private static final int			DEFAULT_RESERVE		= 10000;
+
+	private final SequenceService		service;
+	private final Selector				selector;
+	private final ServerSocketChannel	serverChannel;
+	private final Thread				thread;
+	private volatile boolean			closed;
+
+	/**
+	 * Creates a new SequenceServer and binds it, it serves once started.
+	 * 
+	 * @param service
+	 *            the service handling the requests
+	 * @param address
+	 *            the address to listen on, port 0 picks a free port
+	 * @param daemon
+	 *            whether the serving thread is a daemon thread
+	 * @throws IOException
+	 *             if the address couldn't be bound
+	 */
+	SequenceServer(final SequenceService service, final InetSocketAddress address, final boolean daemon)
+			throws IOException {
+		this.service = service;
+		this.selector = Selector.open();
+		this.serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.socket().setReuseAddress(true);
+			serverChannel.socket().bind(address);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (final IOException e) {
+			serverChannel.close();
+			selector.close();
+			throw e;
+		}
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				serve();
+			}
+		}, "GenerateNumber-sequence-server-" + getAddress().getPort());
+		this.thread.setDaemon(daemon);
+	}
+
+	/**
+	 * Starts serving a service, e.g. on a loopback address within the JVM of
+	 * its clients. The serving thread is a daemon thread.
+	 * 
+	 * @param service
+	 *            the service handling the requests
+	 * @param address
+	 *            the address to listen on, port 0 picks a free port
+	 * @return the running server
+	 * @throws IOException
+	 *             if the address couldn't be bound
+	 */
+	public static SequenceServer start(final SequenceService service, final InetSocketAddress address)
+			throws IOException {
+		final SequenceServer server = new SequenceServer(service, address, true);
+		server.thread.start();
+		return server;
+	}
+
+	/**
+	 * Retrieves the address the server listens on.
+	 * 
+	 * @return the address, with the port actually bound
+	 */
+	public InetSocketAddress getAddress() {
+		return (InetSocketAddress) serverChannel.socket().getLocalSocketAddress();
+	}
+
+	/**
+	 * Stops serving and closes all connections. The service stays open.
+	 */
+	public void close() {
+		closed = true;
+		selector.wakeup();
+		if (Thread.currentThread() != thread) {
+			try {
+				thread.join();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Runs a standalone sequence server.
+	 * 
+	 * @param args
+	 *            the directory of the high-water marks, the port or host:port
+	 *            to listen on and optionally the number of values reserved
+	 *            ahead of the leases
+	 * @throws IOException
+	 *             if the server couldn't be started
+	 */
+	public static void main(final String[] args) throws IOException {
+		if (args.length < 2) {
+			System.err.println("Usage: SequenceServer <directory> [<host>:]<port> [<reserve ahead>]");
+			System.exit(2);
+		}
+		final String listen = args[1];
+		final int colon = listen.lastIndexOf(':');
+		final InetSocketAddress address = colon < 0 ? new InetSocketAddress(Integer.parseInt(listen))
+				: new InetSocketAddress(listen.substring(0, colon), Integer.parseInt(listen.substring(colon + 1)));
+		final SequenceService service = SequenceService.open(new File(args[0]), args.length > 2 ? Integer
+				.parseInt(args[2]) : DEFAULT_RESERVE);
+		final SequenceServer server = new SequenceServer(service, address, false);
+		System.out.println("Serving the sequences in " + args[0] + " on " + server.getAddress() + ".");
+		server.thread.start();
+	}
+
+	private void serve() {
+		final List<Connection> ready = new ArrayList<Connection>();
+		try {
+			while (!closed) {
+				selector.select();
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					final Connection connection = (Connection) key.attachment();
+					if (key.isWritable() && !connection.write()) {
+						continue;
+					}
+					if (key.isReadable() && !connection.read()) {
+						continue;
+					}
+					if (connection.process()) {
+						ready.add(connection);
+					}
+				}
+				if (!ready.isEmpty()) {
+					respond(ready);
+					ready.clear();
+				}
+			}
+		} catch (final ClosedSelectorException e) {
+			// closed
+		} catch (final IOException e) {
+			DfLogger.error(LOG_CATEGORY, "The sequence server on " + getAddress() + " failed.", null, e);
+		} finally {
+			shutDown();
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			key.attach(new Connection(key, channel));
+		}
+	}
+
+	private void respond(final List<Connection> ready) {
+		try {
+			service.sync();
+		} catch (final IOException e) {
+			// the responses aren't covered by durable marks, the clients see
+			// their requests fail
+			for (final Connection connection : ready) {
+				connection.close();
+			}
+			return;
+		}
+		for (final Connection connection : ready) {
+			connection.write();
+		}
+	}
+
+	private void shutDown() {
+		for (final SelectionKey key : selector.keys()) {
+			if (key.attachment() instanceof Connection) {
+				((Connection) key.attachment()).close();
+			}
+		}
+		try {
+			serverChannel.close();
+			selector.close();
+		} catch (final IOException e) {
+			DfLogger.warn(LOG_CATEGORY, "Closing the sequence server failed.", null, e);
+		}
+	}
+
+	/**
+	 * A client connection with its pending requests and responses. The
+	 * responses in the output buffer are always covered by synced marks when a
+	 * pass of the serving loop ends.
+	 */
+	private final class Connection {
+
+		private final SelectionKey	key;
+		private final SocketChannel	channel;
+		private final ByteBuffer	in	= ByteBuffer.allocate(BUFFER_SIZE);
+		private final ByteBuffer	out	= ByteBuffer.allocate(BUFFER_SIZE);
+
+		Connection(final SelectionKey key, final SocketChannel channel) {
+			this.key = key;
+			this.channel = channel;
+		}
+
+		/**
+		 * @return false if the connection was closed
+		 */
+		boolean read() {
+			try {
+				if (channel.read(in) < 0) {
+					close();
+					return false;
+				}
+				return true;
+			} catch (final IOException e) {
+				close();
+				return false;
+			}
+		}
+
+		/**
+		 * @return true if responses were added
+		 */
+		boolean process() {
+			final int before = out.position();
+			in.flip();
+			try {
+				service.process(in, out);
+			} catch (final IllegalStateException e) {
+				DfLogger.warn(LOG_CATEGORY, "Closing the connection of " + channel.socket().getRemoteSocketAddress()
+						+ ".", null, e);
+				close();
+				return false;
+			} finally {
+				in.compact();
+			}
+			return out.position() > before;
+		}
+
+		/**
+		 * @return false if the connection was closed
+		 */
+		boolean write() {
+			out.flip();
+			try {
+				channel.write(out);
+			} catch (final IOException e) {
+				close();
+				return false;
+			} finally {
+				out.compact();
+			}
+			int interest = 0;
+			if (out.position() > 0) {
+				interest |= SelectionKey.OP_WRITE;
+			}
+			if (out.remaining() >= SequenceProtocol.MAX_FRAME + 4 && in.hasRemaining()) {
+				interest |= SelectionKey.OP_READ;
+			}
+			key.interestOps(interest);
+			return true;
+		}
+
+		void close() {
+			key.cancel();
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				// NOP.
+			}
+		}
+	}
+}
@@ -0,0 +1,339 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.documentum.fc.common.DfLogger;
+
+/**
+ * The counters of the sequence server. Each counter hands out leases of
+ * consecutive values; before a lease beyond the durable high-water mark of its
+ * sequence is acknowledged the mark is moved ahead by the reserve, so only
+ * every so many leases cost a write to the disk. After a restart a sequence
+ * continues at its high-water mark, the values reserved ahead but not handed
+ * out before are skipped.
+ * <p>
+ * Requests are handled in the order they arrive, one at a time. The responses
+ * of a batch of requests may only be sent once {@link #sync()} returned, so
+ * that the marks of all leases in a batch are forced to the disk together.
+ * Once a sync failed the service rejects all requests, the marks on disk can
+ * no longer be trusted to cover the values handed out.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class SequenceService {
+
+	private static final String							LOG_CATEGORY	= SequenceService.class.getCanonicalName();
+	private static final Map<String, SequenceService>	SERVICES		= new HashMap<String, SequenceService>();
+
+	private final File									directory;
+	private final int									reserveAhead;
+	private final HighWaterMarkStore					store;
+	private final Map<String, Counter>					counters		= new HashMap<String, Counter>();
+	private IOException									failure;
+	private boolean										closed;
+	// guarded by SERVICES
+	private String										key;
+	private int											references;
+
+	/**
+	 * Creates a new SequenceService over the high-water marks in the specified
+	 * directory.
+	 * 
+	 * @param directory
+	 *            the directory of the high-water marks
+	 * @param reserveAhead
+	 *            the number of values the high-water mark is moved beyond a
+	 *            lease
+	 * @throws IOException
+	 *             if the high-water marks couldn't be read or the directory is
+	 *             used by another service
+	 */
+	public SequenceService(final File directory, final int reserveAhead) throws IOException {
+		if (reserveAhead < 0) {
+			throw new IllegalArgumentException("The reserve must not be negative: " + reserveAhead);
+		}
+		this.directory = directory;
+		this.reserveAhead = reserveAhead;
+		this.store = new HighWaterMarkStore(directory);
+		for (final Map.Entry<String, HighWaterMarkStore.Mark> entry : store.getMarks().entrySet()) {
+			final HighWaterMarkStore.Mark mark = entry.getValue();
+			counters.put(entry.getKey(), new Counter(mark.value, mark.increment));
+		}
+	}
+
+	/**
+	 * Retrieves the service of a directory, opening it if necessary. Each call
+	 * takes a reference to the service, which is closed when the last
+	 * reference is released or the JVM shuts down.
+	 * 
+	 * @param directory
+	 *            the directory of the high-water marks
+	 * @param reserveAhead
+	 *            the number of values the high-water mark is moved beyond a
+	 *            lease, used if the service is opened
+	 * @return the service
+	 * @throws IOException
+	 *             if the service couldn't be opened
+	 */
+	public static SequenceService open(final File directory, final int reserveAhead) throws IOException {
+		final String key = directory.getCanonicalPath();
+		synchronized (SERVICES) {
+			SequenceService service = SERVICES.get(key);
+			if (service == null || service.isClosed()) {
+				service = new SequenceService(directory, reserveAhead);
+				final SequenceService shutdownService = service;
+				Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+					public void run() {
+						shutdownService.close();
+					}
+				}, "GenerateNumber-sequence-service-shutdown"));
+				service.key = key;
+				SERVICES.put(key, service);
+			}
+			++service.references;
+			return service;
+		}
+	}
+
+	/**
+	 * Releases a reference taken by {@link #open(File, int)} and closes the
+	 * service when it was the last one. A service which wasn't opened that
+	 * way is closed right away.
+	 */
+	public void release() {
+		synchronized (SERVICES) {
+			if (--references > 0) {
+				return;
+			}
+			if (key != null && SERVICES.get(key) == this) {
+				SERVICES.remove(key);
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Handles the complete request frames in a buffer, as long as the
+	 * responses buffer has room for a response. The responses must not be
+	 * sent before {@link #sync()} returned.
+	 * 
+	 * @param requests
+	 *            the requests, the frames handled are consumed
+	 * @param responses
+	 *            the buffer the responses are written to
+	 * @throws IllegalStateException
+	 *             if a request is malformed, the connection must be closed
+	 */
+	synchronized void process(final ByteBuffer requests, final ByteBuffer responses) {
+		int length;
+		while (responses.remaining() >= SequenceProtocol.MAX_FRAME + 4
+				&& (length = SequenceProtocol.frameLength(requests)) > 0) {
+			final ByteBuffer frame = requests.slice();
+			frame.limit(length);
+			requests.position(requests.position() + length);
+			frame.position(4);
+			final int id = frame.getInt();
+			try {
+				handle(frame, id, responses);
+			} catch (final RuntimeException e) {
+				throw new IllegalStateException("Malformed request " + id + ".", e);
+			}
+		}
+	}
+
+	/**
+	 * Forces the high-water marks of the leases handed out so far to the disk.
+	 * 
+	 * @throws IOException
+	 *             if the marks couldn't be written, the responses must not be
+	 *             sent
+	 */
+	synchronized void sync() throws IOException {
+		if (failure != null) {
+			throw failure;
+		}
+		try {
+			store.sync();
+		} catch (final IOException e) {
+			DfLogger.error(LOG_CATEGORY, "Writing the high-water marks in " + directory
+					+ " failed, the sequence service stops handing out values.", null, e);
+			failure = e;
+			throw e;
+		}
+	}
+
+	/**
+	 * Handles requests and syncs their responses in one step.
+	 * 
+	 * @param requests
+	 *            the requests
+	 * @param responses
+	 *            the buffer the responses are written to
+	 * @throws IOException
+	 *             if the high-water marks couldn't be written
+	 */
+	synchronized void exchange(final ByteBuffer requests, final ByteBuffer responses) throws IOException {
+		process(requests, responses);
+		sync();
+	}
+
+	/**
+	 * Closes the service, releasing its directory.
+	 */
+	public synchronized void close() {
+		if (!closed) {
+			closed = true;
+			store.close();
+		}
+	}
+
+	/**
+	 * Tells whether the service was closed.
+	 * 
+	 * @return true if the service was closed
+	 */
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	private void handle(final ByteBuffer frame, final int id, final ByteBuffer responses) {
+		final byte operation = frame.get();
+		final String name = SequenceProtocol.readString(frame);
+		if (closed || failure != null) {
+			SequenceProtocol.writeError(responses, id, SequenceProtocol.FAILED, "The sequence service is "
+					+ (closed ? "closed." : "failed: " + failure.getMessage()));
+			return;
+		}
+		switch (operation) {
+		case SequenceProtocol.LEASE:
+			lease(name, frame.getInt(), id, responses);
+			break;
+		case SequenceProtocol.SET:
+			set(name, frame.getLong(), frame.getInt(), id, responses, 0);
+			break;
+		case SequenceProtocol.CREATE:
+			create(name, frame.getLong(), frame.getInt(), id, responses);
+			break;
+		case SequenceProtocol.RESET:
+			reset(name, frame.getLong(), frame.getInt(), id, responses);
+			break;
+		default:
+			SequenceProtocol.writeError(responses, id, SequenceProtocol.FAILED, "Unknown operation " + operation
+					+ ".");
+		}
+	}
+
+	private void lease(final String name, final int size, final int id, final ByteBuffer responses) {
+		final Counter counter = counters.get(name);
+		if (counter == null) {
+			SequenceProtocol.writeError(responses, id, SequenceProtocol.NOT_FOUND, "The number sequence '" + name
+					+ "' doesn't exist.");
+			return;
+		}
+		if (size < 1) {
+			SequenceProtocol.writeError(responses, id, SequenceProtocol.FAILED, "Invalid lease size " + size + ".");
+			return;
+		}
+		final long first = counter.next;
+		final long end;
+		try {
+			end = Math.addExact(first, Math.multiplyExact((long) size, counter.increment));
+		} catch (final ArithmeticException e) {
+			SequenceProtocol.writeError(responses, id, SequenceProtocol.FAILED, "The number sequence '" + name
+					+ "' is exhausted.");
+			return;
+		}
+		counter.next = end;
+		if (end > counter.mark) {
+			moveMark(name, counter, end);
+		}
+		SequenceProtocol.writeRange(responses, id, first, counter.increment, size);
+	}
+
+	private void set(final String name, final long next, final int increment, final int id,
+			final ByteBuffer responses, final int created) {
+		if (increment < 1) {
+			SequenceProtocol.writeError(responses, id, SequenceProtocol.FAILED, "Invalid increment " + increment
+					+ ".");
+			return;
+		}
+		Counter counter = counters.get(name);
+		if (counter == null) {
+			counter = new Counter(next, increment);
+			counters.put(name, counter);
+		}
+		counter.next = next;
+		counter.increment = increment;
+		moveMark(name, counter, next);
+		SequenceProtocol.writeRange(responses, id, next, increment, created);
+	}
+
+	private void create(final String name, final long next, final int increment, final int id,
+			final ByteBuffer responses) {
+		final Counter counter = counters.get(name);
+		if (counter != null) {
+			SequenceProtocol.writeRange(responses, id, counter.next, counter.increment, 0);
+			return;
+		}
+		set(name, next, increment, id, responses, 1);
+	}
+
+	private void reset(final String name, final long next, final int increment, final int id,
+			final ByteBuffer responses) {
+		final Counter counter = counters.get(name);
+		if (counter == null) {
+			SequenceProtocol.writeError(responses, id, SequenceProtocol.NOT_FOUND, "The number sequence '" + name
+					+ "' doesn't exist.");
+			return;
+		}
+		set(name, next, increment == 0 ? counter.increment : increment, id, responses, 0);
+	}
+
+	private void moveMark(final String name, final Counter counter, final long from) {
+		final long ahead = (long) reserveAhead * counter.increment;
+		counter.mark = from > Long.MAX_VALUE - ahead ? Long.MAX_VALUE : from + ahead;
+		store.record(name, counter.mark, counter.increment);
+	}
+
+	/**
+	 * The state of a sequence: the next value, always at or below the
+	 * high-water mark, and the mark.
+	 */
+	private static final class Counter {
+
+		long	next;
+		int		increment;
+		long	mark;
+
+		Counter(final long next, final int increment) {
+			this.next = next;
+			this.increment = increment;
+			this.mark = next;
+		}
+	}
+}
@@ -0,0 +1,482 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+import com.emc.xcelerator.activities.generatenumbers.NumberRange;
+import com.emc.xcelerator.activities.generatenumbers.NumberSequenceCreationPolicy;
+import com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorFailedException;
+import com.emc.xcelerator.activities.generatenumbers.SequenceObjectNotFoundException;
+
+/**
+ * A generator which leases its numbers from a sequence server instead of the
+ * repository. The session isn't used and may be null.
+ * <p>
+ * Over TCP all threads share one connection: a request is written as soon as
+ * it is made and the caller waits for its own response only, so the requests
+ * of concurrent callers are pipelined. The connection is reopened by the next
+ * request after it failed. The local transport hands the requests to a
+ * SequenceService in the same JVM, using the same frames, without a socket;
+ * closing the generator releases the service.
+ * <p>
+ * A sequence the server doesn't know is created on the server if the creation
+ * policy allows it, e.g. the sequence of a new period. Sequences are seeded
+ * from the repository by NumberSequenceAdministration.seedServer.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class ServerSequenceGenerator implements RangeSequenceGenerator {
+
+	private final Transport						transport;
+	private final long							timeoutNanos;
+	private final AtomicInteger					ids		= new AtomicInteger();
+	private final AtomicInteger					active	= new AtomicInteger();
+	private final AtomicBoolean					released	= new AtomicBoolean();
+	private volatile boolean					closed;
+	private volatile NumberSequenceCreationPolicy	creationPolicy;
+
+	/**
+	 * Creates a new ServerSequenceGenerator talking to a server over TCP.
+	 * 
+	 * @param address
+	 *            the address of the server
+	 * @param timeoutMillis
+	 *            the time to wait for the connection and for a response
+	 */
+	public ServerSequenceGenerator(final InetSocketAddress address, final long timeoutMillis) {
+		this(new SocketTransport(address, timeoutMillis), timeoutMillis);
+	}
+
+	/**
+	 * Creates a new ServerSequenceGenerator talking to a service in the same
+	 * JVM. The generator owns the service: closing the generator releases it,
+	 * see {@link SequenceService#release()}.
+	 * 
+	 * @param service
+	 *            the service
+	 */
+	public ServerSequenceGenerator(final SequenceService service) {
+		this(new LocalTransport(service), 0);
+	}
+
+	ServerSequenceGenerator(final Transport transport, final long timeoutMillis) {
+		this.transport = transport;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.SequenceGenerator#getNextGeneratedNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public String getNextGeneratedNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return String.valueOf(getNextNumber(session, numberSequenceName));
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.NumericSequenceGenerator#getNextNumber(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String)
+	 */
+	public long getNextNumber(final IDfSession session, final String numberSequenceName) throws DfException,
+			SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		return reserveRange(session, numberSequenceName, 1).getFirst();
+	}
+
+	/**
+	 * @see com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator#reserveRange(com.documentum.fc.client.IDfSession,
+	 *      java.lang.String, int)
+	 */
+	public NumberRange reserveRange(final IDfSession session, final String numberSequenceName, final int size)
+			throws DfException, SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		try {
+			return lease(numberSequenceName, size);
+		} catch (final SequenceObjectNotFoundException e) {
+			final NumberSequenceCreationPolicy policy = creationPolicy;
+			final int[] initialValues = policy == null ? null : policy.getInitialValues(numberSequenceName);
+			if (initialValues == null) {
+				throw e;
+			}
+			// the server serializes the requests, concurrent creators find
+			// the sequence created by the first
+			create(numberSequenceName, initialValues[0], initialValues[1]);
+			return lease(numberSequenceName, size);
+		}
+	}
+
+	/**
+	 * Sets the policy deciding which sequences unknown to the server are
+	 * created on demand.
+	 * 
+	 * @param creationPolicy
+	 *            the policy or null to never create sequences.
+	 */
+	public void setCreationPolicy(final NumberSequenceCreationPolicy creationPolicy) {
+		this.creationPolicy = creationPolicy;
+	}
+
+	private NumberRange lease(final String numberSequenceName, final int size)
+			throws SequenceObjectNotFoundException, SequenceGeneratorFailedException {
+		final ByteBuffer request = ByteBuffer.allocate(SequenceProtocol.MAX_FRAME + 4);
+		final int id = ids.incrementAndGet();
+		SequenceProtocol.writeLease(request, id, numberSequenceName, size);
+		final ByteBuffer response = call(id, request);
+		return new NumberRange(numberSequenceName, response.getLong(), response.getInt(), response.getInt());
+	}
+
+	/**
+	 * Sets the next value and the increment of a number sequence on the
+	 * server, creating it if necessary.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param next
+	 *            the next value handed out
+	 * @param increment
+	 *            the increment
+	 * @throws DfException
+	 *             if the server rejected the request or couldn't be reached
+	 */
+	public void setCurrentValue(final String numberSequenceName, final long next, final int increment)
+			throws DfException {
+		final ByteBuffer request = ByteBuffer.allocate(SequenceProtocol.MAX_FRAME + 4);
+		final int id = ids.incrementAndGet();
+		SequenceProtocol.writeSet(request, id, numberSequenceName, next, increment);
+		call(id, request);
+	}
+
+	/**
+	 * Creates a number sequence on the server unless it exists already.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param next
+	 *            the next value handed out
+	 * @param increment
+	 *            the increment
+	 * @return true if the sequence was created, false if it existed
+	 * @throws DfException
+	 *             if the server rejected the request or couldn't be reached
+	 */
+	public boolean create(final String numberSequenceName, final long next, final int increment)
+			throws DfException {
+		final ByteBuffer request = ByteBuffer.allocate(SequenceProtocol.MAX_FRAME + 4);
+		final int id = ids.incrementAndGet();
+		SequenceProtocol.writeCreate(request, id, numberSequenceName, next, increment);
+		final ByteBuffer response = call(id, request);
+		response.getLong();
+		response.getInt();
+		return response.getInt() == 1;
+	}
+
+	/**
+	 * Sets the next value of a number sequence known to the server, keeping
+	 * its increment.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param next
+	 *            the next value handed out
+	 * @throws SequenceObjectNotFoundException
+	 *             if the server doesn't know the sequence
+	 * @throws DfException
+	 *             if the server rejected the request or couldn't be reached
+	 */
+	public void reset(final String numberSequenceName, final long next) throws SequenceObjectNotFoundException,
+			DfException {
+		final ByteBuffer request = ByteBuffer.allocate(SequenceProtocol.MAX_FRAME + 4);
+		final int id = ids.incrementAndGet();
+		SequenceProtocol.writeReset(request, id, numberSequenceName, next, 0);
+		call(id, request);
+	}
+
+	/**
+	 * Closes the connection to the server and its reader thread, or releases
+	 * the service in the same JVM, once the requests in flight completed.
+	 * Later requests fail.
+	 */
+	public void close() {
+		closed = true;
+		if (active.get() == 0) {
+			release();
+		}
+	}
+
+	private void release() {
+		if (released.compareAndSet(false, true)) {
+			transport.close();
+		}
+	}
+
+	/**
+	 * Sends a request and waits for its response.
+	 * 
+	 * @return the response, positioned after the status
+	 */
+	private ByteBuffer call(final int id, final ByteBuffer request) throws SequenceObjectNotFoundException,
+			SequenceGeneratorFailedException {
+		request.flip();
+		final ByteBuffer response;
+		active.incrementAndGet();
+		try {
+			if (closed) {
+				throw new SequenceGeneratorFailedException("The sequence server client was closed.");
+			}
+			response = transport.call(id, request, timeoutNanos);
+		} catch (final IOException e) {
+			throw new SequenceGeneratorFailedException("The sequence server failed to answer: " + e.getMessage(), e);
+		} finally {
+			if (active.decrementAndGet() == 0 && closed) {
+				release();
+			}
+		}
+		response.position(SequenceProtocol.HEADER);
+		final byte status = response.get();
+		switch (status) {
+		case SequenceProtocol.OK:
+			return response;
+		case SequenceProtocol.NOT_FOUND:
+			throw new SequenceObjectNotFoundException(SequenceProtocol.readString(response));
+		default:
+			throw new SequenceGeneratorFailedException(SequenceProtocol.readString(response));
+		}
+	}
+
+	/**
+	 * The way requests reach the service.
+	 */
+	abstract static class Transport {
+
+		/**
+		 * Sends a request and waits for its response.
+		 * 
+		 * @param id
+		 *            the id of the request
+		 * @param request
+		 *            the request frame
+		 * @param timeoutNanos
+		 *            the time to wait for the response
+		 * @return the response frame
+		 * @throws IOException
+		 *             if the request failed or timed out
+		 */
+		abstract ByteBuffer call(int id, ByteBuffer request, long timeoutNanos) throws IOException;
+
+		abstract void close();
+	}
+
+	/**
+	 * Calls a service in the same JVM directly.
+	 */
+	static final class LocalTransport extends Transport {
+
+		private final SequenceService	service;
+
+		LocalTransport(final SequenceService service) {
+			this.service = service;
+		}
+
+		@Override
+		ByteBuffer call(final int id, final ByteBuffer request, final long timeoutNanos) throws IOException {
+			final ByteBuffer response = ByteBuffer.allocate(SequenceProtocol.MAX_FRAME + 4);
+			service.exchange(request, response);
+			response.flip();
+			return response;
+		}
+
+		@Override
+		void close() {
+			service.release();
+		}
+	}
+
+	/**
+	 * Pipelines requests over a shared TCP connection.
+	 */
+	static final class SocketTransport extends Transport {
+
+		private final InetSocketAddress	address;
+		private final int				connectTimeout;
+		private final ReentrantLock		lock	= new ReentrantLock();
+		private Connection				connection;
+
+		SocketTransport(final InetSocketAddress address, final long timeoutMillis) {
+			this.address = address;
+			this.connectTimeout = (int) Math.min(Integer.MAX_VALUE, timeoutMillis);
+		}
+
+		@Override
+		ByteBuffer call(final int id, final ByteBuffer request, final long timeoutNanos) throws IOException {
+			final Pending pending = new Pending();
+			final Connection current;
+			lock.lock();
+			try {
+				if (connection == null || connection.closed) {
+					connection = new Connection(address, connectTimeout);
+				}
+				current = connection;
+				current.pending.put(Integer.valueOf(id), pending);
+				if (current.closed) {
+					current.pending.remove(Integer.valueOf(id));
+					throw new EOFException("The connection to " + address + " was closed.");
+				}
+				try {
+					while (request.hasRemaining()) {
+						current.channel.write(request);
+					}
+				} catch (final IOException e) {
+					current.fail(e);
+					throw e;
+				}
+			} finally {
+				lock.unlock();
+			}
+			try {
+				if (!pending.done.await(timeoutNanos, TimeUnit.NANOSECONDS)) {
+					current.pending.remove(Integer.valueOf(id));
+					throw new SocketTimeoutException("No response from " + address + " within "
+							+ TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms.");
+				}
+			} catch (final InterruptedException e) {
+				current.pending.remove(Integer.valueOf(id));
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for " + address + ".");
+			}
+			if (pending.failure != null) {
+				throw pending.failure;
+			}
+			return pending.response;
+		}
+
+		@Override
+		void close() {
+			lock.lock();
+			try {
+				if (connection != null) {
+					connection.fail(new EOFException("The connection to " + address + " was closed."));
+					connection = null;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * A TCP connection and the requests waiting for a response on it, read
+	 * by a thread of its own.
+	 */
+	static final class Connection implements Runnable {
+
+		final SocketChannel						channel;
+		final ConcurrentMap<Integer, Pending>	pending	= new ConcurrentHashMap<Integer, Pending>();
+		volatile boolean						closed;
+
+		Connection(final InetSocketAddress address, final int connectTimeout) throws IOException {
+			channel = SocketChannel.open();
+			try {
+				channel.socket().setTcpNoDelay(true);
+				channel.socket().connect(address, connectTimeout);
+			} catch (final IOException e) {
+				channel.close();
+				throw e;
+			}
+			final Thread reader = new Thread(this, "GenerateNumber-sequence-client-"
+					+ channel.socket().getLocalPort());
+			reader.setDaemon(true);
+			reader.start();
+		}
+
+		public void run() {
+			final ByteBuffer in = ByteBuffer.allocate(64 * 1024);
+			try {
+				while (true) {
+					if (channel.read(in) < 0) {
+						throw new EOFException("The sequence server closed the connection.");
+					}
+					in.flip();
+					int length;
+					while ((length = SequenceProtocol.frameLength(in)) > 0) {
+						final ByteBuffer frame = ByteBuffer.allocate(length);
+						final int limit = in.limit();
+						in.limit(in.position() + length);
+						frame.put(in);
+						in.limit(limit);
+						frame.flip();
+						final Pending waiting = pending.remove(Integer.valueOf(frame.getInt(4)));
+						if (waiting != null) {
+							waiting.response = frame;
+							waiting.done.countDown();
+						}
+					}
+					in.compact();
+				}
+			} catch (final IOException e) {
+				fail(e);
+			} catch (final IllegalStateException e) {
+				fail(new IOException(e.getMessage(), e));
+			}
+		}
+
+		void fail(final IOException failure) {
+			closed = true;
+			try {
+				channel.close();
+			} catch (final IOException e) {
+				// NOP.
+			}
+			for (final Iterator<Pending> i = pending.values().iterator(); i.hasNext();) {
+				final Pending waiting = i.next();
+				i.remove();
+				waiting.failure = failure;
+				waiting.done.countDown();
+			}
+		}
+	}
+
+	/**
+	 * A request waiting for its response.
+	 */
+	static final class Pending {
+
+		final CountDownLatch	done	= new CountDownLatch(1);
+		volatile ByteBuffer		response;
+		volatile IOException	failure;
+	}
+}
@@ -0,0 +1,423 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.verify;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import com.emc.xcelerator.activities.generatenumbers.NumberRange;
+import com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.journal.IssuedNumberJournal;
+import com.emc.xcelerator.activities.generatenumbers.workload.TraceReader;
+import com.emc.xcelerator.activities.generatenumbers.workload.WorkloadReplay;
+
+/**
+ * Verifies that the values issued by number sequences are unique, and finds
+ * the values that were skipped. The values of each sequence are kept in a
+ * ValueBitmap, indexed by their distance to the first value seen in
+ * increments of the sequence, so a dense sequence takes about one bit per
+ * issued value. Values which aren't a whole number of increments away, e.g.
+ * after the increment of a sequence was changed, are kept in a second bitmap
+ * and are only checked for uniqueness.
+ * <p>
+ * Duplicates are reported to the Listener as soon as they are added. Gaps are
+ * reported once the highest value seen is gapHorizon increments beyond them,
+ * so values arriving slightly out of order, e.g. from concurrent threads,
+ * aren't mistaken for gaps; the remaining gaps are reported by finish. A value
+ * filling a gap that has already been reported isn't reported again.
+ * <p>
+ * The values can be added directly, by tapping a pipeline with a
+ * VerifyingSequenceGenerator, or read from an issued number journal. From the
+ * command line:
+ * 
+ * <pre>
+ * UniquenessVerifier journal &lt;directory or file&gt;...
+ * UniquenessVerifier replay &lt;trace&gt; [threads] [configuration.properties]
+ * </pre>
+ * 
+ * verifies the journals of one or more nodes, or the values issued while
+ * replaying a workload trace as fast as possible.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class UniquenessVerifier {
+
+	/**
+	 * Receives the problems found by a UniquenessVerifier. The methods are
+	 * called while the sequence is locked.
+	 */
+	public interface Listener {
+
+		/**
+		 * Called when a value was issued more than once.
+		 * 
+		 * @param numberSequenceName
+		 *            the name of the number sequence
+		 * @param value
+		 *            the value
+		 */
+		public abstract void duplicate(String numberSequenceName, long value);
+
+		/**
+		 * Called for values which weren't issued.
+		 * 
+		 * @param numberSequenceName
+		 *            the name of the number sequence
+		 * @param first
+		 *            the first missing value
+		 * @param last
+		 *            the last missing value
+		 */
+		public abstract void gap(String numberSequenceName, long first, long last);
+	}
+
+	/** Gaps are only reported by finish. */
+	public static final long						NO_HORIZON		= -1;
+
+	private static final long						SETTLE_STEP		= 65536;
+	private static final int						MAX_PRINTED		= 100;
+
+	private final Listener							listener;
+	private final long								gapHorizon;
+	private final ConcurrentMap<String, Sequence>	sequences		= new ConcurrentHashMap<String, Sequence>();
+	private final AtomicLong						duplicates		= new AtomicLong();
+	private final AtomicLong						gaps			= new AtomicLong();
+	private final AtomicLong						missingValues	= new AtomicLong();
+
+	/**
+	 * Creates a new UniquenessVerifier.
+	 * 
+	 * @param listener
+	 *            the listener, may be null when only the counts are needed
+	 * @param gapHorizon
+	 *            the number of increments the highest value must be beyond a
+	 *            gap before it is reported, NO_HORIZON to report gaps only
+	 *            when finished
+	 */
+	public UniquenessVerifier(final Listener listener, final long gapHorizon) {
+		this.listener = listener;
+		this.gapHorizon = gapHorizon;
+	}
+
+	/**
+	 * Adds the values of a range.
+	 * 
+	 * @param range
+	 *            the range
+	 */
+	public void add(final NumberRange range) {
+		add(range.getNumberSequenceName(), range.getFirst(), range.getIncrement(), range.getSize());
+	}
+
+	/**
+	 * Adds the values of a range.
+	 * 
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param first
+	 *            the first value
+	 * @param increment
+	 *            the difference between two consecutive values
+	 * @param count
+	 *            the number of values
+	 */
+	public void add(final String numberSequenceName, final long first, final int increment, final long count) {
+		getSequence(numberSequenceName, first, increment).add(first, increment, count);
+	}
+
+	/**
+	 * Reports the gaps which haven't been reported yet. Values may still be
+	 * added afterwards.
+	 */
+	public void finish() {
+		for (final Sequence sequence : sequences.values()) {
+			sequence.finish();
+		}
+	}
+
+	/**
+	 * Reads the entries of an issued number journal, the journal of a
+	 * directory is read in the order it was written.
+	 * 
+	 * @param journal
+	 *            the journal directory or a single journal file, compacted or
+	 *            not
+	 * @throws IOException
+	 *             if the journal couldn't be read
+	 */
+	public void addJournal(final File journal) throws IOException {
+		if (journal.isDirectory()) {
+			for (final File file : IssuedNumberJournal.listFiles(journal)) {
+				addJournal(file);
+			}
+			return;
+		}
+		InputStream in = new FileInputStream(journal);
+		try {
+			if (journal.getName().endsWith(".gz")) {
+				in = new GZIPInputStream(in, 65536);
+			}
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8),
+					65536);
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber += 1;
+				final String[] fields = line.split("\t", 6);
+				if (fields.length < 5) {
+					continue;
+				}
+				try {
+					add(fields[1], Long.parseLong(fields[2]), Integer.parseInt(fields[3]), Long.parseLong(fields[4]));
+				} catch (final NumberFormatException e) {
+					throw new IOException("Invalid journal entry at " + journal + ":" + lineNumber + ".", e);
+				}
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @return the names of the number sequences seen so far
+	 */
+	public Collection<String> getNumberSequenceNames() {
+		return Collections.unmodifiableCollection(sequences.keySet());
+	}
+
+	/**
+	 * @return the number of distinct values seen so far
+	 */
+	public long getDistinctValues() {
+		long count = 0;
+		for (final Sequence sequence : sequences.values()) {
+			count += sequence.getDistinctValues();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of duplicate values found so far
+	 */
+	public long getDuplicates() {
+		return duplicates.get();
+	}
+
+	/**
+	 * @return the number of gaps reported so far
+	 */
+	public long getGaps() {
+		return gaps.get();
+	}
+
+	/**
+	 * @return the number of missing values in the gaps reported so far
+	 */
+	public long getMissingValues() {
+		return missingValues.get();
+	}
+
+	/**
+	 * @return an estimate of the memory taken by the bitmaps in bytes
+	 */
+	public long getSizeInBytes() {
+		long size = 0;
+		for (final Sequence sequence : sequences.values()) {
+			size += sequence.getSizeInBytes();
+		}
+		return size;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return "sequences: " + sequences.size() + ", distinct values: " + getDistinctValues() + ", duplicates: "
+				+ duplicates.get() + ", gaps: " + gaps.get() + " (" + missingValues.get() + " values), bitmaps: "
+				+ getSizeInBytes() / 1024 + " KB";
+	}
+
+	private Sequence getSequence(final String numberSequenceName, final long origin, final int increment) {
+		Sequence sequence = sequences.get(numberSequenceName);
+		if (sequence == null) {
+			final Sequence newSequence = new Sequence(numberSequenceName, origin, increment == 0 ? 1 : increment);
+			sequence = sequences.putIfAbsent(numberSequenceName, newSequence);
+			if (sequence == null) {
+				sequence = newSequence;
+			}
+		}
+		return sequence;
+	}
+
+	/**
+	 * The values of one number sequence.
+	 */
+	private class Sequence {
+
+		private final String		numberSequenceName;
+		private final long			origin;
+		private final long			increment;
+		private final ValueBitmap	indexes		= new ValueBitmap();
+		private final ValueBitmap	offGrid		= new ValueBitmap();
+		private long				minIndex	= Long.MAX_VALUE;
+		private long				maxIndex	= Long.MIN_VALUE;
+		private long				settled;
+		private long				floor;
+
+		Sequence(final String numberSequenceName, final long origin, final long increment) {
+			this.numberSequenceName = numberSequenceName;
+			this.origin = origin;
+			this.increment = increment;
+		}
+
+		synchronized void add(final long first, final long rangeIncrement, final long count) {
+			long value = first;
+			for (long i = 0; i < count; ++i, value += rangeIncrement) {
+				final long distance = value - origin;
+				if (distance % increment != 0) {
+					if (!offGrid.add(value)) {
+						reportDuplicate(value);
+					}
+					continue;
+				}
+				final long index = distance / increment;
+				if (!indexes.add(index)) {
+					reportDuplicate(value);
+					continue;
+				}
+				minIndex = Math.min(minIndex, index);
+				maxIndex = Math.max(maxIndex, index);
+			}
+			if (gapHorizon >= 0 && maxIndex - settled - SETTLE_STEP > gapHorizon) {
+				reportGaps(settled, maxIndex - gapHorizon);
+				settled = maxIndex - gapHorizon;
+			}
+		}
+
+		synchronized void finish() {
+			if (minIndex < floor) {
+				reportGaps(minIndex, floor);
+				floor = minIndex;
+			}
+			if (maxIndex >= settled) {
+				reportGaps(settled, maxIndex + 1);
+				settled = maxIndex + 1;
+			}
+		}
+
+		synchronized long getDistinctValues() {
+			return indexes.getCardinality() + offGrid.getCardinality();
+		}
+
+		synchronized long getSizeInBytes() {
+			return indexes.getSizeInBytes() + offGrid.getSizeInBytes();
+		}
+
+		/**
+		 * Reports the gaps between the indexes from, inclusive, and to,
+		 * exclusive.
+		 */
+		private void reportGaps(final long from, final long to) {
+			long start = indexes.nextAbsent(from);
+			while (start < to) {
+				final long end = Math.min(indexes.nextPresent(start), to);
+				gaps.incrementAndGet();
+				missingValues.addAndGet(end - start);
+				if (listener != null) {
+					listener.gap(numberSequenceName, origin + start * increment, origin + (end - 1) * increment);
+				}
+				start = end < to ? indexes.nextAbsent(end) : to;
+			}
+		}
+
+		private void reportDuplicate(final long value) {
+			duplicates.incrementAndGet();
+			if (listener != null) {
+				listener.duplicate(numberSequenceName, value);
+			}
+		}
+	}
+
+	/**
+	 * Verifies journals or a replayed trace from the command line, printing
+	 * the first problems found and a summary.
+	 * 
+	 * @param args
+	 *            "journal" followed by journal directories or files, or
+	 *            "replay" followed by the trace file, optionally the number of
+	 *            threads and a configuration file
+	 * @throws Exception
+	 *             if the verification failed
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 2 || !("journal".equals(args[0]) || "replay".equals(args[0]))) {
+			System.err.println("Usage: UniquenessVerifier journal <directory or file>...");
+			System.err.println("       UniquenessVerifier replay <trace> [threads] [configuration.properties]");
+			System.exit(2);
+		}
+		final Listener printer = new Listener() {
+			private int	printed;
+
+			public synchronized void duplicate(final String numberSequenceName, final long value) {
+				if (printed++ < MAX_PRINTED) {
+					System.out.println("duplicate " + numberSequenceName + " " + value);
+				}
+			}
+
+			public synchronized void gap(final String numberSequenceName, final long first, final long last) {
+				if (printed++ < MAX_PRINTED) {
+					System.out.println("gap " + numberSequenceName + " " + first + (first == last ? "" : ".." + last));
+				}
+			}
+		};
+		final UniquenessVerifier verifier = new UniquenessVerifier(printer, NO_HORIZON);
+		if ("journal".equals(args[0])) {
+			for (int i = 1; i < args.length; ++i) {
+				verifier.addJournal(new File(args[i]));
+			}
+		} else {
+			final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+			final RangeSequenceGenerator generator = new VerifyingSequenceGenerator(WorkloadReplay
+					.createSequenceGenerator(args.length > 3 ? args[3] : null), verifier);
+			final TraceReader reader = new TraceReader(new FileInputStream(args[1]));
+			try {
+				System.out.println(new WorkloadReplay(generator, null, null, threads, 0).replay(reader));
+			} finally {
+				reader.close();
+			}
+		}
+		verifier.finish();
+		System.out.println(verifier);
+		System.exit(verifier.getDuplicates() == 0 ? 0 : 1);
+	}
+}
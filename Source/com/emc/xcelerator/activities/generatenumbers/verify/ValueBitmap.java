@@ -0,0 +1,316 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.verify;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A compressed set of long values. The values are split into chunks of 65536
+ * consecutive values, a chunk holding few values stores them as a sorted
+ * array of 16 bit offsets, a chunk holding more than 4096 values as a bitmap
+ * of 8 KB. Dense sets therefore take little more than one bit per value,
+ * sparse sets two bytes per value, and chunks without values take no space.
+ * <p>
+ * Consecutive operations on the same chunk don't look the chunk up again, so
+ * adding values in roughly ascending order is cheap. The bitmap isn't thread
+ * safe.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class ValueBitmap {
+
+	private static final int				CHUNK_BITS		= 16;
+	private static final int				CHUNK_MASK		= (1 << CHUNK_BITS) - 1;
+	private static final int				ARRAY_MAX		= 4096;
+	private static final int				ENTRY_OVERHEAD	= 48;
+
+	private final TreeMap<Long, Container>	chunks			= new TreeMap<Long, Container>();
+	private long							lastKey;
+	private Container						last;
+	private long							cardinality;
+
+	/**
+	 * Adds a value.
+	 * 
+	 * @param value
+	 *            the value
+	 * @return false if the value was already in the set
+	 */
+	public boolean add(final long value) {
+		final long key = value >> CHUNK_BITS;
+		Container container = getContainer(key);
+		if (container == null) {
+			container = new ArrayContainer();
+			chunks.put(Long.valueOf(key), container);
+			lastKey = key;
+			last = container;
+		}
+		final int low = (int) value & CHUNK_MASK;
+		if (container.contains(low)) {
+			return false;
+		}
+		if (container.getCardinality() == ARRAY_MAX && container instanceof ArrayContainer) {
+			container = ((ArrayContainer) container).toBitmap();
+			chunks.put(Long.valueOf(key), container);
+			last = container;
+		}
+		container.add(low);
+		cardinality += 1;
+		return true;
+	}
+
+	/**
+	 * Checks whether a value is in the set.
+	 * 
+	 * @param value
+	 *            the value
+	 * @return true if the value is in the set
+	 */
+	public boolean contains(final long value) {
+		final Container container = getContainer(value >> CHUNK_BITS);
+		return container != null && container.contains((int) value & CHUNK_MASK);
+	}
+
+	/**
+	 * Finds the smallest value not in the set which isn't smaller than the
+	 * specified value.
+	 * 
+	 * @param from
+	 *            the value to start from
+	 * @return the absent value
+	 */
+	public long nextAbsent(final long from) {
+		long key = from >> CHUNK_BITS;
+		int low = (int) from & CHUNK_MASK;
+		while (true) {
+			final Container container = getContainer(key);
+			if (container == null) {
+				return key << CHUNK_BITS | low;
+			}
+			final int absent = container.nextAbsent(low);
+			if (absent >= 0) {
+				return key << CHUNK_BITS | absent;
+			}
+			key += 1;
+			low = 0;
+		}
+	}
+
+	/**
+	 * Finds the smallest value in the set which isn't smaller than the
+	 * specified value.
+	 * 
+	 * @param from
+	 *            the value to start from
+	 * @return the value or Long.MAX_VALUE if there is none
+	 */
+	public long nextPresent(final long from) {
+		final long key = from >> CHUNK_BITS;
+		final Container container = getContainer(key);
+		if (container != null) {
+			final int present = container.nextPresent((int) from & CHUNK_MASK);
+			if (present >= 0) {
+				return key << CHUNK_BITS | present;
+			}
+		}
+		if (key == Long.MAX_VALUE >> CHUNK_BITS) {
+			return Long.MAX_VALUE;
+		}
+		final Map.Entry<Long, Container> next = chunks.ceilingEntry(Long.valueOf(key + 1));
+		if (next == null) {
+			return Long.MAX_VALUE;
+		}
+		return next.getKey().longValue() << CHUNK_BITS | next.getValue().nextPresent(0);
+	}
+
+	/**
+	 * @return the number of values in the set
+	 */
+	public long getCardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * @return an estimate of the memory taken by the set in bytes
+	 */
+	public long getSizeInBytes() {
+		long size = ENTRY_OVERHEAD;
+		for (final Container container : chunks.values()) {
+			size += ENTRY_OVERHEAD + container.getSizeInBytes();
+		}
+		return size;
+	}
+
+	private Container getContainer(final long key) {
+		if (last != null && lastKey == key) {
+			return last;
+		}
+		final Container container = chunks.get(Long.valueOf(key));
+		if (container != null) {
+			lastKey = key;
+			last = container;
+		}
+		return container;
+	}
+
+	/**
+	 * The values of one chunk, as 16 bit offsets in the interval [0, 65536).
+	 */
+	private abstract static class Container {
+
+		abstract boolean contains(int low);
+
+		/**
+		 * Adds an offset which isn't in the container yet.
+		 */
+		abstract void add(int low);
+
+		abstract int getCardinality();
+
+		/**
+		 * @return the smallest absent offset not smaller than low, -1 if none
+		 */
+		abstract int nextAbsent(int low);
+
+		/**
+		 * @return the smallest present offset not smaller than low, -1 if none
+		 */
+		abstract int nextPresent(int low);
+
+		abstract long getSizeInBytes();
+	}
+
+	/**
+	 * A chunk holding at most ARRAY_MAX values as a sorted array.
+	 */
+	private static class ArrayContainer extends Container {
+
+		private char[]	values	= new char[4];
+		private int		size;
+
+		boolean contains(final int low) {
+			return Arrays.binarySearch(values, 0, size, (char) low) >= 0;
+		}
+
+		void add(final int low) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, Math.min(ARRAY_MAX, size + (size >> 1) + 1));
+			}
+			if (size == 0 || values[size - 1] < low) {
+				values[size++] = (char) low;
+				return;
+			}
+			final int index = -Arrays.binarySearch(values, 0, size, (char) low) - 1;
+			System.arraycopy(values, index, values, index + 1, size - index);
+			values[index] = (char) low;
+			size += 1;
+		}
+
+		int getCardinality() {
+			return size;
+		}
+
+		int nextAbsent(final int low) {
+			int index = Arrays.binarySearch(values, 0, size, (char) low);
+			if (index < 0) {
+				return low;
+			}
+			while (index + 1 < size && values[index + 1] == values[index] + 1) {
+				index += 1;
+			}
+			final int absent = values[index] + 1;
+			return absent > CHUNK_MASK ? -1 : absent;
+		}
+
+		int nextPresent(final int low) {
+			int index = Arrays.binarySearch(values, 0, size, (char) low);
+			if (index < 0) {
+				index = -index - 1;
+			}
+			return index < size ? values[index] : -1;
+		}
+
+		long getSizeInBytes() {
+			return 24 + 2L * values.length;
+		}
+
+		BitmapContainer toBitmap() {
+			final BitmapContainer bitmap = new BitmapContainer();
+			for (int i = 0; i < size; ++i) {
+				bitmap.add(values[i]);
+			}
+			return bitmap;
+		}
+	}
+
+	/**
+	 * A chunk holding its values as a bitmap of 65536 bits.
+	 */
+	private static class BitmapContainer extends Container {
+
+		private final long[]	words	= new long[(CHUNK_MASK + 1) >> 6];
+		private int				cardinality;
+
+		boolean contains(final int low) {
+			return (words[low >>> 6] & 1L << low) != 0;
+		}
+
+		void add(final int low) {
+			words[low >>> 6] |= 1L << low;
+			cardinality += 1;
+		}
+
+		int getCardinality() {
+			return cardinality;
+		}
+
+		int nextAbsent(final int low) {
+			int index = low >>> 6;
+			long word = ~words[index] & -1L << low;
+			while (word == 0) {
+				if (++index == words.length) {
+					return -1;
+				}
+				word = ~words[index];
+			}
+			return index << 6 | Long.numberOfTrailingZeros(word);
+		}
+
+		int nextPresent(final int low) {
+			int index = low >>> 6;
+			long word = words[index] & -1L << low;
+			while (word == 0) {
+				if (++index == words.length) {
+					return -1;
+				}
+				word = words[index];
+			}
+			return index << 6 | Long.numberOfTrailingZeros(word);
+		}
+
+		long getSizeInBytes() {
+			return 24 + 8L * words.length;
+		}
+	}
+}
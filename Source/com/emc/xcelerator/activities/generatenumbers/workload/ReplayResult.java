@@ -0,0 +1,206 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.workload;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The outcome of a workload replay: the number of requests per outcome, the
+ * update attempts, the latency distribution and how late requests were
+ * started compared with the schedule. Latencies are kept in a histogram with
+ * buckets at most 1/8 wide, so percentiles are within 12.5% of the exact
+ * value.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class ReplayResult {
+
+	private static final int	SUB_BUCKET_BITS	= 3;
+	private static final int	SUB_BUCKETS		= 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray	outcomes		= new AtomicLongArray(TraceRecord.Outcome.values().length);
+	private final AtomicLongArray	latencies		= new AtomicLongArray(64 * SUB_BUCKETS);
+	private final AtomicLong		attempts		= new AtomicLong();
+	private final AtomicLong		values			= new AtomicLong();
+	private final AtomicLong		maxLatency		= new AtomicLong();
+	private final AtomicLong		maxLag			= new AtomicLong();
+	private volatile long			elapsedNanos;
+
+	/**
+	 * Records a replayed request.
+	 * 
+	 * @param outcome
+	 *            the outcome
+	 * @param size
+	 *            the number of values requested
+	 * @param requestAttempts
+	 *            the number of update attempts
+	 * @param latencyNanos
+	 *            the duration of the request
+	 * @param lagNanos
+	 *            how late the request was started
+	 */
+	public void record(final TraceRecord.Outcome outcome, final int size, final int requestAttempts,
+			final long latencyNanos, final long lagNanos) {
+		outcomes.incrementAndGet(outcome.ordinal());
+		if (outcome == TraceRecord.Outcome.SUCCEEDED) {
+			values.addAndGet(size);
+		}
+		attempts.addAndGet(requestAttempts);
+		latencies.incrementAndGet(bucketOf(latencyNanos));
+		updateMax(maxLatency, latencyNanos);
+		updateMax(maxLag, lagNanos);
+	}
+
+	/**
+	 * @param outcome
+	 *            the outcome
+	 * @return the number of requests with the outcome
+	 */
+	public long getCount(final TraceRecord.Outcome outcome) {
+		return outcomes.get(outcome.ordinal());
+	}
+
+	/**
+	 * @return the number of requests replayed
+	 */
+	public long getRequests() {
+		long total = 0;
+		for (int i = 0; i < outcomes.length(); ++i) {
+			total += outcomes.get(i);
+		}
+		return total;
+	}
+
+	/**
+	 * @return the number of values generated
+	 */
+	public long getValues() {
+		return values.get();
+	}
+
+	/**
+	 * @return the total number of update attempts
+	 */
+	public long getAttempts() {
+		return attempts.get();
+	}
+
+	/**
+	 * Estimates a latency percentile.
+	 * 
+	 * @param percentile
+	 *            the percentile, between 0 and 100
+	 * @return the upper bound of the bucket containing the percentile, in
+	 *         nanoseconds
+	 */
+	public long getLatencyPercentile(final double percentile) {
+		final long requests = getRequests();
+		if (requests == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(requests * percentile / 100.0));
+		long seen = 0;
+		for (int i = 0; i < latencies.length(); ++i) {
+			seen += latencies.get(i);
+			if (seen >= rank) {
+				return Math.min(upperBound(i), maxLatency.get());
+			}
+		}
+		return maxLatency.get();
+	}
+
+	/**
+	 * @return the longest request in nanoseconds
+	 */
+	public long getMaxLatency() {
+		return maxLatency.get();
+	}
+
+	/**
+	 * @return the latest start of a request compared with the schedule, in
+	 *         nanoseconds
+	 */
+	public long getMaxLag() {
+		return maxLag.get();
+	}
+
+	/**
+	 * @return the duration of the replay in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	void setElapsedNanos(final long elapsedNanos) {
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		final StringBuilder sb = new StringBuilder();
+		sb.append("requests=").append(getRequests());
+		for (final TraceRecord.Outcome outcome : TraceRecord.Outcome.values()) {
+			sb.append(' ').append(outcome.name().toLowerCase()).append('=').append(getCount(outcome));
+		}
+		sb.append(" values=").append(getValues()).append(" attempts=").append(getAttempts());
+		sb.append(" p50=").append(micros(getLatencyPercentile(50))).append("us");
+		sb.append(" p99=").append(micros(getLatencyPercentile(99))).append("us");
+		sb.append(" p99.9=").append(micros(getLatencyPercentile(99.9))).append("us");
+		sb.append(" max=").append(micros(getMaxLatency())).append("us");
+		sb.append(" maxLag=").append(micros(getMaxLag())).append("us");
+		sb.append(" elapsed=").append(getElapsedNanos() / 1000000L).append("ms");
+		return sb.toString();
+	}
+
+	private static long micros(final long nanos) {
+		return nanos / 1000L;
+	}
+
+	private static int bucketOf(final long nanos) {
+		if (nanos < SUB_BUCKETS) {
+			return (int) Math.max(0, nanos);
+		}
+		final int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+		final int sub = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(final int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		final int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final long sub = bucket % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << (magnitude - SUB_BUCKET_BITS)) - 1;
+	}
+
+	private static void updateMax(final AtomicLong max, final long value) {
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.workload;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * The layout of a workload trace. A trace starts with a header: the magic
+ * number, the version and the wall clock time the trace started at. It is
+ * followed by entries, each starting with a tag byte:
+ * <ul>
+ * <li>STRING defines the next string id (ids are assigned in order, from 0)
+ * and is followed by the UTF-8 length and bytes;</li>
+ * <li>RECORD is followed by the start relative to the previous record
+ * (zig-zag), the sequence string id, the format string id plus one (0 for no
+ * format), the size, the outcome ordinal, the attempts and the latency.</li>
+ * </ul>
+ * All integers after the header are unsigned variable-length (7 bits per
+ * byte), so a typical record takes a dozen bytes.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+final class TraceFormat {
+
+	static final int	MAGIC	= 0x474E5452;
+	static final int	VERSION	= 1;
+	static final int	STRING	= 1;
+	static final int	RECORD	= 2;
+
+	private TraceFormat() {
+		// NOP.
+	}
+
+	static void writeVarLong(final OutputStream out, final long value) throws IOException {
+		long v = value;
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	static long readVarLong(final InputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			final int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed variable-length number.");
+	}
+
+	static long zigZag(final long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static long unZigZag(final long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+}
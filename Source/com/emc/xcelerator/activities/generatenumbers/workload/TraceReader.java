@@ -0,0 +1,131 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.workload;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the TraceRecords written by a TraceWriter, one at a time, so traces
+ * of any length can be processed in constant memory.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class TraceReader implements Closeable {
+
+	private static final TraceRecord.Outcome[]	OUTCOMES	= TraceRecord.Outcome.values();
+
+	private final DataInputStream				in;
+	private final long							startMillis;
+	private final List<String>					strings		= new ArrayList<String>();
+	private long								previousStart;
+
+	/**
+	 * Creates a new TraceReader and reads the header.
+	 * 
+	 * @param in
+	 *            the stream, buffered by the reader
+	 * @throws IOException
+	 *             if the stream doesn't contain a trace
+	 */
+	public TraceReader(final InputStream in) throws IOException {
+		this.in = new DataInputStream(new BufferedInputStream(in, 65536));
+		if (this.in.readInt() != TraceFormat.MAGIC) {
+			throw new IOException("Not a workload trace.");
+		}
+		final int version = this.in.readShort();
+		if (version != TraceFormat.VERSION) {
+			throw new IOException("Unsupported workload trace version " + version + ".");
+		}
+		this.startMillis = this.in.readLong();
+	}
+
+	/**
+	 * @return the wall clock time the trace started at
+	 */
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * Reads the next record.
+	 * 
+	 * @return the record or null at the end of the trace
+	 * @throws IOException
+	 *             if the trace is corrupt
+	 */
+	public TraceRecord read() throws IOException {
+		while (true) {
+			final int tag = in.read();
+			if (tag < 0) {
+				return null;
+			}
+			try {
+				if (tag == TraceFormat.STRING) {
+					final byte[] bytes = new byte[(int) TraceFormat.readVarLong(in)];
+					in.readFully(bytes);
+					strings.add(new String(bytes, StandardCharsets.UTF_8));
+				} else if (tag == TraceFormat.RECORD) {
+					final long start = previousStart + TraceFormat.unZigZag(TraceFormat.readVarLong(in));
+					final String sequence = string(TraceFormat.readVarLong(in));
+					final long format = TraceFormat.readVarLong(in);
+					final int size = (int) TraceFormat.readVarLong(in);
+					final int outcome = in.readUnsignedByte();
+					final int attempts = (int) TraceFormat.readVarLong(in);
+					final long latency = TraceFormat.readVarLong(in);
+					if (outcome >= OUTCOMES.length) {
+						throw new IOException("Unknown outcome " + outcome + ".");
+					}
+					previousStart = start;
+					return new TraceRecord(start, sequence, format == 0 ? null : string(format - 1), size,
+							OUTCOMES[outcome], attempts, latency);
+				} else {
+					throw new IOException("Unknown trace entry " + tag + ".");
+				}
+			} catch (final EOFException e) {
+				// An entry cut short by a crash ends the trace.
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private String string(final long id) throws IOException {
+		if (id < 0 || id >= strings.size()) {
+			throw new IOException("Undefined trace string " + id + ".");
+		}
+		return strings.get((int) id);
+	}
+}
@@ -0,0 +1,143 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.workload;
+
+/**
+ * One recorded request for numbers.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class TraceRecord {
+
+	/**
+	 * The outcome of a request.
+	 */
+	public enum Outcome {
+		/** The numbers were generated. */
+		SUCCEEDED,
+		/** A SequenceGeneratorFailedException was thrown. */
+		FAILED,
+		/** A SequenceGeneratorRejectedException was thrown. */
+		REJECTED,
+		/** A SequenceObjectNotFoundException was thrown. */
+		NOT_FOUND,
+		/** Any other exception was thrown. */
+		ERROR
+	}
+
+	private final long		startNanos;
+	private final String	numberSequenceName;
+	private final String	formatPattern;
+	private final int		size;
+	private final Outcome	outcome;
+	private final int		attempts;
+	private final long		latencyNanos;
+
+	/**
+	 * Creates a new TraceRecord.
+	 * 
+	 * @param startNanos
+	 *            the start of the request in nanoseconds since the start of
+	 *            the trace
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param formatPattern
+	 *            the format pattern, may be null
+	 * @param size
+	 *            the number of values requested
+	 * @param outcome
+	 *            the outcome
+	 * @param attempts
+	 *            the number of update attempts, 0 if unknown or none were
+	 *            needed
+	 * @param latencyNanos
+	 *            the duration of the request in nanoseconds
+	 */
+	public TraceRecord(final long startNanos, final String numberSequenceName, final String formatPattern,
+			final int size, final Outcome outcome, final int attempts, final long latencyNanos) {
+		this.startNanos = startNanos;
+		this.numberSequenceName = numberSequenceName;
+		this.formatPattern = formatPattern;
+		this.size = size;
+		this.outcome = outcome;
+		this.attempts = attempts;
+		this.latencyNanos = latencyNanos;
+	}
+
+	/**
+	 * @return the start of the request in nanoseconds since the start of the
+	 *         trace
+	 */
+	public long getStartNanos() {
+		return startNanos;
+	}
+
+	/**
+	 * @return the name of the number sequence
+	 */
+	public String getNumberSequenceName() {
+		return numberSequenceName;
+	}
+
+	/**
+	 * @return the format pattern, may be null
+	 */
+	public String getFormatPattern() {
+		return formatPattern;
+	}
+
+	/**
+	 * @return the number of values requested
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return the outcome
+	 */
+	public Outcome getOutcome() {
+		return outcome;
+	}
+
+	/**
+	 * @return the number of update attempts
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * @return the duration of the request in nanoseconds
+	 */
+	public long getLatencyNanos() {
+		return latencyNanos;
+	}
+
+	/**
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		return startNanos + " " + numberSequenceName + " " + formatPattern + " x" + size + " " + outcome + " "
+				+ attempts + " " + latencyNanos;
+	}
+}
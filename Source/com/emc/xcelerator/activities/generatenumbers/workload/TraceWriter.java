@@ -0,0 +1,114 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.workload;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes TraceRecords to a stream in the layout described by TraceFormat. A
+ * TraceWriter isn't thread-safe.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class TraceWriter implements Closeable {
+
+	private final DataOutputStream		out;
+	private final Map<String, Integer>	strings	= new HashMap<String, Integer>();
+	private long						previousStart;
+
+	/**
+	 * Creates a new TraceWriter and writes the header.
+	 * 
+	 * @param out
+	 *            the stream, buffered by the writer
+	 * @param startMillis
+	 *            the wall clock time the trace starts at
+	 * @throws IOException
+	 *             if the header couldn't be written
+	 */
+	public TraceWriter(final OutputStream out, final long startMillis) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(out, 65536));
+		this.out.writeInt(TraceFormat.MAGIC);
+		this.out.writeShort(TraceFormat.VERSION);
+		this.out.writeLong(startMillis);
+	}
+
+	/**
+	 * Writes a record.
+	 * 
+	 * @param record
+	 *            the record
+	 * @throws IOException
+	 *             if the record couldn't be written
+	 */
+	public void write(final TraceRecord record) throws IOException {
+		final int sequence = stringId(record.getNumberSequenceName());
+		final int format = record.getFormatPattern() == null ? -1 : stringId(record.getFormatPattern());
+		out.write(TraceFormat.RECORD);
+		TraceFormat.writeVarLong(out, TraceFormat.zigZag(record.getStartNanos() - previousStart));
+		TraceFormat.writeVarLong(out, sequence);
+		TraceFormat.writeVarLong(out, format + 1);
+		TraceFormat.writeVarLong(out, record.getSize());
+		out.write(record.getOutcome().ordinal());
+		TraceFormat.writeVarLong(out, record.getAttempts());
+		TraceFormat.writeVarLong(out, Math.max(0, record.getLatencyNanos()));
+		previousStart = record.getStartNanos();
+	}
+
+	/**
+	 * Flushes the buffered records.
+	 * 
+	 * @throws IOException
+	 *             if the records couldn't be written
+	 */
+	public void flush() throws IOException {
+		out.flush();
+	}
+
+	/**
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		out.close();
+	}
+
+	private int stringId(final String s) throws IOException {
+		final Integer id = strings.get(s);
+		if (id != null) {
+			return id.intValue();
+		}
+		final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.write(TraceFormat.STRING);
+		TraceFormat.writeVarLong(out, bytes.length);
+		out.write(bytes);
+		final int newId = strings.size();
+		strings.put(s, Integer.valueOf(newId));
+		return newId;
+	}
+}
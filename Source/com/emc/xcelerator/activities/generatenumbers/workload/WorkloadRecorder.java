@@ -0,0 +1,234 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.workload;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfLogger;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorConfiguration;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorFailedException;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorRejectedException;
+import com.emc.xcelerator.activities.generatenumbers.SequenceObjectNotFoundException;
+
+/**
+ * Records requests for numbers into a workload trace file. Requests are
+ * handed to a background thread through a bounded queue, so the requesting
+ * thread never waits for the disk; when the queue is full the record is
+ * dropped and counted instead.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class WorkloadRecorder implements Closeable {
+
+	private static final String					LOG_CATEGORY		= WorkloadRecorder.class.getCanonicalName();
+	private static final int					BATCH_SIZE			= 1024;
+	private static final int					DEFAULT_CAPACITY	= 65536;
+
+	private final BlockingQueue<TraceRecord>	queue;
+	private final TraceWriter					writer;
+	private final long							startNanos;
+	private final AtomicLong					dropped				= new AtomicLong();
+	private final Thread						thread;
+	private volatile boolean					closed;
+
+	/**
+	 * Creates a new WorkloadRecorder writing to the specified file, which is
+	 * overwritten.
+	 * 
+	 * @param file
+	 *            the trace file
+	 * @param capacity
+	 *            the number of records which may be waiting to be written
+	 * @throws IOException
+	 *             if the file couldn't be created
+	 */
+	public WorkloadRecorder(final File file, final int capacity) throws IOException {
+		this.queue = new ArrayBlockingQueue<TraceRecord>(capacity);
+		this.writer = new TraceWriter(new FileOutputStream(file), System.currentTimeMillis());
+		this.startNanos = System.nanoTime();
+		this.thread = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "GenerateNumber-workload-recorder");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/**
+	 * Opens the recorder described by the configuration. The recorder is
+	 * closed when the JVM shuts down.
+	 * 
+	 * @param config
+	 *            the configuration
+	 * @return the recorder, null if recording isn't configured or the trace
+	 *         file couldn't be created
+	 */
+	public static WorkloadRecorder open(final SequenceGeneratorConfiguration config) {
+		final String file = config.getString(SequenceGeneratorConfiguration.TRACE_FILE, null);
+		if (file == null || file.length() == 0) {
+			return null;
+		}
+		try {
+			final WorkloadRecorder recorder = new WorkloadRecorder(new File(file), config.getInt(
+					SequenceGeneratorConfiguration.TRACE_CAPACITY, DEFAULT_CAPACITY));
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				public void run() {
+					try {
+						recorder.close();
+					} catch (final IOException e) {
+						// The JVM is going away, nothing to report to.
+					}
+				}
+			}, "GenerateNumber-workload-recorder-shutdown"));
+			DfLogger.info(LOG_CATEGORY, "Recording the workload into {0}.", new Object[] { file }, null);
+			return recorder;
+		} catch (final IOException e) {
+			DfLogger.error(LOG_CATEGORY, "Couldn't create the workload trace {0}.", new Object[] { file }, e);
+			return null;
+		}
+	}
+
+	/**
+	 * @return the current time on the recorder's clock, to be passed as the
+	 *         start of a request
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Records a request.
+	 * 
+	 * @param start
+	 *            the value returned by start() when the request began
+	 * @param numberSequenceName
+	 *            the name of the number sequence
+	 * @param formatPattern
+	 *            the format pattern, may be null
+	 * @param size
+	 *            the number of values requested
+	 * @param error
+	 *            the exception thrown by the request, null if it succeeded
+	 * @param attempts
+	 *            the number of update attempts
+	 */
+	public void record(final long start, final String numberSequenceName, final String formatPattern,
+			final int size, final Throwable error, final int attempts) {
+		final long now = System.nanoTime();
+		final TraceRecord record = new TraceRecord(start - startNanos, numberSequenceName, formatPattern, size,
+				outcomeOf(error), attempts, now - start);
+		if (closed || !queue.offer(record)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the number of records dropped because the queue was full
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Stops recording, writes the queued records and closes the file.
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		if (closed && !thread.isAlive()) {
+			return;
+		}
+		closed = true;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writer.close();
+	}
+
+	/**
+	 * Classifies the exception thrown by a request.
+	 * 
+	 * @param error
+	 *            the exception, null if the request succeeded
+	 * @return the outcome
+	 */
+	static TraceRecord.Outcome outcomeOf(final Throwable error) {
+		Throwable t = error;
+		if (t instanceof RuntimeException && t.getCause() instanceof DfException) {
+			t = t.getCause();
+		}
+		if (t == null) {
+			return TraceRecord.Outcome.SUCCEEDED;
+		} else if (t instanceof SequenceGeneratorRejectedException) {
+			return TraceRecord.Outcome.REJECTED;
+		} else if (t instanceof SequenceObjectNotFoundException) {
+			return TraceRecord.Outcome.NOT_FOUND;
+		} else if (t instanceof SequenceGeneratorFailedException) {
+			return TraceRecord.Outcome.FAILED;
+		}
+		return TraceRecord.Outcome.ERROR;
+	}
+
+	private void drain() {
+		final List<TraceRecord> batch = new ArrayList<TraceRecord>(BATCH_SIZE);
+		try {
+			while (true) {
+				final TraceRecord first;
+				try {
+					first = closed ? queue.poll() : queue.poll(1, TimeUnit.SECONDS);
+				} catch (final InterruptedException e) {
+					continue;
+				}
+				if (first == null) {
+					writer.flush();
+					if (closed) {
+						return;
+					}
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				for (final TraceRecord record : batch) {
+					writer.write(record);
+				}
+				batch.clear();
+			}
+		} catch (final IOException e) {
+			closed = true;
+			DfLogger.error(LOG_CATEGORY, "Stopped recording the workload.", null, e);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.workload;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.client.IDfSessionManager;
+import com.emc.xcelerator.activities.generatenumbers.GeneratedIdTemplate;
+import com.emc.xcelerator.activities.generatenumbers.GenerationAttempts;
+import com.emc.xcelerator.activities.generatenumbers.NumberRange;
+import com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorConfiguration;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorFactory;
+
+/**
+ * Replays a recorded workload against a sequence generator, each request
+ * being started at its recorded offset divided by the speed factor. A speed
+ * of 2 replays twice as fast, a speed of 0 or less replays as fast as the
+ * generator allows. Requests run on a pool of threads, at most twice as many
+ * being queued, so the replay runs in constant memory; the lag reported in
+ * the ReplayResult shows when the pool couldn't keep up with the schedule.
+ * <p>
+ * Generators which need a repository session are given one from the session
+ * manager, others are called with a null session.
+ * <p>
+ * From the command line:
+ * 
+ * <pre>
+ * WorkloadReplay &lt;trace&gt; [speed] [threads] [configuration.properties]
+ * </pre>
+ * 
+ * replays the trace against the pipeline described by the configuration,
+ * which defaults to the "memory" backend.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class WorkloadReplay {
+
+	private final RangeSequenceGenerator	generator;
+	private final IDfSessionManager			sessionManager;
+	private final String					docbaseName;
+	private final int						threads;
+	private final double					speed;
+
+	/**
+	 * Creates a new WorkloadReplay.
+	 * 
+	 * @param generator
+	 *            the generator the workload is replayed against
+	 * @param sessionManager
+	 *            the session manager, null for generators which don't need a
+	 *            session
+	 * @param docbaseName
+	 *            the name of the repository, may be null without a session
+	 *            manager
+	 * @param threads
+	 *            the number of threads making the requests
+	 * @param speed
+	 *            the speed factor
+	 */
+	public WorkloadReplay(final RangeSequenceGenerator generator, final IDfSessionManager sessionManager,
+			final String docbaseName, final int threads, final double speed) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads must be positive: " + threads);
+		}
+		this.generator = generator;
+		this.sessionManager = sessionManager;
+		this.docbaseName = docbaseName;
+		this.threads = threads;
+		this.speed = speed;
+	}
+
+	/**
+	 * Replays the records of a trace and waits for all requests to complete.
+	 * 
+	 * @param reader
+	 *            the trace
+	 * @return the result
+	 * @throws IOException
+	 *             if the trace couldn't be read
+	 * @throws InterruptedException
+	 *             if the replay was interrupted
+	 */
+	public ReplayResult replay(final TraceReader reader) throws IOException, InterruptedException {
+		final ReplayResult result = new ReplayResult();
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+		final Semaphore outstanding = new Semaphore(threads * 3);
+		final long replayStart = System.nanoTime();
+		try {
+			TraceRecord record;
+			while ((record = reader.read()) != null) {
+				final long due = speed > 0 ? replayStart + (long) (record.getStartNanos() / speed) : replayStart;
+				long wait = due - System.nanoTime();
+				while (wait > 0) {
+					LockSupport.parkNanos(wait);
+					if (Thread.interrupted()) {
+						throw new InterruptedException();
+					}
+					wait = due - System.nanoTime();
+				}
+				outstanding.acquire();
+				final TraceRecord request = record;
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							replay(request, due, result);
+						} finally {
+							outstanding.release();
+						}
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+		result.setElapsedNanos(System.nanoTime() - replayStart);
+		return result;
+	}
+
+	/**
+	 * Replays a single request, formatting the numbers when the recorded
+	 * request specified a format.
+	 * 
+	 * @param record
+	 *            the recorded request
+	 * @param due
+	 *            the time the request was scheduled for
+	 * @param result
+	 *            the result to record the request in
+	 */
+	void replay(final TraceRecord record, final long due, final ReplayResult result) {
+		final long start = System.nanoTime();
+		GenerationAttempts.reset();
+		Throwable error = null;
+		IDfSession session = null;
+		try {
+			if (sessionManager != null) {
+				session = sessionManager.getSession(docbaseName);
+			}
+			final int size = Math.max(1, record.getSize());
+			final NumberRange range = generator.reserveRange(session, record.getNumberSequenceName(), size);
+			if (record.getFormatPattern() != null) {
+				final GeneratedIdTemplate template = GeneratedIdTemplate.compile(range.getPrefix(),
+						record.getFormatPattern(), null, null);
+				for (int i = 0; i < range.getSize(); ++i) {
+					template.apply(range.valueAt(i));
+				}
+			}
+		} catch (final Exception e) {
+			error = e;
+		} finally {
+			if (session != null) {
+				sessionManager.release(session);
+			}
+		}
+		final long end = System.nanoTime();
+		result.record(WorkloadRecorder.outcomeOf(error), record.getSize(), GenerationAttempts.last(), end - start,
+				start - due);
+	}
+
+	/**
+	 * Creates the pipeline a trace is replayed against from the command line.
+	 * 
+	 * @param configurationFile
+	 *            the configuration file, null to use the "memory" backend
+	 * @return the pipeline
+	 * @throws IOException
+	 *             if the configuration file couldn't be read
+	 */
+	public static RangeSequenceGenerator createSequenceGenerator(final String configurationFile) throws IOException {
+		return new SequenceGeneratorFactory().create(loadConfiguration(configurationFile));
+	}
+
+	/**
+	 * Reads the configuration of a pipeline run from the command line.
+	 * 
+	 * @param configurationFile
+	 *            the configuration file, null to use the "memory" backend
+	 * @return the configuration, with the "memory" backend unless the file
+	 *         names another
+	 * @throws IOException
+	 *             if the configuration file couldn't be read
+	 */
+	public static SequenceGeneratorConfiguration loadConfiguration(final String configurationFile)
+			throws IOException {
+		final Properties properties = new Properties();
+		properties.setProperty(SequenceGeneratorConfiguration.BACKEND, SequenceGeneratorConfiguration.BACKEND_MEMORY);
+		if (configurationFile != null) {
+			final InputStream in = new FileInputStream(configurationFile);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		}
+		return new SequenceGeneratorConfiguration(properties);
+	}
+
+	/**
+	 * Replays a trace file from the command line and prints the result.
+	 * 
+	 * @param args
+	 *            the trace file, optionally followed by the speed factor, the
+	 *            number of threads and a configuration file
+	 * @throws Exception
+	 *             if the replay failed
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: WorkloadReplay <trace> [speed] [threads] [configuration.properties]");
+			System.exit(2);
+		}
+		final double speed = args.length > 1 ? Double.parseDouble(args[1]) : 1.0;
+		final int threads = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		final RangeSequenceGenerator generator = createSequenceGenerator(args.length > 3 ? args[3] : null);
+		final TraceReader reader = new TraceReader(new FileInputStream(args[0]));
+		try {
+			System.out.println(new WorkloadReplay(generator, null, null, threads, speed).replay(reader));
+		} finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,322 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.verify;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.common.DfException;
+import com.emc.xcelerator.activities.generatenumbers.GeneratedNumberFormat;
+import com.emc.xcelerator.activities.generatenumbers.GeneratedNumberFormatOverflowException;
+import com.emc.xcelerator.activities.generatenumbers.MultiSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.NumberRange;
+import com.emc.xcelerator.activities.generatenumbers.RangeSequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.RetrySequenceGenerator;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorConfiguration;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorFactory;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorPipeline;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorFailedException;
+import com.emc.xcelerator.activities.generatenumbers.SequenceGeneratorRejectedException;
+import com.emc.xcelerator.activities.generatenumbers.SequenceObjectNotFoundException;
+import com.emc.xcelerator.activities.generatenumbers.workload.ReplayResult;
+import com.emc.xcelerator.activities.generatenumbers.workload.TraceRecord;
+import com.emc.xcelerator.activities.generatenumbers.workload.WorkloadReplay;
+
+/**
+ * A long-running multi-threaded soak of a sequence generator pipeline. Every
+ * thread draws numbers from a small set of shared sequences, as fast as the
+ * pipeline allows, mixing single numbers, ranges and multi-sequence requests;
+ * every range handed out goes through a UniquenessVerifier. Alongside, the
+ * threads format the numbers with formats shared between them, check that the
+ * text parses back to the number and that overflow messages are intact, so
+ * races on shared formatter state show up as mismatches.
+ * <p>
+ * The result reports the throughput, the latency percentiles and the
+ * duplicates; gaps are expected with leases and aren't counted as failures.
+ * The process exits with 1 if a duplicate, a format mismatch or a failed
+ * request was seen, so the soak can gate changes to the generator.
+ * <p>
+ * From the command line:
+ * 
+ * <pre>
+ * GeneratorSoak &lt;seconds&gt; [threads] [sequences] [configuration.properties]
+ * </pre>
+ * 
+ * soaks the pipeline described by the configuration, which defaults to the
+ * "memory" backend. With the "repository" backend the pipeline runs against
+ * a StandInRepository holding the soaked sequences, so the conditional
+ * updates of RetrySequenceGenerator and NumberSequenceObject race as they do
+ * on a repository; the threads share a session in a transaction, so every
+ * call also goes through OutOfTransactionDecoratorSequenceGenerator and its
+ * own sessions. Other backends are called with a null session.
+ * <p>
+ * The soak and the StandInRepository live in the Test source tree, next to
+ * Source, and aren't packaged into the deployed module.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class GeneratorSoak {
+
+	private static final String[]			PATTERNS			= { "SOAK-0000000000", "#########0-{luhn}",
+			"0000000000-{mod97}"					};
+	private static final String				OVERFLOW_PATTERN	= "00";
+	private static final int				MAX_RANGE			= 64;
+	private static final int				CHECK_EVERY			= 64;
+
+	private final RangeSequenceGenerator	generator;
+	private final IDfSession				session;
+	private final int						threads;
+	private final String[]					names;
+	private final ReplayResult				result				= new ReplayResult();
+	private final UniquenessVerifier		verifier			= new UniquenessVerifier(null, 1 << 20);
+	private final AtomicLong				formatMismatches	= new AtomicLong();
+	private final AtomicLong				formatChecks		= new AtomicLong();
+	private volatile boolean				stopped;
+
+	/**
+	 * Creates a new GeneratorSoak.
+	 * 
+	 * @param generator
+	 *            the pipeline to soak
+	 * @param threads
+	 *            the number of threads calling the pipeline
+	 * @param sequences
+	 *            the number of sequences the threads share
+	 */
+	public GeneratorSoak(final RangeSequenceGenerator generator, final int threads, final int sequences) {
+		this(generator, null, threads, sequences);
+	}
+
+	/**
+	 * Creates a new GeneratorSoak calling the pipeline with a session.
+	 * 
+	 * @param generator
+	 *            the pipeline to soak
+	 * @param session
+	 *            the session the threads share, null for pipelines which
+	 *            don't need one
+	 * @param threads
+	 *            the number of threads calling the pipeline
+	 * @param sequences
+	 *            the number of sequences the threads share
+	 */
+	public GeneratorSoak(final RangeSequenceGenerator generator, final IDfSession session, final int threads,
+			final int sequences) {
+		this.generator = new VerifyingSequenceGenerator(generator, verifier);
+		this.session = session;
+		this.threads = threads;
+		this.names = new String[sequences];
+		for (int i = 0; i < sequences; ++i) {
+			names[i] = "soak" + i;
+		}
+	}
+
+	/**
+	 * Runs the soak.
+	 * 
+	 * @param duration
+	 *            the duration
+	 * @param unit
+	 *            the unit of the duration
+	 * @return the latencies and outcomes of the requests
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the threads
+	 */
+	public ReplayResult run(final long duration, final TimeUnit unit) throws InterruptedException {
+		final Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; ++i) {
+			final long seed = i;
+			workers[i] = new Thread(new Runnable() {
+				public void run() {
+					soak(new Random(seed));
+				}
+			}, "GenerateNumber-soak-" + i);
+			workers[i].start();
+		}
+		Thread.sleep(unit.toMillis(duration));
+		stopped = true;
+		for (final Thread worker : workers) {
+			worker.join();
+		}
+		verifier.finish();
+		return result;
+	}
+
+	/**
+	 * @return the names of the sequences the threads share
+	 */
+	public String[] getNames() {
+		return names.clone();
+	}
+
+	/**
+	 * @return the verifier the ranges handed out were added to
+	 */
+	public UniquenessVerifier getVerifier() {
+		return verifier;
+	}
+
+	/**
+	 * @return the number of formatted numbers which didn't parse back or
+	 *         overflow messages which were garbled
+	 */
+	public long getFormatMismatches() {
+		return formatMismatches.get();
+	}
+
+	/**
+	 * @return the number of format checks made
+	 */
+	public long getFormatChecks() {
+		return formatChecks.get();
+	}
+
+	private void soak(final Random random) {
+		long iteration = 0;
+		while (!stopped) {
+			final int kind = random.nextInt(10);
+			int size = kind < 7 ? 1 : 1 + random.nextInt(MAX_RANGE);
+			final long start = System.nanoTime();
+			TraceRecord.Outcome outcome = TraceRecord.Outcome.SUCCEEDED;
+			long value = -1;
+			try {
+				if (kind == 9 && generator instanceof MultiSequenceGenerator) {
+					final SortedMap<String, Integer> sizes = new TreeMap<String, Integer>();
+					sizes.put(names[random.nextInt(names.length)], Integer.valueOf(1));
+					sizes.put(names[random.nextInt(names.length)], Integer.valueOf(size));
+					final Map<String, NumberRange> ranges = ((MultiSequenceGenerator) generator).reserveRanges(session,
+							sizes);
+					size = 0;
+					for (final NumberRange range : ranges.values()) {
+						size += range.getSize();
+						value = range.getFirst();
+					}
+				} else {
+					value = generator.reserveRange(session, names[random.nextInt(names.length)], size).getFirst();
+				}
+			} catch (final SequenceGeneratorRejectedException e) {
+				outcome = TraceRecord.Outcome.REJECTED;
+			} catch (final SequenceObjectNotFoundException e) {
+				outcome = TraceRecord.Outcome.NOT_FOUND;
+			} catch (final SequenceGeneratorFailedException e) {
+				outcome = TraceRecord.Outcome.FAILED;
+			} catch (final DfException e) {
+				outcome = TraceRecord.Outcome.FAILED;
+			} catch (final RuntimeException e) {
+				outcome = TraceRecord.Outcome.FAILED;
+			}
+			result.record(outcome, size, 1, System.nanoTime() - start, 0);
+			if (value >= 0 && ++iteration % CHECK_EVERY == 0) {
+				checkFormats(value);
+			}
+		}
+	}
+
+	private void checkFormats(final long value) {
+		for (final String pattern : PATTERNS) {
+			final GeneratedNumberFormat format = GeneratedNumberFormat.compile(pattern);
+			formatChecks.incrementAndGet();
+			try {
+				if (format.parse(format.apply(value), -1) != value) {
+					formatMismatches.incrementAndGet();
+				}
+			} catch (final RuntimeException e) {
+				formatMismatches.incrementAndGet();
+			}
+		}
+		final long tooLarge = 100 + value;
+		formatChecks.incrementAndGet();
+		try {
+			GeneratedNumberFormat.compile(OVERFLOW_PATTERN).apply(tooLarge);
+			formatMismatches.incrementAndGet();
+		} catch (final GeneratedNumberFormatOverflowException e) {
+			if (!e.getMessage().equals(
+					"The CaseNumberFormat '" + OVERFLOW_PATTERN + "' can't handle the number '" + tooLarge + "'.")) {
+				formatMismatches.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Runs a soak from the command line and prints the result.
+	 * 
+	 * @param args
+	 *            the duration in seconds, optionally followed by the number
+	 *            of threads, the number of sequences and a configuration file
+	 * @throws Exception
+	 *             if the soak couldn't be run
+	 */
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: GeneratorSoak <seconds> [threads] [sequences] [configuration.properties]");
+			System.exit(2);
+		}
+		final long seconds = Long.parseLong(args[0]);
+		final int threads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+		final int sequences = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+		final SequenceGeneratorConfiguration config = WorkloadReplay.loadConfiguration(args.length > 3 ? args[3]
+				: null);
+		StandInRepository repository = null;
+		IDfSession session = null;
+		if (SequenceGeneratorConfiguration.BACKEND_REPOSITORY.equals(config.getString(
+				SequenceGeneratorConfiguration.BACKEND, null))) {
+			repository = new StandInRepository("soak");
+			session = repository.newSession();
+			session.beginTrans();
+		}
+		final RangeSequenceGenerator generator = new SequenceGeneratorFactory().create(config);
+		if (repository != null) {
+			SequenceGeneratorPipeline.findLayer(generator, RetrySequenceGenerator.class).setQueryFactory(repository);
+		}
+		final GeneratorSoak soak = new GeneratorSoak(generator, session, threads, sequences);
+		if (repository != null) {
+			for (final String name : soak.getNames()) {
+				repository.createNumberSequence(name, 1, 1);
+			}
+		}
+		final ReplayResult result = soak.run(seconds, TimeUnit.SECONDS);
+		final long failed = result.getRequests() - result.getCount(TraceRecord.Outcome.SUCCEEDED);
+		final StringBuilder sb = new StringBuilder();
+		sb.append("requests=").append(result.getRequests()).append(" failed=").append(failed);
+		sb.append(" values=").append(result.getValues());
+		sb.append(" throughput=").append(result.getRequests() / Math.max(1, seconds)).append("/s");
+		sb.append(" p50=").append(result.getLatencyPercentile(50) / 1000L).append("us");
+		sb.append(" p99=").append(result.getLatencyPercentile(99) / 1000L).append("us");
+		sb.append(" p99.9=").append(result.getLatencyPercentile(99.9) / 1000L).append("us");
+		sb.append(" max=").append(result.getMaxLatency() / 1000L).append("us");
+		sb.append(" formatChecks=").append(soak.getFormatChecks());
+		sb.append(" formatMismatches=").append(soak.getFormatMismatches());
+		System.out.println(sb);
+		System.out.println(soak.getVerifier());
+		if (repository != null) {
+			System.out.println(repository);
+		}
+		final boolean passed = soak.getVerifier().getDuplicates() == 0 && soak.getFormatMismatches() == 0
+				&& failed == 0;
+		System.exit(passed ? 0 : 1);
+	}
+}
@@ -0,0 +1,536 @@
+// ***************************************************************************
+// - - - - - - - - - - - - - D I S C L A I M E R - - - - - - - - - - - - - - -
+// By accepting this software ("Software"), you ("Customer") agree that
+// use of the Software is subject to the terms and conditions of the
+// software license agreement entered into between you and EMC,
+// except that (i) the Software is supplied on a strict "AS IS" basis,
+// without warranty of any kind or nature.  EMC DISCLAIMS ANY AND
+// ALL EXPRESS OR IMPLIED WARRANTIES RELATIVE TO THE SOFTWARE, INCLUDING,
+// WITHOUT LIMITATION, ANY IMPLIED WARRANTY OF MERCHANTABILITY OR FITNESS
+// FOR A PARTICULAR PURPOSE, and (ii) in no event shall EMC be liable
+// to Customer for any damages, whether direct, indirect, special,
+// incidental, consequential or punitive, which in any way arise out of or
+// relate to the Software, and (iii) EMC shall not provide support of
+// any kind for the Software. EMC retains title to all portions of
+// the Software and any copies thereof.
+//
+// This Software is not covered or supported under your software maintenance agreement.  
+// Do not contact EMC Technical Support or Consulting with
+// questions regarding the use or operation of this code.  
+// ****************************************************************************
+
+package com.emc.xcelerator.activities.generatenumbers.verify;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.documentum.fc.client.IDfCollection;
+import com.documentum.fc.client.IDfPersistentObject;
+import com.documentum.fc.client.IDfQuery;
+import com.documentum.fc.client.IDfSession;
+import com.documentum.fc.client.IDfSessionManager;
+import com.documentum.fc.common.DfException;
+import com.documentum.fc.common.DfId;
+import com.documentum.fc.common.IDfId;
+import com.emc.xcelerator.activities.generatenumbers.NumberSequenceObject;
+import com.emc.xcelerator.activities.generatenumbers.RetrySequenceGenerator;
+
+/**
+ * An in-memory stand-in for the repository, holding just enough of it for the
+ * repository backend to run without a Content Server. Number sequence objects
+ * can be created, fetched by id or by their name qualification, and read and
+ * updated by the statements the RetrySequenceGenerator issues: the SELECT of
+ * the number sequences with a given name and the UPDATE of current_value
+ * qualified by i_vstamp. Each UPDATE applies atomically to one object and
+ * bumps its version stamp, as it would in the database, so concurrent callers
+ * race on the version stamp like they do against a real repository.
+ * <p>
+ * Session managers, sessions, objects, queries and collections are dynamic
+ * proxies of the DFC interfaces. The repository is the query factory of the
+ * RetrySequenceGenerator it stands in for, see
+ * {@link RetrySequenceGenerator#setQueryFactory(RetrySequenceGenerator.QueryFactory)},
+ * so the generator's queries run here. Methods the generator doesn't call throw
+ * UnsupportedOperationException. Transactions are only flagged, nothing is
+ * isolated or rolled back, which is enough for a session in a transaction to
+ * send calls through the OutOfTransactionDecoratorSequenceGenerator.
+ * 
+ * Copyright (c) 1994 - 2010. EMC Corporation. All Rights Reserved.
+ */
+public class StandInRepository implements RetrySequenceGenerator.QueryFactory {
+
+	/**
+	 * The type number sequences are created as.
+	 */
+	public static final String						NUMBER_SEQUENCE_TYPE	= "numgen_number_sequence";
+
+	private static final String						R_OBJECT_ID				= "r_object_id";
+	private static final String						R_OBJECT_TYPE			= "r_object_type";
+	private static final String						OBJECT_NAME				= "object_name";
+	private static final String						I_VSTAMP				= "i_vstamp";
+	private static final String						CURRENT_VALUE			= "current_value";
+	private static final String						OBJECTS_UPDATED			= "objects_updated";
+
+	private static final Pattern					QUALIFICATION			= Pattern.compile(
+																					"(\\w+) where object_name = '((?:[^']|'')*)'",
+																					Pattern.CASE_INSENSITIVE);
+	private static final Pattern					UPDATE					= Pattern.compile(
+																					"UPDATE (\\w+) OBJECTS SET current_value = (-?\\d+) WHERE r_object_id = '(\\w+)' AND i_vstamp = (-?\\d+)",
+																					Pattern.CASE_INSENSITIVE);
+	private static final Pattern					SELECT					= Pattern.compile(
+																					"SELECT (.+?) FROM (\\w+) WHERE object_name (?:= '((?:[^']|'')*)'|IN \\((.*)\\))(?: ORDER BY r_object_id)?",
+																					Pattern.CASE_INSENSITIVE);
+	private static final Pattern					QUOTED					= Pattern.compile("'((?:[^']|'')*)'");
+
+	private final String							docbaseName;
+	private final ConcurrentSkipListMap<String, Row>	rows					= new ConcurrentSkipListMap<String, Row>();
+	private final AtomicLong						nextId					= new AtomicLong();
+	private final AtomicLong						updates					= new AtomicLong();
+	private final AtomicLong						conflicts				= new AtomicLong();
+	private final IDfSessionManager					sessionManager;
+
+	/**
+	 * Creates a new, empty StandInRepository.
+	 * 
+	 * @param docbaseName
+	 *            the name the sessions report as their docbase
+	 */
+	public StandInRepository(final String docbaseName) {
+		this.docbaseName = docbaseName;
+		this.sessionManager = (IDfSessionManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { IDfSessionManager.class }, new InvocationHandler() {
+					public Object invoke(final Object proxy, final Method method, final Object[] args)
+							throws Throwable {
+						final String name = method.getName();
+						if (name.equals("newSession") || name.equals("getSession")) {
+							if (!StandInRepository.this.docbaseName.equals(args[0])) {
+								throw new DfException("Unknown docbase '" + args[0] + "'.");
+							}
+							return newSession();
+						}
+						if (name.equals("release")) {
+							return null;
+						}
+						return objectMethod(proxy, method, args);
+					}
+				});
+	}
+
+	/**
+	 * @return the session manager handing out sessions of this repository
+	 */
+	public IDfSessionManager getSessionManager() {
+		return sessionManager;
+	}
+
+	/**
+	 * @return a new session, not in a transaction
+	 */
+	public IDfSession newSession() {
+		return (IDfSession) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { IDfSession.class }, new SessionHandler());
+	}
+
+	/**
+	 * @return a new query, run against this repository whatever session it is
+	 *         executed with
+	 */
+	public IDfQuery newQuery() {
+		return (IDfQuery) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IDfQuery.class },
+				new QueryHandler());
+	}
+
+	/**
+	 * Creates and saves a number sequence.
+	 * 
+	 * @param name
+	 *            the name of the number sequence
+	 * @param currentValue
+	 *            the initial current value
+	 * @param incrementAmount
+	 *            the increment amount
+	 * @throws DfException
+	 *             if the number sequence couldn't be saved
+	 */
+	public void createNumberSequence(final String name, final int currentValue, final int incrementAmount)
+			throws DfException {
+		NumberSequenceObject.create(newSession(), NUMBER_SEQUENCE_TYPE, name, currentValue, incrementAmount);
+	}
+
+	/**
+	 * @return the number of conditional updates which were applied
+	 */
+	public long getUpdates() {
+		return updates.get();
+	}
+
+	/**
+	 * @return the number of conditional updates which found the version stamp
+	 *         changed
+	 */
+	public long getConflicts() {
+		return conflicts.get();
+	}
+
+	@Override
+	public String toString() {
+		return "StandInRepository[objects=" + rows.size() + ", updates=" + updates.get() + ", conflicts="
+				+ conflicts.get() + "]";
+	}
+
+	private IDfPersistentObject getObjectByQualification(final String qualification) throws DfException {
+		final Matcher m = QUALIFICATION.matcher(qualification);
+		if (!m.matches()) {
+			throw new DfException("Qualification not supported by the stand-in repository: " + qualification);
+		}
+		final String name = unquote(m.group(2));
+		for (final Map.Entry<String, Row> entry : rows.entrySet()) {
+			if (entry.getValue().is(m.group(1), name)) {
+				return newObject(entry.getKey(), entry.getValue().read());
+			}
+		}
+		return null;
+	}
+
+	private IDfPersistentObject getObject(final IDfId objectId) throws DfException {
+		final Row row = rows.get(objectId.getId());
+		if (row == null) {
+			throw new DfException("Bad ID given: " + objectId.getId());
+		}
+		return newObject(objectId.getId(), row.read());
+	}
+
+	private IDfPersistentObject newObject(final String typeName) {
+		final String objectId = String.format("09%014x", Long.valueOf(nextId.incrementAndGet()));
+		final Map<String, String> attributes = new HashMap<String, String>();
+		attributes.put(R_OBJECT_ID, objectId);
+		attributes.put(R_OBJECT_TYPE, typeName);
+		attributes.put(I_VSTAMP, "0");
+		return newObject(objectId, attributes);
+	}
+
+	private IDfPersistentObject newObject(final String objectId, final Map<String, String> attributes) {
+		return (IDfPersistentObject) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { IDfPersistentObject.class }, new PersistentObjectHandler(objectId, attributes));
+	}
+
+	private IDfCollection execute(final String dql) throws DfException {
+		Matcher m = UPDATE.matcher(dql);
+		if (m.matches()) {
+			final Row row = rows.get(m.group(3));
+			boolean updated = false;
+			if (row != null && row.is(m.group(1), null)) {
+				updated = row.compareAndSet(Integer.parseInt(m.group(4)), CURRENT_VALUE, m.group(2));
+				(updated ? updates : conflicts).incrementAndGet();
+			}
+			return newCollection(Collections.singletonList(Collections.singletonMap(OBJECTS_UPDATED, updated ? "1"
+					: "0")));
+		}
+		m = SELECT.matcher(dql);
+		if (m.matches()) {
+			final List<String> names = new ArrayList<String>();
+			if (m.group(3) != null) {
+				names.add(unquote(m.group(3)));
+			} else {
+				final Matcher quoted = QUOTED.matcher(m.group(4));
+				while (quoted.find()) {
+					names.add(unquote(quoted.group(1)));
+				}
+			}
+			final String[] selected = m.group(1).split(",\\s*");
+			final List<Map<String, String>> result = new ArrayList<Map<String, String>>();
+			for (final Row row : rows.values()) {
+				final Map<String, String> attributes = row.read();
+				if (row.is(m.group(2), null) && names.contains(attributes.get(OBJECT_NAME))) {
+					final Map<String, String> columns = new HashMap<String, String>();
+					for (final String column : selected) {
+						columns.put(column, attributes.get(column));
+					}
+					result.add(columns);
+				}
+			}
+			return newCollection(result);
+		}
+		throw new DfException("Statement not supported by the stand-in repository: " + dql);
+	}
+
+	private IDfCollection newCollection(final List<Map<String, String>> result) {
+		return (IDfCollection) Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { IDfCollection.class }, new CollectionHandler(result.iterator()));
+	}
+
+	private static String unquote(final String value) {
+		return value.replace("''", "'");
+	}
+
+	private static Object objectMethod(final Object proxy, final Method method, final Object[] args) {
+		final String name = method.getName();
+		if (name.equals("equals")) {
+			return Boolean.valueOf(proxy == args[0]);
+		}
+		if (name.equals("hashCode")) {
+			return Integer.valueOf(System.identityHashCode(proxy));
+		}
+		if (name.equals("toString")) {
+			return proxy.getClass().getInterfaces()[0].getSimpleName() + "@"
+					+ Integer.toHexString(System.identityHashCode(proxy));
+		}
+		throw new UnsupportedOperationException(method.getDeclaringClass().getSimpleName() + "." + name
+				+ " isn't supported by the stand-in repository.");
+	}
+
+	/**
+	 * A saved object: its attributes and version stamp.
+	 */
+	private static final class Row {
+
+		private final Map<String, String>	attributes;
+		private int							vstamp;
+
+		Row(final Map<String, String> attributes) {
+			this.attributes = new HashMap<String, String>(attributes);
+			this.attributes.remove(I_VSTAMP);
+		}
+
+		synchronized boolean is(final String typeName, final String objectName) {
+			return attributes.get(R_OBJECT_TYPE).equals(typeName)
+					&& (objectName == null || objectName.equals(attributes.get(OBJECT_NAME)));
+		}
+
+		synchronized Map<String, String> read() {
+			final Map<String, String> copy = new HashMap<String, String>(attributes);
+			copy.put(I_VSTAMP, String.valueOf(vstamp));
+			return copy;
+		}
+
+		synchronized int save(final int expectedVStamp, final Map<String, String> values) throws DfException {
+			if (vstamp != expectedVStamp) {
+				throw new DfException("[DM_OBJ_MGR_E_VERSION_MISMATCH]version mismatch on save of object "
+						+ attributes.get(R_OBJECT_ID));
+			}
+			attributes.putAll(values);
+			attributes.remove(I_VSTAMP);
+			return ++vstamp;
+		}
+
+		synchronized boolean compareAndSet(final int expectedVStamp, final String attribute, final String value) {
+			if (vstamp != expectedVStamp) {
+				return false;
+			}
+			attributes.put(attribute, value);
+			++vstamp;
+			return true;
+		}
+	}
+
+	/**
+	 * The attribute access shared by objects and collections.
+	 */
+	private abstract static class TypedObjectHandler implements InvocationHandler {
+
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if (name.equals("getString")) {
+				return get((String) args[0]);
+			}
+			if (name.equals("getInt")) {
+				return Integer.valueOf(get((String) args[0]));
+			}
+			if (name.equals("getLong")) {
+				return Long.valueOf(get((String) args[0]));
+			}
+			if (name.equals("getId")) {
+				return new DfId(get((String) args[0]));
+			}
+			if (name.equals("getObjectId")) {
+				return new DfId(get(R_OBJECT_ID));
+			}
+			if (name.equals("setString")) {
+				attributes().put((String) args[0], (String) args[1]);
+				return null;
+			}
+			if (name.equals("setInt")) {
+				attributes().put((String) args[0], String.valueOf(args[1]));
+				return null;
+			}
+			return invokeOther(proxy, method, args);
+		}
+
+		private String get(final String attribute) throws DfException {
+			final String value = attributes().get(attribute);
+			if (value == null) {
+				throw new DfException("Attribute '" + attribute + "' isn't available.");
+			}
+			return value;
+		}
+
+		protected abstract Map<String, String> attributes() throws DfException;
+
+		protected abstract Object invokeOther(Object proxy, Method method, Object[] args) throws Throwable;
+	}
+
+	/**
+	 * A fetched or new object, saved back to its row.
+	 */
+	private final class PersistentObjectHandler extends TypedObjectHandler {
+
+		private final String		objectId;
+		private Map<String, String>	attributes;
+
+		PersistentObjectHandler(final String objectId, final Map<String, String> attributes) {
+			this.objectId = objectId;
+			this.attributes = attributes;
+		}
+
+		@Override
+		protected Map<String, String> attributes() {
+			return attributes;
+		}
+
+		@Override
+		protected Object invokeOther(final Object proxy, final Method method, final Object[] args)
+				throws Throwable {
+			final String name = method.getName();
+			if (name.equals("getVStamp")) {
+				return Integer.valueOf(attributes.get(I_VSTAMP));
+			}
+			if (name.equals("save")) {
+				final Row row = rows.get(objectId);
+				if (row == null) {
+					if (rows.putIfAbsent(objectId, new Row(attributes)) != null) {
+						throw new DfException("Object " + objectId + " was saved concurrently.");
+					}
+				} else {
+					attributes.put(I_VSTAMP, String.valueOf(row.save(Integer.parseInt(attributes.get(I_VSTAMP)),
+							attributes)));
+				}
+				return null;
+			}
+			if (name.equals("revert") || name.equals("fetch")) {
+				final Row row = rows.get(objectId);
+				if (row != null) {
+					attributes = row.read();
+				}
+				return name.equals("fetch") ? Boolean.TRUE : null;
+			}
+			if (name.equals("destroy")) {
+				rows.remove(objectId);
+				return null;
+			}
+			return objectMethod(proxy, method, args);
+		}
+	}
+
+	/**
+	 * The rows of a query result.
+	 */
+	private static final class CollectionHandler extends TypedObjectHandler {
+
+		private final Iterator<Map<String, String>>	result;
+		private Map<String, String>					current;
+
+		CollectionHandler(final Iterator<Map<String, String>> result) {
+			this.result = result;
+		}
+
+		@Override
+		protected Map<String, String> attributes() throws DfException {
+			if (current == null) {
+				throw new DfException("The collection isn't positioned on a row.");
+			}
+			return current;
+		}
+
+		@Override
+		protected Object invokeOther(final Object proxy, final Method method, final Object[] args) {
+			final String name = method.getName();
+			if (name.equals("next")) {
+				current = result.hasNext() ? result.next() : null;
+				return Boolean.valueOf(current != null);
+			}
+			if (name.equals("close")) {
+				current = null;
+				return null;
+			}
+			return objectMethod(proxy, method, args);
+		}
+	}
+
+	/**
+	 * A session, which only flags whether it is in a transaction.
+	 */
+	private final class SessionHandler implements InvocationHandler {
+
+		private volatile boolean	transactionActive;
+
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if (name.equals("getObjectByQualification")) {
+				return getObjectByQualification((String) args[0]);
+			}
+			if (name.equals("getObject")) {
+				return getObject((IDfId) args[0]);
+			}
+			if (name.equals("newObject")) {
+				return newObject((String) args[0]);
+			}
+			if (name.equals("isTransactionActive")) {
+				return Boolean.valueOf(transactionActive);
+			}
+			if (name.equals("beginTrans")) {
+				if (transactionActive) {
+					throw new DfException("A transaction is already active.");
+				}
+				transactionActive = true;
+				return null;
+			}
+			if (name.equals("commitTrans") || name.equals("abortTrans")) {
+				transactionActive = false;
+				return null;
+			}
+			if (name.equals("getSessionManager")) {
+				return sessionManager;
+			}
+			if (name.equals("getDocbaseName")) {
+				return docbaseName;
+			}
+			if (name.equals("getLoginUserName")) {
+				return "standin";
+			}
+			return objectMethod(proxy, method, args);
+		}
+	}
+
+	/**
+	 * A query, executed against the rows whatever session it is given.
+	 */
+	private final class QueryHandler implements InvocationHandler {
+
+		private String	dql;
+
+		public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+			final String name = method.getName();
+			if (name.equals("setDQL")) {
+				dql = (String) args[0];
+				return null;
+			}
+			if (name.equals("getDQL")) {
+				return dql;
+			}
+			if (name.equals("execute")) {
+				return execute(dql);
+			}
+			return objectMethod(proxy, method, args);
+		}
+	}
+}